@@ -13,6 +13,8 @@ import com.huaweicloud.dis.agent.config.ConfigurationException;
 import com.huaweicloud.dis.agent.metrics.Metrics;
 import com.huaweicloud.dis.agent.tailing.FileFlow;
 import com.huaweicloud.dis.agent.tailing.FileTailer;
+import com.huaweicloud.dis.agent.tailing.HashedTimerWheel;
+import com.huaweicloud.dis.agent.tailing.SendScheduler;
 import com.huaweicloud.dis.agent.tailing.checkpoints.FileCheckpointStore;
 import com.huaweicloud.dis.agent.tailing.checkpoints.SQLiteFileCheckpointStore;
 import org.slf4j.Logger;
@@ -199,7 +201,10 @@ public class Agent extends AbstractIdleService implements IHeartbeatProvider
     {
         this.agentContext = agentContext;
         this.sendingExecutorList = new ArrayList<>();
-        this.checkpoints = new SQLiteFileCheckpointStore(agentContext);
+        SQLiteFileCheckpointStore checkpointStore = new SQLiteFileCheckpointStore(agentContext);
+        this.checkpoints = checkpointStore;
+        // 重启后从检查点记录的同步点继续解压压缩文件
+        agentContext.getCompressedFileIndexes().setSyncPointStore(checkpointStore);
         this.heartbeat = new HeartbeatService(this.agentContext, 1, TimeUnit.SECONDS)
         {
             @Override
@@ -328,6 +333,10 @@ public class Agent extends AbstractIdleService implements IHeartbeatProvider
                 {
                     threadPoolExecutor.shutdown();
                 }
+                if (agentContext.getSendScheduler() != null)
+                {
+                    agentContext.getSendScheduler().shutdown();
+                }
                 // no more tasks are accepted, but current tasks will try to finish
                 // Waiting for them to finish up... this should take less than agentContext.shutdownTimeMillis() (see
                 // AsyncPublisher.getShutdownTimeMillis())
@@ -377,6 +386,34 @@ public class Agent extends AbstractIdleService implements IHeartbeatProvider
                         }
                     }
                 }
+                HashedTimerWheel bufferAgeTimer = agentContext.getBufferAgeTimer();
+                if (bufferAgeTimer != null)
+                {
+                    bufferAgeTimer.close();
+                }
+                SendScheduler sendScheduler = agentContext.getSendScheduler();
+                if (sendScheduler != null)
+                {
+                    List<Runnable> tasks = sendScheduler.shutdownNow();
+                    logger.debug("{}: There were {} scheduled send tasks that were not started due to shutdown.",
+                        serviceName(),
+                        tasks.size());
+                    long remaining =
+                        agentContext.shutdownTimeoutMillis() - shutdownTimer.elapsed(TimeUnit.MILLISECONDS);
+                    try
+                    {
+                        if (!sendScheduler.awaitTermination(Math.max(remaining, 0), TimeUnit.MILLISECONDS))
+                        {
+                            logger.info("{}: Not all executing send tasks finished cleanly by shutdown.",
+                                serviceName());
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        logger.debug("{}: Interrupted while waiting for send scheduler to shutdown.", serviceName());
+                    }
+                }
             }
             catch (Exception e)
             {
@@ -503,6 +540,19 @@ public class Agent extends AbstractIdleService implements IHeartbeatProvider
             }
         }
         metrics.put("Agent", globalMetrics(metrics));
+        if (agentContext.getSendScheduler() != null)
+        {
+            metrics.put("SendScheduler", agentContext.getSendScheduler().getMetrics());
+        }
+        if (agentContext.getBufferAgeTimer() != null)
+        {
+            metrics.put("BufferAgeTimer", agentContext.getBufferAgeTimer().getMetrics());
+        }
+        if (agentContext.parserChunkPoolSize() > 0)
+        {
+            // Shared by all the flows, so reported once rather than by each parser
+            metrics.put("ParserChunkPool", agentContext.getParserChunkPool().getMetrics());
+        }
         return metrics;
     }
     
@@ -11,8 +11,12 @@ import com.huaweicloud.dis.agent.metrics.IMetricsContext;
 import com.huaweicloud.dis.agent.metrics.IMetricsScope;
 import com.huaweicloud.dis.agent.metrics.Metrics;
 import com.huaweicloud.dis.agent.processing.utils.EncryptTool;
+import com.huaweicloud.dis.agent.tailing.CompressedFileIndexes;
 import com.huaweicloud.dis.agent.tailing.FileFlow;
 import com.huaweicloud.dis.agent.tailing.FileFlowFactory;
+import com.huaweicloud.dis.agent.tailing.HashedTimerWheel;
+import com.huaweicloud.dis.agent.tailing.ParserChunkPool;
+import com.huaweicloud.dis.agent.tailing.SendScheduler;
 import com.huaweicloud.dis.core.DISCredentials;
 import lombok.Getter;
 import org.slf4j.Logger;
@@ -23,6 +27,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -50,6 +55,14 @@ public class AgentContext extends AgentConfiguration implements IMetricsContext
     
     private IMetricsContext metrics;
     
+    private ParserChunkPool parserChunkPool;
+    
+    private SendScheduler sendScheduler;
+    
+    private HashedTimerWheel bufferAgeTimer;
+    
+    private CompressedFileIndexes compressedFileIndexes;
+    
     @Getter
     private final DISCredentials credentials;
 
@@ -119,6 +132,36 @@ public class AgentContext extends AgentConfiguration implements IMetricsContext
         return tp;
     }
     
+    /**
+     * @return A new instance of a threadpool executor for converting the records of the given flow in parallel. Its
+     *         queue is unbounded, as each parser of the flow bounds the batches it submits.
+     */
+    public ThreadPoolExecutor createFlowConversionExecutor(FileFlow<?> fileFlow)
+    {
+        ThreadFactory threadFactory =
+            new ThreadFactoryBuilder().setNameFormat("converter-%03d-" + fileFlow.getId()).setDaemon(true).build();
+        ThreadPoolExecutor tp = new ThreadPoolExecutor(fileFlow.getConversionThreads(),
+            fileFlow.getConversionThreads(), sendingThreadsKeepAliveMillis(), TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        tp.allowCoreThreadTimeOut(true);
+        return tp;
+    }
+    
+    /**
+     * @return A new instance of a threadpool executor for tailing the files of the given flow concurrently.
+     */
+    public ThreadPoolExecutor createFlowTailingExecutor(FileFlow<?> fileFlow)
+    {
+        ThreadFactory threadFactory =
+            new ThreadFactoryBuilder().setNameFormat("tailer-%03d-" + fileFlow.getId()).setDaemon(true).build();
+        ThreadPoolExecutor tp = new ThreadPoolExecutor(fileFlow.getMaxConcurrentFiles(),
+            fileFlow.getMaxConcurrentFiles(), sendingThreadsKeepAliveMillis(), TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(fileFlow.getMaxConcurrentFiles()), threadFactory,
+            new ThreadPoolExecutor.AbortPolicy());
+        tp.allowCoreThreadTimeOut(true);
+        return tp;
+    }
+    
     public synchronized DIS getDISClient()
     {
         if (disClient == null)
@@ -137,6 +180,57 @@ public class AgentContext extends AgentConfiguration implements IMetricsContext
         return disClientAsync;
     }
     
+    /**
+     * @return The pool of parser chunks shared by all the flows of this agent.
+     */
+    public synchronized ParserChunkPool getParserChunkPool()
+    {
+        if (parserChunkPool == null)
+        {
+            parserChunkPool = new ParserChunkPool(parserChunkPoolSize(), parserChunkPoolDirect());
+        }
+        return parserChunkPool;
+    }
+    
+    /**
+     * @return The sync points of the compressed files tailed by all the flows of this agent.
+     */
+    public synchronized CompressedFileIndexes getCompressedFileIndexes()
+    {
+        if (compressedFileIndexes == null)
+        {
+            compressedFileIndexes = new CompressedFileIndexes();
+        }
+        return compressedFileIndexes;
+    }
+    
+    /**
+     * @return The scheduler running the sends of all the flows on the shared sending threads, or {@code null} if the
+     *         flows each send on their own threads.
+     */
+    public synchronized SendScheduler getSendScheduler()
+    {
+        if (sendScheduler == null && sendSchedulerEnabled())
+        {
+            sendScheduler =
+                new SendScheduler(createSendingExecutor(), sendSchedulerQuantumBytes(), sendingThreadsMaxQueueSize());
+        }
+        return sendScheduler;
+    }
+    
+    /**
+     * @return The timer flushing the buffers of all the flows once they reach their maximum age, or {@code null} if the
+     *         publishing queues check the age of their buffer themselves.
+     */
+    public synchronized HashedTimerWheel getBufferAgeTimer()
+    {
+        if (bufferAgeTimer == null && bufferAgeTimerEnabled())
+        {
+            bufferAgeTimer = new HashedTimerWheel(bufferAgeTimerTickMillis());
+        }
+        return bufferAgeTimer;
+    }
+    
     private synchronized IMetricsContext getMetricsContext()
     {
         if (metrics == null)
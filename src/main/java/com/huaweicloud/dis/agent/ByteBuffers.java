@@ -2,6 +2,7 @@ package com.huaweicloud.dis.agent;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.channels.IllegalBlockingModeException;
 import java.nio.channels.ReadableByteChannel;
@@ -16,6 +17,10 @@ public final class ByteBuffers
 {
     private static final int BUFFER_SIZE = 0x1000;
     
+    private static final long SWAR_LOW_BITS = 0x0101010101010101L;
+    
+    private static final long SWAR_HIGH_BITS_CLEAR = 0x7F7F7F7F7F7F7F7FL;
+    
     /**
      * @param input
      * @return the input string with tab, newline and carriage return characters converted to literals: {@code \t},
@@ -263,11 +268,45 @@ public final class ByteBuffers
     
     public static int advanceBufferToNextLine(ByteBuffer buffer, char delimiterChar)
     {
-        while (buffer.hasRemaining())
+        // A byte never equals a delimiter outside of [0, 127], as bytes are signed
+        int index = delimiterChar <= Byte.MAX_VALUE
+            ? indexOf(buffer, buffer.position(), buffer.limit(), (byte)delimiterChar) : -1;
+        if (index != -1)
+        {
+            buffer.position(index + 1);
+            return buffer.position();
+        }
+        buffer.position(buffer.limit());
+        return -1;
+    }
+    
+    /**
+     * Finds the first occurrence of a byte in {@code [from, to)}, reading eight bytes at a time and locating the byte
+     * in each word with bit tricks (SWAR) rather than comparing bytes one by one. The buffer's position is not modified.
+     *
+     * @return The absolute index of the first occurrence of {@code value}, or {@code -1} if there is none.
+     */
+    public static int indexOf(ByteBuffer buffer, int from, int to, byte value)
+    {
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long pattern = SWAR_LOW_BITS * (value & 0xFF);
+        int index = from;
+        for (; to - index >= Long.BYTES; index += Long.BYTES)
+        {
+            long word = buffer.getLong(index) ^ pattern;
+            // The high bit of each byte is set iff the byte is zero, i.e. equal to value, without false positives
+            long zeroBytes = ~(((word & SWAR_HIGH_BITS_CLEAR) + SWAR_HIGH_BITS_CLEAR) | word | SWAR_HIGH_BITS_CLEAR);
+            if (zeroBytes != 0)
+            {
+                return index + ((bigEndian ? Long.numberOfLeadingZeros(zeroBytes)
+                    : Long.numberOfTrailingZeros(zeroBytes)) >>> 3);
+            }
+        }
+        for (; index < to; ++index)
         {
-            if (buffer.get() == delimiterChar)
+            if (buffer.get(index) == value)
             {
-                return buffer.position();
+                return index;
             }
         }
         return -1;
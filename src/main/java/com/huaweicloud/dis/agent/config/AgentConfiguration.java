@@ -36,6 +36,12 @@ public class AgentConfiguration extends Configuration
     
     static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 10_000L;
     
+    static final int DEFAULT_PARSER_CHUNK_POOL_SIZE = 0;
+    
+    static final int DEFAULT_SEND_SCHEDULER_QUANTUM_BYTES = 256 * 1024;
+    
+    static final long DEFAULT_BUFFER_AGE_TIMER_TICK_MILLIS = 10L;
+    
     public static final String CONFIG_ACCESS_KEY = "ak";
     
     public static final String CONFIG_SECRET_KEY = "sk";
@@ -191,4 +197,52 @@ public class AgentConfiguration extends Configuration
     {
         return this.readString(CONFIG_ENDPOINT_KEY, null);
     }
+    
+    /**
+     * @return 所有通道共享的解析缓冲区池中最多保留的空闲缓冲区个数，0表示不复用缓冲区
+     */
+    public int parserChunkPoolSize()
+    {
+        return this.readInteger("parserChunkPoolSize", DEFAULT_PARSER_CHUNK_POOL_SIZE);
+    }
+    
+    /**
+     * @return 解析缓冲区是否使用堆外内存
+     */
+    public boolean parserChunkPoolDirect()
+    {
+        return this.readBoolean("parserChunkPoolDirect", false);
+    }
+    
+    /**
+     * @return 是否由所有通道共享的发送线程池按通道权重(sendWeight)轮流发送，避免单个通道占满连接
+     */
+    public boolean sendSchedulerEnabled()
+    {
+        return this.readBoolean("sendScheduler.enabled", false);
+    }
+    
+    /**
+     * @return 权重为1的通道每轮可发送的字节数
+     */
+    public int sendSchedulerQuantumBytes()
+    {
+        return this.readInteger("sendScheduler.quantumBytes", DEFAULT_SEND_SCHEDULER_QUANTUM_BYTES);
+    }
+    
+    /**
+     * @return 是否由所有通道共享的定时器在缓冲区达到maxBufferAgeMillis时准时发送，而不是定期检查缓冲区
+     */
+    public boolean bufferAgeTimerEnabled()
+    {
+        return this.readBoolean("bufferAgeTimer.enabled", false);
+    }
+    
+    /**
+     * @return 定时器的精度(毫秒)
+     */
+    public long bufferAgeTimerTickMillis()
+    {
+        return this.readLong("bufferAgeTimer.tickMillis", DEFAULT_BUFFER_AGE_TIMER_TICK_MILLIS);
+    }
 }
@@ -0,0 +1,74 @@
+package com.huaweicloud.dis.agent.processing.exceptions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Exception thrown by IDataConverter#convertBatch when records of the batch can't be converted. It holds the results
+ * of the records the converter went through, so that the caller goes on from the next record without converting them
+ * again.
+ */
+@SuppressWarnings("serial")
+public class BatchConversionException extends DataConversionException
+{
+    private final List<ByteBuffer> results;
+    
+    private final SortedMap<Integer, DataConversionException> failures;
+    
+    /**
+     * For a converter that stops at the failing record.
+     *
+     * @param converted The results of the records before the failing one
+     * @param cause The failure of the record
+     */
+    public BatchConversionException(List<ByteBuffer> converted, DataConversionException cause)
+    {
+        super(cause.getMessage(), cause);
+        this.results = new ArrayList<>(converted);
+        this.results.add(null);
+        this.failures = new TreeMap<>(Collections.singletonMap(converted.size(), cause));
+    }
+    
+    /**
+     * For a converter that goes on after the failing records.
+     *
+     * @param results The results of the records the converter went through, {@code null} for the failing ones
+     * @param failures The failures of the records, by their index in the batch, which must not be empty
+     */
+    public BatchConversionException(List<ByteBuffer> results, SortedMap<Integer, DataConversionException> failures)
+    {
+        super(failures.get(failures.firstKey()).getMessage(), failures.get(failures.firstKey()));
+        this.results = results;
+        this.failures = failures;
+    }
+    
+    /**
+     * @return The results of the records before the first failing one, i.e. the index of the failing record is the
+     *         size of the list
+     */
+    public List<ByteBuffer> getConverted()
+    {
+        return results.subList(0, failures.firstKey());
+    }
+    
+    /**
+     * @return The results of the records the converter went through, including the failing ones whose result is
+     *         {@code null}: the caller goes on from the record at the size of the list
+     */
+    public List<ByteBuffer> getResults()
+    {
+        return results;
+    }
+    
+    /**
+     * @return The failures of the records, by their index in the batch
+     */
+    public SortedMap<Integer, DataConversionException> getFailures()
+    {
+        return failures;
+    }
+}
@@ -1,7 +1,12 @@
 package com.huaweicloud.dis.agent.processing.interfaces;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import com.huaweicloud.dis.agent.processing.exceptions.BatchConversionException;
 import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
 
 /**
@@ -21,4 +26,45 @@ public interface IDataConverter
      */
     public ByteBuffer convert(ByteBuffer data)
         throws DataConversionException;
+    
+    /**
+     * Convert a batch of records, e.g. the records split from a chunk of a file, so that the cost of a call can be
+     * amortized over the batch. By default the records are converted one by one with {@link #convert(ByteBuffer)}.
+     * <p>
+     * A converter chain calls it on the converters that implement it, with the records left by the previous
+     * converters, and converts the records one by one through the other ones. The results must stay valid once the call
+     * returns, i.e. they must not be views of the {@link com.huaweicloud.dis.agent.processing.utils.RecordOutput}s of
+     * the current thread.
+     *
+     * @param data Source data of the records, which must not be modified
+     * @return The processed data of each record, in the same order, {@code null} for the records filtered out
+     * @throws BatchConversionException If records can't be converted, with the results of the records before them
+     * @throws DataConversionException If the batch can't be converted; the caller may convert the records one by one
+     *             to handle the failing ones
+     */
+    public default List<ByteBuffer> convertBatch(List<ByteBuffer> data)
+        throws DataConversionException
+    {
+        List<ByteBuffer> results = new ArrayList<>(data.size());
+        for (ByteBuffer record : data)
+        {
+            try
+            {
+                results.add(convert(record));
+            }
+            catch (DataConversionException e)
+            {
+                throw new BatchConversionException(results, e);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * @return The metrics of the converter, keyed like the other agent metrics
+     */
+    public default Map<String, Object> getMetrics()
+    {
+        return Collections.emptyMap();
+    }
 }
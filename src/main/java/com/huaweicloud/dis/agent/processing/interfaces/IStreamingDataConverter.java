@@ -0,0 +1,41 @@
+package com.huaweicloud.dis.agent.processing.interfaces;
+
+import java.nio.ByteBuffer;
+
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
+
+/**
+ * A converter that writes the converted record straight into a reusable {@link RecordOutput}, so that a chain of
+ * converters doesn't copy the record between them.
+ */
+public interface IStreamingDataConverter extends IDataConverter
+{
+    
+    /**
+     * Convert data from source to any other format, into an output acquired with
+     * {@link RecordOutput#acquire(ByteBuffer)}
+     *
+     * @param data Source data
+     * @return The output holding the processed data, or {@code null} if the record is filtered out
+     * @throws DataConversionException
+     */
+    public RecordOutput convertTo(ByteBuffer data)
+        throws DataConversionException;
+    
+    /**
+     * Convert data as part of a chain of converters. The result may be a view of an output acquired with
+     * {@link RecordOutput#acquire(ByteBuffer)}, or the source data itself if the converter left it untouched: the
+     * chain detaches the final result (see {@link RecordOutput#detach(ByteBuffer)}).
+     *
+     * @param data Source data
+     * @return The processed data, or {@code null} if the record is filtered out
+     * @throws DataConversionException
+     */
+    public default ByteBuffer convertInChain(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = convertTo(data);
+        return output == null ? null : output.view();
+    }
+}
@@ -0,0 +1,198 @@
+package com.huaweicloud.dis.agent.processing.parsers;
+
+/**
+ * Extractor of the fields of the Apache common log and combined log formats (see
+ * {@link ApacheLogParser#COMMON_APACHE_LOG_ENTRY_PATTERN} and {@link ApacheLogParser#COMBINED_APACHE_LOG_ENTRY_PATTERN}).
+ */
+class ApacheLogFieldExtractor extends FieldExtractor
+{
+    private final boolean combined;
+    
+    ApacheLogFieldExtractor(boolean combined)
+    {
+        this.combined = combined;
+    }
+    
+    @Override
+    int getFieldCount()
+    {
+        return combined ? ApacheLogParser.COMBINED_LOG_FIELDS.size() : ApacheLogParser.COMMON_LOG_FIELDS.size();
+    }
+    
+    @Override
+    boolean extract(String entry, int[] bounds)
+    {
+        // host ident authuser [datetime] "request" response bytes
+        int end = entry.indexOf(' ');
+        if (end <= 0 || !(isHostname(entry, 0, end) || isIp(entry, 0, end)))
+        {
+            return false;
+        }
+        setField(bounds, 0, 0, end);
+        int pos = end + 1;
+        for (int field = 1; field <= 2; field++)
+        {
+            end = skipUser(entry, pos);
+            if (end == pos || !charAt(entry, end, ' '))
+            {
+                return false;
+            }
+            setField(bounds, field, pos, end);
+            pos = end + 1;
+        }
+        if (!charAt(entry, pos, '['))
+        {
+            return false;
+        }
+        end = parseHttpDate(entry, ++pos);
+        if (end < 0 || !charAt(entry, end, ']') || !charAt(entry, end + 1, ' '))
+        {
+            return false;
+        }
+        setField(bounds, 3, pos, end);
+        pos = end + 2;
+        end = parseQuoted(entry, pos);
+        if (end < 0 || !charAt(entry, end, ' '))
+        {
+            return false;
+        }
+        setField(bounds, 4, pos + 1, end - 1);
+        pos = end + 1;
+        end = parseIntOrDash(entry, pos);
+        if (end < 0 || !charAt(entry, end, ' '))
+        {
+            return false;
+        }
+        setField(bounds, 5, pos, end);
+        pos = end + 1;
+        end = parseIntOrDash(entry, pos);
+        if (end < 0)
+        {
+            return false;
+        }
+        setField(bounds, 6, pos, end);
+        pos = end;
+        if (combined)
+        {
+            // "referer" "agent"
+            for (int field = 7; field <= 8; field++)
+            {
+                if (!charAt(entry, pos, ' '))
+                {
+                    return false;
+                }
+                end = parseQuoted(entry, ++pos);
+                if (end < 0)
+                {
+                    return false;
+                }
+                setField(bounds, field, pos + 1, end - 1);
+                pos = end;
+            }
+        }
+        // Whatever follows is matched by .*
+        return !hasLineTerminator(entry, pos);
+    }
+    
+    /**
+     * {@link PatternConstants#HOSTNAME}
+     */
+    private static boolean isHostname(String entry, int from, int to)
+    {
+        int labelLength = 0;
+        for (int i = from; i < to; i++)
+        {
+            char c = entry.charAt(i);
+            if (isWordChar(c) || c == '-')
+            {
+                labelLength++;
+            }
+            else if (c == '.' && labelLength > 0)
+            {
+                labelLength = 0;
+                if (i == to - 1)
+                {
+                    // Trailing dot
+                    return true;
+                }
+            }
+            else
+            {
+                return false;
+            }
+        }
+        return labelLength > 0;
+    }
+    
+    /**
+     * {@link PatternConstants#IP}
+     */
+    private static boolean isIp(String entry, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            char c = entry.charAt(i);
+            if (!(isDigit(c) || c == '.'))
+            {
+                return false;
+            }
+        }
+        return to > from;
+    }
+    
+    /**
+     * {@link PatternConstants#HTTPDATE}
+     */
+    private static int parseHttpDate(String entry, int from)
+    {
+        int end = parseMonthDay(entry, from);
+        if (end < 0 || !charAt(entry, end, '/'))
+        {
+            return -1;
+        }
+        end = parseMonth(entry, end + 1);
+        if (end < 0 || !charAt(entry, end, '/'))
+        {
+            return -1;
+        }
+        // Year: [1-9]\d*
+        int pos = end + 1;
+        end = skipDigits(entry, pos);
+        if (end == pos || entry.charAt(pos) == '0' || !charAt(entry, end, ':'))
+        {
+            return -1;
+        }
+        end = parseTime(entry, end + 1);
+        if (end < 0 || end >= entry.length() || !isWhitespace(entry.charAt(end)))
+        {
+            return -1;
+        }
+        return parseInt(entry, end + 1);
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#NOQUOTE} enclosed in double quotes, or {@code -1}.
+     */
+    private static int parseQuoted(String entry, int from)
+    {
+        if (!charAt(entry, from, '"'))
+        {
+            return -1;
+        }
+        int closingQuote = entry.indexOf('"', from + 1);
+        return closingQuote > from + 1 ? closingQuote + 1 : -1;
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#INT} or a dash, or {@code -1}.
+     */
+    private static int parseIntOrDash(String entry, int from)
+    {
+        int end = parseInt(entry, from);
+        if (end < 0 && charAt(entry, from, '-'))
+        {
+            end = from + 1;
+        }
+        return end;
+    }
+}
@@ -52,7 +52,12 @@ public class ApacheLogParser extends BaseLogParser
         {
             fields = getFields();
         }
-        final Map<String, Object> recordMap = new LinkedHashMap<String, Object>();
+        Map<String, Object> recordMap = extractFields(record, fields);
+        if (recordMap != null)
+        {
+            return recordMap;
+        }
+        recordMap = new LinkedHashMap<String, Object>();
         Matcher matcher = logEntryPattern.matcher(record);
         
         if (!matcher.matches())
@@ -67,19 +72,29 @@ public class ApacheLogParser extends BaseLogParser
         
         for (int i = 0; i < fields.size(); i++)
         {
-            String value = matcher.group(i + 1);
-            
-            // the field is not found if it shows as "-"
-            if (value != null && value.equals("-"))
-            {
-                value = null;
-            }
-            recordMap.put(fields.get(i), value);
+            recordMap.put(fields.get(i), toFieldValue(matcher.group(i + 1)));
         }
         
         return recordMap;
     }
     
+    @Override
+    protected Object toFieldValue(String value)
+    {
+        // the field is not found if it shows as "-"
+        if (value != null && value.equals("-"))
+        {
+            return null;
+        }
+        return value;
+    }
+    
+    @Override
+    protected boolean isAbsentValue(String record, int start, int end)
+    {
+        return end - start == 1 && record.charAt(start) == '-';
+    }
+    
     protected void initializeByDefaultFormat(ProcessingUtilsFactory.LogFormat format)
     {
         switch (format)
@@ -87,10 +102,12 @@ public class ApacheLogParser extends BaseLogParser
             case COMMONAPACHELOG:
                 this.logEntryPattern = COMMON_APACHE_LOG_ENTRY_PATTERN;
                 this.fields = COMMON_LOG_FIELDS;
+                this.fieldExtractor = new ApacheLogFieldExtractor(false);
                 return;
             case COMBINEDAPACHELOG:
                 this.logEntryPattern = COMBINED_APACHE_LOG_ENTRY_PATTERN;
                 this.fields = COMBINED_LOG_FIELDS;
+                this.fieldExtractor = new ApacheLogFieldExtractor(true);
                 return;
             case APACHEERRORLOG:
                 this.logEntryPattern = APACHE_ERROR_LOG_ENTRY_PATTERN;
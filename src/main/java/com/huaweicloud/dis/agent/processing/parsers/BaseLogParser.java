@@ -1,9 +1,12 @@
 package com.huaweicloud.dis.agent.processing.parsers;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.huaweicloud.dis.agent.config.ConfigurationException;
 import com.huaweicloud.dis.agent.processing.exceptions.LogParsingException;
 import com.huaweicloud.dis.agent.processing.interfaces.ILogParser;
@@ -32,6 +35,34 @@ public abstract class BaseLogParser implements ILogParser
      */
     protected List<String> fields;
     
+    /**
+     * The hand-rolled extractor of the pre-defined format, used instead of the pattern whenever it accepts an entry
+     * <p>
+     * null if the format doesn't have one, or if a pattern is specified
+     */
+    protected FieldExtractor fieldExtractor;
+    
+    private static final ThreadLocal<int[]> BOUNDS = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[32];
+        }
+    };
+    
+    /**
+     * Receives a field written by {@link #writeFields(String, List, int[], JsonGenerator)}
+     */
+    private static final ThreadLocal<char[]> CHARS = new ThreadLocal<char[]>()
+    {
+        @Override
+        protected char[] initialValue()
+        {
+            return new char[256];
+        }
+    };
+    
     public BaseLogParser()
     {
     }
@@ -92,11 +123,121 @@ public abstract class BaseLogParser implements ILogParser
             throw new ConfigurationException("logPattern cannot be null");
         }
         this.logEntryPattern = Pattern.compile(pattern);
+        this.fieldExtractor = null;
     }
     
     @Override
     public abstract Map<String, Object> parseLogRecord(String record, List<String> fields)
         throws LogParsingException;
     
+    /**
+     * Extracts the fields of a log entry with the hand-rolled extractor of the format.
+     *
+     * @return The parsed record, or null if the entry must be parsed with the pattern
+     * @throws LogParsingException
+     */
+    protected Map<String, Object> extractFields(String record, List<String> fields)
+        throws LogParsingException
+    {
+        int[] bounds = locateFields(record, fields);
+        if (bounds == null)
+        {
+            return null;
+        }
+        final Map<String, Object> recordMap = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            int start = bounds[2 * i];
+            recordMap.put(fields.get(i), toFieldValue(start < 0 ? null : record.substring(start, bounds[2 * i + 1])));
+        }
+        return recordMap;
+    }
+    
+    /**
+     * Writes some fields of a log entry as a JSON object, straight from the entry located by the hand-rolled extractor
+     * of the format: only the written fields are copied out of the entry, and no parsed record is built.
+     *
+     * @param fields The names of the fields of the entry, which must be those of the parser
+     * @param fieldIndices The indices of the fields to write, in the order they are written
+     * @return {@code false} if nothing was written, i.e. if the entry must be parsed with
+     *         {@link #parseLogRecord(String, List)} instead
+     * @throws LogParsingException
+     */
+    public boolean writeFields(String record, List<String> fields, int[] fieldIndices, JsonGenerator generator)
+        throws LogParsingException, IOException
+    {
+        int[] bounds = locateFields(record, fields);
+        if (bounds == null)
+        {
+            return false;
+        }
+        generator.writeStartObject();
+        for (int i : fieldIndices)
+        {
+            generator.writeFieldName(fields.get(i));
+            int start = bounds[2 * i];
+            int end = bounds[2 * i + 1];
+            if (start < 0 || isAbsentValue(record, start, end))
+            {
+                generator.writeNull();
+            }
+            else
+            {
+                char[] chars = CHARS.get();
+                if (chars.length < end - start)
+                {
+                    chars = new char[Math.max(end - start, 2 * chars.length)];
+                    CHARS.set(chars);
+                }
+                record.getChars(start, end, chars, 0);
+                generator.writeString(chars, 0, end - start);
+            }
+        }
+        generator.writeEndObject();
+        return true;
+    }
+    
+    /**
+     * @return The bounds of the fields of the entry (see {@link FieldExtractor#extract(String, int[])}) in an array of
+     *         the current thread, valid until its next call, or null if the entry must be parsed with the pattern
+     */
+    private int[] locateFields(String record, List<String> fields)
+        throws LogParsingException
+    {
+        if (fieldExtractor == null)
+        {
+            return null;
+        }
+        if (fieldExtractor.getFieldCount() != fields.size())
+        {
+            throw new LogParsingException("The parsed fields don't match the given fields");
+        }
+        int[] bounds = BOUNDS.get();
+        if (bounds.length < fields.size() * 2)
+        {
+            bounds = new int[fields.size() * 2];
+            BOUNDS.set(bounds);
+        }
+        return fieldExtractor.extract(record, bounds) ? bounds : null;
+    }
+    
+    /**
+     * @return Whether the value of a field in the log entry stands for an absent value, i.e. is null in the parsed
+     *         record (see {@link #toFieldValue(String)})
+     */
+    protected boolean isAbsentValue(String record, int start, int end)
+    {
+        return false;
+    }
+    
+    /**
+     * @return The value of a field in the parsed record given its value in the log entry (null for an optional field
+     *         that is absent)
+     */
+    protected Object toFieldValue(String value)
+    {
+        return value;
+    }
+    
     protected abstract void initializeByDefaultFormat(ProcessingUtilsFactory.LogFormat format);
 }
@@ -0,0 +1,233 @@
+package com.huaweicloud.dis.agent.processing.parsers;
+
+/**
+ * Hand-rolled extractor locating the fields of a log entry of a pre-defined format, in a single pass and without
+ * copying them.
+ * <p>
+ * An extractor only accepts the entries that have the usual shape of the format and which it knows the pattern of the
+ * format (see {@link PatternConstants}) matches with the very same fields. Any other entry, including the invalid
+ * ones, is left to the pattern, so that extracting fields with or without an extractor gives the same results.
+ */
+abstract class FieldExtractor
+{
+    private static final String[] MONTHS = {"Jan", "January", "Feb", "February", "Mar", "March", "Apr", "April", "May",
+        "Jun", "June", "Jul", "July", "Aug", "August", "Sep", "September", "Oct", "October", "Nov", "November", "Dec",
+        "December"};
+    
+    private static final char NEXT_LINE = 0x85;
+    
+    private static final char LINE_SEPARATOR = 0x2028;
+    
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+    
+    /**
+     * @return The number of fields of an entry, i.e. the number of groups of the pattern of the format.
+     */
+    abstract int getFieldCount();
+    
+    /**
+     * Locates the fields of the given entry.
+     *
+     * @param entry The log entry
+     * @param bounds Receives the start (at {@code 2 * i}) and end (at {@code 2 * i + 1}) offsets of each field in the
+     *            entry, or {@code -1} for an optional field that is absent
+     * @return {@code false} if the entry must be parsed with the pattern instead
+     */
+    abstract boolean extract(String entry, int[] bounds);
+    
+    static void setField(int[] bounds, int field, int start, int end)
+    {
+        bounds[2 * field] = start;
+        bounds[2 * field + 1] = end;
+    }
+    
+    /**
+     * {@code \w} of a regex
+     */
+    static boolean isWordChar(char c)
+    {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+    
+    static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+    
+    /**
+     * {@code \s} of a regex
+     */
+    static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+    
+    /**
+     * @return {@code true} if {@code .} doesn't match the given character in a regex.
+     */
+    static boolean isLineTerminator(char c)
+    {
+        return c == '\n' || c == '\r' || c == NEXT_LINE || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR;
+    }
+    
+    /**
+     * @return {@code true} if the entry contains a character that {@code .} doesn't match in a regex from the given
+     *         offset on.
+     */
+    static boolean hasLineTerminator(String entry, int from)
+    {
+        for (int i = from; i < entry.length(); i++)
+        {
+            if (isLineTerminator(entry.charAt(i)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    static boolean charAt(String entry, int index, char c)
+    {
+        return index < entry.length() && entry.charAt(index) == c;
+    }
+    
+    static int skipDigits(String entry, int from)
+    {
+        int i = from;
+        while (i < entry.length() && isDigit(entry.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+    
+    static int skipWhitespaces(String entry, int from)
+    {
+        int i = from;
+        while (i < entry.length() && isWhitespace(entry.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+    
+    /**
+     * {@link PatternConstants#USER}
+     */
+    static int skipUser(String entry, int from)
+    {
+        int i = from;
+        while (i < entry.length())
+        {
+            char c = entry.charAt(i);
+            if (!(isWordChar(c) || c == '.' || c == '-'))
+            {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#INT} starting at the given offset, or {@code -1}.
+     */
+    static int parseInt(String entry, int from)
+    {
+        int i = from;
+        if (charAt(entry, i, '+') || charAt(entry, i, '-'))
+        {
+            i++;
+        }
+        int end = skipDigits(entry, i);
+        return end > i ? end : -1;
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#MONTH} starting at the given offset, or {@code -1}.
+     */
+    static int parseMonth(String entry, int from)
+    {
+        int end = from;
+        while (end < entry.length() && isWordChar(entry.charAt(end)))
+        {
+            end++;
+        }
+        for (String month : MONTHS)
+        {
+            if (month.length() == end - from && entry.regionMatches(from, month, 0, month.length()))
+            {
+                return end;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#MONTHDAY} starting at the given offset and followed by a non-digit,
+     *         or {@code -1}.
+     */
+    static int parseMonthDay(String entry, int from)
+    {
+        int end = skipDigits(entry, from);
+        if (end - from == 1)
+        {
+            return entry.charAt(from) != '0' ? end : -1;
+        }
+        if (end - from == 2)
+        {
+            char tens = entry.charAt(from);
+            char units = entry.charAt(from + 1);
+            boolean valid = tens == '0' ? units != '0' : tens == '1' || tens == '2' || tens == '3' && units <= '1';
+            return valid ? end : -1;
+        }
+        return -1;
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#TIME} starting at the given offset and followed by a character that
+     *         is neither a digit nor a separator of fractions of second, or {@code -1}.
+     */
+    static int parseTime(String entry, int from)
+    {
+        // Hour: 2[0123]|[01]?[0-9]
+        int end = skipDigits(entry, from);
+        if (end - from == 2)
+        {
+            char tens = entry.charAt(from);
+            if (!(tens == '0' || tens == '1' || tens == '2' && entry.charAt(from + 1) <= '3'))
+            {
+                return -1;
+            }
+        }
+        else if (end - from != 1)
+        {
+            return -1;
+        }
+        // Minute: [0-5][0-9]
+        int i = end + 1;
+        end = skipDigits(entry, i);
+        if (!charAt(entry, i - 1, ':') || end - i != 2 || entry.charAt(i) > '5')
+        {
+            return -1;
+        }
+        // Second: (?:[0-5]?[0-9]|60)(?:[:\.,][0-9]+)?
+        i = end + 1;
+        end = skipDigits(entry, i);
+        if (!charAt(entry, i - 1, ':') || end - i < 1 || end - i > 2
+            || end - i == 2 && entry.charAt(i) > '5' && !entry.startsWith("60", i))
+        {
+            return -1;
+        }
+        if (charAt(entry, end, ':') || charAt(entry, end, '.') || charAt(entry, end, ','))
+        {
+            int fractionEnd = skipDigits(entry, end + 1);
+            if (fractionEnd == end + 1)
+            {
+                return -1;
+            }
+            end = fractionEnd;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,192 @@
+package com.huaweicloud.dis.agent.processing.parsers;
+
+/**
+ * Extractor of the fields of the syslog formats (see {@link SysLogParser#BASE_SYSLOG_PATTERN} and
+ * {@link SysLogParser#RFC3339_SYSLOG_PATTERN}).
+ */
+class SysLogFieldExtractor extends FieldExtractor
+{
+    private final boolean rfc3339;
+    
+    SysLogFieldExtractor(boolean rfc3339)
+    {
+        this.rfc3339 = rfc3339;
+    }
+    
+    @Override
+    int getFieldCount()
+    {
+        return SysLogParser.SYSLOG_FIELDS.size();
+    }
+    
+    @Override
+    boolean extract(String entry, int[] bounds)
+    {
+        // timestamp [<facility> ]hostname program[[processid]]: message
+        int end = rfc3339 ? parseRfc3339(entry) : parseSyslogTimestamp(entry);
+        if (end < 0 || !charAt(entry, end, ' '))
+        {
+            return false;
+        }
+        setField(bounds, 0, 0, end);
+        int pos = end + 1;
+        if (charAt(entry, pos, '<'))
+        {
+            pos = skipFacility(entry, pos);
+            if (pos < 0)
+            {
+                return false;
+            }
+        }
+        end = skipUser(entry, pos);
+        if (end == pos || !charAt(entry, end, ' '))
+        {
+            return false;
+        }
+        setField(bounds, 1, pos, end);
+        pos = end + 1;
+        end = skipProgram(entry, pos);
+        if (end == pos)
+        {
+            return false;
+        }
+        setField(bounds, 2, pos, end);
+        pos = end;
+        if (charAt(entry, pos, '['))
+        {
+            // Process id: [1-9][0-9]*
+            end = skipDigits(entry, ++pos);
+            if (end == pos || entry.charAt(pos) == '0' || !charAt(entry, end, ']'))
+            {
+                return false;
+            }
+            setField(bounds, 3, pos, end);
+            pos = end + 1;
+        }
+        else
+        {
+            setField(bounds, 3, -1, -1);
+        }
+        if (!charAt(entry, pos, ':') || !charAt(entry, pos + 1, ' ') || hasLineTerminator(entry, pos + 2))
+        {
+            return false;
+        }
+        setField(bounds, 4, pos + 2, entry.length());
+        return true;
+    }
+    
+    /**
+     * {@link PatternConstants#SYSLOGTIMESTAMP}
+     */
+    private static int parseSyslogTimestamp(String entry)
+    {
+        int end = parseMonth(entry, 0);
+        if (end < 0)
+        {
+            return -1;
+        }
+        int pos = skipWhitespaces(entry, end);
+        if (pos == end)
+        {
+            return -1;
+        }
+        end = parseMonthDay(entry, pos);
+        if (end < 0)
+        {
+            return -1;
+        }
+        pos = skipWhitespaces(entry, end);
+        return pos == end ? -1 : parseTime(entry, pos);
+    }
+    
+    /**
+     * {@link PatternConstants#RFC3339}
+     */
+    private static int parseRfc3339(String entry)
+    {
+        // yyyy-MM-ddTHH:mm:ss
+        if (entry.length() < 20 || !isDigits(entry, 0, 4) || entry.charAt(4) != '-' || !isDigits(entry, 5, 7)
+            || entry.charAt(7) != '-' || !isDigits(entry, 8, 10) || entry.charAt(10) != 'T' || !isDigits(entry, 11, 13)
+            || entry.charAt(13) != ':' || !isDigits(entry, 14, 16) || entry.charAt(16) != ':'
+            || !isDigits(entry, 17, 19))
+        {
+            return -1;
+        }
+        int pos = 19;
+        if (charAt(entry, pos, '.'))
+        {
+            int end = skipDigits(entry, pos + 1);
+            if (end == pos + 1)
+            {
+                return -1;
+            }
+            pos = end;
+        }
+        if (charAt(entry, pos, 'Z'))
+        {
+            return pos + 1;
+        }
+        // [-+]HH:mm
+        if ((charAt(entry, pos, '-') || charAt(entry, pos, '+')) && pos + 6 <= entry.length()
+            && isDigits(entry, pos + 1, pos + 3) && entry.charAt(pos + 3) == ':' && isDigits(entry, pos + 4, pos + 6))
+        {
+            return pos + 6;
+        }
+        return -1;
+    }
+    
+    /**
+     * @return The end of a {@link PatternConstants#SYSLOGFACILITY} of the usual form (e.g. {@code <13.6>}) and the
+     *         space following it, or {@code -1}.
+     */
+    private static int skipFacility(String entry, int from)
+    {
+        int end = skipDigits(entry, from + 1);
+        if (end == from + 1 || end >= entry.length())
+        {
+            return -1;
+        }
+        char separator = entry.charAt(end);
+        if (separator == '>' || isLineTerminator(separator))
+        {
+            return -1;
+        }
+        int pos = end + 1;
+        end = skipDigits(entry, pos);
+        if (end == pos || !charAt(entry, end, '>') || !charAt(entry, end + 1, ' '))
+        {
+            return -1;
+        }
+        return end + 2;
+    }
+    
+    /**
+     * {@link PatternConstants#PROG}
+     */
+    private static int skipProgram(String entry, int from)
+    {
+        int i = from;
+        while (i < entry.length())
+        {
+            char c = entry.charAt(i);
+            if (!(isWordChar(c) || c == '.' || c == '_' || c == '/' || c == '%' || c == '-'))
+            {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+    
+    private static boolean isDigits(String entry, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (!isDigit(entry.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
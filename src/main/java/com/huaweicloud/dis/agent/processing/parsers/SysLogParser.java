@@ -47,7 +47,12 @@ public class SysLogParser extends BaseLogParser
         {
             fields = getFields();
         }
-        final Map<String, Object> recordMap = new LinkedHashMap<String, Object>();
+        Map<String, Object> recordMap = extractFields(record, fields);
+        if (recordMap != null)
+        {
+            return recordMap;
+        }
+        recordMap = new LinkedHashMap<String, Object>();
         Matcher matcher = logEntryPattern.matcher(record);
         
         if (!matcher.matches())
@@ -78,10 +83,12 @@ public class SysLogParser extends BaseLogParser
             case SYSLOG:
                 this.logEntryPattern = BASE_SYSLOG_PATTERN;
                 this.fields = SYSLOG_FIELDS;
+                this.fieldExtractor = new SysLogFieldExtractor(false);
                 return;
             case RFC3339SYSLOG:
                 this.logEntryPattern = RFC3339_SYSLOG_PATTERN;
                 this.fields = SYSLOG_FIELDS;
+                this.fieldExtractor = new SysLogFieldExtractor(true);
                 return;
             default:
                 throw new ConfigurationException("Log format is not accepted");
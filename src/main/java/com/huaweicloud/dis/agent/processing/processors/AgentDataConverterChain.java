@@ -1,17 +1,31 @@
 package com.huaweicloud.dis.agent.processing.processors;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.huaweicloud.dis.agent.processing.exceptions.BatchConversionException;
 import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
 import com.huaweicloud.dis.agent.processing.interfaces.IDataConverter;
+import com.huaweicloud.dis.agent.processing.interfaces.IStreamingDataConverter;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
 
 /**
  * Class that applies data conversion through each converter in the list in the order that's configured in config file
+ * <p>
+ * A record goes through the converters one after the other, the {@link IStreamingDataConverter}s handing it along in
+ * outputs of the current thread without copying it: only the final result is copied out of them. In a batch, the
+ * converters that implement their own {@link IDataConverter#convertBatch(List)} get the whole batch instead, less the
+ * records filtered out or failing before them, and the converters between them still go record by record.
  */
 public class AgentDataConverterChain implements IDataConverter
 {
@@ -20,6 +34,18 @@ public class AgentDataConverterChain implements IDataConverter
     
     private List<IDataConverter> dataConverters = new LinkedList<IDataConverter>();
     
+    /**
+     * The non-null converters, and whether each of them is streaming, resolved once rather than for every record
+     */
+    private final IDataConverter[] converters;
+    
+    private final boolean[] streaming;
+    
+    /**
+     * Whether each converter implements its own convertBatch, rather than converting the records one by one
+     */
+    private final boolean[] batching;
+    
     public AgentDataConverterChain(IDataConverter... dataConverters)
     {
         if (dataConverters == null || dataConverters.length == 0)
@@ -29,6 +55,9 @@ public class AgentDataConverterChain implements IDataConverter
         {
             this.dataConverters.add(converter);
         }
+        this.converters = resolveConverters(this.dataConverters);
+        this.streaming = resolveStreaming(this.converters);
+        this.batching = resolveBatching(this.converters);
         
         LOGGER.debug("Using data converter chain: " + this.toString());
     }
@@ -39,6 +68,9 @@ public class AgentDataConverterChain implements IDataConverter
             throw new IllegalArgumentException("No data converter specified");
         
         this.dataConverters = dataConverters;
+        this.converters = resolveConverters(this.dataConverters);
+        this.streaming = resolveStreaming(this.converters);
+        this.batching = resolveBatching(this.converters);
         
         LOGGER.debug("Using data converter chain: " + this.toString());
     }
@@ -52,29 +84,241 @@ public class AgentDataConverterChain implements IDataConverter
     public ByteBuffer convert(ByteBuffer data)
         throws DataConversionException
     {
-        ByteBuffer result = data;
-        
-        for (IDataConverter converter : dataConverters)
+        ByteBuffer result = convertInChain(data, 0, converters.length);
+        return result == null ? null : RecordOutput.detach(result);
+    }
+    
+    @Override
+    public List<ByteBuffer> convertBatch(List<ByteBuffer> data)
+        throws DataConversionException
+    {
+        ByteBuffer[] results = data.toArray(new ByteBuffer[data.size()]);
+        SortedMap<Integer, DataConversionException> failures = new TreeMap<>();
+        int from = 0;
+        while (from < converters.length)
         {
-            if (converter != null)
+            if (batching[from])
             {
-                try
+                convertStage(from, results, failures);
+                from++;
+            }
+            else
+            {
+                int to = from + 1;
+                while (to < converters.length && !batching[to])
                 {
-                    if (result == null)
-                        return null;
-                    result = converter.convert(result);
+                    to++;
                 }
-                catch (Exception e)
+                for (int i = 0; i < results.length; i++)
                 {
-                    LOGGER.debug("Unable to convert data by " + converter.toString() + " due to " + e.getMessage());
-                    throw new DataConversionException("Unable to convert data by " + converter.toString(), e);
+                    if (results[i] == null)
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        ByteBuffer result = convertInChain(results[i], from, to);
+                        // Detach the result before the outputs it may be a view of are reused by the next record
+                        results[i] = result == null ? null : RecordOutput.detach(result);
+                    }
+                    catch (DataConversionException e)
+                    {
+                        results[i] = null;
+                        failures.put(i, e);
+                    }
                 }
+                from = to;
+            }
+        }
+        
+        List<ByteBuffer> converted = Arrays.asList(results);
+        if (!failures.isEmpty())
+        {
+            throw new BatchConversionException(converted, failures);
+        }
+        return converted;
+    }
+    
+    /**
+     * Hands the records left by the previous converters to the convertBatch of the given converter.
+     */
+    private void convertStage(int stage, ByteBuffer[] results, SortedMap<Integer, DataConversionException> failures)
+    {
+        // The index in the batch of each record left for the converter
+        int[] indices = new int[results.length];
+        List<ByteBuffer> stageData = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++)
+        {
+            // Records filtered out or failing are not handed to the next converters
+            if (results[i] != null)
+            {
+                indices[stageData.size()] = i;
+                stageData.add(results[i]);
             }
         }
+        if (stageData.isEmpty())
+        {
+            return;
+        }
         
+        SortedMap<Integer, DataConversionException> stageFailures = new TreeMap<>();
+        List<ByteBuffer> stageResults = convertBatch(converters[stage], stageData, stageFailures);
+        for (int i = 0; i < stageResults.size(); i++)
+        {
+            ByteBuffer result = stageResults.get(i);
+            results[indices[i]] = result == null ? null : RecordOutput.detach(result);
+        }
+        for (Map.Entry<Integer, DataConversionException> failure : stageFailures.entrySet())
+        {
+            failures.put(indices[failure.getKey()], failure.getValue());
+        }
+    }
+    
+    /**
+     * Runs the convertBatch of the converter. The failing records are put in the failures and their result is
+     * {@code null}: the converter goes on from the next record, so that it converts each record once.
+     */
+    private static List<ByteBuffer> convertBatch(IDataConverter converter, List<ByteBuffer> data,
+        SortedMap<Integer, DataConversionException> failures)
+    {
+        List<ByteBuffer> results = new ArrayList<>(data.size());
+        while (results.size() < data.size())
+        {
+            try
+            {
+                List<ByteBuffer> batch = data.subList(results.size(), data.size());
+                List<ByteBuffer> converted = converter.convertBatch(batch);
+                if (converted.size() != batch.size())
+                {
+                    throw new DataConversionException(
+                        "Got " + converted.size() + " results for a batch of " + batch.size() + " records");
+                }
+                results.addAll(converted);
+            }
+            catch (BatchConversionException e)
+            {
+                int offset = results.size();
+                results.addAll(e.getResults());
+                for (Map.Entry<Integer, DataConversionException> failure : e.getFailures().entrySet())
+                {
+                    failures.put(offset + failure.getKey(), conversionFailure(converter, failure.getValue()));
+                }
+            }
+            catch (Exception e)
+            {
+                LOGGER.debug("Unable to convert a batch of {} records by {} due to {}, converting them one by one.",
+                    data.size() - results.size(),
+                    converter,
+                    e.getMessage());
+                for (int i = results.size(); i < data.size(); i++)
+                {
+                    try
+                    {
+                        results.add(converter.convert(data.get(i)));
+                    }
+                    catch (Exception recordException)
+                    {
+                        results.add(null);
+                        failures.put(i, conversionFailure(converter, recordException));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+    
+    private static DataConversionException conversionFailure(IDataConverter converter, Exception e)
+    {
+        LOGGER.debug("Unable to convert data by " + converter.toString() + " due to " + e.getMessage());
+        return new DataConversionException("Unable to convert data by " + converter.toString(), e);
+    }
+    
+    /**
+     * @return The record converted by the converters from {@code from} (inclusive) to {@code to} (exclusive), which may
+     *         be a view of an output of the current thread
+     */
+    private ByteBuffer convertInChain(ByteBuffer data, int from, int to)
+        throws DataConversionException
+    {
+        ByteBuffer result = data;
+        for (int i = from; i < to && result != null; i++)
+        {
+            IDataConverter converter = converters[i];
+            try
+            {
+                if (streaming[i])
+                {
+                    // Pass the output along without copying it, the next converter writes into another one
+                    result = ((IStreamingDataConverter)converter).convertInChain(result);
+                }
+                else
+                {
+                    result = converter.convert(result);
+                }
+            }
+            catch (Exception e)
+            {
+                throw conversionFailure(converter, e);
+            }
+        }
         return result;
     }
     
+    private static IDataConverter[] resolveConverters(List<IDataConverter> dataConverters)
+    {
+        List<IDataConverter> converters = new ArrayList<>(dataConverters.size());
+        for (IDataConverter converter : dataConverters)
+        {
+            if (converter != null)
+            {
+                converters.add(converter);
+            }
+        }
+        return converters.toArray(new IDataConverter[converters.size()]);
+    }
+    
+    private static boolean[] resolveStreaming(IDataConverter[] converters)
+    {
+        boolean[] streaming = new boolean[converters.length];
+        for (int i = 0; i < converters.length; i++)
+        {
+            streaming[i] = converters[i] instanceof IStreamingDataConverter;
+        }
+        return streaming;
+    }
+    
+    private static boolean[] resolveBatching(IDataConverter[] converters)
+    {
+        boolean[] batching = new boolean[converters.length];
+        for (int i = 0; i < converters.length; i++)
+        {
+            try
+            {
+                batching[i] = converters[i].getClass().getMethod("convertBatch", List.class)
+                    .getDeclaringClass() != IDataConverter.class;
+            }
+            catch (NoSuchMethodException e)
+            {
+                batching[i] = false;
+            }
+        }
+        return batching;
+    }
+    
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        Map<String, Object> metrics = new HashMap<String, Object>();
+        for (IDataConverter converter : dataConverters)
+        {
+            if (converter != null)
+            {
+                metrics.putAll(converter.getMetrics());
+            }
+        }
+        return metrics;
+    }
+    
     @Override
     public String toString()
     {
@@ -28,6 +28,17 @@ public abstract class BaseDataConverter implements IDataConverter
         }
     }
     
+    /**
+     * @return {@code true} if the bytes of an ASCII character never appear inside the encoding of another character in
+     *         the charset of the records, so that ASCII text can be searched in the bytes of a record without decoding
+     *         it.
+     */
+    protected boolean isAsciiScannable()
+    {
+        return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset)
+            || StandardCharsets.ISO_8859_1.equals(charset);
+    }
+    
     @Override
     public abstract ByteBuffer convert(ByteBuffer data)
         throws DataConversionException;
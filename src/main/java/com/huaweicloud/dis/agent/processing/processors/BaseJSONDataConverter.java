@@ -0,0 +1,96 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.interfaces.IStreamingDataConverter;
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
+
+/**
+ * Base class of the converters turning a record into a JSON object. The object is written with a reusable
+ * {@link JsonGenerator} straight into a {@link RecordOutput}, and the NEW_LINE at the end of the record is preserved.
+ * <p>
+ * The record is still decoded to a String, once: the fields are found by regular expressions and string splitting,
+ * which work on characters, and decoding replaces malformed input the way the records were always written. So the
+ * conversion is not allocation-free, only the map, the printed String and its encoding are gone. For the charsets in
+ * which a NEW_LINE byte can't be part of another character, the NEW_LINE is stripped before decoding rather than
+ * with a substring.
+ * <p>
+ * Optional jsonFormat can be used for pretty printed json.
+ */
+public abstract class BaseJSONDataConverter extends BaseDataConverter implements IStreamingDataConverter
+{
+    protected final boolean prettyPrint;
+    
+    public BaseJSONDataConverter(Configuration config)
+    {
+        super(config);
+        prettyPrint = config.readEnum(ProcessingUtilsFactory.JSONFormat.class,
+            ProcessingUtilsFactory.JSONFORMAT_KEY,
+            ProcessingUtilsFactory.JSONFormat.COMPACT) == ProcessingUtilsFactory.JSONFormat.PRETTYPRINT;
+    }
+    
+    @Override
+    public ByteBuffer convert(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = convertTo(data);
+        return output == null ? null : output.copy();
+    }
+    
+    @Override
+    public RecordOutput convertTo(ByteBuffer data)
+        throws DataConversionException
+    {
+        String dataStr;
+        boolean hasLineBreak;
+        // Preserve the NEW_LINE at the end of the JSON record
+        if (isAsciiScannable())
+        {
+            hasLineBreak = data.hasRemaining() && data.get(data.limit() - 1) == '\n';
+            dataStr = ByteBuffers.toString(data, data.remaining() - (hasLineBreak ? 1 : 0), charset);
+        }
+        else
+        {
+            dataStr = ByteBuffers.toString(data, charset);
+            hasLineBreak = dataStr.endsWith(NEW_LINE);
+            if (hasLineBreak)
+            {
+                dataStr = dataStr.substring(0, (dataStr.length() - NEW_LINE.length()));
+            }
+        }
+        
+        RecordOutput output = RecordOutput.acquire(data);
+        try
+        {
+            JsonGenerator generator = output.beginJson(charset, prettyPrint);
+            if (!writeJson(dataStr, generator))
+            {
+                return null;
+            }
+            output.endJson(generator, hasLineBreak);
+            return output;
+        }
+        catch (IOException e)
+        {
+            throw new DataConversionException("Unable to write record as JSON", e);
+        }
+    }
+    
+    /**
+     * Writes the given record as a JSON object.
+     *
+     * @param record The record, without its NEW_LINE
+     * @param generator The generator to write the object with
+     * @return {@code false} if the record is filtered out, in which case nothing must have been written
+     * @throws IOException
+     * @throws DataConversionException
+     */
+    protected abstract boolean writeJson(String record, JsonGenerator generator)
+        throws IOException, DataConversionException;
+}
@@ -1,93 +1,248 @@
 package com.huaweicloud.dis.agent.processing.processors;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.huaweicloud.dis.agent.ByteBuffers;
 import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
 import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
-import com.huaweicloud.dis.agent.processing.interfaces.IJSONPrinter;
-import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
+import com.huaweicloud.dis.agent.processing.utils.CSVTokenizer;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
 
 /**
  * Convert a CSV record into JSON record.
  * <p>
  * customFieldNames is required. Optional delimiter other than comma can be configured. Optional jsonFormat can be used
- * for pretty printed json.
+ * for pretty printed json. Optional csvFormat selects how records are split into columns: SIMPLE (default) splits on
+ * any of the delimiter characters without quoting support, RFC4180 tokenizes the record bytes in a single pass with
+ * support for quoted fields (see {@link CSVTokenizer}), and requires a single ASCII delimiter character. Note that a
+ * quoted field can only span several lines if records are split accordingly (e.g. with a multi-line start pattern).
  * <p>
  * Configuration looks like: { "optionName": "CSVTOJSON", "customFieldNames": [ "field1", "field2", ... ], "delimiter":
- * "\\t" }
+ * "\\t", "csvFormat": "RFC4180" }
  */
-public class CSVToJSONDataConverter extends BaseDataConverter
+public class CSVToJSONDataConverter extends BaseJSONDataConverter
 {
     
+    public static enum CSVFormat
+    {
+        SIMPLE, RFC4180
+    }
+    
     private static String FIELDS_KEY = "customFieldNames";
     
     private static String DELIMITER_KEY = "delimiter";
     
+    private static String CSV_FORMAT_KEY = "csvFormat";
+    
+    private static final byte LINE_FEED = '\n';
+    
+    private static final byte CARRIAGE_RETURN = '\r';
+    
     private final List<String> fieldNames;
     
     private final String delimiter;
     
-    private final IJSONPrinter jsonProducer;
+    private final CSVFormat csvFormat;
+    
+    /**
+     * The distinct field names in order of first appearance, and the column holding the value of each of them (the
+     * last one with that name, as a field name repeated in customFieldNames takes the value of its last column)
+     */
+    private final SerializedString[] distinctFieldNames;
+    
+    private final int[] fieldColumns;
+    
+    /**
+     * UTF-8 records are tokenized as they are, and their fields written to the JSON output without decoding them
+     */
+    private final boolean utf8;
+    
+    private final ThreadLocal<CSVTokenizer> tokenizers = new ThreadLocal<CSVTokenizer>()
+    {
+        @Override
+        protected CSVTokenizer initialValue()
+        {
+            return new CSVTokenizer(delimiter.charAt(0));
+        }
+    };
+    
+    private final ThreadLocal<byte[]> directBufferCopies = new ThreadLocal<byte[]>();
     
     public CSVToJSONDataConverter(Configuration config)
     {
         super(config);
         fieldNames = config.readList(FIELDS_KEY, String.class);
         delimiter = config.readString(DELIMITER_KEY, ",");
-        jsonProducer = ProcessingUtilsFactory.getPrinter(config);
+        csvFormat = config.readEnum(CSVFormat.class, CSV_FORMAT_KEY, CSVFormat.SIMPLE);
+        utf8 = StandardCharsets.UTF_8.equals(charset);
+        if (csvFormat == CSVFormat.RFC4180)
+        {
+            if (delimiter.length() != 1 || delimiter.charAt(0) >= 0x80 || delimiter.charAt(0) == '"'
+                || delimiter.charAt(0) == '\n' || delimiter.charAt(0) == '\r')
+            {
+                throw new ConfigurationException(
+                    "The delimiter of " + CSVFormat.RFC4180 + " CSV must be a single ASCII character, but was ["
+                        + delimiter + "]");
+            }
+        }
+        
+        Map<String, Integer> columns = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < fieldNames.size(); i++)
+        {
+            columns.put(fieldNames.get(i), i);
+        }
+        distinctFieldNames = new SerializedString[columns.size()];
+        fieldColumns = new int[columns.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> column : columns.entrySet())
+        {
+            distinctFieldNames[i] = new SerializedString(column.getKey());
+            fieldColumns[i] = column.getValue();
+            i++;
+        }
     }
     
     @Override
-    public ByteBuffer convert(ByteBuffer data)
+    public RecordOutput convertTo(ByteBuffer data)
         throws DataConversionException
     {
-        final Map<String, Object> recordMap = new LinkedHashMap<String, Object>();
-        String dataStr = ByteBuffers.toString(data, charset);
+        if (csvFormat != CSVFormat.RFC4180)
+        {
+            return super.convertTo(data);
+        }
+        
+        byte[] bytes;
+        int offset;
+        int length;
+        if (!utf8)
+        {
+            bytes = ByteBuffers.toString(data, charset).getBytes(StandardCharsets.UTF_8);
+            offset = 0;
+            length = bytes.length;
+        }
+        else if (data.hasArray())
+        {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+            length = data.remaining();
+        }
+        else
+        {
+            bytes = directBufferCopies.get();
+            if (bytes == null || bytes.length < data.remaining())
+            {
+                bytes = new byte[data.remaining()];
+                directBufferCopies.set(bytes);
+            }
+            data.duplicate().get(bytes, 0, data.remaining());
+            offset = 0;
+            length = data.remaining();
+        }
+        
+        // Preserve the NEW_LINE at the end of the JSON record, the CR of a CRLF line break is dropped
         boolean hasLineBreak = false;
-        // Preserve the NEW_LINE at the end of the JSON record
-        if (dataStr.endsWith(NEW_LINE))
+        if (length > 0 && bytes[offset + length - 1] == LINE_FEED)
         {
             hasLineBreak = true;
-            dataStr = dataStr.substring(0, (dataStr.length() - NEW_LINE.length()));
+            length--;
+            if (length > 0 && bytes[offset + length - 1] == CARRIAGE_RETURN)
+            {
+                length--;
+            }
         }
         
-        // String[] columns = dataStr.split(delimiter);
-        // 拆分时保留空值情况
-        String[] columns = StringUtils.splitPreserveAllTokens(dataStr, delimiter);
-        for (int i = 0; i < fieldNames.size(); i++)
+        CSVTokenizer tokenizer = tokenizers.get();
+        int columns = tokenizer.tokenize(bytes, offset, length, fieldNames.size());
+        RecordOutput output = RecordOutput.acquire(data);
+        try
         {
-            try
+            JsonGenerator generator = output.beginJson(charset, prettyPrint);
+            generator.writeStartObject();
+            for (int i = 0; i < distinctFieldNames.length; i++)
             {
-                recordMap.put(fieldNames.get(i), columns[i]);
+                int column = fieldColumns[i];
+                generator.writeFieldName(distinctFieldNames[i]);
+                if (column >= columns)
+                {
+                    generator.writeNull();
+                }
+                else if (tokenizer.isEscaped(column))
+                {
+                    writeValue(generator, tokenizer.getUnescaped(), 0, tokenizer.unescape(column));
+                }
+                else
+                {
+                    writeValue(generator,
+                        bytes,
+                        tokenizer.getStart(column),
+                        tokenizer.getEnd(column) - tokenizer.getStart(column));
+                }
             }
-            catch (ArrayIndexOutOfBoundsException e)
+            generator.writeEndObject();
+            output.endJson(generator, hasLineBreak);
+            return output;
+        }
+        catch (IOException e)
+        {
+            throw new DataConversionException("Unable to write record as JSON", e);
+        }
+    }
+    
+    @Override
+    protected boolean writeJson(String record, JsonGenerator generator)
+        throws IOException
+    {
+        // String[] columns = dataStr.split(delimiter);
+        // 拆分时保留空值情况
+        String[] columns = StringUtils.splitPreserveAllTokens(record, delimiter);
+        generator.writeStartObject();
+        for (int i = 0; i < distinctFieldNames.length; i++)
+        {
+            int column = fieldColumns[i];
+            generator.writeFieldName(distinctFieldNames[i]);
+            if (column < columns.length)
             {
-                recordMap.put(fieldNames.get(i), null);
+                generator.writeString(columns[column]);
             }
-            catch (Exception e)
+            else
             {
-                throw new DataConversionException("Unable to create the column map", e);
+                generator.writeNull();
             }
         }
-        
-        String dataJson = jsonProducer.writeAsString(recordMap);
-        if (hasLineBreak)
+        generator.writeEndObject();
+        return true;
+    }
+    
+    /**
+     * Writes a UTF-8 encoded field as a JSON string, without decoding it unless the output is not UTF-8 itself.
+     */
+    private void writeValue(JsonGenerator generator, byte[] bytes, int offset, int length)
+        throws IOException
+    {
+        if (utf8)
+        {
+            generator.writeUTF8String(bytes, offset, length);
+        }
+        else
         {
-            dataJson += NEW_LINE;
+            generator.writeString(new String(bytes, offset, length, StandardCharsets.UTF_8));
         }
-        return ByteBuffer.wrap(dataJson.getBytes(charset));
     }
     
     @Override
     public String toString()
     {
         return getClass().getSimpleName() + "{ delimiter: [" + delimiter + "], " + "fields: " + fieldNames.toString()
-            + "}";
+            + ", format: " + csvFormat + "}";
     }
 }
@@ -0,0 +1,237 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.utils.AhoCorasickMatcher;
+
+/**
+ * Drop the records that are not wanted downstream, before they are buffered and sent.
+ * <p>
+ * A record is dropped if it contains any of the excluded literals or matches any of the excluded patterns. If included
+ * literals or patterns are specified, a record is also dropped unless it contains one of the literals or matches one
+ * of the patterns. Literals are compiled into a single Aho-Corasick automaton, so a record is checked against all of
+ * them in one pass over its bytes. Patterns are regular expressions searched anywhere in the record.
+ * <p>
+ * Configuration looks like:
+ * <p>
+ * { "optionName": "FILTER", "include": [ "ERROR", "WARN" ], "exclude": [ "DEBUG" ], "includePatterns": [ "REGEX", ...
+ * ], "excludePatterns": [ "REGEX", ... ] }
+ */
+public class FilterDataConverter extends BaseDataConverter
+{
+    private static final String INCLUDE_KEY = "include";
+    
+    private static final String EXCLUDE_KEY = "exclude";
+    
+    private static final String INCLUDE_PATTERNS_KEY = "includePatterns";
+    
+    private static final String EXCLUDE_PATTERNS_KEY = "excludePatterns";
+    
+    private final Rules includes;
+    
+    private final Rules excludes;
+    
+    private final AtomicLong totalRecordsFiltered = new AtomicLong();
+    
+    public FilterDataConverter(Configuration config)
+    {
+        super(config);
+        includes = readRules(INCLUDE_KEY, INCLUDE_PATTERNS_KEY);
+        excludes = readRules(EXCLUDE_KEY, EXCLUDE_PATTERNS_KEY);
+        if (includes == null && excludes == null)
+        {
+            throw new ConfigurationException("At least one of " + INCLUDE_KEY + ", " + EXCLUDE_KEY + ", "
+                + INCLUDE_PATTERNS_KEY + " and " + EXCLUDE_PATTERNS_KEY + " must be specified");
+        }
+    }
+    
+    @Override
+    public ByteBuffer convert(ByteBuffer data)
+        throws DataConversionException
+    {
+        String text = null;
+        if (excludes != null)
+        {
+            if (excludes.findLiteral(data))
+            {
+                return filter();
+            }
+            if (excludes.hasPatterns())
+            {
+                text = ByteBuffers.toString(data, charset);
+                if (excludes.findPattern(text))
+                {
+                    return filter();
+                }
+            }
+        }
+        if (includes != null)
+        {
+            if (includes.findLiteral(data))
+            {
+                return data;
+            }
+            if (includes.hasPatterns())
+            {
+                if (text == null)
+                {
+                    text = ByteBuffers.toString(data, charset);
+                }
+                if (includes.findPattern(text))
+                {
+                    return data;
+                }
+            }
+            return filter();
+        }
+        return data;
+    }
+    
+    @SuppressWarnings("serial")
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        final String className = getClass().getSimpleName();
+        return new HashMap<String, Object>()
+        {
+            {
+                put(className + ".TotalRecordsFiltered", totalRecordsFiltered);
+                if (includes != null)
+                {
+                    includes.putHits(this, className + ".IncludeHits");
+                }
+                if (excludes != null)
+                {
+                    excludes.putHits(this, className + ".ExcludeHits");
+                }
+            }
+        };
+    }
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName();
+    }
+    
+    private ByteBuffer filter()
+    {
+        totalRecordsFiltered.incrementAndGet();
+        return null;
+    }
+    
+    private Rules readRules(String literalsKey, String patternsKey)
+    {
+        List<String> literals = config.readList(literalsKey, String.class, Collections.<String> emptyList());
+        List<String> patterns = config.readList(patternsKey, String.class, Collections.<String> emptyList());
+        if (literals.isEmpty() && patterns.isEmpty())
+        {
+            return null;
+        }
+        return new Rules(literals, patterns, charset, isAsciiScannable());
+    }
+    
+    /**
+     * The literals and patterns of either the include or the exclude list, with the number of records each of them
+     * was the first to be found in.
+     */
+    private static class Rules
+    {
+        private final List<String> names = new ArrayList<>();
+        
+        private final AhoCorasickMatcher literalMatcher;
+        
+        private final List<Pattern> patterns = new ArrayList<>();
+        
+        /**
+         * The hits of the literals of the automaton first, followed by the hits of the patterns
+         */
+        private final AtomicLong[] hits;
+        
+        Rules(List<String> literals, List<String> patterns, Charset charset, boolean byteMatchable)
+        {
+            List<String> patternNames = new ArrayList<>();
+            List<byte[]> encodedLiterals = new ArrayList<>();
+            for (String literal : literals)
+            {
+                if (byteMatchable)
+                {
+                    names.add(literal);
+                    encodedLiterals.add(literal.getBytes(charset));
+                }
+                else
+                {
+                    // A literal may match across multi-byte characters, search the decoded record instead
+                    patternNames.add(literal);
+                    this.patterns.add(Pattern.compile(literal, Pattern.LITERAL));
+                }
+            }
+            for (String pattern : patterns)
+            {
+                patternNames.add(pattern);
+                this.patterns.add(Pattern.compile(pattern));
+            }
+            literalMatcher = encodedLiterals.isEmpty() ? null : new AhoCorasickMatcher(encodedLiterals);
+            names.addAll(patternNames);
+            hits = new AtomicLong[names.size()];
+            for (int i = 0; i < hits.length; i++)
+            {
+                hits[i] = new AtomicLong();
+            }
+        }
+        
+        boolean hasPatterns()
+        {
+            return !patterns.isEmpty();
+        }
+        
+        boolean findLiteral(ByteBuffer data)
+        {
+            if (literalMatcher == null)
+            {
+                return false;
+            }
+            int literal = literalMatcher.find(data);
+            if (literal < 0)
+            {
+                return false;
+            }
+            hits[literal].incrementAndGet();
+            return true;
+        }
+        
+        boolean findPattern(String text)
+        {
+            int offset = hits.length - patterns.size();
+            for (int i = 0; i < patterns.size(); i++)
+            {
+                if (patterns.get(i).matcher(text).find())
+                {
+                    hits[offset + i].incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        void putHits(Map<String, Object> metrics, String prefix)
+        {
+            for (int i = 0; i < hits.length; i++)
+            {
+                metrics.put(prefix + "[" + names.get(i) + "]", hits[i]);
+            }
+        }
+    }
+}
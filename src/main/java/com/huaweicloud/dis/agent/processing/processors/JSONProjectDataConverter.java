@@ -0,0 +1,311 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.interfaces.IStreamingDataConverter;
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
+
+/**
+ * Keep only some fields of the records that are JSON objects, and optionally flatten the nested objects.
+ * <p>
+ * Each record is streamed through a {@link JsonParser}: the unselected values are skipped without being built, and the
+ * selected ones are copied token by token into a {@link JsonGenerator} writing into a reusable output, so no tree of
+ * the record is ever materialized.
+ * <p>
+ * fields are dotted paths (e.g. "request.method"); selecting an object selects all its content, and all the fields are
+ * selected if none is specified. With flatten, the fields of nested objects are written at the top level, named by
+ * their path joined with flattenSeparator, and empty objects are left out. Arrays are copied as they are. Records that
+ * are not JSON objects are passed through untouched.
+ * <p>
+ * Configuration looks like:
+ * <p>
+ * { "optionName": "JSONPROJECT", "fields": [ "time", "request.method", "user" ], "flatten": true, "flattenSeparator":
+ * "." }
+ * <p>
+ * Optional jsonFormat can be used for pretty printed json.
+ */
+public class JSONProjectDataConverter extends BaseDataConverter implements IStreamingDataConverter
+{
+    private static final String FIELDS_KEY = "fields";
+    
+    private static final String FLATTEN_KEY = "flatten";
+    
+    private static final String FLATTEN_SEPARATOR_KEY = "flattenSeparator";
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    private final Selection selection;
+    
+    private final boolean flatten;
+    
+    private final String flattenSeparator;
+    
+    private final boolean prettyPrint;
+    
+    private final AtomicLong totalRecordsProjected = new AtomicLong();
+    
+    private final AtomicLong totalRecordsNotProjected = new AtomicLong();
+    
+    public JSONProjectDataConverter(Configuration config)
+    {
+        super(config);
+        selection = new Selection();
+        List<String> fields = config.containsKey(FIELDS_KEY) ? config.readList(FIELDS_KEY, String.class)
+            : new ArrayList<String>();
+        for (String field : fields)
+        {
+            Selection node = selection;
+            for (String name : field.split("\\.", -1))
+            {
+                if (name.isEmpty())
+                {
+                    throw new ConfigurationException("Invalid path in " + FIELDS_KEY + ": [" + field + "]");
+                }
+                node = node.child(name);
+            }
+            node.all = true;
+        }
+        selection.all = fields.isEmpty();
+        flatten = config.readBoolean(FLATTEN_KEY, false);
+        flattenSeparator = config.readString(FLATTEN_SEPARATOR_KEY, ".");
+        prettyPrint = config.readEnum(ProcessingUtilsFactory.JSONFormat.class,
+            ProcessingUtilsFactory.JSONFORMAT_KEY,
+            ProcessingUtilsFactory.JSONFormat.COMPACT) == ProcessingUtilsFactory.JSONFormat.PRETTYPRINT;
+    }
+    
+    @Override
+    public ByteBuffer convert(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = project(data);
+        return output == null ? data : output.copy();
+    }
+    
+    @Override
+    public RecordOutput convertTo(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = project(data);
+        if (output == null)
+        {
+            output = RecordOutput.acquire(data);
+            try
+            {
+                ByteBuffers.copy(data, output);
+            }
+            catch (IOException e)
+            {
+                throw new DataConversionException("Unable to write record", e);
+            }
+        }
+        return output;
+    }
+    
+    @Override
+    public ByteBuffer convertInChain(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = project(data);
+        return output == null ? data : output.view();
+    }
+    
+    @SuppressWarnings("serial")
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        final String className = getClass().getSimpleName();
+        return new HashMap<String, Object>()
+        {
+            {
+                put(className + ".TotalRecordsProjected", totalRecordsProjected);
+                put(className + ".TotalRecordsNotProjected", totalRecordsNotProjected);
+            }
+        };
+    }
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * @return The output holding the projected record, or {@code null} if the record is not a JSON object
+     */
+    private RecordOutput project(ByteBuffer data)
+        throws DataConversionException
+    {
+        int length = data.remaining();
+        boolean hasLineBreak = length > 0 && data.get(data.position() + length - 1) == NEW_LINE.charAt(0);
+        RecordOutput output = RecordOutput.acquire(data);
+        try (JsonParser parser = createParser(data))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                totalRecordsNotProjected.incrementAndGet();
+                return null;
+            }
+            JsonGenerator generator = output.beginJson(charset, prettyPrint);
+            generator.writeStartObject();
+            copyObject(parser, generator, selection, flatten ? "" : null, flatten ? null : new ArrayList<String>());
+            generator.writeEndObject();
+            output.endJson(generator, hasLineBreak);
+        }
+        catch (JsonProcessingException e)
+        {
+            // Not JSON: the partially written output is discarded when it's acquired again
+            totalRecordsNotProjected.incrementAndGet();
+            return null;
+        }
+        catch (IOException e)
+        {
+            throw new DataConversionException("Unable to project record", e);
+        }
+        totalRecordsProjected.incrementAndGet();
+        return output;
+    }
+    
+    private JsonParser createParser(ByteBuffer data)
+        throws IOException
+    {
+        if (!StandardCharsets.UTF_8.equals(charset))
+        {
+            return JSON_FACTORY.createParser(ByteBuffers.toString(data, charset));
+        }
+        if (data.hasArray())
+        {
+            return JSON_FACTORY.createParser(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        return JSON_FACTORY.createParser(ByteBuffers.toArray(data));
+    }
+    
+    /**
+     * Copies the selected fields of the object the parser is at the start of, up to its end.
+     *
+     * @param path The path of the object followed by the separator when flattening, {@code null} otherwise
+     * @param pendingObjects The names of the enclosing objects not written yet, when not flattening
+     * @return {@code true} if any field was written
+     */
+    private boolean copyObject(JsonParser parser, JsonGenerator generator, Selection node, String path,
+        List<String> pendingObjects)
+        throws IOException
+    {
+        boolean written = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            Selection child = node.all ? node : node.children.get(name);
+            if (child == null || !child.all && token != JsonToken.START_OBJECT)
+            {
+                parser.skipChildren();
+                continue;
+            }
+            if (token == JsonToken.START_OBJECT && path != null)
+            {
+                written |= copyObject(parser, generator, child, path + name + flattenSeparator, null);
+            }
+            else if (token == JsonToken.START_OBJECT && !child.all)
+            {
+                // The object is only written once one of its selected fields is found
+                pendingObjects.add(name);
+                if (copyObject(parser, generator, child, null, pendingObjects))
+                {
+                    generator.writeEndObject();
+                    written = true;
+                }
+                else
+                {
+                    pendingObjects.remove(pendingObjects.size() - 1);
+                }
+            }
+            else
+            {
+                if (pendingObjects != null)
+                {
+                    for (String pendingObject : pendingObjects)
+                    {
+                        generator.writeObjectFieldStart(pendingObject);
+                    }
+                    pendingObjects.clear();
+                }
+                generator.writeFieldName(path == null ? name : path + name);
+                copyValue(parser, generator);
+                written = true;
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * Copies the value the parser is at, including the content of an object or an array.
+     */
+    private static void copyValue(JsonParser parser, JsonGenerator generator)
+        throws IOException
+    {
+        int depth = 0;
+        do
+        {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+            {
+                depth++;
+            }
+            else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY)
+            {
+                depth--;
+            }
+            if (token == JsonToken.VALUE_NUMBER_FLOAT)
+            {
+                // Keep the number as written, rather than as its double value
+                generator.writeNumber(parser.getText());
+            }
+            else
+            {
+                generator.copyCurrentEvent(parser);
+            }
+        }
+        while (depth > 0 && parser.nextToken() != null);
+    }
+    
+    /**
+     * The selected fields of an object, by name
+     */
+    private static class Selection
+    {
+        private final Map<String, Selection> children = new HashMap<>();
+        
+        /**
+         * Whether all the content is selected
+         */
+        private boolean all;
+        
+        Selection child(String name)
+        {
+            Selection child = children.get(name);
+            if (child == null)
+            {
+                child = new Selection();
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+}
@@ -1,75 +1,118 @@
 package com.huaweicloud.dis.agent.processing.processors;
 
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import com.huaweicloud.dis.agent.ByteBuffers;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.huaweicloud.dis.agent.config.Configuration;
-import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
 import com.huaweicloud.dis.agent.processing.exceptions.LogParsingException;
-import com.huaweicloud.dis.agent.processing.interfaces.IDataConverter;
-import com.huaweicloud.dis.agent.processing.interfaces.IJSONPrinter;
 import com.huaweicloud.dis.agent.processing.interfaces.ILogParser;
+import com.huaweicloud.dis.agent.processing.parsers.BaseLogParser;
 import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
 
 /**
  * Parse the log entries from log file, and convert the log entries into JSON.
  * <p>
  * Configuration of this converter looks like: { "optionName": "LOGTOJSON", "logFormat": "COMMONAPACHELOG",
- * "matchPattern": "OPTIONAL_REGEX", "customFieldNames": [ "column1", "column2", ... ] }
+ * "matchPattern": "OPTIONAL_REGEX", "customFieldNames": [ "column1", "column2", ... ], "selectedFieldNames": [
+ * "column1", ... ] }
+ * <p>
+ * The optional selectedFieldNames lists the fields written to the JSON records, all of them by default. Entries the
+ * pre-defined formats extract without their regex are written straight to the record, only copying the selected
+ * fields out of the entry.
  */
-public class LogToJSONDataConverter extends BaseDataConverter
+public class LogToJSONDataConverter extends BaseJSONDataConverter
 {
     
     private List<String> fields;
     
     private ILogParser logParser;
     
-    private IJSONPrinter jsonProducer;
+    /**
+     * The fields written to the records, or null for all of them
+     */
+    private Set<String> selectedFields;
+    
+    /**
+     * The fields of the parser, and the indices of those written to the records in the order they are written
+     */
+    private List<String> parserFields;
+    
+    private int[] fieldIndices;
     
     public LogToJSONDataConverter(Configuration config)
     {
         super(config);
-        jsonProducer = ProcessingUtilsFactory.getPrinter(config);
         logParser = ProcessingUtilsFactory.getLogParser(config);
         if (config.containsKey(ProcessingUtilsFactory.CUSTOM_FIELDS_KEY))
         {
             fields = config.readList(ProcessingUtilsFactory.CUSTOM_FIELDS_KEY, String.class);
         }
+        if (config.containsKey(ProcessingUtilsFactory.SELECTED_FIELDS_KEY))
+        {
+            selectedFields =
+                new HashSet<>(config.readList(ProcessingUtilsFactory.SELECTED_FIELDS_KEY, String.class));
+        }
+        if (logParser instanceof BaseLogParser)
+        {
+            parserFields = ((BaseLogParser)logParser).getFields();
+            if (selectedFields != null && !parserFields.containsAll(selectedFields))
+            {
+                throw new ConfigurationException(ProcessingUtilsFactory.SELECTED_FIELDS_KEY
+                    + " must only contain fields of the log format or of " + ProcessingUtilsFactory.CUSTOM_FIELDS_KEY);
+            }
+            // A field name given twice is written once, at its first position with its last value, as in a parsed
+            // record
+            Map<String, Integer> lastIndices = new LinkedHashMap<>();
+            for (int i = 0; i < parserFields.size(); i++)
+            {
+                lastIndices.put(parserFields.get(i), i);
+            }
+            if (selectedFields != null)
+            {
+                lastIndices.keySet().retainAll(selectedFields);
+            }
+            fieldIndices = new int[lastIndices.size()];
+            int next = 0;
+            for (int index : lastIndices.values())
+            {
+                fieldIndices[next++] = index;
+            }
+        }
     }
     
     @Override
-    public ByteBuffer convert(ByteBuffer data)
-        throws DataConversionException
+    protected boolean writeJson(String record, JsonGenerator generator)
+        throws IOException
     {
-        String dataStr = ByteBuffers.toString(data, charset);
-        boolean hasLineBreak = false;
-        // Preserve the NEW_LINE at the end of the JSON record
-        if (dataStr.endsWith(IDataConverter.NEW_LINE))
-        {
-            hasLineBreak = true;
-            dataStr = dataStr.substring(0, (dataStr.length() - IDataConverter.NEW_LINE.length()));
-        }
-        
         Map<String, Object> recordMap;
         
         try
         {
-            recordMap = logParser.parseLogRecord(dataStr, fields);
+            if (fieldIndices != null
+                && ((BaseLogParser)logParser).writeFields(record, parserFields, fieldIndices, generator))
+            {
+                return true;
+            }
+            recordMap = logParser.parseLogRecord(record, fields);
         }
         catch (LogParsingException e)
         {
             // ignore the record if a LogParsingException is thrown
             // the record is filtered out in this case
-            return null;
+            return false;
         }
         
-        String dataJson = jsonProducer.writeAsString(recordMap);
-        if (hasLineBreak)
+        if (selectedFields != null)
         {
-            dataJson += IDataConverter.NEW_LINE;
+            recordMap.keySet().retainAll(selectedFields);
         }
-        return ByteBuffer.wrap(dataJson.getBytes(charset));
+        generator.writeObject(recordMap);
+        return true;
     }
 }
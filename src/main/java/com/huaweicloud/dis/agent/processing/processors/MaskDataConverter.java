@@ -0,0 +1,526 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.interfaces.IStreamingDataConverter;
+import com.huaweicloud.dis.agent.processing.utils.AhoCorasickMatcher;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
+
+/**
+ * Mask sensitive values in the records before they leave the host.
+ * <p>
+ * All the rules are applied in a single scan over the bytes of a record:
+ * <ul>
+ * <li>PHONE masks 11-digit mobile phone numbers (1[3-9]xxxxxxxxx, optionally prefixed with the country code 86)</li>
+ * <li>IDCARD masks 18-character ID card numbers (17 digits followed by a digit or X)</li>
+ * <li>TOKEN masks the value following any of the given keys, up to the next whitespace, quote or one of
+ * {@code &,;<>()[]{}}</li>
+ * </ul>
+ * Numbers are only masked when they are not part of a longer sequence of letters and digits. Masked characters are
+ * replaced by maskChar, except for the first keepPrefix and last keepSuffix characters of a value. A masked record is
+ * written into a reusable output, a record without any sensitive value is passed through untouched.
+ * <p>
+ * Configuration looks like:
+ * <p>
+ * { "optionName": "MASK", "maskRules": [ { "type": "PHONE" }, { "type": "IDCARD", "keepPrefix": 6, "keepSuffix": 4 },
+ * { "type": "TOKEN", "keys": [ "token=", "password=" ] } ], "maskChar": "*" }
+ */
+public class MaskDataConverter extends BaseDataConverter implements IStreamingDataConverter
+{
+    public static enum MaskType
+    {
+        PHONE(3, 4), IDCARD(6, 4), TOKEN(0, 0);
+        
+        private final int defaultKeepPrefix;
+        
+        private final int defaultKeepSuffix;
+        
+        private MaskType(int defaultKeepPrefix, int defaultKeepSuffix)
+        {
+            this.defaultKeepPrefix = defaultKeepPrefix;
+            this.defaultKeepSuffix = defaultKeepSuffix;
+        }
+    }
+    
+    private static final String MASK_RULES_KEY = "maskRules";
+    
+    private static final String TYPE_KEY = "type";
+    
+    private static final String KEEP_PREFIX_KEY = "keepPrefix";
+    
+    private static final String KEEP_SUFFIX_KEY = "keepSuffix";
+    
+    private static final String KEYS_KEY = "keys";
+    
+    private static final String MASK_CHAR_KEY = "maskChar";
+    
+    private static final int PHONE_LENGTH = 11;
+    
+    private static final int IDCARD_LENGTH = 18;
+    
+    private static final ThreadLocal<Scan> SCANS = new ThreadLocal<Scan>()
+    {
+        @Override
+        protected Scan initialValue()
+        {
+            return new Scan();
+        }
+    };
+    
+    private final byte maskChar;
+    
+    /**
+     * Records are decoded and scanned as UTF-8 if their charset doesn't allow to scan them as is
+     */
+    private final boolean transcoding;
+    
+    /**
+     * Whether the scanned bytes are UTF-8, in which case multi-byte characters are masked as a single character
+     */
+    private final boolean utf8;
+    
+    private MaskRule phoneRule;
+    
+    private MaskRule idCardRule;
+    
+    private final AhoCorasickMatcher keyMatcher;
+    
+    /**
+     * The TOKEN rule of each key of {@link #keyMatcher}
+     */
+    private final List<MaskRule> keyRules = new ArrayList<>();
+    
+    private final Map<MaskType, AtomicLong> totalValuesMasked = new EnumMap<>(MaskType.class);
+    
+    private final AtomicLong totalRecordsMasked = new AtomicLong();
+    
+    public MaskDataConverter(Configuration config)
+    {
+        super(config);
+        String mask = config.readString(MASK_CHAR_KEY, "*");
+        if (mask.length() != 1 || mask.charAt(0) >= 0x80)
+        {
+            throw new ConfigurationException(MASK_CHAR_KEY + " must be a single ASCII character");
+        }
+        maskChar = (byte)mask.charAt(0);
+        transcoding = !isAsciiScannable();
+        utf8 = transcoding || StandardCharsets.UTF_8.equals(charset);
+        Charset scanCharset = transcoding ? StandardCharsets.UTF_8 : charset;
+        
+        List<byte[]> keys = new ArrayList<>();
+        for (Configuration ruleConfig : config.readList(MASK_RULES_KEY, Configuration.class))
+        {
+            MaskType type = ruleConfig.readEnum(MaskType.class, TYPE_KEY);
+            if (!totalValuesMasked.containsKey(type))
+            {
+                totalValuesMasked.put(type, new AtomicLong());
+            }
+            MaskRule rule = new MaskRule(ruleConfig.readInteger(KEEP_PREFIX_KEY, type.defaultKeepPrefix),
+                ruleConfig.readInteger(KEEP_SUFFIX_KEY, type.defaultKeepSuffix), totalValuesMasked.get(type));
+            switch (type)
+            {
+                case PHONE:
+                    if (phoneRule != null)
+                    {
+                        throw new ConfigurationException("Duplicate mask rule " + type);
+                    }
+                    phoneRule = rule;
+                    break;
+                case IDCARD:
+                    if (idCardRule != null)
+                    {
+                        throw new ConfigurationException("Duplicate mask rule " + type);
+                    }
+                    idCardRule = rule;
+                    break;
+                case TOKEN:
+                    for (String key : ruleConfig.readList(KEYS_KEY, String.class))
+                    {
+                        if (key.isEmpty())
+                        {
+                            throw new ConfigurationException("Keys of the " + type + " mask rule cannot be empty");
+                        }
+                        keys.add(key.getBytes(scanCharset));
+                        keyRules.add(rule);
+                    }
+                    break;
+                default:
+                    throw new ConfigurationException("Mask rule " + type + " is not accepted");
+            }
+        }
+        if (totalValuesMasked.isEmpty())
+        {
+            throw new ConfigurationException(MASK_RULES_KEY + " cannot be empty");
+        }
+        keyMatcher = keys.isEmpty() ? null : new AhoCorasickMatcher(keys);
+    }
+    
+    @Override
+    public ByteBuffer convert(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = mask(data);
+        return output == null ? data : output.copy();
+    }
+    
+    @Override
+    public RecordOutput convertTo(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = mask(data);
+        if (output == null)
+        {
+            output = RecordOutput.acquire(data);
+            try
+            {
+                ByteBuffers.copy(data, output);
+            }
+            catch (IOException e)
+            {
+                throw new DataConversionException("Unable to write record", e);
+            }
+        }
+        return output;
+    }
+    
+    @Override
+    public ByteBuffer convertInChain(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = mask(data);
+        return output == null ? data : output.view();
+    }
+    
+    @SuppressWarnings("serial")
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        final String className = getClass().getSimpleName();
+        return new HashMap<String, Object>()
+        {
+            {
+                put(className + ".TotalRecordsMasked", totalRecordsMasked);
+                for (Map.Entry<MaskType, AtomicLong> total : totalValuesMasked.entrySet())
+                {
+                    put(className + ".TotalValuesMasked[" + total.getKey() + "]", total.getValue());
+                }
+            }
+        };
+    }
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * @return The output holding the masked record, or {@code null} if the record has nothing to mask
+     */
+    private RecordOutput mask(ByteBuffer data)
+        throws DataConversionException
+    {
+        Scan scan = SCANS.get();
+        byte[] bytes;
+        int offset;
+        int length;
+        if (transcoding)
+        {
+            bytes = ByteBuffers.toString(data, charset).getBytes(StandardCharsets.UTF_8);
+            offset = 0;
+            length = bytes.length;
+        }
+        else if (data.hasArray())
+        {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+            length = data.remaining();
+        }
+        else
+        {
+            bytes = scan.copy(data);
+            offset = 0;
+            length = data.remaining();
+        }
+        
+        scan.reset();
+        scan(bytes, offset, length, scan);
+        if (scan.count == 0)
+        {
+            return null;
+        }
+        totalRecordsMasked.incrementAndGet();
+        RecordOutput output = RecordOutput.acquire(data);
+        try
+        {
+            if (transcoding)
+            {
+                ByteArrayOutputStream masked = new ByteArrayOutputStream(length);
+                writeMasked(bytes, offset, length, scan, masked);
+                byte[] encoded = new String(masked.toByteArray(), StandardCharsets.UTF_8).getBytes(charset);
+                output.write(encoded, 0, encoded.length);
+            }
+            else
+            {
+                writeMasked(bytes, offset, length, scan, output);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new DataConversionException("Unable to write masked record", e);
+        }
+        return output;
+    }
+    
+    private void scan(byte[] bytes, int offset, int length, Scan scan)
+    {
+        int end = offset + length;
+        int state = 0;
+        int i = offset;
+        while (i < end)
+        {
+            byte b = bytes[i];
+            if (isDigit(b) && (i == offset || !isAlphanumeric(bytes[i - 1])))
+            {
+                scanNumber(bytes, i, end, scan);
+            }
+            if (keyMatcher != null)
+            {
+                state = keyMatcher.next(state, b);
+                int key = keyMatcher.matchAt(state);
+                if (key >= 0)
+                {
+                    int valueEnd = i + 1;
+                    while (valueEnd < end && !isValueDelimiter(bytes[valueEnd]))
+                    {
+                        valueEnd++;
+                    }
+                    scan.add(i + 1, valueEnd, keyRules.get(key));
+                    i = valueEnd;
+                    state = 0;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+    
+    /**
+     * Checks whether the digits starting at the given offset are a phone or ID card number.
+     */
+    private void scanNumber(byte[] bytes, int start, int end, Scan scan)
+    {
+        int digitsEnd = start;
+        while (digitsEnd < end && isDigit(bytes[digitsEnd]))
+        {
+            digitsEnd++;
+        }
+        int digits = digitsEnd - start;
+        if (idCardRule != null && bytes[start] != '0')
+        {
+            if (digits == IDCARD_LENGTH - 1 && digitsEnd < end && (bytes[digitsEnd] == 'X' || bytes[digitsEnd] == 'x')
+                && (digitsEnd + 1 == end || !isAlphanumeric(bytes[digitsEnd + 1])))
+            {
+                scan.add(start, digitsEnd + 1, idCardRule);
+                return;
+            }
+            if (digits == IDCARD_LENGTH && (digitsEnd == end || !isAlphanumeric(bytes[digitsEnd])))
+            {
+                scan.add(start, digitsEnd, idCardRule);
+                return;
+            }
+        }
+        if (phoneRule != null && (digitsEnd == end || !isAlphanumeric(bytes[digitsEnd])))
+        {
+            // Skip the country code
+            int phoneStart = digits == PHONE_LENGTH + 2 && bytes[start] == '8' && bytes[start + 1] == '6' ? start + 2
+                : start;
+            if (digitsEnd - phoneStart == PHONE_LENGTH && bytes[phoneStart] == '1' && bytes[phoneStart + 1] >= '3')
+            {
+                scan.add(phoneStart, digitsEnd, phoneRule);
+            }
+        }
+    }
+    
+    private void writeMasked(byte[] bytes, int offset, int length, Scan scan, OutputStream output)
+        throws IOException
+    {
+        int pos = offset;
+        for (int r = 0; r < scan.count; r++)
+        {
+            int start = scan.starts[r];
+            int end = scan.ends[r];
+            MaskRule rule = scan.rules[r];
+            output.write(bytes, pos, start - pos);
+            
+            int chars = 0;
+            for (int i = start; i < end; i++)
+            {
+                if (isCharStart(bytes[i]))
+                {
+                    chars++;
+                }
+            }
+            boolean keep = chars > rule.keepPrefix + rule.keepSuffix;
+            int index = -1;
+            for (int i = start; i < end; i++)
+            {
+                boolean charStart = isCharStart(bytes[i]);
+                if (charStart)
+                {
+                    index++;
+                }
+                if (keep && (index < rule.keepPrefix || index >= chars - rule.keepSuffix))
+                {
+                    output.write(bytes[i]);
+                }
+                else if (charStart)
+                {
+                    output.write(maskChar);
+                }
+            }
+            rule.totalValuesMasked.incrementAndGet();
+            pos = end;
+        }
+        output.write(bytes, pos, offset + length - pos);
+    }
+    
+    private boolean isCharStart(byte b)
+    {
+        return !utf8 || (b & 0xC0) != 0x80;
+    }
+    
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+    
+    private static boolean isAlphanumeric(byte b)
+    {
+        return isDigit(b) || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z';
+    }
+    
+    private static boolean isValueDelimiter(byte b)
+    {
+        switch (b)
+        {
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+            case '"':
+            case '\'':
+            case '&':
+            case ',':
+            case ';':
+            case '<':
+            case '>':
+            case '(':
+            case ')':
+            case '[':
+            case ']':
+            case '{':
+            case '}':
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private static class MaskRule
+    {
+        private final int keepPrefix;
+        
+        private final int keepSuffix;
+        
+        /**
+         * Shared by the rules of the same type
+         */
+        private final AtomicLong totalValuesMasked;
+        
+        MaskRule(int keepPrefix, int keepSuffix, AtomicLong totalValuesMasked)
+        {
+            if (keepPrefix < 0 || keepSuffix < 0)
+            {
+                throw new ConfigurationException(KEEP_PREFIX_KEY + " and " + KEEP_SUFFIX_KEY + " cannot be negative");
+            }
+            this.keepPrefix = keepPrefix;
+            this.keepSuffix = keepSuffix;
+            this.totalValuesMasked = totalValuesMasked;
+        }
+    }
+    
+    /**
+     * The ranges of a record to mask, in order, reused for every record scanned by a thread.
+     */
+    private static class Scan
+    {
+        private int[] starts = new int[8];
+        
+        private int[] ends = new int[8];
+        
+        private MaskRule[] rules = new MaskRule[8];
+        
+        private int count;
+        
+        private byte[] copy = new byte[1024];
+        
+        void reset()
+        {
+            count = 0;
+            Arrays.fill(rules, null);
+        }
+        
+        void add(int start, int end, MaskRule rule)
+        {
+            if (count > 0 && start < ends[count - 1])
+            {
+                // Overlaps the previous range, e.g. a number inside a token
+                start = ends[count - 1];
+            }
+            if (start >= end)
+            {
+                return;
+            }
+            if (count == starts.length)
+            {
+                starts = Arrays.copyOf(starts, count << 1);
+                ends = Arrays.copyOf(ends, count << 1);
+                rules = Arrays.copyOf(rules, count << 1);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            rules[count] = rule;
+            count++;
+        }
+        
+        /**
+         * @return A copy of the remaining bytes of a buffer without a backing array
+         */
+        byte[] copy(ByteBuffer data)
+        {
+            if (copy.length < data.remaining())
+            {
+                copy = new byte[Math.max(data.remaining(), copy.length << 1)];
+            }
+            data.duplicate().get(copy, 0, data.remaining());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,677 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.interfaces.IStreamingDataConverter;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
+
+/**
+ * Annotate the records with their event time, in milliseconds since the epoch, so that consumers can window them.
+ * <p>
+ * The timestamp starts right after the first occurrence of timestampPrefix, or is the first group (the whole match if
+ * there is no group) of the first match of timestampPattern, or starts the record if neither is specified. It's parsed
+ * with timestampFormat, a {@link DateTimeFormatter} pattern with English names, in timeZone unless it holds an offset.
+ * <p>
+ * Log timestamps usually only change every second, so each thread caches the text of the last timestamp it parsed
+ * without its fraction of second (the {@code S} letters of the format). A timestamp with the same text around its
+ * fraction is not parsed again: the fraction is added to the cached second. Timestamps are therefore assumed to be
+ * determined by their characters alone.
+ * <p>
+ * The event time is added as timestampField to a record that is a JSON object, any other record is wrapped into an
+ * object holding the event time and the record as "data". Records without a valid timestamp are passed through
+ * untouched. The lag between the event time of the last record and the time it was converted is exported as a metric.
+ * <p>
+ * Configuration looks like:
+ * <p>
+ * { "optionName": "TIMESTAMP", "timestampPrefix": "\"time\":\"", "timestampPattern": "OPTIONAL_REGEX",
+ * "timestampFormat": "yyyy-MM-dd HH:mm:ss.SSS", "timeZone": "Asia/Shanghai", "timestampField": "eventTime" }
+ */
+public class TimestampDataConverter extends BaseDataConverter implements IStreamingDataConverter
+{
+    private static final String TIMESTAMP_PREFIX_KEY = "timestampPrefix";
+    
+    private static final String TIMESTAMP_PATTERN_KEY = "timestampPattern";
+    
+    private static final String TIMESTAMP_FORMAT_KEY = "timestampFormat";
+    
+    private static final String TIME_ZONE_KEY = "timeZone";
+    
+    private static final String TIMESTAMP_FIELD_KEY = "timestampField";
+    
+    private static final String DATA_FIELD = "data";
+    
+    private static final int MILLIS_DIGITS = 3;
+    
+    private final ThreadLocal<ParseState> states = new ThreadLocal<ParseState>()
+    {
+        @Override
+        protected ParseState initialValue()
+        {
+            return new ParseState();
+        }
+    };
+    
+    /**
+     * The prefix as it appears in the located text, i.e. in a {@link ByteChars} view of the scanned bytes unless the
+     * record is decoded
+     */
+    private final String prefix;
+    
+    private final Pattern pattern;
+    
+    private final DateTimeFormatter formatter;
+    
+    /**
+     * Parses the part of a timestamp before its fraction of second, {@code null} if the format has no fraction
+     */
+    private final DateTimeFormatter secondFormatter;
+    
+    private final int fractionDigits;
+    
+    private final String timestampField;
+    
+    /**
+     * {@code "timestampField":} in the scanned bytes
+     */
+    private final byte[] fieldPrefix;
+    
+    /**
+     * Records are decoded and scanned as UTF-8 if their charset doesn't allow to scan them as is
+     */
+    private final boolean transcoding;
+    
+    /**
+     * Whether the timestamp is located and parsed in the decoded record rather than in a view of its bytes
+     */
+    private final boolean decoding;
+    
+    private final AtomicLong totalRecordsTimestamped = new AtomicLong();
+    
+    private final AtomicLong totalRecordsWithoutTimestamp = new AtomicLong();
+    
+    private final AtomicLong totalTimestampCacheHits = new AtomicLong();
+    
+    private final AtomicLong lastEventTimeMillis = new AtomicLong();
+    
+    private final AtomicLong eventTimeLagMillis = new AtomicLong();
+    
+    public TimestampDataConverter(Configuration config)
+    {
+        super(config);
+        transcoding = !isAsciiScannable();
+        Charset scanCharset = transcoding ? StandardCharsets.UTF_8 : charset;
+        
+        String format = config.readString(TIMESTAMP_FORMAT_KEY, "yyyy-MM-dd HH:mm:ss");
+        ZoneId zone;
+        try
+        {
+            zone = config.containsKey(TIME_ZONE_KEY) ? ZoneId.of(config.readString(TIME_ZONE_KEY))
+                : ZoneId.systemDefault();
+        }
+        catch (DateTimeException e)
+        {
+            throw new ConfigurationException("Invalid " + TIME_ZONE_KEY + ": " + e.getMessage());
+        }
+        int fractionStart = -1;
+        int fractionEnd = -1;
+        boolean quoted = false;
+        for (int i = 0; i < format.length(); i++)
+        {
+            char c = format.charAt(i);
+            if (c == '\'')
+            {
+                quoted = !quoted;
+            }
+            else if (c == 'S' && !quoted)
+            {
+                if (fractionStart >= 0 && fractionEnd < i)
+                {
+                    // Several fractions: the whole timestamp is cached
+                    fractionStart = -1;
+                    break;
+                }
+                if (fractionStart < 0)
+                {
+                    fractionStart = i;
+                }
+                fractionEnd = i + 1;
+            }
+        }
+        try
+        {
+            formatter = DateTimeFormatter.ofPattern(format, Locale.ENGLISH).withZone(zone);
+            secondFormatter = fractionStart < 0 ? null
+                : DateTimeFormatter.ofPattern(format.substring(0, fractionStart), Locale.ENGLISH);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigurationException("Invalid " + TIMESTAMP_FORMAT_KEY + ": " + e.getMessage());
+        }
+        fractionDigits = fractionStart < 0 ? 0 : fractionEnd - fractionStart;
+        
+        if (config.containsKey(TIMESTAMP_PATTERN_KEY))
+        {
+            try
+            {
+                pattern = Pattern.compile(config.readString(TIMESTAMP_PATTERN_KEY));
+            }
+            catch (PatternSyntaxException e)
+            {
+                throw new ConfigurationException("Invalid " + TIMESTAMP_PATTERN_KEY + ": " + e.getMessage());
+            }
+            prefix = null;
+        }
+        else
+        {
+            pattern = null;
+            String configuredPrefix = config.readString(TIMESTAMP_PREFIX_KEY, "");
+            prefix = isAscii(format) ? new String(configuredPrefix.getBytes(scanCharset), StandardCharsets.ISO_8859_1)
+                : configuredPrefix;
+        }
+        // A view of the bytes only holds ASCII characters as is
+        decoding = pattern != null || !isAscii(format);
+        
+        timestampField = config.readString(TIMESTAMP_FIELD_KEY, "eventTime");
+        for (int i = 0; i < timestampField.length(); i++)
+        {
+            char c = timestampField.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20)
+            {
+                throw new ConfigurationException(TIMESTAMP_FIELD_KEY + " cannot contain quotes, backslashes or control "
+                    + "characters");
+            }
+        }
+        fieldPrefix = ("\"" + timestampField + "\":").getBytes(scanCharset);
+    }
+    
+    @Override
+    public ByteBuffer convert(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = annotate(data);
+        return output == null ? data : output.copy();
+    }
+    
+    @Override
+    public RecordOutput convertTo(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = annotate(data);
+        if (output == null)
+        {
+            output = RecordOutput.acquire(data);
+            try
+            {
+                ByteBuffers.copy(data, output);
+            }
+            catch (IOException e)
+            {
+                throw new DataConversionException("Unable to write record", e);
+            }
+        }
+        return output;
+    }
+    
+    @Override
+    public ByteBuffer convertInChain(ByteBuffer data)
+        throws DataConversionException
+    {
+        RecordOutput output = annotate(data);
+        return output == null ? data : output.view();
+    }
+    
+    @SuppressWarnings("serial")
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        final String className = getClass().getSimpleName();
+        return new HashMap<String, Object>()
+        {
+            {
+                put(className + ".TotalRecordsTimestamped", totalRecordsTimestamped);
+                put(className + ".TotalRecordsWithoutTimestamp", totalRecordsWithoutTimestamp);
+                put(className + ".TotalTimestampCacheHits", totalTimestampCacheHits);
+                put(className + ".LastEventTimeMillis", lastEventTimeMillis);
+                put(className + ".EventTimeLagMillis", eventTimeLagMillis);
+            }
+        };
+    }
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * @return The output holding the annotated record, or {@code null} if the record has no valid timestamp
+     */
+    private RecordOutput annotate(ByteBuffer data)
+        throws DataConversionException
+    {
+        ParseState state = states.get();
+        byte[] bytes;
+        int offset;
+        int length;
+        if (transcoding)
+        {
+            bytes = ByteBuffers.toString(data, charset).getBytes(StandardCharsets.UTF_8);
+            offset = 0;
+            length = bytes.length;
+        }
+        else if (data.hasArray())
+        {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+            length = data.remaining();
+        }
+        else
+        {
+            bytes = ByteBuffers.toArray(data);
+            offset = 0;
+            length = bytes.length;
+        }
+        
+        CharSequence text;
+        if (decoding)
+        {
+            text = transcoding ? new String(bytes, StandardCharsets.UTF_8) : ByteBuffers.toString(data, charset);
+        }
+        else
+        {
+            text = state.chars.wrap(bytes, offset, length);
+        }
+        long eventTime = parseEventTime(text, state);
+        state.chars.wrap(null, 0, 0);
+        if (eventTime == Long.MIN_VALUE)
+        {
+            totalRecordsWithoutTimestamp.incrementAndGet();
+            return null;
+        }
+        totalRecordsTimestamped.incrementAndGet();
+        lastEventTimeMillis.set(eventTime);
+        eventTimeLagMillis.set(System.currentTimeMillis() - eventTime);
+        
+        RecordOutput output = RecordOutput.acquire(data);
+        try
+        {
+            int objectEnd = indexOfObjectEnd(bytes, offset, length);
+            if (objectEnd < 0)
+            {
+                writeWrapped(data, eventTime, output);
+            }
+            else if (transcoding)
+            {
+                ByteArrayOutputStream annotated = new ByteArrayOutputStream(length + fieldPrefix.length + 16);
+                writeAnnotated(bytes, offset, length, objectEnd, eventTime, annotated);
+                byte[] encoded = new String(annotated.toByteArray(), StandardCharsets.UTF_8).getBytes(charset);
+                output.write(encoded, 0, encoded.length);
+            }
+            else
+            {
+                writeAnnotated(bytes, offset, length, objectEnd, eventTime, output);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new DataConversionException("Unable to write record with its event time", e);
+        }
+        return output;
+    }
+    
+    /**
+     * @return The event time of the record in milliseconds, or {@link Long#MIN_VALUE} if it has no valid timestamp
+     */
+    private long parseEventTime(CharSequence text, ParseState state)
+    {
+        int start;
+        if (pattern != null)
+        {
+            Matcher matcher = pattern.matcher(text);
+            if (!matcher.find())
+            {
+                return Long.MIN_VALUE;
+            }
+            start = matcher.groupCount() > 0 ? matcher.start(1) : matcher.start();
+            if (start < 0)
+            {
+                return Long.MIN_VALUE;
+            }
+        }
+        else
+        {
+            start = indexOf(text, prefix);
+            if (start < 0)
+            {
+                return Long.MIN_VALUE;
+            }
+            start += prefix.length();
+        }
+        
+        long cached = state.lookup(text, start, fractionDigits);
+        if (cached != Long.MIN_VALUE)
+        {
+            totalTimestampCacheHits.incrementAndGet();
+            return cached;
+        }
+        try
+        {
+            ParsePosition position = new ParsePosition(start);
+            TemporalAccessor parsed = formatter.parse(text, position);
+            long eventTime = Instant.from(parsed).toEpochMilli();
+            int end = position.getIndex();
+            int fractionStart = end;
+            if (secondFormatter != null)
+            {
+                ParsePosition secondPosition = new ParsePosition(start);
+                if (secondFormatter.parseUnresolved(text, secondPosition) == null)
+                {
+                    return eventTime;
+                }
+                fractionStart = secondPosition.getIndex();
+                if (fractionStart + fractionDigits > end)
+                {
+                    return eventTime;
+                }
+            }
+            long fractionMillis = parseFractionMillis(text, fractionStart, fractionDigits);
+            if (fractionMillis >= 0)
+            {
+                state.store(text, start, fractionStart, fractionStart + fractionDigits, end, eventTime - fractionMillis);
+            }
+            return eventTime;
+        }
+        catch (DateTimeException e)
+        {
+            return Long.MIN_VALUE;
+        }
+    }
+    
+    /**
+     * Writes the record with the event time added as the last field of its JSON object.
+     */
+    private void writeAnnotated(byte[] bytes, int offset, int length, int objectEnd, long eventTime,
+        OutputStream output)
+        throws IOException
+    {
+        output.write(bytes, offset, objectEnd - offset);
+        if (!isEmptyObject(bytes, offset, objectEnd))
+        {
+            output.write(',');
+        }
+        output.write(fieldPrefix);
+        byte[] millis = Long.toString(eventTime).getBytes(StandardCharsets.US_ASCII);
+        output.write(millis, 0, millis.length);
+        output.write(bytes, objectEnd, offset + length - objectEnd);
+    }
+    
+    /**
+     * Writes a record that is not a JSON object as the "data" of an object holding its event time.
+     */
+    private void writeWrapped(ByteBuffer data, long eventTime, RecordOutput output)
+        throws IOException
+    {
+        String record = ByteBuffers.toString(data, charset);
+        boolean hasLineBreak = false;
+        if (record.endsWith(NEW_LINE))
+        {
+            hasLineBreak = true;
+            record = record.substring(0, record.length() - NEW_LINE.length());
+        }
+        JsonGenerator generator = output.beginJson(charset, false);
+        generator.writeStartObject();
+        generator.writeNumberField(timestampField, eventTime);
+        generator.writeStringField(DATA_FIELD, record);
+        generator.writeEndObject();
+        output.endJson(generator, hasLineBreak);
+    }
+    
+    /**
+     * @return The offset of the closing brace if the record is a JSON object, {@code -1} otherwise
+     */
+    private static int indexOfObjectEnd(byte[] bytes, int offset, int length)
+    {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && isWhitespace(bytes[start]))
+        {
+            start++;
+        }
+        while (end > start && isWhitespace(bytes[end - 1]))
+        {
+            end--;
+        }
+        return end - start >= 2 && bytes[start] == '{' && bytes[end - 1] == '}' ? end - 1 : -1;
+    }
+    
+    private static boolean isEmptyObject(byte[] bytes, int offset, int objectEnd)
+    {
+        for (int i = objectEnd - 1; i >= offset; i--)
+        {
+            if (!isWhitespace(bytes[i]))
+            {
+                return bytes[i] == '{';
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+    
+    private static int indexOf(CharSequence text, String target)
+    {
+        int last = text.length() - target.length();
+        for (int i = 0; i <= last; i++)
+        {
+            int j = 0;
+            while (j < target.length() && text.charAt(i + j) == target.charAt(j))
+            {
+                j++;
+            }
+            if (j == target.length())
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return The milliseconds of the given digits of a fraction of second, {@code -1} if they're not all digits
+     */
+    private static long parseFractionMillis(CharSequence text, int start, int digits)
+    {
+        long millis = 0;
+        for (int i = 0; i < digits; i++)
+        {
+            char c = text.charAt(start + i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            if (i < MILLIS_DIGITS)
+            {
+                millis = millis * 10 + (c - '0');
+            }
+        }
+        for (int i = digits; i < MILLIS_DIGITS; i++)
+        {
+            millis *= 10;
+        }
+        return millis;
+    }
+    
+    private static boolean isAscii(String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (s.charAt(i) >= 0x80)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * The last timestamp parsed by a thread, reused for every record it converts.
+     */
+    private static class ParseState
+    {
+        private final ByteChars chars = new ByteChars();
+        
+        /**
+         * The timestamp before its fraction of second, or the whole timestamp if the format has no fraction
+         */
+        private final StringBuilder head = new StringBuilder();
+        
+        /**
+         * The timestamp after its fraction of second
+         */
+        private final StringBuilder tail = new StringBuilder();
+        
+        /**
+         * The event time of the cached timestamp without its fraction of second, {@link Long#MIN_VALUE} if none
+         */
+        private long secondMillis = Long.MIN_VALUE;
+        
+        /**
+         * Whether the cached timestamp ends with a digit, which the formatter may have parsed as a variable width field
+         */
+        private boolean endsWithDigit;
+        
+        /**
+         * @return The event time of the timestamp starting at the given offset, or {@link Long#MIN_VALUE} if it's not
+         *         the cached one. A digit right after the cached text may belong to its last field ("12:00:1" of
+         *         "12:00:15" with "HH:mm:s"), the timestamp is then parsed again.
+         */
+        long lookup(CharSequence text, int start, int fractionDigits)
+        {
+            if (secondMillis == Long.MIN_VALUE || !regionMatches(text, start, head))
+            {
+                return Long.MIN_VALUE;
+            }
+            int fractionStart = start + head.length();
+            if (fractionStart + fractionDigits + tail.length() > text.length())
+            {
+                return Long.MIN_VALUE;
+            }
+            long fractionMillis = parseFractionMillis(text, fractionStart, fractionDigits);
+            if (fractionMillis < 0 || !regionMatches(text, fractionStart + fractionDigits, tail))
+            {
+                return Long.MIN_VALUE;
+            }
+            int end = fractionStart + fractionDigits + tail.length();
+            if (endsWithDigit && end < text.length() && isDigit(text.charAt(end)))
+            {
+                return Long.MIN_VALUE;
+            }
+            return secondMillis + fractionMillis;
+        }
+        
+        void store(CharSequence text, int start, int fractionStart, int fractionEnd, int end, long secondMillis)
+        {
+            head.setLength(0);
+            head.append(text, start, fractionStart);
+            tail.setLength(0);
+            tail.append(text, fractionEnd, end);
+            this.secondMillis = secondMillis;
+            endsWithDigit = end > start && isDigit(text.charAt(end - 1));
+        }
+        
+        private static boolean isDigit(char c)
+        {
+            return c >= '0' && c <= '9';
+        }
+        
+        private static boolean regionMatches(CharSequence text, int start, CharSequence region)
+        {
+            if (start + region.length() > text.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < region.length(); i++)
+            {
+                if (text.charAt(start + i) != region.charAt(i))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * A view of bytes as ISO-8859-1 characters, so that ASCII text is located and parsed without decoding a record.
+     */
+    private static class ByteChars implements CharSequence
+    {
+        private byte[] bytes;
+        
+        private int offset;
+        
+        private int length;
+        
+        ByteChars wrap(byte[] bytes, int offset, int length)
+        {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+        
+        @Override
+        public int length()
+        {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index)
+        {
+            if (index < 0 || index >= length)
+            {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return (char)(bytes[offset + index] & 0xFF);
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        
+        @Override
+        public String toString()
+        {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
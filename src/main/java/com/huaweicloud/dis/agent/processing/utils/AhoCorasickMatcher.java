@@ -0,0 +1,183 @@
+package com.huaweicloud.dis.agent.processing.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton finding any of a set of byte sequences in a single pass over the input, whatever the number of
+ * sequences.
+ * <p>
+ * The automaton is compiled into a complete transition table (one row of 256 states per state), so each input byte
+ * costs a single array lookup. Instances are immutable and thread-safe.
+ */
+public class AhoCorasickMatcher
+{
+    private static final int ALPHABET_SIZE = 256;
+    
+    private static final int NO_MATCH = -1;
+    
+    /**
+     * transitions[state * 256 + byte] is the next state
+     */
+    private final int[] transitions;
+    
+    /**
+     * The lowest index of the patterns ending at each state, or {@link #NO_MATCH}
+     */
+    private final int[] matches;
+    
+    /**
+     * @param patterns The byte sequences to find, identified by their index in the list
+     */
+    public AhoCorasickMatcher(List<byte[]> patterns)
+    {
+        int maxStates = 1;
+        for (byte[] pattern : patterns)
+        {
+            maxStates += pattern.length;
+        }
+        int[] gotos = new int[maxStates * ALPHABET_SIZE];
+        Arrays.fill(gotos, NO_MATCH);
+        int[] outputs = new int[maxStates];
+        Arrays.fill(outputs, NO_MATCH);
+        
+        // Build the trie
+        int stateCount = 1;
+        for (int i = 0; i < patterns.size(); i++)
+        {
+            int state = 0;
+            for (byte b : patterns.get(i))
+            {
+                int index = state * ALPHABET_SIZE + (b & 0xFF);
+                if (gotos[index] == NO_MATCH)
+                {
+                    gotos[index] = stateCount++;
+                }
+                state = gotos[index];
+            }
+            if (outputs[state] == NO_MATCH)
+            {
+                outputs[state] = i;
+            }
+        }
+        
+        // Complete the transitions breadth-first, with the failure links of the states
+        int[] failures = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c++)
+        {
+            int child = gotos[c];
+            if (child == NO_MATCH)
+            {
+                gotos[c] = 0;
+            }
+            else
+            {
+                failures[child] = 0;
+                outputs[child] = lowest(outputs[child], outputs[0]);
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail)
+        {
+            int state = queue[head++];
+            for (int c = 0; c < ALPHABET_SIZE; c++)
+            {
+                int index = state * ALPHABET_SIZE + c;
+                int child = gotos[index];
+                int fallback = gotos[failures[state] * ALPHABET_SIZE + c];
+                if (child == NO_MATCH)
+                {
+                    gotos[index] = fallback;
+                }
+                else
+                {
+                    failures[child] = fallback;
+                    outputs[child] = lowest(outputs[child], outputs[fallback]);
+                    queue[tail++] = child;
+                }
+            }
+        }
+        this.transitions = Arrays.copyOf(gotos, stateCount * ALPHABET_SIZE);
+        this.matches = Arrays.copyOf(outputs, stateCount);
+    }
+    
+    /**
+     * Finds the pattern that ends first in the remaining bytes of the given buffer, whose position is not modified.
+     *
+     * @return The index of the pattern, the lowest one if several patterns end at the same byte, or -1 if none is found
+     */
+    public int find(ByteBuffer data)
+    {
+        if (data.hasArray())
+        {
+            return find(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        int state = 0;
+        if (matches[state] != NO_MATCH)
+        {
+            return matches[state];
+        }
+        for (int i = data.position(); i < data.limit(); i++)
+        {
+            state = transitions[state * ALPHABET_SIZE + (data.get(i) & 0xFF)];
+            if (matches[state] != NO_MATCH)
+            {
+                return matches[state];
+            }
+        }
+        return NO_MATCH;
+    }
+    
+    /**
+     * @see #find(ByteBuffer)
+     */
+    public int find(byte[] bytes, int offset, int length)
+    {
+        int state = 0;
+        if (matches[state] != NO_MATCH)
+        {
+            return matches[state];
+        }
+        for (int i = offset; i < offset + length; i++)
+        {
+            state = transitions[state * ALPHABET_SIZE + (bytes[i] & 0xFF)];
+            if (matches[state] != NO_MATCH)
+            {
+                return matches[state];
+            }
+        }
+        return NO_MATCH;
+    }
+    
+    /**
+     * Advances the automaton by one byte, for callers scanning the input themselves.
+     *
+     * @param state The current state, 0 being the initial state
+     * @return The next state
+     */
+    public int next(int state, byte b)
+    {
+        return transitions[state * ALPHABET_SIZE + (b & 0xFF)];
+    }
+    
+    /**
+     * @return The index of the pattern ending at the given state, the lowest one if several patterns end there, or -1
+     */
+    public int matchAt(int state)
+    {
+        return matches[state];
+    }
+    
+    private static int lowest(int match, int other)
+    {
+        if (match == NO_MATCH)
+        {
+            return other;
+        }
+        return other == NO_MATCH ? match : Math.min(match, other);
+    }
+}
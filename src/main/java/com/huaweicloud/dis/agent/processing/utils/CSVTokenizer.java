@@ -0,0 +1,201 @@
+package com.huaweicloud.dis.agent.processing.utils;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass tokenizer splitting a CSV record into fields, over the bytes of the record: fields are reported as ranges
+ * of the input rather than copied.
+ * <p>
+ * Quoting and escaping follow RFC 4180: a field enclosed in double quotes may contain the delimiter, and a double quote
+ * inside such a field is escaped by another double quote. Malformed input is accepted leniently: a quote inside an
+ * unquoted field is literal, characters after the closing quote of a field are kept, and an unterminated quoted field
+ * runs to the end of the record. The delimiter and the quote must be ASCII characters, so any ASCII-compatible
+ * encoding where multi-byte characters only use non-ASCII bytes (e.g. UTF-8) can be tokenized.
+ * <p>
+ * Instances are reused for every record, and aren't thread-safe.
+ */
+public class CSVTokenizer
+{
+    private static final byte QUOTE = '"';
+    
+    private final byte delimiter;
+    
+    private byte[] bytes;
+    
+    private int count;
+    
+    private int[] starts = new int[16];
+    
+    private int[] ends = new int[16];
+    
+    private boolean[] escaped = new boolean[16];
+    
+    private byte[] unescaped = new byte[256];
+    
+    public CSVTokenizer(char delimiter)
+    {
+        if (delimiter >= 0x80 || delimiter == QUOTE || delimiter == '\n' || delimiter == '\r')
+        {
+            throw new IllegalArgumentException("Unsupported CSV delimiter [" + delimiter + "]");
+        }
+        this.delimiter = (byte)delimiter;
+    }
+    
+    /**
+     * Splits the given record into fields. An empty record has no field.
+     *
+     * @param bytes The record, without its line break
+     * @param offset The offset of the record in the array
+     * @param length The length of the record
+     * @param maxFields The number of fields after which the rest of the record is ignored
+     * @return The number of fields
+     */
+    public int tokenize(byte[] bytes, int offset, int length, int maxFields)
+    {
+        this.bytes = bytes;
+        count = 0;
+        int end = offset + length;
+        int pos = offset;
+        while (length > 0 && count < maxFields)
+        {
+            if (pos < end && bytes[pos] == QUOTE)
+            {
+                boolean simple = true;
+                int closingQuote = -1;
+                int i = pos + 1;
+                while (i < end)
+                {
+                    if (bytes[i] == QUOTE)
+                    {
+                        if (i + 1 < end && bytes[i + 1] == QUOTE)
+                        {
+                            simple = false;
+                            i += 2;
+                            continue;
+                        }
+                        closingQuote = i++;
+                        break;
+                    }
+                    i++;
+                }
+                int fieldEnd = indexOfDelimiter(i, end);
+                if (simple && closingQuote >= 0 && fieldEnd == closingQuote + 1)
+                {
+                    addField(pos + 1, closingQuote, false);
+                }
+                else
+                {
+                    // Keep the quotes, they're resolved when the field is unescaped
+                    addField(pos, fieldEnd, true);
+                }
+                pos = fieldEnd;
+            }
+            else
+            {
+                int fieldEnd = indexOfDelimiter(pos, end);
+                addField(pos, fieldEnd, false);
+                pos = fieldEnd;
+            }
+            if (pos >= end)
+            {
+                break;
+            }
+            // Skip the delimiter, a delimiter at the end of the record is followed by an empty field
+            pos++;
+        }
+        return count;
+    }
+    
+    public int getFieldCount()
+    {
+        return count;
+    }
+    
+    /**
+     * @return {@code true} if the field must be unescaped (see {@link #unescape(int)}), {@code false} if its content is
+     *         the range {@link #getStart(int)} to {@link #getEnd(int)} of the record.
+     */
+    public boolean isEscaped(int field)
+    {
+        return escaped[field];
+    }
+    
+    public int getStart(int field)
+    {
+        return starts[field];
+    }
+    
+    public int getEnd(int field)
+    {
+        return ends[field];
+    }
+    
+    /**
+     * Resolves the quotes of an escaped field into {@link #getUnescaped()}.
+     *
+     * @return The length of the content of the field
+     */
+    public int unescape(int field)
+    {
+        int start = starts[field];
+        int end = ends[field];
+        if (unescaped.length < end - start)
+        {
+            unescaped = new byte[Math.max(end - start, unescaped.length << 1)];
+        }
+        int length = 0;
+        boolean inQuotes = false;
+        for (int i = start; i < end; i++)
+        {
+            byte b = bytes[i];
+            if (b != QUOTE)
+            {
+                unescaped[length++] = b;
+            }
+            else if (inQuotes && i + 1 < end && bytes[i + 1] == QUOTE)
+            {
+                unescaped[length++] = QUOTE;
+                i++;
+            }
+            else
+            {
+                inQuotes = !inQuotes;
+            }
+        }
+        return length;
+    }
+    
+    /**
+     * @return The content of the last field passed to {@link #unescape(int)}
+     */
+    public byte[] getUnescaped()
+    {
+        return unescaped;
+    }
+    
+    private int indexOfDelimiter(int from, int end)
+    {
+        for (int i = from; i < end; i++)
+        {
+            if (bytes[i] == delimiter)
+            {
+                return i;
+            }
+        }
+        return end;
+    }
+    
+    private void addField(int start, int end, boolean escape)
+    {
+        if (count == starts.length)
+        {
+            starts = Arrays.copyOf(starts, count << 1);
+            ends = Arrays.copyOf(ends, count << 1);
+            escaped = Arrays.copyOf(escaped, count << 1);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        escaped[count] = escape;
+        count++;
+    }
+}
@@ -21,7 +21,7 @@ public class ProcessingUtilsFactory
     
     public static enum DataConversionOption
     {
-        ADDMETADATA, SINGLELINE, CSVTOJSON, LOGTOJSON, ADDBRACKETS
+        ADDMETADATA, SINGLELINE, CSVTOJSON, LOGTOJSON, ADDBRACKETS, FILTER, MASK, TIMESTAMP, JSONPROJECT
     }
     
     public static enum LogFormat
@@ -42,6 +42,8 @@ public class ProcessingUtilsFactory
     
     public static final String CUSTOM_FIELDS_KEY = "customFieldNames";
     
+    public static final String SELECTED_FIELDS_KEY = "selectedFieldNames";
+    
     public static final String JSONFORMAT_KEY = "jsonFormat";
 
     public static final String FILE_ENCODING_KEY = "fileEncoding";
@@ -117,6 +119,14 @@ public class ProcessingUtilsFactory
                 return new LogToJSONDataConverter(config);
             case ADDBRACKETS:
                 return new BracketsDataConverter(config);
+            case FILTER:
+                return new FilterDataConverter(config);
+            case MASK:
+                return new MaskDataConverter(config);
+            case TIMESTAMP:
+                return new TimestampDataConverter(config);
+            case JSONPROJECT:
+                return new JSONProjectDataConverter(config);
             default:
                 throw new ConfigurationException("Specified option is not implemented yet: " + option);
         }
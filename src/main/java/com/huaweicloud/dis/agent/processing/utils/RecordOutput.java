@@ -0,0 +1,239 @@
+package com.huaweicloud.dis.agent.processing.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.huaweicloud.dis.agent.processing.interfaces.IDataConverter;
+
+/**
+ * A reusable and growable output that converters write records into, instead of printing them to a String and
+ * encoding it.
+ * <p>
+ * Each thread owns two outputs, so that a converter of a chain can write into one of them while its input is a view of
+ * the other one (see {@link #acquire(ByteBuffer)}). The outputs, and the {@link JsonGenerator}s writing into them, are
+ * reused for every record converted by the thread: only the final result of a chain is copied out of them (see
+ * {@link #detach(ByteBuffer)}).
+ */
+public class RecordOutput extends OutputStream
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    /**
+     * Outputs grown beyond this capacity by a large record are shrunk back when reused.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    
+    /**
+     * Used as the codec of the generators, to write arbitrary values (e.g. maps) the same way the
+     * {@link com.huaweicloud.dis.agent.processing.interfaces.IJSONPrinter}s do.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory().setRootValueSeparator(null);
+    
+    private static final ThreadLocal<RecordOutput[]> OUTPUTS = new ThreadLocal<RecordOutput[]>()
+    {
+        @Override
+        protected RecordOutput[] initialValue()
+        {
+            return new RecordOutput[] {new RecordOutput(), new RecordOutput()};
+        }
+    };
+    
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    
+    private int count;
+    
+    private JsonGenerator compactGenerator;
+    
+    private JsonGenerator prettyGenerator;
+    
+    private Charset generatorCharset;
+    
+    private boolean writingJson;
+    
+    private RecordOutput()
+    {
+    }
+    
+    /**
+     * @param input The data being converted, which may be a view of one of the outputs of the current thread.
+     * @return An empty output of the current thread that doesn't back the given input.
+     */
+    public static RecordOutput acquire(ByteBuffer input)
+    {
+        RecordOutput[] outputs = OUTPUTS.get();
+        RecordOutput output = outputs[0].backs(input) ? outputs[1] : outputs[0];
+        output.reset();
+        return output;
+    }
+    
+    /**
+     * @return The given data if it's not a view of an output of the current thread, or a copy of it otherwise, so that
+     *         it's safe to keep once the next record is converted.
+     */
+    public static ByteBuffer detach(ByteBuffer data)
+    {
+        RecordOutput[] outputs = OUTPUTS.get();
+        if (outputs[0].backs(data) || outputs[1].backs(data))
+        {
+            int offset = data.arrayOffset() + data.position();
+            return ByteBuffer.wrap(Arrays.copyOfRange(data.array(), offset, offset + data.remaining()));
+        }
+        return data;
+    }
+    
+    /**
+     * @param charset The charset the JSON text is encoded with.
+     * @param pretty {@code true} for pretty printed JSON, {@code false} for compact single-line JSON.
+     * @return The generator to write a JSON value into this output with, which must be completed by
+     *         {@link #endJson(JsonGenerator, boolean)}.
+     */
+    public JsonGenerator beginJson(Charset charset, boolean pretty)
+        throws IOException
+    {
+        if (!charset.equals(generatorCharset))
+        {
+            compactGenerator = null;
+            prettyGenerator = null;
+            generatorCharset = charset;
+        }
+        JsonGenerator generator = pretty ? prettyGenerator : compactGenerator;
+        if (generator == null)
+        {
+            if (StandardCharsets.UTF_8.equals(charset))
+            {
+                generator = JSON_FACTORY.createGenerator(this, JsonEncoding.UTF8);
+            }
+            else
+            {
+                generator = JSON_FACTORY.createGenerator(new OutputStreamWriter(this, charset));
+            }
+            if (pretty)
+            {
+                // Records are separate values: no separator between them, as the default printer would write
+                generator.setPrettyPrinter(new DefaultPrettyPrinter().withRootSeparator((SerializableString)null));
+                prettyGenerator = generator;
+            }
+            else
+            {
+                compactGenerator = generator;
+            }
+        }
+        writingJson = true;
+        return generator;
+    }
+    
+    /**
+     * Completes the JSON value written with the given generator.
+     *
+     * @param newLine {@code true} to end the value with a line break.
+     */
+    public void endJson(JsonGenerator generator, boolean newLine)
+        throws IOException
+    {
+        if (newLine)
+        {
+            generator.writeRaw(IDataConverter.NEW_LINE);
+        }
+        generator.flush();
+        writingJson = false;
+    }
+    
+    /**
+     * @return A view of the content of this output, only valid until the output is acquired again.
+     */
+    public ByteBuffer view()
+    {
+        return ByteBuffer.wrap(buffer, 0, count);
+    }
+    
+    /**
+     * @return A copy of the content of this output.
+     */
+    public ByteBuffer copy()
+    {
+        return ByteBuffer.wrap(Arrays.copyOf(buffer, count));
+    }
+    
+    public int size()
+    {
+        return count;
+    }
+    
+    @Override
+    public void write(int b)
+    {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte)b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+    
+    private void reset()
+    {
+        if (writingJson)
+        {
+            // The previous value was not completed (e.g. the record was filtered out or the conversion failed)
+            compactGenerator = discardPendingJson(compactGenerator);
+            prettyGenerator = discardPendingJson(prettyGenerator);
+            writingJson = false;
+        }
+        if (buffer.length > MAX_RETAINED_CAPACITY)
+        {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        count = 0;
+    }
+    
+    /**
+     * @return The given generator once whatever it buffered was flushed (and is about to be discarded), or {@code null}
+     *         if it was left in the middle of a value and can't be reused.
+     */
+    private JsonGenerator discardPendingJson(JsonGenerator generator)
+    {
+        if (generator == null || !generator.getOutputContext().inRoot())
+        {
+            return null;
+        }
+        try
+        {
+            generator.flush();
+            return generator;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+    
+    private boolean backs(ByteBuffer data)
+    {
+        return data != null && data.hasArray() && data.array() == buffer;
+    }
+    
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.huaweicloud.dis.agent.tailing;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.processing.exceptions.BatchConversionException;
 import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
 import com.huaweicloud.dis.agent.processing.interfaces.IDataConverter;
 import lombok.Getter;
@@ -11,10 +12,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -22,6 +34,30 @@ import java.util.concurrent.atomic.AtomicLong;
  * channel. Details about the specific shape and format of a record are delegated to the specific {@link ISplitter} for
  * the {@link FileFlow}, and the logic of constructing a new new record is encapsulated in the
  * {@link #buildRecord(TrackedFile, ByteBuffer, long, int)} method which must be implemented by subclasses.
+ * <p>
+ * Depending on {@link FileFlow#getParserReadMode()}, chunks of the file are either read into a heap buffer, or mapped
+ * as read-only windows of at most {@link #bufferSize} bytes over the file. In the latter case a new window is mapped
+ * starting at the first byte not yet consumed by a record whenever more data is needed, so no data is copied between
+ * chunks. Records are still copied out of the window before they leave the parser, as reading it would fault once the
+ * file is truncated, so mapping is not faster than reading into the heap: it only spares the parser its heap read
+ * buffer, which matters when many files are tailed at once.
+ * <p>
+ * When the agent is configured with a non-empty {@link ParserChunkPool}, heap chunks are acquired from the pool instead
+ * of being allocated. Records whose data is still a view of the chunk after conversion keep a reference to it, so the
+ * chunk returns to the pool only once the parser moved on and all these records were released.
+ * <p>
+ * When a heap chunk is full, it's reused in place if no record references it anymore. Otherwise a new chunk is started
+ * at the beginning of the incomplete record at its end, and only that incomplete record is copied into it.
+ * <p>
+ * Records are handed to the converters in batches (see {@link IDataConverter#convertBatch(List)}) of at most
+ * {@link FileFlow#getConversionBatchSize()} records. When {@link FileFlow#getConversionThreads()} is positive, the
+ * calling thread only splits records: batches are converted in parallel on the conversion threads of the flow, and
+ * {@link #readRecord()} returns the converted records batch by batch in the order they were split, i.e. in file offset
+ * order. Otherwise the calling thread converts the records of the current chunk as a batch once it has split them.
+ * <p>
+ * When {@link FileFlow#getDedupWindowMillis()} is positive, runs of identical consecutive records are collapsed by a
+ * {@link RecordDeduplicator}: {@link #readRecord()} returns the first record of a run, then a single summary record
+ * for its repeats.
  *
  * @see IParser
  */
@@ -47,6 +83,9 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     @Getter
     protected final IDataConverter dataConverter;
     
+    @Getter
+    protected final boolean memoryMapped;
+    
     @VisibleForTesting
     FileChannel currentFileChannel;
     
@@ -57,6 +96,27 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     @VisibleForTesting
     ByteBuffer currentBuffer;
     
+    /**
+     * The pool {@link #currentBuffer} is acquired from, or {@code null} if chunks are allocated directly.
+     */
+    private final ParserChunkPool chunkPool;
+    
+    private ParserChunk currentChunk;
+    
+    /**
+     * The executor records are converted on, shared by the parsers of the flow, or {@code null} if they are converted
+     * by the thread reading them.
+     */
+    private final ExecutorService conversionExecutor;
+    
+    private final int maxPendingConversionBatches;
+    
+    private final Deque<ConversionBatch> pendingConversionBatches = new ArrayDeque<>();
+    
+    private Iterator<R> currentConvertedRecords = Collections.emptyIterator();
+    
+    private int pendingConversionBytes;
+    
     private long currentBufferStartOffset = -1;
     
     private TrackedFile currentBufferFile;
@@ -85,6 +145,30 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     
     private final AtomicLong totalDataProcessingErrors = new AtomicLong();
     
+    private final AtomicLong totalChunksMapped = new AtomicLong();
+    
+    private final AtomicLong totalMappedReadFaults = new AtomicLong();
+    
+    private final AtomicLong totalBytesCopiedOnRollover = new AtomicLong();
+    
+    private final AtomicLong totalConversionBatches = new AtomicLong();
+    
+    private final AtomicLong totalConversionWaitMillis = new AtomicLong();
+    
+    private final AtomicLong totalRecordsDeduplicated = new AtomicLong();
+    
+    private final AtomicLong totalDedupSummaries = new AtomicLong();
+    
+    /**
+     * Collapses repeated records if {@link FileFlow#getDedupWindowMillis()} is positive, null otherwise.
+     */
+    private final RecordDeduplicator deduplicator;
+    
+    /**
+     * The record that ended a run of repeats, returned right after the summary of the run.
+     */
+    private R recordAfterRepeats;
+    
     public AbstractParser(FileFlow<R> flow)
     {
         this(flow, flow.getParserBufferSize());
@@ -97,6 +181,13 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         this.recordSplitter = this.flow.getRecordSplitter();
         this.dataConverter = this.flow.getDataConverter();
         this.bufferSize = bufferSize;
+        this.memoryMapped = flow.getParserReadMode() == FileFlow.ParserReadMode.MMAP;
+        this.chunkPool = memoryMapped || flow.getAgentContext() == null
+            || flow.getAgentContext().parserChunkPoolSize() <= 0 ? null : flow.getAgentContext().getParserChunkPool();
+        this.maxPendingConversionBatches = 2 * flow.getConversionThreads();
+        this.conversionExecutor = flow.getConversionExecutor();
+        this.deduplicator = flow.getDedupWindowMillis() > 0
+            ? new RecordDeduplicator(flow.getDedupWindowMillis(), flow.getRecordDelimiter()) : null;
         this.logger = LoggerFactory.getLogger(getClass());
         Preconditions.checkArgument(bufferSize >= getMaxRecordSize(),
             "The buffer size needs to be larger than the max record size (" + getMaxRecordSize() + ")");
@@ -253,11 +344,11 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
             if (readNextChunk() > 0)
             {
                 int previousOffset = 0;
-                int nextOffset = recordSplitter.locateNextRecord(currentBuffer);
+                int nextOffset = locateNextRecord();
                 while (nextOffset != -1)
                 {
                     previousOffset = nextOffset;
-                    nextOffset = recordSplitter.locateNextRecord(currentBuffer);
+                    nextOffset = locateNextRecord();
                 }
                 // We reached the end of the buffer, now roll back to last known
                 // record boundary
@@ -278,27 +369,81 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     @Override
     public synchronized int bufferedBytesRemaining()
     {
-        return currentBuffer != null ? currentBuffer.remaining() : 0;
+        return (currentBuffer != null ? currentBuffer.remaining() : 0) + pendingConversionBytes;
     }
     
     @Override
     public synchronized R readRecord()
+    {
+        if (deduplicator == null)
+        {
+            return readNextRecord();
+        }
+        if (recordAfterRepeats != null)
+        {
+            R record = recordAfterRepeats;
+            recordAfterRepeats = null;
+            return record;
+        }
+        while (true)
+        {
+            long now = System.currentTimeMillis();
+            if (deduplicator.isWindowElapsed(now))
+            {
+                return summarizeRepeats();
+            }
+            R record = readNextRecord();
+            if (record == null)
+            {
+                return null;
+            }
+            if (deduplicator.suppress(record, now))
+            {
+                record.release();
+                totalRecordsDeduplicated.incrementAndGet();
+                continue;
+            }
+            if (deduplicator.hasRepeats())
+            {
+                recordAfterRepeats = record;
+                return summarizeRepeats();
+            }
+            return record;
+        }
+    }
+    
+    private R summarizeRepeats()
+    {
+        TrackedFile file = deduplicator.getRepeatsFile();
+        long offset = deduplicator.getRepeatsStartOffset();
+        int length = deduplicator.getRepeatsLength();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("{}: Collapsed {} repeated records at offsets {} to {} of {}",
+                name,
+                deduplicator.getRepeatCount(),
+                offset,
+                offset + length,
+                file);
+        }
+        totalDedupSummaries.incrementAndGet();
+        return buildRecord(file, deduplicator.takeSummary(), offset, length);
+    }
+    
+    private R readNextRecord()
     {
         try
         {
-            if (currentBuffer == null || currentBufferExhausted)
+            if (conversionExecutor != null)
             {
-                tryReadMoreRecordsFromChannel();
+                return readConvertedRecord();
             }
-            R record = readRecordFromCurrentBuffer();
-            if (record != null)
-                return record;
-            else
+            if (dataConverter != null)
             {
-                currentBufferExhausted = true;
-                tryReadMoreRecordsFromChannel();
-                return readRecordFromCurrentBuffer();
+                return readBatchConvertedRecord();
             }
+            RawRecord rawRecord = readRawRecord();
+            return rawRecord == null ? null : toRecord(rawRecord, convertRawRecord(rawRecord));
         }
         catch (IOException e)
         {
@@ -307,30 +452,208 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
             totalUndhandledErrors.incrementAndGet();
             return null;
         }
+        catch (InternalError e)
+        {
+            // Reading a mapped window faults if the file was truncated after the window was mapped
+            if (!(currentBuffer instanceof MappedByteBuffer))
+                throw e;
+            onMappedReadFault(e);
+            return null;
+        }
+    }
+    
+    private void onMappedReadFault(InternalError e)
+    {
+        logger.warn("{}: Failed reading mapped data of file {}, it was probably truncated. {}",
+            name,
+            currentFile,
+            e.toString());
+        totalMappedReadFaults.incrementAndGet();
+        // Don't touch the window again when discarding it, nor the records split from it
+        resetCurrentBuffer();
+        discardPendingConversionBatches();
+        stopParsing("File was truncated while mapped.");
+    }
+    
+    private RawRecord readRawRecord()
+        throws IOException
+    {
+        if (currentBuffer == null || currentBufferExhausted)
+        {
+            tryReadMoreRecordsFromChannel();
+        }
+        RawRecord record = readRecordFromCurrentBuffer();
+        if (record != null)
+            return record;
+        else
+        {
+            currentBufferExhausted = true;
+            tryReadMoreRecordsFromChannel();
+            return readRecordFromCurrentBuffer();
+        }
+    }
+    
+    /**
+     * Returns the next converted record, converting the records split from the current chunk as a batch if needed.
+     * More data is only read from the file once the records of the chunk are all split.
+     */
+    private R readBatchConvertedRecord()
+        throws IOException
+    {
+        if (!currentConvertedRecords.hasNext())
+        {
+            RawRecord rawRecord = readRawRecord();
+            if (rawRecord == null)
+            {
+                return null;
+            }
+            List<RawRecord> rawRecords = new ArrayList<>();
+            rawRecords.add(rawRecord);
+            while (rawRecords.size() < flow.getConversionBatchSize()
+                && (rawRecord = readRecordFromCurrentBuffer()) != null)
+            {
+                rawRecords.add(rawRecord);
+            }
+            List<ByteBuffer> convertedData = convertRawRecords(rawRecords);
+            totalConversionBatches.incrementAndGet();
+            List<R> records = new ArrayList<>(rawRecords.size());
+            for (int i = 0; i < rawRecords.size(); ++i)
+            {
+                records.add(toRecord(rawRecords.get(i), convertedData.get(i)));
+            }
+            currentConvertedRecords = records.iterator();
+        }
+        return currentConvertedRecords.next();
+    }
+    
+    /**
+     * Returns the next converted record, waiting for the batch it belongs to if needed. Batches are converted in
+     * parallel but consumed in the order they were split, and new batches are submitted before waiting so that the
+     * conversion threads stay busy.
+     */
+    private R readConvertedRecord()
+        throws IOException
+    {
+        while (!currentConvertedRecords.hasNext())
+        {
+            submitConversionBatches();
+            ConversionBatch batch = pendingConversionBatches.peekFirst();
+            if (batch == null)
+            {
+                return null;
+            }
+            List<ByteBuffer> convertedData;
+            long waitStart = System.currentTimeMillis();
+            try
+            {
+                convertedData = batch.future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof InternalError && memoryMapped)
+                {
+                    onMappedReadFault((InternalError)e.getCause());
+                    return null;
+                }
+                logger.error("{}: Failed converting a batch of records from {}, converting it again inline.",
+                    name,
+                    currentFile,
+                    e.getCause());
+                convertedData = convertRawRecords(batch.rawRecords);
+            }
+            finally
+            {
+                totalConversionWaitMillis.addAndGet(System.currentTimeMillis() - waitStart);
+            }
+            pendingConversionBatches.removeFirst();
+            pendingConversionBytes -= batch.bytes;
+            List<R> records = new ArrayList<>(batch.rawRecords.size());
+            for (int i = 0; i < batch.rawRecords.size(); ++i)
+            {
+                records.add(toRecord(batch.rawRecords.get(i), convertedData.get(i)));
+            }
+            currentConvertedRecords = records.iterator();
+        }
+        return currentConvertedRecords.next();
+    }
+    
+    private void submitConversionBatches()
+        throws IOException
+    {
+        while (pendingConversionBatches.size() < maxPendingConversionBatches)
+        {
+            final List<RawRecord> rawRecords = new ArrayList<>();
+            RawRecord rawRecord;
+            while (rawRecords.size() < flow.getConversionBatchSize() && (rawRecord = readRawRecord()) != null)
+            {
+                rawRecords.add(rawRecord);
+            }
+            if (rawRecords.isEmpty())
+            {
+                return;
+            }
+            Future<List<ByteBuffer>> future = conversionExecutor.submit(new Callable<List<ByteBuffer>>()
+            {
+                @Override
+                public List<ByteBuffer> call()
+                {
+                    return convertRawRecords(rawRecords);
+                }
+            });
+            ConversionBatch batch = new ConversionBatch(rawRecords, future);
+            pendingConversionBatches.addLast(batch);
+            pendingConversionBytes += batch.bytes;
+            totalConversionBatches.incrementAndGet();
+            if (rawRecords.size() < flow.getConversionBatchSize())
+            {
+                // No more complete records for now
+                return;
+            }
+        }
+    }
+    
+    private void discardPendingConversionBatches()
+    {
+        for (ConversionBatch batch : pendingConversionBatches)
+        {
+            batch.future.cancel(false);
+            for (RawRecord rawRecord : batch.rawRecords)
+            {
+                rawRecord.release();
+            }
+        }
+        pendingConversionBatches.clear();
+        pendingConversionBytes = 0;
+        currentConvertedRecords = Collections.emptyIterator();
     }
     
-    private R readRecordFromCurrentBuffer()
+    private RawRecord readRecordFromCurrentBuffer()
         throws IOException
     {
         if (currentBuffer == null)
             return null;
         int currentRecordOffset = currentBuffer.position();
-        int nextRecordOffset = recordSplitter.locateNextRecord(currentBuffer);
+        int nextRecordOffset = locateNextRecord();
         if (currentBufferFile.getFlow().isMissLastRecordDelimiter() && (currentRecordOffset + 1) == nextRecordOffset && currentBuffer.hasRemaining())
         {
             // 忽略第一个换行符，防止发送空数据
             currentRecordOffset++;
-            nextRecordOffset = recordSplitter.locateNextRecord(currentBuffer);
+            nextRecordOffset = locateNextRecord();
         }
         if (nextRecordOffset != -1)
         {
-            return buildRecord(currentRecordOffset, nextRecordOffset - currentRecordOffset);
+            return splitRecord(currentRecordOffset, nextRecordOffset - currentRecordOffset);
         }
         else
         {
             // Either there isn't a complete record in the buffer yet,
             // or the record size exceeds the buffer size. Find out which.
-            if (currentRecordOffset == 0 && currentBuffer.limit() == currentBuffer.capacity())
+            if (currentRecordOffset == 0 && isCurrentBufferFull())
             {
                 // Rewind to where we started...
                 currentBuffer.position(currentRecordOffset);
@@ -345,11 +668,11 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
                 totalRecordsLargerThanBuffer.incrementAndGet();
                 // 1. Use the whole buffer as the current record.
                 currentBuffer.position(currentBuffer.limit());
-                R record = buildRecord(0, currentBuffer.limit());
+                RawRecord record = splitRecord(0, currentBuffer.limit());
                 // 2. Discard data from file until we locate the beginning of a new record.
                 while (readNextChunk() > 0)
                 {
-                    nextRecordOffset = recordSplitter.locateNextRecord(currentBuffer);
+                    nextRecordOffset = locateNextRecord();
                     // Check if we found a new record, or we still need to discard some more...
                     if (nextRecordOffset > 0)
                     {
@@ -372,7 +695,7 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
                     if (!flow.isFileAppendable())
                     {
                         // 文件上传模式，即使没有分隔符，最后一行也需上传
-                        return buildRecord(currentRecordOffset, currentBuffer.limit() - currentRecordOffset);
+                        return splitRecord(currentRecordOffset, currentBuffer.limit() - currentRecordOffset);
                     }
 
                     if (flow.isMissLastRecordDelimiter())
@@ -381,7 +704,7 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
                         if (currentBufferFile.getMissLastRecordDelimiterTime() > 0
                                 && System.currentTimeMillis() - currentBufferFile.getMissLastRecordDelimiterTime() >= flow.getMaxFileCheckingMillis())
                         {
-                            return buildRecord(currentRecordOffset, currentBuffer.limit() - currentRecordOffset);
+                            return splitRecord(currentRecordOffset, currentBuffer.limit() - currentRecordOffset);
                         }
                         else if (currentBufferFile.getMissLastRecordDelimiterTime() <= 0)
                         {
@@ -407,6 +730,11 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     private int readNextChunk()
         throws IOException
     {
+        // Compressed files can't be mapped, they're decompressed into a heap buffer instead
+        if (memoryMapped && !(currentFileChannel instanceof CompressedFileChannel))
+        {
+            return mapNextChunk();
+        }
         prepareCurrentBufferForWriting();
         long startOffset = currentFileChannel.position();
         Preconditions.checkState(currentFileChannelOffset == -1 || currentFileChannelOffset == startOffset,
@@ -446,6 +774,71 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         return bytes;
     }
     
+    /**
+     * Maps the next window of the current file into {@link #currentBuffer}. The window starts at the first byte that
+     * was not consumed by a record yet and spans at most {@link #bufferSize} bytes, so the file growing is handled by
+     * simply mapping a new window once the current one is exhausted.
+     *
+     * @return The number of new bytes made available, which can be {@code 0}, or {@code -1} if the EOF was reached on
+     *         the channel.
+     * @throws IOException
+     */
+    private int mapNextChunk()
+        throws IOException
+    {
+        long startOffset = currentFileChannel.position();
+        Preconditions.checkState(currentFileChannelOffset == -1 || currentFileChannelOffset == startOffset,
+            "%s: Channel expected to be at offset %s but was at offset %s.",
+            name,
+            currentFileChannelOffset,
+            startOffset);
+        if (currentBuffer != null && currentBufferFileEnded)
+        {
+            discardCurrentBuffer("New file was openeded.");
+        }
+        long fileSize = currentFileChannel.size();
+        long windowStart = currentBuffer == null ? startOffset : toChannelOffset(currentBuffer.position());
+        long windowEnd = Math.min(windowStart + bufferSize, fileSize);
+        if (windowEnd <= startOffset)
+        {
+            // Nothing new to map: either the window is full of unconsumed data, or we're at the end of the file (a
+            // file that shrank under the current offset was truncated, and will be reset by the next refresh).
+            if (currentBuffer == null)
+            {
+                currentBuffer = ByteBuffer.allocate(0);
+                currentBufferStartOffset = startOffset;
+                currentBufferFile = currentFile;
+                recordsFromCurrentBuffer = 0;
+                currentBufferExhausted = true;
+                currentBufferFileEnded = false;
+            }
+            return startOffset >= fileSize ? -1 : 0;
+        }
+        
+        currentBuffer = currentFileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+        currentBufferStartOffset = windowStart;
+        currentBufferFile = currentFile;
+        recordsFromCurrentBuffer = 0;
+        currentBufferExhausted = false;
+        // The window is of the current file, so the next one continues from its unconsumed data
+        currentBufferFileEnded = false;
+        currentFileChannel.position(windowEnd);
+        currentFileChannelOffset = windowEnd;
+        int bytes = (int)(windowEnd - startOffset);
+        totalBytesConsumed.addAndGet(bytes);
+        totalChunksMapped.incrementAndGet();
+        if (logger.isTraceEnabled())
+        {
+            logger.trace("{}: Mapped bytes {}-{} of {} from {}",
+                name,
+                windowStart,
+                windowEnd,
+                fileSize,
+                currentBufferFile.getPath());
+        }
+        return bytes;
+    }
+    
     /**
      * @return The number of bytes read from the channel, which can be {@code 0}, or {@code -1} if the EOF was reached
      *         on the channel. (See {@link ReadableByteChannel#read(ByteBuffer)}.)
@@ -506,6 +899,7 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     
     private void resetCurrentBuffer()
     {
+        releaseCurrentChunk();
         currentBuffer = null;
         currentBufferStartOffset = -1;
         currentBufferFile = null;
@@ -550,6 +944,7 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     }
     
     private void prepareCurrentBufferForWriting()
+        throws IOException
     {
         currentBufferSavedReadPosition = -1;
         if (currentBuffer == null)
@@ -563,28 +958,11 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         }
         else if (currentBuffer.limit() == currentBuffer.capacity())
         {
-            if (recordsFromCurrentBuffer > 0)
+            if (recordsFromCurrentBuffer > 0 && isCurrentChunkReferenced())
             {
-                // TODO: Add metrics for bytes copied between buffers
                 if (currentBuffer.hasRemaining())
                 {
-                    ByteBuffer oldBuffer = currentBuffer;
-                    TrackedFile oldBufferFile = currentBufferFile;
-                    long oldBufferStartOffset = currentBufferStartOffset;
-                    getNewCurrentBuffer();
-                    currentBufferFile = oldBufferFile;
-                    currentBufferStartOffset = oldBufferStartOffset + oldBuffer.position();
-                    currentBuffer.put(oldBuffer);
-                    // NOTE: Here we have a slight duplication of data in memory:
-                    // the data copied from the old buffer now exists in both
-                    // buffers, though in the first buffer it's not referenced
-                    // by any records.
-                    if (logger.isTraceEnabled())
-                    {
-                        logger.trace("{}: Copied {} bytes from the current buffer to new one.",
-                            name,
-                            currentBuffer.position());
-                    }
+                    rollOverToNewBuffer();
                 }
                 else
                 {
@@ -593,14 +971,16 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
             }
             else
             {
-                // Reuse the current buffer
+                // Reuse the current buffer, as no record references it
                 logger.trace("{}: Reusing current buffer (capacity:{}, limit: {}, remaining: {}).",
                     name,
                     currentBuffer.capacity(),
                     currentBuffer.limit(),
                     currentBuffer.remaining());
+                totalBytesCopiedOnRollover.addAndGet(currentBuffer.remaining());
                 currentBufferStartOffset += currentBuffer.position();
                 currentBuffer.compact();
+                recordsFromCurrentBuffer = 0;
             }
         }
         else
@@ -618,6 +998,48 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         }
     }
     
+    /**
+     * @return {@code true} unless the current chunk is known not to be referenced by any record (including the records
+     *         split but not converted yet), in which case it can be reused in place.
+     */
+    private boolean isCurrentChunkReferenced()
+    {
+        return currentChunk == null || currentChunk.isShared();
+    }
+    
+    /**
+     * Moves on to a new buffer while the unconsumed tail of the current one (the beginning of the next record) is still
+     * referenced. The tail is copied rather than read again from the file: the file may have been truncated and
+     * rewritten past the tail meanwhile (copytruncate), and the record would then be stitched from different data.
+     */
+    private void rollOverToNewBuffer()
+        throws IOException
+    {
+        ByteBuffer oldBuffer = currentBuffer;
+        TrackedFile oldBufferFile = currentBufferFile;
+        long tailOffset = currentBufferStartOffset + oldBuffer.position();
+        int tailLength = oldBuffer.remaining();
+        // Keep the old chunk out of the pool until its remaining data is copied
+        ParserChunk oldChunk = currentChunk;
+        if (oldChunk != null)
+        {
+            oldChunk.retain();
+        }
+        getNewCurrentBuffer();
+        currentBufferFile = oldBufferFile;
+        currentBufferStartOffset = tailOffset;
+        currentBuffer.put(oldBuffer);
+        totalBytesCopiedOnRollover.addAndGet(tailLength);
+        if (oldChunk != null)
+        {
+            oldChunk.release();
+        }
+        if (logger.isTraceEnabled())
+        {
+            logger.trace("{}: Copied {} bytes from the current buffer to new one.", name, tailLength);
+        }
+    }
+    
     private void prepareCurrentBufferForReading()
     {
         currentBuffer.flip();
@@ -628,6 +1050,20 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         }
     }
     
+    /**
+     * @return {@code true} if the current buffer holds as many bytes as a chunk can, i.e. no more data can be read
+     *         into it. Mapped windows are always exactly as large as their content, so their capacity cannot be used.
+     */
+    private boolean isCurrentBufferFull()
+    {
+        return currentBuffer.limit() == bufferSize;
+    }
+    
+    private int locateNextRecord()
+    {
+        return recordSplitter.locateNextRecord(currentBuffer, isCurrentBufferFull());
+    }
+    
     private void getNewCurrentBuffer()
     {
         if (logger.isTraceEnabled() && currentBuffer != null)
@@ -638,14 +1074,33 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
                 bufferSize);
         }
         recordsFromCurrentBuffer = 0;
-        currentBuffer = ByteBuffer.allocate(bufferSize);
+        releaseCurrentChunk();
+        if (chunkPool != null)
+        {
+            currentChunk = chunkPool.acquire(bufferSize);
+            currentBuffer = currentChunk.buffer();
+        }
+        else
+        {
+            currentChunk = ParserChunk.unpooled(ByteBuffer.allocate(bufferSize));
+            currentBuffer = currentChunk.buffer();
+        }
         currentBufferStartOffset = -1;
         currentBufferFile = null;
         currentBufferFileEnded = false;
         currentBufferExhausted = true;
     }
     
-    private R buildRecord(int offset, int length)
+    private void releaseCurrentChunk()
+    {
+        if (currentChunk != null)
+        {
+            currentChunk.release();
+            currentChunk = null;
+        }
+    }
+    
+    private RawRecord splitRecord(int offset, int length)
     {
         ByteBuffer data = ByteBuffers.getPartialView(currentBuffer, offset, length);
         ++recordsFromCurrentBuffer;
@@ -655,24 +1110,131 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         currentBufferFile.setMissLastRecordDelimiterTime(-1);
         // 设置文件已经解析到的位置
         currentBufferFile.setLastOffset(channelOffsetStart + length);
-
-        R record = null;
+        return new RawRecord(currentBufferFile, data, channelOffsetStart, length, currentChunk);
+    }
+    
+    /**
+     * Runs the converters on the data of a record; this is thread-safe, and doesn't depend on the state of the parser.
+     */
+    private ByteBuffer convertRawRecord(RawRecord rawRecord)
+    {
         try
         {
-            record = buildRecord(currentBufferFile, convertData(data), channelOffsetStart, length);
+            return detach(convertData(rawRecord.data));
         }
         catch (DataConversionException e)
         {
-            totalDataProcessingErrors.incrementAndGet();
-            logger.warn("Cannot process input data: " + e.getMessage() + ", falling back to raw data.");
-            record = buildRecord(currentBufferFile, data, channelOffsetStart, length);
+            return fallBack(rawRecord, e);
+        }
+    }
+    
+    private ByteBuffer fallBack(RawRecord rawRecord, DataConversionException e)
+    {
+        totalDataProcessingErrors.incrementAndGet();
+        logger.warn("Cannot process input data: " + e.getMessage() + ", falling back to raw data.");
+        return detach(rawRecord.data);
+    }
+    
+    /**
+     * Runs the converters on the data of a batch of records at once. The failing records fall back to their raw data,
+     * and the conversion goes on after the records the converters went through, so that no record goes through the
+     * converters twice.
+     */
+    private List<ByteBuffer> convertRawRecords(List<RawRecord> rawRecords)
+    {
+        List<ByteBuffer> convertedData = new ArrayList<>(rawRecords.size());
+        if (getDataConverter() != null)
+        {
+            List<ByteBuffer> data = new ArrayList<>(rawRecords.size());
+            for (RawRecord rawRecord : rawRecords)
+            {
+                data.add(rawRecord.data);
+            }
+            while (convertedData.size() < rawRecords.size())
+            {
+                try
+                {
+                    convertedData.addAll(
+                        detachBatch(getDataConverter().convertBatch(data.subList(convertedData.size(), data.size()))));
+                }
+                catch (BatchConversionException e)
+                {
+                    int offset = convertedData.size();
+                    int from = 0;
+                    for (Map.Entry<Integer, DataConversionException> failure : e.getFailures().entrySet())
+                    {
+                        convertedData.addAll(detachBatch(e.getResults().subList(from, failure.getKey())));
+                        convertedData.add(fallBack(rawRecords.get(offset + failure.getKey()), failure.getValue()));
+                        from = failure.getKey() + 1;
+                    }
+                    convertedData.addAll(detachBatch(e.getResults().subList(from, e.getResults().size())));
+                }
+                catch (DataConversionException e)
+                {
+                    logger.debug("Cannot process a batch of {} records: {}, converting them one by one.",
+                        rawRecords.size() - convertedData.size(),
+                        e.getMessage());
+                    break;
+                }
+            }
+        }
+        for (int i = convertedData.size(); i < rawRecords.size(); i++)
+        {
+            convertedData.add(convertRawRecord(rawRecords.get(i)));
+        }
+        return convertedData;
+    }
+    
+    private List<ByteBuffer> detachBatch(List<ByteBuffer> results)
+    {
+        List<ByteBuffer> convertedData = new ArrayList<>(results.size());
+        int skipped = 0;
+        for (ByteBuffer result : results)
+        {
+            if (result == null)
+            {
+                skipped++;
+            }
+            convertedData.add(detach(result));
+        }
+        totalRecordsProcessed.addAndGet(results.size() - skipped);
+        if (skipped > 0)
+        {
+            totalRecordsSkipped.addAndGet(skipped);
+            logger.debug("{} records parsed but skipped for processing and delivering", skipped);
+        }
+        return convertedData;
+    }
+    
+    private R toRecord(RawRecord rawRecord, ByteBuffer convertedData)
+    {
+        try
+        {
+            R record = buildRecord(rawRecord.file, convertedData, rawRecord.offset, rawRecord.length);
+            retainChunk(record, rawRecord.chunk);
+            return record;
         }
         finally
         {
             totalRecordsParsed.incrementAndGet();
+            rawRecord.release();
+        }
+    }
+    
+    /**
+     * Makes the record keep the chunk it was split from out of the pool if its data is still a view of it, i.e. no
+     * converter copied it.
+     */
+    private void retainChunk(R record, ParserChunk chunk)
+    {
+        if (chunk == null || !(record instanceof AbstractRecord))
+            return;
+        ByteBuffer recordData = record.data();
+        if (recordData != null && recordData.hasArray() && chunk.buffer().hasArray()
+            && recordData.array() == chunk.buffer().array())
+        {
+            ((AbstractRecord)record).retainChunk(chunk);
         }
-        
-        return record;
     }
     
     private ByteBuffer convertData(ByteBuffer data)
@@ -689,11 +1251,26 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
         else
         {
             totalRecordsSkipped.incrementAndGet();
-            logger.warn("1 record parsed but skipped for processing and delivering");
+            // Filtered out records are skipped on purpose and can be numerous, they're accounted for in the metrics
+            logger.debug("1 record parsed but skipped for processing and delivering");
         }
         return result;
     }
     
+    /**
+     * Records must not reference a mapped window once they leave the parser, as reading it would fault if the file is
+     * truncated in the meantime. Whatever the converters did not already copy out of the window is copied to the heap.
+     * The same goes for direct pooled chunks, as senders expect heap data.
+     */
+    private ByteBuffer detach(ByteBuffer data)
+    {
+        if ((memoryMapped || chunkPool != null) && data != null && data.isDirect())
+        {
+            return ByteBuffer.wrap(ByteBuffers.toArray(data));
+        }
+        return data;
+    }
+    
     private long toChannelOffset(int bufferOffset)
     {
         Preconditions.checkState(currentBufferStartOffset >= 0,
@@ -717,6 +1294,67 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
     
     protected abstract R buildRecord(TrackedFile recordFile, ByteBuffer data, long offset, int length);
     
+    /**
+     * A record located by the splitter whose data wasn't converted yet. It holds a reference to the chunk its data is
+     * a view of (if pooled) until it's turned into a record.
+     */
+    private static final class RawRecord
+    {
+        private final TrackedFile file;
+        
+        private final ByteBuffer data;
+        
+        private final long offset;
+        
+        private final int length;
+        
+        private ParserChunk chunk;
+        
+        private RawRecord(TrackedFile file, ByteBuffer data, long offset, int length, ParserChunk chunk)
+        {
+            this.file = file;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.chunk = chunk;
+            if (chunk != null)
+            {
+                chunk.retain();
+            }
+        }
+        
+        private void release()
+        {
+            ParserChunk toRelease = chunk;
+            chunk = null;
+            if (toRelease != null)
+            {
+                toRelease.release();
+            }
+        }
+    }
+    
+    private static final class ConversionBatch
+    {
+        private final List<RawRecord> rawRecords;
+        
+        private final Future<List<ByteBuffer>> future;
+        
+        private final int bytes;
+        
+        private ConversionBatch(List<RawRecord> rawRecords, Future<List<ByteBuffer>> future)
+        {
+            this.rawRecords = rawRecords;
+            this.future = future;
+            int total = 0;
+            for (RawRecord rawRecord : rawRecords)
+            {
+                total += rawRecord.length;
+            }
+            this.bytes = total;
+        }
+    }
+    
     protected abstract int getMaxRecordSize();
     
     @SuppressWarnings("serial")
@@ -735,6 +1373,22 @@ public abstract class AbstractParser<R extends IRecord> implements IParser<R>
                 put(className + ".TotalRecordsProcessed", totalRecordsProcessed);
                 put(className + ".TotalRecordsSkipped", totalRecordsSkipped);
                 put(className + ".TotalDataProcessingErrors", totalDataProcessingErrors);
+                put(className + ".TotalChunksMapped", totalChunksMapped);
+                put(className + ".TotalMappedReadFaults", totalMappedReadFaults);
+                put(className + ".TotalBytesCopiedOnRollover", totalBytesCopiedOnRollover);
+                if (dataConverter != null)
+                {
+                    put(className + ".TotalConversionBatches", totalConversionBatches);
+                }
+                if (conversionExecutor != null)
+                {
+                    put(className + ".TotalConversionWaitMillis", totalConversionWaitMillis);
+                }
+                if (deduplicator != null)
+                {
+                    put(className + ".TotalRecordsDeduplicated", totalRecordsDeduplicated);
+                    put(className + ".TotalDedupSummaries", totalDedupSummaries);
+                }
             }
         };
     }
@@ -27,7 +27,22 @@ public abstract class AbstractRecord implements IRecord
     
     protected boolean isEndWithRecordDelimiter = false;
     
+    /**
+     * The pooled chunk {@link #data} is a view of, if any.
+     */
+    private ParserChunk chunk;
+    
     public AbstractRecord(TrackedFile file, long offset, long totalLength, ByteBuffer data)
+    {
+        this(file, offset, totalLength, data, true);
+    }
+    
+    /**
+     * @param stripRecordDelimiter Whether the data may still end with the record delimiter, {@code false} when
+     *            restoring a record from the data of one already built, e.g. after it was spilled to disk
+     */
+    protected AbstractRecord(TrackedFile file, long offset, long totalLength, ByteBuffer data,
+        boolean stripRecordDelimiter)
     {
         Preconditions.checkArgument(offset >= 0,
             "The offset of a record (%s) must be a non-negative integer (File: %s)",
@@ -46,15 +61,15 @@ public abstract class AbstractRecord implements IRecord
         // this.totalLength = data.remaining();
         this.totalLength = totalLength;
         // 如果结尾是分隔符 且 上传不需要保留分隔符，则去掉最后的字符
-        if (totalLength > 0 && file.flow.getRecordDelimiter() == data.get(data.limit() - 1))
+        if (stripRecordDelimiter && totalLength > 0 && file.flow.getRecordDelimiter() == data.get(data.limit() - 1))
         {
             isEndWithRecordDelimiter = true;
             if (!file.flow.isRemainRecordDelimiter())
             {
-                byte[] tmpArray = new byte[data.array().length - 1];
-                data.get(tmpArray, 0, tmpArray.length);
-                this.data = ByteBuffer.wrap(tmpArray);
-                return ;
+                ByteBuffer withoutDelimiter = data.duplicate();
+                withoutDelimiter.limit(withoutDelimiter.limit() - 1);
+                this.data = withoutDelimiter.slice();
+                return;
             }
         }
         this.data = data;
@@ -101,6 +116,27 @@ public abstract class AbstractRecord implements IRecord
         return startOffset;
     }
     
+    /**
+     * Keeps a reference to the chunk the data of this record is a view of, until {@link #release()} is called.
+     */
+    void retainChunk(ParserChunk chunk)
+    {
+        Preconditions.checkState(this.chunk == null, "Record already holds a chunk (File: %s)", file);
+        chunk.retain();
+        this.chunk = chunk;
+    }
+    
+    @Override
+    public void release()
+    {
+        ParserChunk toRelease = chunk;
+        chunk = null;
+        if (toRelease != null)
+        {
+            toRelease.release();
+        }
+    }
+    
     @Override
     public ByteBuffer data()
     {
@@ -201,7 +237,7 @@ public abstract class AbstractRecord implements IRecord
             if (option == FileFlow.PartitionKeyOption.DETERMINISTIC)
             {
                 Hasher hasher = Hashing.md5().newHasher();
-                hasher.putBytes(data.array());
+                hasher.putBytes(data.duplicate());
                 return hasher.hash().toString();
             }
             
@@ -16,7 +16,7 @@ import com.huaweicloud.dis.agent.AgentContext;
 import com.huaweicloud.dis.agent.tailing.checkpoints.FileCheckpointStore;
 
 /**
- * A publisher that buffers records into an {@link PublishingQueue}, and can make send requests asynchronously.
+ * A publisher that buffers records into an {@link IPublishingQueue}, and can make send requests asynchronously.
  *
  * @param <R> The record type.
  */
@@ -30,6 +30,12 @@ class AsyncPublisher<R extends IRecord> extends SimplePublisher<R>
     
     protected final ExecutorService sendingExecutor;
     
+    /**
+     * The queue of the agent-level send scheduler when enabled, in which case sends don't go to
+     * {@link #sendingExecutor}
+     */
+    protected final SendScheduler.FlowQueue scheduledSends;
+    
     protected final AsyncPublisherThrottler<R> throttler;
     
     protected final AtomicInteger activeSendTasks = new AtomicInteger();
@@ -50,6 +56,8 @@ class AsyncPublisher<R extends IRecord> extends SimplePublisher<R>
     {
         super(agentContext, flow, checkpoints, sender);
         this.sendingExecutor = sendingExecutor;
+        SendScheduler scheduler = agentContext.getSendScheduler();
+        this.scheduledSends = scheduler != null ? scheduler.register(flow) : null;
         this.throttler =
             new AsyncPublisherThrottler<>(this, flow.getRetryInitialBackoffMillis(), flow.getRetryMaxBackoffMillis());
     }
@@ -138,7 +146,14 @@ class AsyncPublisher<R extends IRecord> extends SimplePublisher<R>
         };
         try
         {
-            sendingExecutor.execute(task);
+            if (scheduledSends != null)
+            {
+                scheduledSends.execute(task, buffer.sizeBytes());
+            }
+            else
+            {
+                sendingExecutor.execute(task);
+            }
             onSendAccepted(buffer);
             return true;
         }
@@ -261,6 +276,10 @@ class AsyncPublisher<R extends IRecord> extends SimplePublisher<R>
         metrics.put("AsyncPublisher.WaitingSendTasks", waitingSendTasks.get());
         metrics.put("AsyncPublisher.ActiveSendTasks", activeSendTasks.get());
         metrics.put("AsyncPublisher.TotalRejectedSendTasks", totalRejectedSendTasks);
+        if (scheduledSends != null)
+        {
+            metrics.putAll(scheduledSends.getMetrics());
+        }
         return metrics;
     }
 }
@@ -16,7 +16,7 @@ import com.huaweicloud.dis.agent.tailing.checkpoints.Checkpointer;
 import com.huaweicloud.dis.agent.tailing.checkpoints.FileCheckpointStore;
 
 /**
- * A publisher that buffers records into an {@link PublishingQueue}, and makes the send requests asynchronously.
+ * A publisher that buffers records into an {@link IPublishingQueue}, and makes the send requests asynchronously.
  *
  * @param <R> The record type.
  */
@@ -77,8 +77,16 @@ public final class AsyncPublisherService<R extends IRecord> extends AbstractExec
         publisher.flush();
     }
     
+    /**
+     * @see IPublishingQueue#getRecoveredOffsets()
+     */
+    public Map<FileId, Long> getRecoveredOffsets()
+    {
+        return publisher.getRecoveredOffsets();
+    }
+    
     @VisibleForTesting
-    PublishingQueue<R> queue()
+    IPublishingQueue<R> queue()
     {
         return publisher.queue;
     }
@@ -0,0 +1,136 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer FIFO queue over a pre-allocated array ring, so that no node is
+ * allocated per element.
+ * <p>
+ * Each slot has a sequence number telling whether it's ready to be written at a given position (sequence equal to twice
+ * the position) or read (sequence one past that). Producers and consumers claim positions with a CAS on the tail and
+ * the head respectively, then publish the slot by advancing its sequence, which also makes the element visible to the
+ * thread claiming the slot next. The sequences are doubled so that a written slot is never taken for one ready to be
+ * written at the next lap, which it would be with a capacity of 1.
+ */
+final class BoundedRingQueue<E>
+{
+    private final int capacity;
+    
+    private final Object[] elements;
+    
+    private final AtomicLongArray sequences;
+    
+    private final AtomicLong head = new AtomicLong();
+    
+    private final AtomicLong tail = new AtomicLong();
+    
+    BoundedRingQueue(int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "The capacity (%s) must be positive", capacity);
+        this.capacity = capacity;
+        this.elements = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            sequences.set(i, 2L * i);
+        }
+    }
+    
+    /**
+     * @return {@code false} if the queue is full
+     */
+    boolean offer(E element)
+    {
+        Preconditions.checkNotNull(element);
+        long position = tail.get();
+        while (true)
+        {
+            int index = (int)(position % capacity);
+            long available = sequences.get(index) - 2 * position;
+            if (available == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    elements[index] = element;
+                    sequences.set(index, 2 * position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (available < 0)
+            {
+                // The slot still holds the element of the previous lap
+                return false;
+            }
+            else
+            {
+                // Another producer claimed the position
+                position = tail.get();
+            }
+        }
+    }
+    
+    /**
+     * @return The head of the queue, or {@code null} if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll()
+    {
+        long position = head.get();
+        while (true)
+        {
+            int index = (int)(position % capacity);
+            long available = sequences.get(index) - (2 * position + 1);
+            if (available == 0)
+            {
+                if (head.compareAndSet(position, position + 1))
+                {
+                    E element = (E)elements[index];
+                    elements[index] = null;
+                    sequences.set(index, 2 * (position + capacity));
+                    return element;
+                }
+                position = head.get();
+            }
+            else if (available < 0)
+            {
+                // The slot wasn't written yet
+                return null;
+            }
+            else
+            {
+                // Another consumer claimed the position
+                position = head.get();
+            }
+        }
+    }
+    
+    /**
+     * @return The number of elements, which is only a snapshot while other threads offer or poll
+     */
+    int size()
+    {
+        while (true)
+        {
+            long before = head.get();
+            long size = tail.get() - before;
+            if (head.get() == before)
+            {
+                return (int)Math.max(0, Math.min(size, capacity));
+            }
+        }
+    }
+    
+    boolean isEmpty()
+    {
+        return size() == 0;
+    }
+    
+    int capacity()
+    {
+        return capacity;
+    }
+}
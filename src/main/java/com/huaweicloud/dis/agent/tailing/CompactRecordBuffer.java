@@ -0,0 +1,385 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A buffer of DIS records that keeps their data in one growing byte array, and the rest of each record in primitive
+ * arrays, instead of a {@link DISRecord} (with its data view and chunk) per record.
+ * <p>
+ * A record is copied into the buffer when added and released at once, so its chunk goes back to the pool without
+ * waiting for the buffer to be sent and the record itself is garbage from the young generation. {@link DISSender}
+ * builds its request from {@link #data(int)} and {@link #partitionKey(int)}; iterating the buffer rebuilds a
+ * {@link DISRecord} per record, which only spilling it to disk does.
+ * <p>
+ * The arrays are taken from the {@link StoragePool} of the flow and go back to it when the buffer is released, so that
+ * a flow reuses the arrays of its sent buffers, already grown to the size of its buffers, rather than allocating and
+ * growing new ones for every buffer.
+ */
+@NotThreadSafe
+final class CompactRecordBuffer extends RecordBuffer<DISRecord>
+{
+    private final StoragePool pool;
+    
+    private Storage storage;
+    
+    private byte[] slab;
+    
+    private int slabBytes;
+    
+    private int count;
+    
+    private int[] dataOffsets;
+    
+    private int[] dataLengths;
+    
+    private long[] startOffsets;
+    
+    private long[] endOffsets;
+    
+    /**
+     * The index in {@link #files} of the file of each record
+     */
+    private int[] fileOrdinals;
+    
+    private String[] partitionKeys;
+    
+    /**
+     * The distinct files of the records, a buffer usually holding records of one or two files
+     */
+    private final List<TrackedFile> files = new ArrayList<>(2);
+    
+    CompactRecordBuffer(FileFlow<DISRecord> flow, StoragePool pool)
+    {
+        super(flow, 0);
+        this.pool = pool;
+        storage = pool.acquire();
+        slab = storage.slab;
+        dataOffsets = storage.dataOffsets;
+        dataLengths = storage.dataLengths;
+        startOffsets = storage.startOffsets;
+        endOffsets = storage.endOffsets;
+        fileOrdinals = storage.fileOrdinals;
+        partitionKeys = storage.partitionKeys;
+    }
+    
+    @Override
+    public void add(DISRecord record)
+    {
+        if (count == dataOffsets.length)
+        {
+            int capacity = count * 2;
+            dataOffsets = Arrays.copyOf(dataOffsets, capacity);
+            dataLengths = Arrays.copyOf(dataLengths, capacity);
+            startOffsets = Arrays.copyOf(startOffsets, capacity);
+            endOffsets = Arrays.copyOf(endOffsets, capacity);
+            fileOrdinals = Arrays.copyOf(fileOrdinals, capacity);
+            partitionKeys = Arrays.copyOf(partitionKeys, capacity);
+        }
+        ByteBuffer data = record.data();
+        int length = data.remaining();
+        if (slab.length - slabBytes < length)
+        {
+            // Doubling, but not past the largest buffer of the flow
+            int needed = slabBytes + length;
+            slab = Arrays.copyOf(slab, Math.max(needed, Math.min(slab.length * 2, flow.getMaxBufferSizeBytes())));
+        }
+        if (data.hasArray())
+        {
+            System.arraycopy(data.array(), data.arrayOffset() + data.position(), slab, slabBytes, length);
+        }
+        else
+        {
+            data.duplicate().get(slab, slabBytes, length);
+        }
+        dataOffsets[count] = slabBytes;
+        dataLengths[count] = length;
+        startOffsets[count] = record.startOffset();
+        endOffsets[count] = record.endOffset();
+        fileOrdinals[count] = fileOrdinal(record.file());
+        partitionKeys[count] = record.partitionKey();
+        slabBytes += length;
+        count++;
+        currentSizeBytes += record.lengthWithOverhead();
+        if (timestamp < 0)
+        {
+            timestamp = System.currentTimeMillis();
+        }
+        record.release();
+    }
+    
+    private int fileOrdinal(TrackedFile file)
+    {
+        if (count > 0 && files.get(fileOrdinals[count - 1]) == file)
+        {
+            return fileOrdinals[count - 1];
+        }
+        for (int i = 0; i < files.size(); i++)
+        {
+            if (files.get(i) == file)
+            {
+                return i;
+            }
+        }
+        files.add(file);
+        return files.size() - 1;
+    }
+    
+    /**
+     * @return A view of the data of the record at the given index
+     */
+    ByteBuffer data(int index)
+    {
+        return ByteBuffer.wrap(slab, dataOffsets[index], dataLengths[index]).slice();
+    }
+    
+    String partitionKey(int index)
+    {
+        return partitionKeys[index];
+    }
+    
+    /**
+     * @return A record viewing the data of the record at the given index
+     */
+    DISRecord record(int index)
+    {
+        return new DISRecord(files.get(fileOrdinals[index]), startOffsets[index],
+            endOffsets[index] - startOffsets[index], data(index), partitionKeys[index]);
+    }
+    
+    @Override
+    public int sizeRecords()
+    {
+        return count;
+    }
+    
+    @Override
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+    
+    @Override
+    public TrackedFile checkpointFile()
+    {
+        return trackedFile == null ? files.get(fileOrdinals[count - 1]) : trackedFile;
+    }
+    
+    @Override
+    public long checkpointOffset()
+    {
+        return endOffsets[count - 1];
+    }
+    
+    /**
+     * Same as {@link RecordBuffer#lastRecordsPerFile()}, only rebuilding the records it returns.
+     */
+    @Override
+    public List<DISRecord> lastRecordsPerFile()
+    {
+        Map<String, Integer> lastIndexMap = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            if (i + 1 < count && fileOrdinals[i + 1] == fileOrdinals[i])
+            {
+                continue;
+            }
+            String id = files.get(fileOrdinals[i]).getId().getId();
+            if (i + 1 < count && id.equals(files.get(fileOrdinals[i + 1]).getId().getId()))
+            {
+                continue;
+            }
+            Integer last = lastIndexMap.get(id);
+            if (last == null || endOffsets[last] < endOffsets[i])
+            {
+                lastIndexMap.put(id, i);
+            }
+        }
+        List<DISRecord> lastRecords = new ArrayList<>(lastIndexMap.size());
+        for (int index : lastIndexMap.values())
+        {
+            lastRecords.add(record(index));
+        }
+        return lastRecords;
+    }
+    
+    /**
+     * The data of the removed records stays in the byte array until the buffer is dropped.
+     */
+    @Override
+    public RecordBuffer<DISRecord> remove(List<Integer> itemsToRemoveSorted)
+    {
+        if (!itemsToRemoveSorted.isEmpty())
+        {
+            Iterator<Integer> toRemoveIt = itemsToRemoveSorted.iterator();
+            int toRemoveIndex = toRemoveIt.next();
+            int newIndex = toRemoveIndex;
+            for (int originalIndex = toRemoveIndex; originalIndex < count; ++originalIndex)
+            {
+                if (originalIndex == toRemoveIndex)
+                {
+                    currentSizeBytes -= dataLengths[originalIndex];
+                    toRemoveIndex = toRemoveIt.hasNext() ? toRemoveIt.next() : -1;
+                }
+                else
+                {
+                    dataOffsets[newIndex] = dataOffsets[originalIndex];
+                    dataLengths[newIndex] = dataLengths[originalIndex];
+                    startOffsets[newIndex] = startOffsets[originalIndex];
+                    endOffsets[newIndex] = endOffsets[originalIndex];
+                    fileOrdinals[newIndex] = fileOrdinals[originalIndex];
+                    partitionKeys[newIndex++] = partitionKeys[originalIndex];
+                }
+            }
+            Arrays.fill(partitionKeys, newIndex, count, null);
+            count = newIndex;
+        }
+        return this;
+    }
+    
+    /**
+     * Returns the arrays of the buffer to the pool: the buffer and the records rebuilt from it must not be used any
+     * more.
+     */
+    @Override
+    public void release()
+    {
+        super.release();
+        if (storage != null)
+        {
+            Arrays.fill(partitionKeys, 0, count, null);
+            storage.slab = slab;
+            storage.dataOffsets = dataOffsets;
+            storage.dataLengths = dataLengths;
+            storage.startOffsets = startOffsets;
+            storage.endOffsets = endOffsets;
+            storage.fileOrdinals = fileOrdinals;
+            storage.partitionKeys = partitionKeys;
+            pool.recycle(storage);
+            storage = null;
+        }
+    }
+    
+    @Override
+    public Iterator<DISRecord> iterator()
+    {
+        return new Iterator<DISRecord>()
+        {
+            private int next;
+            
+            @Override
+            public boolean hasNext()
+            {
+                return next < count;
+            }
+            
+            @Override
+            public DISRecord next()
+            {
+                if (next >= count)
+                {
+                    throw new NoSuchElementException();
+                }
+                return record(next++);
+            }
+            
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * The arrays of a compact buffer, passed from a released buffer to a new one by the {@link StoragePool}.
+     */
+    static final class Storage
+    {
+        private byte[] slab;
+        
+        private int[] dataOffsets;
+        
+        private int[] dataLengths;
+        
+        private long[] startOffsets;
+        
+        private long[] endOffsets;
+        
+        private int[] fileOrdinals;
+        
+        private String[] partitionKeys;
+        
+        private Storage(int records, int slabBytes)
+        {
+            slab = new byte[slabBytes];
+            dataOffsets = new int[records];
+            dataLengths = new int[records];
+            startOffsets = new long[records];
+            endOffsets = new long[records];
+            fileOrdinals = new int[records];
+            partitionKeys = new String[records];
+        }
+    }
+    
+    /**
+     * A pool of the {@link Storage} of the released compact buffers of a flow. New storage is sized for a full buffer of
+     * the flow, except for the byte array which starts at {@link #INITIAL_SLAB_BYTES} rather than at the largest buffer
+     * size, and grows with the data of the buffers it's used by. When the pool is full, the storage of a released buffer
+     * is left to the garbage collector.
+     */
+    static final class StoragePool
+    {
+        static final int INITIAL_SLAB_BYTES = 64 * 1024;
+        
+        private final int initialRecords;
+        
+        private final int initialSlabBytes;
+        
+        private final BlockingQueue<Storage> idleStorage;
+        
+        /**
+         * @param maxPooled The maximum number of idle storages kept by the pool
+         * @param maxBufferSizeRecords The maximum number of records of a buffer of the flow
+         * @param maxBufferSizeBytes The maximum size of a buffer of the flow
+         */
+        StoragePool(int maxPooled, int maxBufferSizeRecords, int maxBufferSizeBytes)
+        {
+            Preconditions.checkArgument(maxPooled > 0, "The storage pool size must be positive.");
+            this.initialRecords = maxBufferSizeRecords;
+            this.initialSlabBytes = Math.min(INITIAL_SLAB_BYTES, maxBufferSizeBytes);
+            this.idleStorage = new ArrayBlockingQueue<>(maxPooled);
+        }
+        
+        Storage acquire()
+        {
+            Storage storage = idleStorage.poll();
+            return storage != null ? storage : new Storage(initialRecords, initialSlabBytes);
+        }
+        
+        void recycle(Storage storage)
+        {
+            idleStorage.offer(storage);
+        }
+        
+        /**
+         * @return The number of idle storages currently held by the pool
+         */
+        int size()
+        {
+            return idleStorage.size();
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.base.Preconditions;
+
+/**
+ * A read-only {@link FileChannel} exposing the uncompressed content of a compressed file, so that rotated files
+ * compressed by logrotate can be parsed in place without decompressing them to disk. Positions and sizes are
+ * uncompressed offsets, which is what the parser and the checkpoints deal with.
+ * <p>
+ * A compressed file is a sequence of units that can be decoded on their own (gzip members, zstd frames), and the start
+ * of each unit is a sync point where decoding can be resumed: the {@link Index} of a file maps the compressed offset
+ * of every sync point to its uncompressed offset. It's built once by decoding the whole file (which also verifies its
+ * integrity) and cached by the {@link CompressedFileIndexes} of the agent. The checkpoint store persists the sizes of the file and
+ * the sync point before each checkpoint (see {@link SyncPointStore}), so that after a restart the file is not decoded
+ * again just to know its size, and parsing resumes from the sync point before its checkpoint. Moving the position
+ * decodes and discards the bytes between the closest preceding sync point (or the current position if it's closer)
+ * and the new position. Note that gzip and zstd write a single unit by default, whose only sync point is the start of
+ * the file.
+ * <p>
+ * The file is expected not to change once it's complete (as is the case for rotated files). A file that is still being
+ * written fails with an {@link EOFException} until it's complete.
+ */
+public abstract class CompressedFileChannel extends FileChannel
+{
+    public static final String GZIP_EXTENSION = ".gz";
+    
+    public static final String ZSTD_EXTENSION = ".zst";
+    
+    protected static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    
+    protected final Path path;
+    
+    protected final FileChannel source;
+    
+    private final Index index;
+    
+    /**
+     * The sync points found while decoding, only recorded while building the index
+     */
+    private final List<long[]> syncPoints;
+    
+    private byte[] scratch;
+    
+    /**
+     * The uncompressed offset of the next byte to be decoded
+     */
+    protected long position;
+    
+    private boolean finished;
+    
+    protected CompressedFileChannel(Path path, Index index)
+        throws IOException
+    {
+        this.path = path;
+        this.source = FileChannel.open(path, StandardOpenOption.READ);
+        this.index = index;
+        this.syncPoints = index == null ? new ArrayList<long[]>() : null;
+    }
+    
+    /**
+     * Opens the given compressed file for reading its uncompressed content.
+     *
+     * @param indexes The sync points of the compressed files of the agent, where the index of the file is looked up
+     * @throws IOException If the file can't be read, is not a complete compressed file or is corrupt.
+     */
+    public static CompressedFileChannel open(Path path, CompressedFileIndexes indexes)
+        throws IOException
+    {
+        return newChannel(path, indexes.index(path));
+    }
+    
+    private static CompressedFileChannel newChannel(Path path, Index index)
+        throws IOException
+    {
+        return isZstdFile(path) ? new ZstdFileChannel(path, index) : new GzipFileChannel(path, index);
+    }
+    
+    /**
+     * @return {@code true} if the file name has the extension of a supported compression format.
+     */
+    public static boolean isCompressedFile(Path path)
+    {
+        return isGzipFile(path) || isZstdFile(path);
+    }
+    
+    public static boolean isGzipFile(Path path)
+    {
+        return path.getFileName().toString().toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+    
+    public static boolean isZstdFile(Path path)
+    {
+        return path.getFileName().toString().toLowerCase().endsWith(ZSTD_EXTENSION);
+    }
+    
+    /**
+     * @return The name of the given compressed file without its compression extension, i.e. the name of the file it was
+     *         compressed from.
+     */
+    public static String uncompressedFileName(Path path)
+    {
+        String fileName = path.getFileName().toString();
+        int extensionLength = isZstdFile(path) ? ZSTD_EXTENSION.length() : GZIP_EXTENSION.length();
+        return fileName.substring(0, fileName.length() - extensionLength);
+    }
+    
+    /**
+     * @return A stream of the uncompressed content of the given compressed file, to read its beginning without indexing
+     *         it.
+     */
+    public static InputStream newInputStream(Path path)
+        throws IOException
+    {
+        InputStream in = Files.newInputStream(path);
+        try
+        {
+            return isZstdFile(path) ? new ZstdInputStream(in) : new GZIPInputStream(in);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            in.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return The sync points of the given compressed file, found by decoding the whole file.
+     * @throws IOException If the file can't be read, is not a complete compressed file or is corrupt.
+     */
+    static Index buildIndex(Path path)
+        throws IOException
+    {
+        try (CompressedFileChannel channel = newChannel(path, null))
+        {
+            ByteBuffer discarded = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+            while (channel.read(discarded) >= 0)
+            {
+                discarded.clear();
+            }
+            return new Index(channel.source.size(), channel.position, channel.syncPoints);
+        }
+    }
+    
+    /**
+     * @return The sync points of the file, {@code null} while the channel is the one building them.
+     */
+    public Index getIndex()
+    {
+        return index;
+    }
+    
+    @Override
+    public int read(ByteBuffer dst)
+        throws IOException
+    {
+        ensureOpen();
+        int total = 0;
+        while (dst.hasRemaining() && !finished)
+        {
+            int bytes = decode(dst);
+            if (bytes < 0)
+            {
+                finished = true;
+                break;
+            }
+            position += bytes;
+            total += bytes;
+        }
+        return total == 0 && finished ? -1 : total;
+    }
+    
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length)
+        throws IOException
+    {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            int bytes = read(dsts[i]);
+            if (bytes < 0)
+            {
+                return total == 0 ? -1 : total;
+            }
+            total += bytes;
+            if (dsts[i].hasRemaining())
+            {
+                break;
+            }
+        }
+        return total;
+    }
+    
+    @Override
+    public long position()
+        throws IOException
+    {
+        ensureOpen();
+        return position;
+    }
+    
+    @Override
+    public FileChannel position(long newPosition)
+        throws IOException
+    {
+        Preconditions.checkArgument(newPosition >= 0, "Position must be a non-negative number.");
+        ensureOpen();
+        // Resume from the sync point before the new position unless the current position is between them
+        if (newPosition < position || (index != null && index.syncPointBefore(newPosition)[1] > position))
+        {
+            restartAtSyncPoint(newPosition);
+        }
+        if (newPosition > position)
+        {
+            skip(newPosition - position);
+            // Like any channel, the position can be set beyond the end of the content
+            position = newPosition;
+        }
+        return this;
+    }
+    
+    @Override
+    public long size()
+        throws IOException
+    {
+        ensureOpen();
+        return index != null ? index.getUncompressedSize() : position;
+    }
+    
+    @Override
+    public int read(ByteBuffer dst, long position)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Positional reads are not supported on compressed file " + path);
+    }
+    
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Compressed file " + path + " cannot be memory-mapped.");
+    }
+    
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Transfers are not supported on compressed file " + path);
+    }
+    
+    @Override
+    public int write(ByteBuffer src)
+    {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public int write(ByteBuffer src, long position)
+    {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public FileChannel truncate(long size)
+    {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+    {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public void force(boolean metaData)
+    {
+        // Nothing to flush on a read-only channel
+    }
+    
+    @Override
+    public FileLock lock(long position, long size, boolean shared)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Locking is not supported on compressed file " + path);
+    }
+    
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Locking is not supported on compressed file " + path);
+    }
+    
+    @Override
+    protected void implCloseChannel()
+        throws IOException
+    {
+        try
+        {
+            releaseDecoder();
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+    
+    /**
+     * Decodes the next bytes of the content into the given buffer.
+     *
+     * @return The number of bytes decoded, at least one, or {@code -1} at the end of the content.
+     */
+    protected abstract int decode(ByteBuffer dst)
+        throws IOException;
+    
+    /**
+     * Moves the decoder to the unit starting at the given compressed offset.
+     */
+    protected abstract void restart(long compressedOffset)
+        throws IOException;
+    
+    protected abstract void releaseDecoder()
+        throws IOException;
+    
+    /**
+     * Called by the decoder at the start of each unit, before decoding it.
+     */
+    protected void onSyncPoint(long compressedOffset)
+    {
+        if (syncPoints != null)
+        {
+            syncPoints.add(new long[] {compressedOffset, position});
+        }
+    }
+    
+    /**
+     * @return A buffer to decode into when the destination buffer has no accessible array.
+     */
+    protected byte[] scratch()
+    {
+        if (scratch == null)
+        {
+            scratch = new byte[INPUT_BUFFER_SIZE];
+        }
+        return scratch;
+    }
+    
+    private void ensureOpen()
+        throws IOException
+    {
+        if (!isOpen())
+        {
+            throw new ClosedChannelException();
+        }
+    }
+    
+    private void skip(long count)
+        throws IOException
+    {
+        ByteBuffer discarded = ByteBuffer.allocate((int)Math.min(count, INPUT_BUFFER_SIZE));
+        long remaining = count;
+        while (remaining > 0)
+        {
+            discarded.clear();
+            discarded.limit((int)Math.min(remaining, discarded.capacity()));
+            int bytes = read(discarded);
+            if (bytes < 0)
+            {
+                break;
+            }
+            remaining -= bytes;
+        }
+    }
+    
+    /**
+     * Resumes decoding from the last sync point at or before the given uncompressed offset.
+     */
+    private void restartAtSyncPoint(long uncompressedOffset)
+        throws IOException
+    {
+        long[] syncPoint = index != null ? index.syncPointBefore(uncompressedOffset) : new long[] {0, 0};
+        restart(syncPoint[0]);
+        position = syncPoint[1];
+        finished = false;
+    }
+    
+    /**
+     * Looks up what is known of compressed files that are not indexed yet, i.e. after a restart.
+     */
+    public interface SyncPointStore
+    {
+        /**
+         * @return The sizes of the given compressed file and the sync points persisted for it, or {@code null} if
+         *         nothing was persisted for this version of the file.
+         */
+        Index loadIndex(FileId fileId, long lastModifiedTime, long compressedSize);
+    }
+    
+    /**
+     * The sync points of a compressed file: the compressed and uncompressed offsets at which each unit starts. An index
+     * loaded from the {@link SyncPointStore} only holds the sync points persisted with checkpoints.
+     */
+    public static final class Index
+    {
+        private final long compressedSize;
+        
+        private final long uncompressedSize;
+        
+        private final long[] compressedOffsets;
+        
+        private final long[] uncompressedOffsets;
+        
+        /**
+         * @param syncPoints The compressed and uncompressed offsets of the sync points, in order
+         */
+        public Index(long compressedSize, long uncompressedSize, List<long[]> syncPoints)
+        {
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.compressedOffsets = new long[syncPoints.size()];
+            this.uncompressedOffsets = new long[syncPoints.size()];
+            for (int i = 0; i < syncPoints.size(); i++)
+            {
+                compressedOffsets[i] = syncPoints.get(i)[0];
+                uncompressedOffsets[i] = syncPoints.get(i)[1];
+            }
+        }
+        
+        public long getCompressedSize()
+        {
+            return compressedSize;
+        }
+        
+        public long getUncompressedSize()
+        {
+            return uncompressedSize;
+        }
+        
+        public int getSyncPointCount()
+        {
+            return compressedOffsets.length;
+        }
+        
+        /**
+         * @return The compressed and uncompressed offsets of the last sync point at or before the given uncompressed
+         *         offset, or the start of the file if there's none.
+         */
+        public long[] syncPointBefore(long uncompressedOffset)
+        {
+            int i = Arrays.binarySearch(uncompressedOffsets, uncompressedOffset);
+            if (i < 0)
+            {
+                i = -i - 2;
+            }
+            else
+            {
+                // Empty units share their uncompressed offset with the next one, resume from the first of them
+                while (i > 0 && uncompressedOffsets[i - 1] == uncompressedOffset)
+                {
+                    i--;
+                }
+            }
+            return i < 0 ? new long[] {0, 0} : new long[] {compressedOffsets[i], uncompressedOffsets[i]};
+        }
+    }
+}
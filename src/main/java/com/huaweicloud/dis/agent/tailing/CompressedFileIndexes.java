@@ -0,0 +1,102 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The sync points of the compressed files tailed by an agent (see {@link CompressedFileChannel}). The index of a file is
+ * cached for as long as the file doesn't change. A file that is not indexed yet is looked up in the
+ * {@link CompressedFileChannel.SyncPointStore} of the agent, if any, and only decoded in full if nothing was persisted
+ * for it.
+ */
+public class CompressedFileIndexes
+{
+    private static final int MAX_CACHED_INDEXES = 256;
+    
+    @SuppressWarnings("serial")
+    private final Map<String, CompressedFileChannel.Index> cache =
+        new LinkedHashMap<String, CompressedFileChannel.Index>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompressedFileChannel.Index> eldest)
+            {
+                return size() > MAX_CACHED_INDEXES;
+            }
+        };
+    
+    private volatile CompressedFileChannel.SyncPointStore syncPointStore;
+    
+    /**
+     * Sets the store the sizes and sync points of the files that are not indexed yet are looked up in.
+     */
+    public void setSyncPointStore(CompressedFileChannel.SyncPointStore store)
+    {
+        this.syncPointStore = store;
+    }
+    
+    /**
+     * @return The sync points of the given compressed file, from the cache or the
+     *         {@link CompressedFileChannel.SyncPointStore}, or else by decoding the whole file.
+     * @throws IOException If the file can't be read, is not a complete compressed file or is corrupt.
+     */
+    public CompressedFileChannel.Index index(Path path)
+        throws IOException
+    {
+        FileId fileId = FileId.get(path);
+        long compressedSize = Files.size(path);
+        long lastModifiedTime = Files.getLastModifiedTime(path).toMillis();
+        String key = cacheKey(path, fileId, compressedSize, lastModifiedTime);
+        synchronized (cache)
+        {
+            CompressedFileChannel.Index index = cache.get(key);
+            if (index != null)
+            {
+                return index;
+            }
+        }
+        
+        CompressedFileChannel.SyncPointStore store = syncPointStore;
+        CompressedFileChannel.Index index =
+            store != null ? store.loadIndex(fileId, lastModifiedTime, compressedSize) : null;
+        if (index == null)
+        {
+            index = CompressedFileChannel.buildIndex(path);
+        }
+        synchronized (cache)
+        {
+            cache.put(key, index);
+        }
+        return index;
+    }
+    
+    /**
+     * @return The sync points of the given compressed file if they're known already, {@code null} otherwise.
+     */
+    public CompressedFileChannel.Index cachedIndex(Path path)
+        throws IOException
+    {
+        String key = cacheKey(path, FileId.get(path), Files.size(path), Files.getLastModifiedTime(path).toMillis());
+        synchronized (cache)
+        {
+            return cache.get(key);
+        }
+    }
+    
+    /**
+     * @return The size of the uncompressed content of the given compressed file.
+     * @throws IOException If the file can't be read, is not a complete compressed file or is corrupt.
+     */
+    public long uncompressedSize(Path path)
+        throws IOException
+    {
+        return index(path).getUncompressedSize();
+    }
+    
+    private static String cacheKey(Path path, FileId fileId, long compressedSize, long lastModifiedTime)
+    {
+        return path.toAbsolutePath() + "@" + fileId + "@" + compressedSize + "@" + lastModifiedTime;
+    }
+}
@@ -18,6 +18,8 @@ public class DISConstants extends Constants
     
     public static final int MAX_BUFFER_SIZE_RECORDS = MAX_PUT_RECORDS_SIZE_RECORDS;
     
+    public static final int MAX_AGGREGATED_BUFFER_SIZE_RECORDS = 100000;
+    
     public static final int MAX_BUFFER_SIZE_BYTES = 4 * Constants.ONE_MB;
     
     public static final int DEFAULT_PARSER_BUFFER_SIZE_BYTES = 6 * Constants.ONE_MB;
@@ -17,10 +17,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 @ToString(callSuper = true)
 public class DISFileFlow extends FileFlow<DISRecord>
@@ -33,6 +35,9 @@ public class DISFileFlow extends FileFlow<DISRecord>
     public static final Range<Integer> VALID_MAX_BUFFER_SIZE_RECORDS_RANGE =
         Range.closed(1, DISConstants.MAX_BUFFER_SIZE_RECORDS);
     
+    public static final Range<Integer> VALID_MAX_AGGREGATED_BUFFER_SIZE_RECORDS_RANGE =
+        Range.closed(1, DISConstants.MAX_AGGREGATED_BUFFER_SIZE_RECORDS);
+    
     public static final Range<Integer> VALID_MAX_BUFFER_SIZE_BYTES_RANGE =
         Range.closed(1, DISConstants.MAX_BUFFER_SIZE_BYTES);
     
@@ -57,6 +62,32 @@ public class DISFileFlow extends FileFlow<DISRecord>
     @Getter
     protected final int maxRecordSizeBytes;
     
+    @Getter
+    protected final boolean aggregateRecords;
+    
+    @Getter
+    protected final int maxAggregateSizeBytes;
+    
+    /**
+     * Whether all the partition keys are random, so that any records can be packed together
+     */
+    @Getter
+    protected final boolean randomPartitionKey;
+    
+    @Getter
+    protected final DISPayloadCodec.Codec compressionCodec;
+    
+    @Getter
+    protected final int compressionLevel;
+    
+    @Getter
+    protected final boolean compactRecordBuffer;
+    
+    /**
+     * The arrays of the released compact buffers, reused by the next ones; {@code null} unless the buffers are compact
+     */
+    private final CompactRecordBuffer.StoragePool compactBufferPool;
+    
     public DISFileFlow(AgentContext context, Configuration config)
     {
         super(context, config);
@@ -99,6 +130,32 @@ public class DISFileFlow extends FileFlow<DISRecord>
             maxRecordSizeBytes = Constants.ONE_MB;
         }
         LOGGER.info("DISStream {} type is {}", destination, streamType);
+        
+        aggregateRecords = readBoolean(AGGREGATE_RECORDS, false);
+        maxAggregateSizeBytes = readInteger(MAX_AGGREGATE_SIZE_BYTES, maxRecordSizeBytes);
+        Configuration.validateRange(maxAggregateSizeBytes,
+            Range.closed(DISRecordDeaggregator.HEADER_BYTES + DISRecordDeaggregator.CHECKSUM_BYTES + 1,
+                maxRecordSizeBytes),
+            MAX_AGGREGATE_SIZE_BYTES);
+        boolean random = !partitionKeyOptionList.isEmpty();
+        for (String option : partitionKeyOptionList)
+        {
+            random &= PartitionKeyOption.RANDOM_INT.name().equals(option)
+                || PartitionKeyOption.RANDOM_DOUBLE.name().equals(option);
+        }
+        randomPartitionKey = random;
+        
+        compressionCodec = readEnum(DISPayloadCodec.Codec.class, COMPRESSION_CODEC, DISPayloadCodec.Codec.NONE);
+        compressionLevel = readInteger(COMPRESSION_LEVEL, 6);
+        Configuration.validateRange(compressionLevel,
+            Range.closed(Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION),
+            COMPRESSION_LEVEL);
+        
+        compactRecordBuffer = readBoolean(COMPACT_RECORD_BUFFER, false);
+        // Buffers are released by the sending threads, and each released buffer is soon followed by a new one
+        compactBufferPool = compactRecordBuffer
+            ? new CompactRecordBuffer.StoragePool(sendingThreadSize + 1, maxBufferSizeRecords, maxBufferSizeBytes)
+            : null;
     }
     
     @Override
@@ -113,6 +170,24 @@ public class DISFileFlow extends FileFlow<DISRecord>
         return maxRecordSizeBytes;
     }
     
+    @Override
+    protected boolean isSpillSupported()
+    {
+        return true;
+    }
+    
+    @Override
+    public DISRecord restoreRecord(TrackedFile file, long offset, long totalLength, ByteBuffer data)
+    {
+        return new DISRecord(file, offset, totalLength, data, false);
+    }
+    
+    @Override
+    public RecordBuffer<DISRecord> newRecordBuffer()
+    {
+        return compactRecordBuffer ? new CompactRecordBuffer(this, compactBufferPool) : super.newRecordBuffer();
+    }
+    
     @Override
     public int getPerBufferOverheadBytes()
     {
@@ -223,13 +298,16 @@ public class DISFileFlow extends FileFlow<DISRecord>
     @Override
     protected Range<Integer> getBufferSizeRecordsValidRange()
     {
-        return VALID_MAX_BUFFER_SIZE_RECORDS_RANGE;
+        // Called before the fields are set: aggregated records are not limited by the number of records per request
+        return readBoolean(AGGREGATE_RECORDS, false) ? VALID_MAX_AGGREGATED_BUFFER_SIZE_RECORDS_RANGE
+            : VALID_MAX_BUFFER_SIZE_RECORDS_RANGE;
     }
     
     @Override
     protected int getDefaultBufferSizeRecords()
     {
-        return DISConstants.DEFAULT_PUT_RECORDS_SIZE_RECORDS;
+        return readBoolean(AGGREGATE_RECORDS, false) ? DISConstants.MAX_PUT_RECORDS_SIZE_RECORDS
+            : DISConstants.DEFAULT_PUT_RECORDS_SIZE_RECORDS;
     }
     
     @Override
@@ -0,0 +1,468 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.xerial.snappy.Snappy;
+
+import com.github.luben.zstd.Zstd;
+import com.google.common.base.Preconditions;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Compresses the data of the DIS records sent by a flow with a compressionCodec, either single records or aggregated
+ * ones (see {@link DISRecordDeaggregator}).
+ * <p>
+ * A compressed record is laid out as (integers are 4 bytes big-endian):
+ * <ul>
+ * <li>the magic bytes 0xFF 'D' 'C' 'Z', 0xFF never appearing in UTF-8 text</li>
+ * <li>the {@link Codec#id() id} of the codec, on 1 byte</li>
+ * <li>the length of the uncompressed data</li>
+ * <li>the compressed data: a gzip member for {@link Codec#GZIP}, raw deflate data for {@link Codec#DEFLATE}, an LZ4
+ * block for {@link Codec#LZ4}, a zstd frame for {@link Codec#ZSTD} and raw snappy data for {@link Codec#SNAPPY}</li>
+ * </ul>
+ * Data that doesn't get smaller is sent uncompressed, so a DIS record that isn't a compressed record is the data
+ * itself. A consumer gets the data back with {@link #decompress(ByteBuffer)}, which
+ * {@link DISRecordDeaggregator#deaggregate(ByteBuffer)} already does.
+ * <p>
+ * Compressing keeps a {@link Deflater} per sending thread, reset for every record, along with the LZ4 compressor and
+ * the scratch arrays of the other codecs. zstd-jni 1.4.3 has no reusable compression context, zstd allocates one per
+ * record natively.
+ */
+public final class DISPayloadCodec
+{
+    static final byte[] MAGIC = {(byte)0xFF, 'D', 'C', 'Z'};
+    
+    /**
+     * The magic bytes, codec and uncompressed length
+     */
+    static final int HEADER_BYTES = MAGIC.length + 1 + 4;
+    
+    private static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff};
+    
+    private static final int GZIP_TRAILER_BYTES = 8;
+    
+    /**
+     * The codecs a flow can compress records with.
+     */
+    public static enum Codec
+    {
+        NONE(0), GZIP(1), DEFLATE(2), LZ4(3), ZSTD(4), SNAPPY(5);
+        
+        private final int id;
+        
+        private Codec(int id)
+        {
+            this.id = id;
+        }
+        
+        /**
+         * @return The byte identifying the codec in a compressed record
+         */
+        public int id()
+        {
+            return id;
+        }
+        
+        static Codec fromId(int id)
+        {
+            for (Codec codec : values())
+            {
+                if (codec.id == id && codec != NONE)
+                {
+                    return codec;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression codec (" + id + ")");
+        }
+    }
+    
+    private final Codec codec;
+    
+    private final int level;
+    
+    private final ThreadLocal<Compressor> compressors;
+    
+    /**
+     * @param level The {@link Deflater} compression level, also the zstd one; LZ4 and snappy have a single level
+     */
+    DISPayloadCodec(Codec codec, final int level)
+    {
+        Preconditions.checkArgument(codec != Codec.NONE);
+        this.codec = codec;
+        this.level = level;
+        this.compressors = new ThreadLocal<Compressor>()
+        {
+            @Override
+            protected Compressor initialValue()
+            {
+                boolean deflate = codec == Codec.GZIP || codec == Codec.DEFLATE;
+                return new Compressor(deflate ? new Deflater(level, true) : null);
+            }
+        };
+    }
+    
+    Codec codec()
+    {
+        return codec;
+    }
+    
+    /**
+     * @return The compressed record, or the data itself if it doesn't get smaller
+     */
+    ByteBuffer compress(ByteBuffer data)
+    {
+        int length = data.remaining();
+        int overhead = HEADER_BYTES + (codec == Codec.GZIP ? GZIP_HEADER.length + GZIP_TRAILER_BYTES : 0);
+        if (length <= overhead)
+        {
+            return data;
+        }
+        Compressor compressor = compressors.get();
+        byte[] input;
+        int offset;
+        if (data.hasArray())
+        {
+            input = data.array();
+            offset = data.arrayOffset() + data.position();
+        }
+        else
+        {
+            input = compressor.input(length);
+            offset = 0;
+            data.duplicate().get(input, 0, length);
+        }
+        // Compressed into at most as many bytes as the data, or it's not worth it
+        byte[] output = new byte[length];
+        ByteBuffer header = ByteBuffer.wrap(output);
+        header.put(MAGIC).put((byte)codec.id()).putInt(length);
+        if (codec == Codec.GZIP)
+        {
+            header.put(GZIP_HEADER);
+        }
+        int position = header.position();
+        int compressed;
+        switch (codec)
+        {
+            case LZ4:
+                compressed = compressLz4(compressor, input, offset, length, output, position);
+                break;
+            case ZSTD:
+                compressed = compressZstd(input, offset, length, output, position);
+                break;
+            case SNAPPY:
+                compressed = compressSnappy(compressor, input, offset, length, output, position);
+                break;
+            default:
+                compressed = compressDeflate(compressor, input, offset, length, output, position);
+                break;
+        }
+        if (compressed < 0)
+        {
+            return data;
+        }
+        return ByteBuffer.wrap(output, 0, position + compressed);
+    }
+    
+    /**
+     * @return The number of bytes written after the header, including the gzip trailer, or -1 if they don't fit
+     */
+    private int compressDeflate(Compressor compressor, byte[] input, int offset, int length, byte[] output,
+        int start)
+    {
+        int position = start;
+        int limit = codec == Codec.GZIP ? output.length - GZIP_TRAILER_BYTES : output.length;
+        Deflater deflater = compressor.deflater;
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        while (!deflater.finished() && position < limit)
+        {
+            position += deflater.deflate(output, position, limit - position);
+        }
+        if (!deflater.finished())
+        {
+            return -1;
+        }
+        if (codec == Codec.GZIP)
+        {
+            CRC32 crc = compressor.crc;
+            crc.reset();
+            crc.update(input, offset, length);
+            ByteBuffer trailer = ByteBuffer.wrap(output, position, GZIP_TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int)crc.getValue()).putInt(length);
+            position += GZIP_TRAILER_BYTES;
+        }
+        return position - start;
+    }
+    
+    private static int compressLz4(Compressor compressor, byte[] input, int offset, int length, byte[] output,
+        int start)
+    {
+        try
+        {
+            return compressor.lz4().compress(input, offset, length, output, start, output.length - start);
+        }
+        catch (LZ4Exception e)
+        {
+            // The compressed data doesn't fit
+            return -1;
+        }
+    }
+    
+    private int compressZstd(byte[] input, int offset, int length, byte[] output, int start)
+    {
+        long compressed = Zstd.compressByteArray(output, start, output.length - start, input, offset, length, level);
+        return Zstd.isError(compressed) ? -1 : (int)compressed;
+    }
+    
+    private static int compressSnappy(Compressor compressor, byte[] input, int offset, int length, byte[] output,
+        int start)
+    {
+        // Snappy writes up to its bound, past the end of the output
+        byte[] scratch = compressor.output(Snappy.maxCompressedLength(length));
+        int compressed;
+        try
+        {
+            compressed = Snappy.compress(input, offset, length, scratch, 0);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+        if (compressed > output.length - start)
+        {
+            return -1;
+        }
+        System.arraycopy(scratch, 0, output, start, compressed);
+        return compressed;
+    }
+    
+    /**
+     * @return {@code true} if the data starts like a compressed record
+     */
+    public static boolean isCompressed(ByteBuffer data)
+    {
+        if (data.remaining() < HEADER_BYTES)
+        {
+            return false;
+        }
+        int position = data.position();
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (data.get(position + i) != MAGIC[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return The uncompressed data, or the data itself if it isn't a compressed record
+     * @throws IllegalArgumentException if the data is a compressed record, but is truncated or corrupted
+     */
+    public static ByteBuffer decompress(ByteBuffer data)
+    {
+        if (!isCompressed(data))
+        {
+            return data;
+        }
+        int position = data.position();
+        Codec codec = Codec.fromId(data.get(position + MAGIC.length) & 0xff);
+        int length = data.getInt(position + MAGIC.length + 1);
+        if (length < 0)
+        {
+            throw new IllegalArgumentException("Invalid uncompressed length (" + length + ") in the compressed record");
+        }
+        byte[] input = new byte[data.remaining() - HEADER_BYTES];
+        ByteBuffer body = data.duplicate();
+        body.position(position + HEADER_BYTES);
+        body.get(input);
+        int offset = 0;
+        int end = input.length;
+        if (codec == Codec.GZIP)
+        {
+            if (input.length < GZIP_HEADER.length + GZIP_TRAILER_BYTES || input[0] != GZIP_HEADER[0]
+                || input[1] != GZIP_HEADER[1] || input[2] != GZIP_HEADER[2] || input[3] != 0)
+            {
+                throw new IllegalArgumentException("Invalid gzip header in the compressed record");
+            }
+            offset = GZIP_HEADER.length;
+            end -= GZIP_TRAILER_BYTES;
+        }
+        byte[] output = new byte[length];
+        switch (codec)
+        {
+            case LZ4:
+                decompressLz4(input, offset, end, output);
+                break;
+            case ZSTD:
+                decompressZstd(input, offset, end, output);
+                break;
+            case SNAPPY:
+                decompressSnappy(input, offset, end, output);
+                break;
+            default:
+                decompressDeflate(input, offset, end, output);
+                break;
+        }
+        if (codec == Codec.GZIP)
+        {
+            CRC32 crc = new CRC32();
+            crc.update(output, 0, length);
+            ByteBuffer trailer = ByteBuffer.wrap(input, end, GZIP_TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (trailer.getInt() != (int)crc.getValue() || trailer.getInt() != length)
+            {
+                throw new IllegalArgumentException("Checksum mismatch in the compressed record");
+            }
+        }
+        return ByteBuffer.wrap(output);
+    }
+    
+    private static void decompressDeflate(byte[] input, int offset, int end, byte[] output)
+    {
+        int length = output.length;
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(input, offset, end - offset);
+            int inflated = 0;
+            while (!inflater.finished() && inflated < length)
+            {
+                int count = inflater.inflate(output, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length || !inflater.finished() && inflater.inflate(new byte[1]) > 0)
+            {
+                throw new IllegalArgumentException("Uncompressed length mismatch in the compressed record");
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IllegalArgumentException("Corrupted compressed record", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+    
+    private static void decompressLz4(byte[] input, int offset, int end, byte[] output)
+    {
+        int decompressed;
+        try
+        {
+            decompressed = LZ4Factory.fastestInstance()
+                .safeDecompressor()
+                .decompress(input, offset, end - offset, output, 0, output.length);
+        }
+        catch (LZ4Exception e)
+        {
+            throw new IllegalArgumentException("Corrupted compressed record", e);
+        }
+        if (decompressed != output.length)
+        {
+            throw new IllegalArgumentException("Uncompressed length mismatch in the compressed record");
+        }
+    }
+    
+    private static void decompressZstd(byte[] input, int offset, int end, byte[] output)
+    {
+        long decompressed = Zstd.decompressByteArray(output, 0, output.length, input, offset, end - offset);
+        if (Zstd.isError(decompressed))
+        {
+            throw new IllegalArgumentException("Corrupted compressed record: " + Zstd.getErrorName(decompressed));
+        }
+        if (decompressed != output.length)
+        {
+            throw new IllegalArgumentException("Uncompressed length mismatch in the compressed record");
+        }
+    }
+    
+    private static void decompressSnappy(byte[] input, int offset, int end, byte[] output)
+    {
+        try
+        {
+            // Checked first, snappy writes as many bytes as the data says without bounds
+            if (Snappy.uncompressedLength(input, offset, end - offset) != output.length)
+            {
+                throw new IllegalArgumentException("Uncompressed length mismatch in the compressed record");
+            }
+            Snappy.uncompress(input, offset, end - offset, output, 0);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Corrupted compressed record", e);
+        }
+    }
+    
+    /**
+     * What a sending thread reuses to compress records
+     */
+    private static class Compressor
+    {
+        private final Deflater deflater;
+        
+        private final CRC32 crc = new CRC32();
+        
+        private LZ4Compressor lz4;
+        
+        private byte[] input = new byte[0];
+        
+        private byte[] output = new byte[0];
+        
+        /**
+         * @param deflater The deflater of the codec, {@code null} if it doesn't deflate
+         */
+        Compressor(Deflater deflater)
+        {
+            this.deflater = deflater;
+        }
+        
+        /**
+         * @return A scratch array for the data of a direct buffer
+         */
+        byte[] input(int length)
+        {
+            if (input.length < length)
+            {
+                input = new byte[length];
+            }
+            return input;
+        }
+        
+        /**
+         * @return A scratch array for codecs that can't stop once the output is full
+         */
+        byte[] output(int length)
+        {
+            if (output.length < length)
+            {
+                output = new byte[length];
+            }
+            return output;
+        }
+        
+        LZ4Compressor lz4()
+        {
+            if (lz4 == null)
+            {
+                lz4 = LZ4Factory.fastestInstance().fastCompressor();
+            }
+            return lz4;
+        }
+    }
+}
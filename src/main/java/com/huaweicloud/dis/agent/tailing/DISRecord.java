@@ -29,6 +29,25 @@ public class DISRecord extends AbstractRecord
         partitionKey = generatePartitionKey(((DISFileFlow)file.getFlow()).getPartitionKeyOptionList());
     }
     
+    /**
+     * Restores a record from the data of one already built, e.g. after it was spilled to disk.
+     */
+    public DISRecord(TrackedFile file, long offset, long totalLength, ByteBuffer data, boolean stripRecordDelimiter)
+    {
+        super(file, offset, totalLength, data, stripRecordDelimiter);
+        Preconditions.checkNotNull(file);
+        partitionKey = generatePartitionKey(((DISFileFlow)file.getFlow()).getPartitionKeyOptionList());
+    }
+    
+    /**
+     * Rebuilds a record kept by a {@link CompactRecordBuffer}, with the partition key it was generated with.
+     */
+    DISRecord(TrackedFile file, long offset, long totalLength, ByteBuffer data, String partitionKey)
+    {
+        super(file, offset, totalLength, data, false);
+        this.partitionKey = partitionKey;
+    }
+    
     public String partitionKey()
     {
         return partitionKey;
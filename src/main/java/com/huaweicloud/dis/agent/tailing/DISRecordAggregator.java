@@ -0,0 +1,153 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Packs the records of a buffer into as few DIS records as possible, in the format read by
+ * {@link DISRecordDeaggregator}.
+ * <p>
+ * Records are only packed with records of the same partition key, in their order in the buffer, so that they still
+ * land on the same partition in the same order. When the partition keys are random, any records are packed together
+ * under the key of the first one.
+ */
+final class DISRecordAggregator
+{
+    private final int maxAggregateSizeBytes;
+    
+    private final int maxAggregates;
+    
+    private final boolean randomPartitionKey;
+    
+    /**
+     * @param maxAggregateSizeBytes The maximum size of a packed DIS record
+     * @param maxAggregates The maximum number of DIS records, the records left over being left out
+     * @param randomPartitionKey Whether records of different partition keys can be packed together
+     */
+    DISRecordAggregator(int maxAggregateSizeBytes, int maxAggregates, boolean randomPartitionKey)
+    {
+        Preconditions.checkArgument(maxAggregateSizeBytes > 0);
+        Preconditions.checkArgument(maxAggregates > 0);
+        this.maxAggregateSizeBytes = maxAggregateSizeBytes;
+        this.maxAggregates = maxAggregates;
+        this.randomPartitionKey = randomPartitionKey;
+    }
+    
+    /**
+     * @return The DIS records to send, records not part of any having to be sent again in another request
+     */
+    List<Aggregate> aggregate(RecordBuffer<DISRecord> buffer)
+    {
+        List<Aggregate> aggregates = new ArrayList<>();
+        Map<String, Aggregate> openAggregates = new LinkedHashMap<>();
+        // A compact buffer is read directly, without rebuilding its records
+        CompactRecordBuffer compactBuffer = buffer instanceof CompactRecordBuffer ? (CompactRecordBuffer)buffer : null;
+        Iterator<DISRecord> records = compactBuffer == null ? buffer.iterator() : null;
+        for (int index = 0; index < buffer.sizeRecords(); index++)
+        {
+            DISRecord record = records != null ? records.next() : null;
+            String partitionKey = record != null ? record.partitionKey() : compactBuffer.partitionKey(index);
+            ByteBuffer data = record != null ? record.data() : compactBuffer.data(index);
+            String group = randomPartitionKey ? "" : partitionKey;
+            Aggregate aggregate = openAggregates.get(group);
+            if (aggregate != null && !aggregate.fits(data))
+            {
+                openAggregates.remove(group);
+                aggregate = null;
+            }
+            if (aggregate == null)
+            {
+                if (aggregates.size() >= maxAggregates)
+                {
+                    continue;
+                }
+                aggregate = new Aggregate(partitionKey);
+                aggregates.add(aggregate);
+                if (aggregate.fits(data))
+                {
+                    openAggregates.put(group, aggregate);
+                }
+            }
+            aggregate.add(index, data);
+        }
+        return aggregates;
+    }
+    
+    /**
+     * The records packed into one DIS record
+     */
+    final class Aggregate
+    {
+        private final String partitionKey;
+        
+        private final List<Integer> indices = new ArrayList<>();
+        
+        private final List<ByteBuffer> records = new ArrayList<>();
+        
+        private long sizeBytes = DISRecordDeaggregator.HEADER_BYTES + DISRecordDeaggregator.CHECKSUM_BYTES;
+        
+        private Aggregate(String partitionKey)
+        {
+            this.partitionKey = partitionKey;
+        }
+        
+        /**
+         * An empty aggregate always takes a record, which is sent as it is if it doesn't fit.
+         */
+        private boolean fits(ByteBuffer record)
+        {
+            return sizeBytes + DISRecordDeaggregator.PER_RECORD_OVERHEAD_BYTES
+                + record.remaining() <= maxAggregateSizeBytes;
+        }
+        
+        private void add(int index, ByteBuffer record)
+        {
+            indices.add(index);
+            records.add(record);
+            sizeBytes += DISRecordDeaggregator.PER_RECORD_OVERHEAD_BYTES + record.remaining();
+        }
+        
+        String partitionKey()
+        {
+            return partitionKey;
+        }
+        
+        /**
+         * @return The indices in the buffer of the packed records, in ascending order
+         */
+        List<Integer> indices()
+        {
+            return indices;
+        }
+        
+        /**
+         * @return The DIS record data, which is the record itself if it's alone and doesn't start like an aggregate
+         */
+        ByteBuffer data()
+        {
+            if (records.size() == 1
+                && (sizeBytes > maxAggregateSizeBytes || !DISRecordDeaggregator.isAggregated(records.get(0))))
+            {
+                return records.get(0);
+            }
+            ByteBuffer data = ByteBuffer.allocate((int)sizeBytes);
+            data.put(DISRecordDeaggregator.MAGIC).put(DISRecordDeaggregator.VERSION).putInt(records.size());
+            for (ByteBuffer record : records)
+            {
+                data.putInt(record.remaining()).put(record.duplicate());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), 0, data.position());
+            data.putInt((int)crc.getValue());
+            data.flip();
+            return data;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Unpacks the DIS records written by a flow with aggregateRecords enabled, each holding several records of the file.
+ * <p>
+ * An aggregated record is laid out as (integers are 4 bytes big-endian):
+ * <ul>
+ * <li>the magic bytes 0xFF 'D' 'A' 'G', 0xFF never appearing in UTF-8 text</li>
+ * <li>the format version, on 1 byte</li>
+ * <li>the number of records</li>
+ * <li>each record as its length followed by its data</li>
+ * <li>the CRC32 of all the preceding bytes</li>
+ * </ul>
+ * A record alone in its DIS record, such as one too large to be packed with others, is sent as it is, so a DIS record
+ * that isn't an aggregated record is one record of the file.
+ * <p>
+ * Compressed records (see {@link DISPayloadCodec}) are decompressed first. A consumer unpacks each DIS record it gets
+ * with:
+ * <p>
+ * {@code for (ByteBuffer record : DISRecordDeaggregator.deaggregate(ByteBuffer.wrap(disRecord.getData()))) ...}
+ */
+public final class DISRecordDeaggregator
+{
+    static final byte[] MAGIC = {(byte)0xFF, 'D', 'A', 'G'};
+    
+    static final byte VERSION = 1;
+    
+    /**
+     * The magic bytes, version and number of records
+     */
+    static final int HEADER_BYTES = MAGIC.length + 1 + 4;
+    
+    static final int PER_RECORD_OVERHEAD_BYTES = 4;
+    
+    static final int CHECKSUM_BYTES = 4;
+    
+    private DISRecordDeaggregator()
+    {
+    }
+    
+    /**
+     * @return {@code true} if the data starts like an aggregated record
+     */
+    public static boolean isAggregated(ByteBuffer data)
+    {
+        if (data.remaining() < HEADER_BYTES + CHECKSUM_BYTES)
+        {
+            return false;
+        }
+        int position = data.position();
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (data.get(position + i) != MAGIC[i])
+            {
+                return false;
+            }
+        }
+        return data.get(position + MAGIC.length) == VERSION;
+    }
+    
+    /**
+     * @return The records packed in the data, or the data alone if it isn't an aggregated record
+     * @throws IllegalArgumentException if the data is an aggregated or compressed record, but is truncated or corrupted
+     */
+    public static List<ByteBuffer> deaggregate(ByteBuffer data)
+    {
+        data = DISPayloadCodec.decompress(data);
+        if (!isAggregated(data))
+        {
+            return Collections.singletonList(data.slice());
+        }
+        int start = data.position();
+        int end = data.limit() - CHECKSUM_BYTES;
+        CRC32 crc = new CRC32();
+        ByteBuffer checked = data.duplicate();
+        checked.limit(end);
+        crc.update(checked);
+        if ((int)crc.getValue() != data.getInt(end))
+        {
+            throw new IllegalArgumentException("Checksum mismatch in the aggregated record");
+        }
+        int count = data.getInt(start + MAGIC.length + 1);
+        if (count < 0 || (long)count * PER_RECORD_OVERHEAD_BYTES > end - start - HEADER_BYTES)
+        {
+            throw new IllegalArgumentException("Invalid number of records (" + count + ") in the aggregated record");
+        }
+        List<ByteBuffer> records = new ArrayList<>(count);
+        int position = start + HEADER_BYTES;
+        for (int i = 0; i < count; i++)
+        {
+            int length = position + PER_RECORD_OVERHEAD_BYTES <= end ? data.getInt(position) : -1;
+            position += PER_RECORD_OVERHEAD_BYTES;
+            if (length < 0 || length > end - position)
+            {
+                throw new IllegalArgumentException("Truncated record " + i + " in the aggregated record");
+            }
+            ByteBuffer record = data.duplicate();
+            record.limit(position + length).position(position);
+            records.add(record.slice());
+            position += length;
+        }
+        if (position != end)
+        {
+            throw new IllegalArgumentException("Unexpected " + (end - position) + " bytes after the aggregated records");
+        }
+        return records;
+    }
+}
@@ -1,5 +1,8 @@
 package com.huaweicloud.dis.agent.tailing;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -55,15 +58,39 @@ public class DISSender extends AbstractSender<DISRecord>
     
     private final AtomicLong activePutRecordsCalls = new AtomicLong();
     
+    private final AtomicLong totalAggregatedRecords = new AtomicLong();
+    
+    private final AtomicLong totalAggregates = new AtomicLong();
+    
+    private final AtomicLong totalBytesBeforeCompression = new AtomicLong();
+    
+    private final AtomicLong totalBytesAfterCompression = new AtomicLong();
+    
+    private final AtomicLong totalCompressionCpuNanos = new AtomicLong();
+    
     private final Map<String, AtomicLong> totalErrors = new HashMap<>();
     
     private final Map<String, Long> shardIdSequenceNumberMap = new ConcurrentHashMap<>();
     
+    /**
+     * Packs the records of a buffer into fewer DIS records, {@code null} if records are sent one by one
+     */
+    private final DISRecordAggregator aggregator;
+    
+    /**
+     * Compresses the DIS records, {@code null} if they are sent uncompressed
+     */
+    private final DISPayloadCodec codec;
+    
     public DISSender(AgentContext agentContext, DISFileFlow flow)
     {
         Preconditions.checkNotNull(flow);
         this.agentContext = agentContext;
         this.flow = flow;
+        this.aggregator = flow.isAggregateRecords() ? new DISRecordAggregator(flow.getMaxAggregateSizeBytes(),
+            DISConstants.MAX_PUT_RECORDS_SIZE_RECORDS, flow.isRandomPartitionKey()) : null;
+        this.codec = flow.getCompressionCodec() != DISPayloadCodec.Codec.NONE
+            ? new DISPayloadCodec(flow.getCompressionCodec(), flow.getCompressionLevel()) : null;
     }
     
     @Override
@@ -75,7 +102,8 @@ public class DISSender extends AbstractSender<DISRecord>
     @Override
     protected int getMaxSendBatchSizeRecords()
     {
-        return DISConstants.MAX_PUT_RECORDS_SIZE_RECORDS;
+        return aggregator != null ? DISConstants.MAX_AGGREGATED_BUFFER_SIZE_RECORDS
+            : DISConstants.MAX_PUT_RECORDS_SIZE_RECORDS;
     }
     
     @Override
@@ -87,13 +115,50 @@ public class DISSender extends AbstractSender<DISRecord>
         try
         {
             BufferSendResult<DISRecord> sendResult;
+            int bufferRecords = buffer.sizeRecords();
             List<PutRecordsRequestEntry> requestRecords = new ArrayList<>();
-            for (DISRecord data : buffer)
+            // 打包时每条DIS记录包含的记录
+            List<DISRecordAggregator.Aggregate> aggregates = null;
+            if (aggregator == null && buffer instanceof CompactRecordBuffer)
+            {
+                // Straight from the data of the buffer, without rebuilding its records
+                CompactRecordBuffer compactBuffer = (CompactRecordBuffer)buffer;
+                for (int i = 0; i < bufferRecords; i++)
+                {
+                    PutRecordsRequestEntry record = new PutRecordsRequestEntry();
+                    record.setData(compactBuffer.data(i));
+                    record.setPartitionKey(compactBuffer.partitionKey(i));
+                    requestRecords.add(record);
+                }
+            }
+            else if (aggregator == null)
             {
-                PutRecordsRequestEntry record = new PutRecordsRequestEntry();
-                record.setData(data.data());
-                record.setPartitionKey(data.partitionKey());
-                requestRecords.add(record);
+                for (DISRecord data : buffer)
+                {
+                    PutRecordsRequestEntry record = new PutRecordsRequestEntry();
+                    record.setData(data.data());
+                    record.setPartitionKey(data.partitionKey());
+                    requestRecords.add(record);
+                }
+            }
+            else
+            {
+                aggregates = aggregator.aggregate(buffer);
+                int aggregatedRecords = 0;
+                for (DISRecordAggregator.Aggregate aggregate : aggregates)
+                {
+                    PutRecordsRequestEntry record = new PutRecordsRequestEntry();
+                    record.setData(aggregate.data());
+                    record.setPartitionKey(aggregate.partitionKey());
+                    requestRecords.add(record);
+                    aggregatedRecords += aggregate.indices().size();
+                }
+                totalAggregates.addAndGet(aggregates.size());
+                totalAggregatedRecords.addAndGet(aggregatedRecords);
+            }
+            if (codec != null)
+            {
+                compress(requestRecords);
             }
             PutRecordsRequest request = new PutRecordsRequest();
             if(StringUtils.isNullOrEmpty(flow.getStreamId()))
@@ -135,7 +200,7 @@ public class DISSender extends AbstractSender<DISRecord>
                 totalPutRecordsLatency.addAndGet(elapsed);
             }
             
-            List<Integer> sentRecords = new ArrayList<>(requestRecords.size());
+            List<Integer> sentRecords = new ArrayList<>(bufferRecords);
             Multiset<String> errors = HashMultiset.create();
             int index = 0;
             long totalBytesSent = 0;
@@ -146,7 +211,14 @@ public class DISSender extends AbstractSender<DISRecord>
                 final PutRecordsRequestEntry record = requestRecords.get(index);
                 if (StringUtils.isNullOrEmpty(responseEntry.getErrorCode()))
                 {
-                    sentRecords.add(index);
+                    if (aggregates == null)
+                    {
+                        sentRecords.add(index);
+                    }
+                    else
+                    {
+                        sentRecords.addAll(aggregates.get(index).indices());
+                    }
                     totalBytesSent += record.getData().limit();
                     // 统计结果中shardID与最新的sequenceNumber
                     if (flow.getResultLogLevel() != FileFlow.RESULT_LOG_LEVEL.OFF)
@@ -175,17 +247,23 @@ public class DISSender extends AbstractSender<DISRecord>
                 ++index;
             }
             shardIdSequenceNumberMap.putAll(lastSequenceNumberMap);
-            if (sentRecords.size() == requestRecords.size())
+            if (aggregates != null)
+            {
+                // The records of different partition keys are interleaved in the buffer
+                Collections.sort(sentRecords);
+            }
+            if (sentRecords.size() == bufferRecords)
             {
                 sendResult = BufferSendResult.succeeded(buffer);
             }
             else
             {
+                // The buffer keeps the checkpoint of its last record, which is only committed once all are sent
                 buffer = buffer.remove(sentRecords);
-                sendResult = BufferSendResult.succeeded_partially(buffer, requestRecords.size());
+                sendResult = BufferSendResult.succeeded_partially(buffer, bufferRecords);
             }
             metrics.addData(BYTES_SENT_METRIC, totalBytesSent, StandardUnit.Bytes);
-            int failedRecordCount = requestRecords.size() - sentRecords.size();
+            int failedRecordCount = bufferRecords - sentRecords.size();
             metrics.addCount(RECORD_ERRORS_METRIC, failedRecordCount);
             logger.debug("{}:{} Records sent to dis stream {}: {}. Failed records: {}",
                 flow.getId(),
@@ -193,7 +271,7 @@ public class DISSender extends AbstractSender<DISRecord>
                 getDestination(),
                 sentRecords.size(),
                 failedRecordCount);
-            totalRecordsAttempted.addAndGet(requestRecords.size());
+            totalRecordsAttempted.addAndGet(bufferRecords);
             totalRecordsSent.addAndGet(sentRecords.size());
             totalRecordsFailed.addAndGet(failedRecordCount);
             
@@ -222,7 +300,7 @@ public class DISSender extends AbstractSender<DISRecord>
             if (flow.getResultLogLevel() != FileFlow.RESULT_LOG_LEVEL.OFF)
             {
                 logShardIdSequenceNumberRecord(lastSequenceNumberMap,
-                    requestRecords.size(),
+                    bufferRecords,
                     sentRecords.size(),
                     elapsed,
                     errorMsg);
@@ -258,6 +336,21 @@ public class DISSender extends AbstractSender<DISRecord>
                 put(SENDER_NAME + ".TotalPutRecordsOtherErrors", totalPutRecordsOtherErrors);
                 put(SENDER_NAME + ".TotalPutRecordsLatency", totalPutRecordsLatency);
                 put(SENDER_NAME + ".ActivePutRecordsCalls", activePutRecordsCalls);
+                if (aggregator != null)
+                {
+                    put(SENDER_NAME + ".TotalAggregatedRecords", totalAggregatedRecords);
+                    put(SENDER_NAME + ".TotalAggregates", totalAggregates);
+                }
+                if (codec != null)
+                {
+                    put(SENDER_NAME + ".TotalBytesBeforeCompression", totalBytesBeforeCompression);
+                    put(SENDER_NAME + ".TotalBytesAfterCompression", totalBytesAfterCompression);
+                    put(SENDER_NAME + ".CompressionRatio",
+                        totalBytesAfterCompression.get() == 0 ? 0.0
+                            : totalBytesBeforeCompression.doubleValue() / totalBytesAfterCompression.doubleValue());
+                    put(SENDER_NAME + ".TotalCompressionCpuTimeMillis",
+                        TimeUnit.NANOSECONDS.toMillis(totalCompressionCpuNanos.get()));
+                }
                 for (Entry<String, AtomicLong> err : totalErrors.entrySet())
                 {
                     put(SENDER_NAME + ".Error(" + err.getKey() + ")", err.getValue());
@@ -278,6 +371,29 @@ public class DISSender extends AbstractSender<DISRecord>
         };
     }
     
+    /**
+     * Replaces the data of the entries by their compressed form, accounting for the CPU time of the sending thread.
+     */
+    private void compress(List<PutRecordsRequestEntry> requestRecords)
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        long start = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+        long before = 0;
+        long after = 0;
+        for (PutRecordsRequestEntry record : requestRecords)
+        {
+            ByteBuffer data = record.getData();
+            before += data.remaining();
+            data = codec.compress(data);
+            after += data.remaining();
+            record.setData(data);
+        }
+        totalCompressionCpuNanos.addAndGet((cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - start);
+        totalBytesBeforeCompression.addAndGet(before);
+        totalBytesAfterCompression.addAndGet(after);
+    }
+    
     private void logShardIdSequenceNumberRecord(Map<String, Long> lastSequenceNumberMap, int size, int success,
         long elapsed, String errorMsg)
     {
@@ -1,6 +1,7 @@
 package com.huaweicloud.dis.agent.tailing;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
@@ -162,6 +163,115 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
      */
     public static final String STREAM_TYPE = "streamType";
 
+    /**
+     * 是否将多条记录打包为一条DIS记录上传(消费端使用DISRecordDeaggregator解包)
+     */
+    public static final String AGGREGATE_RECORDS = "aggregateRecords";
+
+    /**
+     * 打包后单条DIS记录的最大字节数(默认为通道单条记录的上限)
+     */
+    public static final String MAX_AGGREGATE_SIZE_BYTES = "maxAggregateSizeBytes";
+
+    /**
+     * 上传前压缩DIS记录的算法(NONE/GZIP/DEFLATE/LZ4/ZSTD/SNAPPY)，打包时压缩整条打包记录
+     */
+    public static final String COMPRESSION_CODEC = "compressionCodec";
+
+    /**
+     * 压缩级别(1: 最快 ~ 9: 压缩率最高)，用于GZIP/DEFLATE/ZSTD
+     */
+    public static final String COMPRESSION_LEVEL = "compressionLevel";
+
+    /**
+     * 缓冲区是否将记录内容连续存放在一块字节数组中，减少每条记录的对象(默认false)
+     */
+    public static final String COMPACT_RECORD_BUFFER = "compactRecordBuffer";
+
+    /**
+     * 解析器读取文件的方式(HEAP: 读取到堆内存缓冲区; MMAP: 以内存映射窗口的方式读取，不占用堆内存读缓冲区)。
+     * MMAP并不比HEAP快：记录离开解析器前仍会拷贝到堆内存，仅用于降低同时采集大量文件时的堆内存占用
+     */
+    public static final String PARSER_READ_MODE = "parserReadMode";
+
+    /**
+     * 数据转换线程数(0: 在读取文件的线程中转换; 大于0: 读取线程只切分记录，由转换线程池并行转换并按文件顺序输出)
+     */
+    public static final String CONVERSION_THREADS = "conversionThreads";
+
+    /**
+     * 每批转换的记录条数(在读取文件的线程中转换时，每批最多为当前数据块中的记录)
+     */
+    public static final String CONVERSION_BATCH_SIZE = "conversionBatchSize";
+
+    public static final int DEFAULT_CONVERSION_BATCH_SIZE = 500;
+
+    /**
+     * 同时采集的文件个数(1: 按顺序逐个采集文件; 大于1: 同时采集多个持续追加的文件，每个文件单独解析并记录位置)
+     */
+    public static final String MAX_CONCURRENT_FILES = "maxConcurrentFiles";
+
+    /**
+     * 是否采集gzip(.gz)及zstd(.zst)压缩文件，开启后直接解压读取，位置按解压后的偏移量记录；
+     * 未开启时与.gz文件一样不采集.zst文件
+     */
+    public static final String COMPRESSED_INPUT_ENABLED = "compressedInputEnabled";
+
+    /**
+     * 连续重复记录的合并窗口(毫秒，0: 不合并)，窗口内连续重复的记录合并为一条记录，附带重复次数及首末时间
+     */
+    public static final String DEDUP_WINDOW_MILLIS = "dedupWindowMillis";
+
+    /**
+     * 每秒发布的最大记录数(0: 不限制)
+     */
+    public static final String MAX_RECORDS_PER_SECOND = "maxRecordsPerSecond";
+
+    /**
+     * 每秒发布的最大字节数(0: 不限制)
+     */
+    public static final String MAX_BYTES_PER_SECOND = "maxBytesPerSecond";
+
+    /**
+     * 超过每秒记录数限制时的处理策略(SAMPLE/BACKPRESSURE)
+     */
+    public static final String RECORDS_RATE_LIMIT_POLICY = "recordsRateLimitPolicy";
+
+    /**
+     * 超过每秒字节数限制时的处理策略(SAMPLE/BACKPRESSURE)
+     */
+    public static final String BYTES_RATE_LIMIT_POLICY = "bytesRateLimitPolicy";
+
+    /**
+     * SAMPLE策略下超过限制的记录每N条保留1条
+     */
+    public static final String RATE_LIMIT_SAMPLE_EVERY = "rateLimitSampleEvery";
+
+    /**
+     * 发布队列的实现方式(LOCKING/LOCK_FREE)
+     */
+    public static final String PUBLISH_QUEUE_TYPE = "publishQueueType";
+
+    /**
+     * 发布队列已满时，溢写缓冲区的本地目录(默认不溢写)
+     */
+    public static final String SPILL_DIRECTORY = "spillDirectory";
+
+    /**
+     * 溢写文件占用的最大磁盘空间(字节)
+     */
+    public static final String MAX_SPILL_BYTES = "maxSpillBytes";
+
+    /**
+     * 单个溢写文件的大小(字节)
+     */
+    public static final String SPILL_SEGMENT_SIZE_BYTES = "spillSegmentSizeBytes";
+
+    /**
+     * 启用sendScheduler.enabled时，本通道分配发送线程的权重
+     */
+    public static final String SEND_WEIGHT = "sendWeight";
+
     @Getter
     protected final AgentContext agentContext;
     
@@ -273,6 +383,61 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
     @Getter
     protected final String streamId;
 
+    @Getter
+    protected final ParserReadMode parserReadMode;
+
+    @Getter
+    protected final int conversionThreads;
+
+    @Getter
+    protected final int conversionBatchSize;
+    
+    /**
+     * The executor the parsers of this flow convert records on, created on first use
+     */
+    private ExecutorService conversionExecutor;
+    
+    private boolean conversionExecutorShutdown;
+
+    @Getter
+    protected final int maxConcurrentFiles;
+
+    @Getter
+    protected final boolean compressedInputEnabled;
+
+    @Getter
+    protected final long dedupWindowMillis;
+
+    @Getter
+    protected final long maxRecordsPerSecond;
+
+    @Getter
+    protected final long maxBytesPerSecond;
+
+    @Getter
+    protected final RateLimitPolicy recordsRateLimitPolicy;
+
+    @Getter
+    protected final RateLimitPolicy bytesRateLimitPolicy;
+
+    @Getter
+    protected final int rateLimitSampleEvery;
+
+    @Getter
+    protected final PublishQueueType publishQueueType;
+
+    @Getter
+    protected final String spillDirectory;
+
+    @Getter
+    protected final long maxSpillBytes;
+
+    @Getter
+    protected final int spillSegmentSizeBytes;
+
+    @Getter
+    protected final int sendWeight;
+
     protected FileFlow(AgentContext context, Configuration config)
     {
         super(config);
@@ -313,6 +478,16 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
         // 文件编码
         fileEncoding = Charset.forName(readString(FILE_ENCODING, StandardCharsets.UTF_8.name()));
         
+        parserReadMode = readEnum(ParserReadMode.class, PARSER_READ_MODE, ParserReadMode.HEAP);
+        
+        conversionThreads = readInteger(CONVERSION_THREADS, 0);
+        Configuration.validateRange(conversionThreads, Range.closed(0, 64), CONVERSION_THREADS);
+        conversionBatchSize = readInteger(CONVERSION_BATCH_SIZE, DEFAULT_CONVERSION_BATCH_SIZE);
+        Configuration.validateRange(conversionBatchSize, Range.closed(1, 100_000), CONVERSION_BATCH_SIZE);
+        
+        maxConcurrentFiles = readInteger(MAX_CONCURRENT_FILES, 1);
+        Configuration.validateRange(maxConcurrentFiles, Range.closed(1, 256), MAX_CONCURRENT_FILES);
+        
         String pattern = readString("multiLineStartPattern", null);
         recordSplitter = Strings.isNullOrEmpty(pattern) ? new SingleLineSplitter(this.recordDelimiter)
             : new RegexSplitter(pattern, fileEncoding);
@@ -370,6 +545,37 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
         
         directoryRecursionEnabled = readBoolean(DIRECTORY_RECURSION_ENABLED, false);
         
+        compressedInputEnabled = readBoolean(COMPRESSED_INPUT_ENABLED, false);
+        
+        dedupWindowMillis = readLong(DEDUP_WINDOW_MILLIS, 0L);
+        Configuration.validateRange(dedupWindowMillis, Range.closed(0L, 3_600_000L), DEDUP_WINDOW_MILLIS);
+        
+        maxRecordsPerSecond = readLong(MAX_RECORDS_PER_SECOND, 0L);
+        Configuration.validateRange(maxRecordsPerSecond, Range.atLeast(0L), MAX_RECORDS_PER_SECOND);
+        maxBytesPerSecond = readLong(MAX_BYTES_PER_SECOND, 0L);
+        Configuration.validateRange(maxBytesPerSecond, Range.atLeast(0L), MAX_BYTES_PER_SECOND);
+        recordsRateLimitPolicy =
+            readEnum(RateLimitPolicy.class, RECORDS_RATE_LIMIT_POLICY, RateLimitPolicy.BACKPRESSURE);
+        bytesRateLimitPolicy = readEnum(RateLimitPolicy.class, BYTES_RATE_LIMIT_POLICY, RateLimitPolicy.BACKPRESSURE);
+        rateLimitSampleEvery = readInteger(RATE_LIMIT_SAMPLE_EVERY, 10);
+        Configuration.validateRange(rateLimitSampleEvery, Range.atLeast(1), RATE_LIMIT_SAMPLE_EVERY);
+        
+        publishQueueType = readEnum(PublishQueueType.class, PUBLISH_QUEUE_TYPE, PublishQueueType.LOCKING);
+        spillDirectory = readString(SPILL_DIRECTORY, null);
+        if (!Strings.isNullOrEmpty(spillDirectory) && !isSpillSupported())
+        {
+            // 溢写的缓冲区无法恢复为记录，重放时会丢失
+            throw new ConfigurationException(getClass().getSimpleName() + " does not support " + SPILL_DIRECTORY);
+        }
+        maxSpillBytes = readLong(MAX_SPILL_BYTES, 1024L * Constants.ONE_MB);
+        Configuration.validateRange(maxSpillBytes, Range.atLeast((long)Constants.ONE_MB), MAX_SPILL_BYTES);
+        spillSegmentSizeBytes = readInteger(SPILL_SEGMENT_SIZE_BYTES, 64 * Constants.ONE_MB);
+        Configuration.validateRange(spillSegmentSizeBytes,
+            Range.closed(Constants.ONE_MB, 1024 * Constants.ONE_MB),
+            SPILL_SEGMENT_SIZE_BYTES);
+        sendWeight = readInteger(SEND_WEIGHT, 1);
+        Configuration.validateRange(sendWeight, Range.closed(1, 1000), SEND_WEIGHT);
+        
         fileComparator = FileComparatorEnum
             .valueOf(readString(FILE_COMPARATOR, FileComparatorEnum.NEWEST_FIRST.name()).toUpperCase());
         
@@ -399,6 +605,41 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
         return tailer = createNewTailer(checkpoints, sendingExecutor);
     }
     
+    /**
+     * @return The sync points of the compressed files of the agent, read by the compressed files of this flow.
+     */
+    public CompressedFileIndexes getCompressedFileIndexes()
+    {
+        return agentContext.getCompressedFileIndexes();
+    }
+    
+    /**
+     * @return The executor converting the records of all the parsers of this flow in parallel, i.e. of all the files
+     *         tailed concurrently and of the parsers rebuilt later, or {@code null} if the records are converted by
+     *         the threads reading them
+     */
+    public synchronized ExecutorService getConversionExecutor()
+    {
+        if (conversionExecutor == null && conversionThreads > 0 && dataConverter != null && agentContext != null
+            && !conversionExecutorShutdown)
+        {
+            conversionExecutor = agentContext.createFlowConversionExecutor(this);
+        }
+        return conversionExecutor;
+    }
+    
+    /**
+     * Stops the conversion threads of this flow, once its tailer stopped: the batches not converted yet are dropped.
+     */
+    public synchronized void shutdownConversionExecutor()
+    {
+        conversionExecutorShutdown = true;
+        if (conversionExecutor != null)
+        {
+            conversionExecutor.shutdownNow();
+        }
+    }
+    
     public boolean logEmitInternalMetrics()
     {
         return this.readBoolean("log.emitInternalMetrics", false);
@@ -430,6 +671,34 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
     protected abstract AsyncPublisherService<R> getPublisher(FileCheckpointStore checkpoints,
         ExecutorService sendingExecutor);
     
+    /**
+     * @return A new empty buffer for the records of this flow
+     */
+    public RecordBuffer<R> newRecordBuffer()
+    {
+        return new RecordBuffer<>(this);
+    }
+    
+    /**
+     * @return {@code true} if the records of this flow can be restored by {@link #restoreRecord}, i.e. if its buffers
+     *         can be spilled to disk and replayed. A {@link #SPILL_DIRECTORY} is rejected otherwise.
+     */
+    protected boolean isSpillSupported()
+    {
+        return false;
+    }
+    
+    /**
+     * Restores a record from the data of one built by the parser of this flow, to replay buffers spilled to disk.
+     *
+     * @param totalLength The length of the record in the file
+     * @throws UnsupportedOperationException if the records of this flow can't be restored
+     */
+    public R restoreRecord(TrackedFile file, long offset, long totalLength, ByteBuffer data)
+    {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support " + SPILL_DIRECTORY);
+    }
+    
     protected SourceFile buildSourceFile()
     {
         return new SourceFile(this, readString(FILE_PATTERN_KEY));
@@ -542,6 +811,52 @@ public abstract class FileFlow<R extends IRecord> extends Configuration
         NEWEST_FIRST, OLDEST_FIRST
     }
     
+    /**
+     * 解析器读取文件的方式
+     */
+    public static enum ParserReadMode
+    {
+        /**
+         * 将文件内容读取到堆内存缓冲区中(默认)
+         */
+        HEAP,
+        /**
+         * 使用{@link java.nio.channels.FileChannel#map}映射文件窗口，文件内容由页缓存承载而不占用堆内存读缓冲区。
+         * 文件被截断后访问映射区域会出错，因此记录在离开解析器前拷贝到堆内存，读取速度并不比HEAP快
+         */
+        MMAP
+    }
+    
+    /**
+     * 超过发布速率限制时的处理策略
+     */
+    public static enum RateLimitPolicy
+    {
+        /**
+         * 丢弃超限的记录，每rateLimitSampleEvery条保留1条，并统计丢弃数
+         */
+        SAMPLE,
+        /**
+         * 拒绝超限的记录，使FileTailer暂停读取直到令牌恢复(默认)
+         */
+        BACKPRESSURE
+    }
+    
+    /**
+     * 发布队列的实现方式
+     */
+    public static enum PublishQueueType
+    {
+        /**
+         * 使用一个锁保护所有队列(默认)
+         */
+        LOCKING,
+        /**
+         * 使用无锁的有界环形队列和重试队列，发送线程取数据时不等待FileTailer；临时缓冲区仍由单一线程独占(CAS获取)
+         */
+        LOCK_FREE
+    }
+    
     protected DescribeStreamResult describeStream(String streamName)
     {
         DescribeStreamRequest describeStreamRequest = new DescribeStreamRequest();
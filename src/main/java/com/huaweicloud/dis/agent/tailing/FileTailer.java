@@ -15,8 +15,19 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -119,7 +130,11 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
             }
         };
         
-        if (flow instanceof DISFileFlow)
+        if (flow instanceof DISFileFlow && flow.isFileAppendable() && flow.getMaxConcurrentFiles() > 1)
+        {
+            fileTailerExecutor = concurrentExecutor = new ConcurrentDISFileTailerExecutor();
+        }
+        else if (flow instanceof DISFileFlow)
         {
             fileTailerExecutor = new DISFileTailerExecutor();
         }
@@ -167,12 +182,14 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
     {
         if (isInitialized)
             return;
-        if (!fileTracker.initFormHistory())
+        // 从上次运行溢写的记录之后继续读取
+        if (!fileTracker.initFormHistory(publisher.getRecoveredOffsets()))
         {
             // 没有合适的历史文件，重新开始
             fileTracker.initFromCurrentFiles();
         }
         parser.continueParsingWithFile(fileTracker.getCurrentOpenFile());
+        fileTailerExecutor.initialize();
         isInitialized = true;
     }
     
@@ -198,6 +215,15 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
         metricsEmitter.stopAsync();
     }
     
+    @Override
+    protected void shutDown()
+        throws Exception
+    {
+        fileTailerExecutor.close();
+        flow.shutdownConversionExecutor();
+        super.shutDown();
+    }
+    
     @Override
     protected String serviceName()
     {
@@ -215,18 +241,7 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
         int processed = 0;
         while (record != null)
         {
-            long length = record.length();
-            if (length > flow.getMaxRecordSizeBytes())
-            {
-                record.truncate();
-                recordsTruncated.incrementAndGet();
-                LOGGER.warn(
-                    "{}: Truncated a record(size {}) in {}, because it exceeded the the configured max record size: {}",
-                    serviceName(),
-                    length,
-                    parser.getCurrentFile(),
-                    flow.getMaxRecordSizeBytes());
-            }
+            truncateIfTooLarge(record, parser);
             // Process a slice of records, and then check if we've been asked to stop
             if (isNotExit() && publisher.publishRecord(record))
             {
@@ -247,8 +262,33 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
         return processed;
     }
     
+    private void truncateIfTooLarge(R record, IParser<R> recordParser)
+    {
+        long length = record.length();
+        if (length > flow.getMaxRecordSizeBytes())
+        {
+            record.truncate();
+            recordsTruncated.incrementAndGet();
+            LOGGER.warn(
+                "{}: Truncated a record(size {}) in {}, because it exceeded the the configured max record size: {}",
+                serviceName(),
+                length,
+                recordParser.getCurrentFile(),
+                flow.getMaxRecordSizeBytes());
+        }
+    }
+    
     protected synchronized long bytesBehind()
     {
+        if (concurrentExecutor != null)
+        {
+            long result = 0;
+            for (long fileBytesBehind : concurrentExecutor.bytesBehindPerFile().values())
+            {
+                result += fileBytesBehind;
+            }
+            return result;
+        }
         try
         {
             long result = parser.bufferedBytesRemaining();
@@ -275,6 +315,10 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
     
     protected int filesBehind()
     {
+        if (concurrentExecutor != null)
+        {
+            return concurrentExecutor.waitingFiles;
+        }
         return fileTracker.getPendingFiles().size();
     }
     
@@ -340,6 +384,11 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
             {
                 msg += String.format(" There are %d file(s) newer than current file(s) being tailed.", filesBehind);
             }
+            Object bytesBehindPerFile = metrics.get("FileTailer.BytesBehindPerFile");
+            if (bytesBehindPerFile != null)
+            {
+                msg += " Bytes behind per file: " + bytesBehindPerFile + ".";
+            }
             if (bytesBehind >= Metrics.BYTES_BEHIND_WARN_LEVEL)
             {
                 LOGGER.warn(msg);
@@ -362,7 +411,20 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
     public Map<String, Object> getMetrics()
     {
         Map<String, Object> metrics = publisher.getMetrics();
-        metrics.putAll(parser.getMetrics());
+        if (concurrentExecutor != null)
+        {
+            metrics.putAll(concurrentExecutor.getParserMetrics());
+            metrics.put("FileTailer.BytesBehindPerFile", concurrentExecutor.bytesBehindPerFile());
+        }
+        else
+        {
+            metrics.putAll(parser.getMetrics());
+        }
+        if (flow.getDataConverter() != null)
+        {
+            // The converters are shared by all the parsers of the flow
+            metrics.putAll(flow.getDataConverter().getMetrics());
+        }
         metrics.put("FileTailer.FilesBehind", filesBehind());
         metrics.put("FileTailer.BytesBehind", bytesBehind());
         metrics.put("FileTailer.RecordsTruncated", recordsTruncated);
@@ -377,10 +439,29 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
     interface FileTailerExecutor
     {
         int processFile();
+        
+        /**
+         * Called once the file tracker and the parser were initialized from the checkpoints.
+         */
+        default void initialize()
+        {
+        }
+        
+        /**
+         * Called once the tailer stopped.
+         */
+        default void close()
+        {
+        }
     }
     
     FileTailerExecutor fileTailerExecutor;
     
+    /**
+     * The executor of the flow if it tails files concurrently, {@code null} otherwise.
+     */
+    private ConcurrentDISFileTailerExecutor concurrentExecutor;
+    
     public class SmallFileTailerExecutor implements FileTailerExecutor
     {
         public synchronized int processFile()
@@ -578,4 +659,347 @@ public class FileTailer<R extends IRecord> extends AbstractExecutionThreadServic
             return processed;
         }
     }
+    
+    /**
+     * Tails up to {@link FileFlow#getMaxConcurrentFiles()} files of the flow at the same time, for flows whose files
+     * are all appended to concurrently (e.g. one log per worker process). Each file gets its own parser, and the files
+     * are read in parallel on the tailing executor of the flow, in rounds of at most {@link #MAX_RECORDS_PER_ROUND}
+     * records per file, all feeding the same publisher. Checkpoints are kept per file as records carry their
+     * {@link TrackedFile}.
+     * <p>
+     * The file tracker doesn't keep a current file in this mode: the snapshot it refreshes is used to follow rotations
+     * of the files being read, and to pick the next files to read (oldest first) whenever a file being read is fully
+     * consumed while other files have unread data.
+     */
+    public class ConcurrentDISFileTailerExecutor implements FileTailerExecutor
+    {
+        private static final int MAX_RECORDS_PER_ROUND = 10_000;
+        
+        private final ExecutorService tailingExecutor = agentContext.createFlowTailingExecutor(flow);
+        
+        private final Map<String, ConcurrentFileReader> readers = new ConcurrentHashMap<>();
+        
+        /**
+         * Metrics of the parsers of the files that are not read anymore.
+         */
+        private final Map<String, AtomicLong> closedParserMetrics = new HashMap<>();
+        
+        private volatile int waitingFiles = 0;
+        
+        private int lastProcessed = 0;
+        
+        @Override
+        public void initialize()
+        {
+            // Files are opened by their readers
+            fileTracker.stopTailingCurrentFile();
+            parser.continueParsingWithFile(null);
+        }
+        
+        @Override
+        public int processFile()
+        {
+            int processed = 0;
+            try
+            {
+                long elapsedSinceLastRefresh = System.currentTimeMillis() - fileTracker.getLastRefreshTimestamp();
+                if (elapsedSinceLastRefresh >= maxTimeBetweenFileTrackerRefreshMillis
+                    || lastProcessed == 0 && fileTracker.mustRefreshSnapshot())
+                {
+                    fileTracker.refreshTrackFileList();
+                    followRefreshedSnapshot();
+                }
+                assignReaders();
+                processed = readConcurrently();
+            }
+            catch (Exception e)
+            {
+                LOGGER.error("{}: Error when processing input files or when tracking their status.", serviceName(), e);
+            }
+            lastProcessed = processed;
+            return processed;
+        }
+        
+        /**
+         * Moves the readers to the tracked files of the new snapshot, and closes the readers of the files that were
+         * deleted, truncated or replaced.
+         */
+        private void followRefreshedSnapshot()
+            throws IOException
+        {
+            Map<String, TrackedFile> snapshot = new HashMap<>();
+            for (TrackedFile file : fileTracker.getCurrentSnapshot())
+            {
+                if (!file.getIsDeleting())
+                {
+                    snapshot.put(file.getId().getId(), file);
+                }
+            }
+            Iterator<ConcurrentFileReader> it = readers.values().iterator();
+            while (it.hasNext())
+            {
+                ConcurrentFileReader reader = it.next();
+                TrackedFile newFile = snapshot.get(reader.file.getId().getId());
+                if (newFile == null || newFile.getLastOffset() < reader.file.getLastOffset())
+                {
+                    LOGGER.info("{}: Stop tailing [{}] due to [{}]",
+                        serviceName(),
+                        reader.file,
+                        newFile == null ? "DELETE" : "Shrink");
+                    it.remove();
+                    closeReader(reader);
+                }
+                else if (newFile != reader.file)
+                {
+                    if (reader.file.isOpen())
+                    {
+                        newFile.inheritChannel(reader.file);
+                    }
+                    reader.file = newFile;
+                    reader.parser.continueParsingWithFile(newFile);
+                }
+            }
+        }
+        
+        /**
+         * Opens readers for the files with unread data, oldest first, replacing readers that reached the end of their
+         * file if all the slots are taken.
+         */
+        private void assignReaders()
+            throws IOException
+        {
+            TrackedFileList snapshot = fileTracker.getCurrentSnapshot();
+            if (snapshot == null)
+            {
+                return;
+            }
+            List<TrackedFile> candidates = new ArrayList<>();
+            for (TrackedFile file : snapshot)
+            {
+                if (!file.getIsDeleting() && !readers.containsKey(file.getId().getId())
+                    && file.getLastOffset() < file.getSize())
+                {
+                    candidates.add(file);
+                }
+            }
+            Collections.sort(candidates, new TrackedFile.OldestFirstComparator());
+            Iterator<ConcurrentFileReader> it = readers.values().iterator();
+            while (it.hasNext() && readers.size() + candidates.size() > flow.getMaxConcurrentFiles())
+            {
+                ConcurrentFileReader reader = it.next();
+                if (reader.isDrained())
+                {
+                    LOGGER.debug("{}: Reached the end of [{}], moving on to other files.", serviceName(), reader.file);
+                    it.remove();
+                    closeReader(reader);
+                }
+            }
+            Iterator<TrackedFile> candidatesIt = candidates.iterator();
+            while (readers.size() < flow.getMaxConcurrentFiles() && candidatesIt.hasNext())
+            {
+                TrackedFile file = candidatesIt.next();
+                candidatesIt.remove();
+                file.open(file.getLastOffset());
+                IParser<R> fileParser = flow.buildParser();
+                fileParser.switchParsingToFile(file);
+                readers.put(file.getId().getId(), new ConcurrentFileReader(file, fileParser));
+                LOGGER.debug("{}: Started tailing [{}]", serviceName(), file);
+            }
+            waitingFiles = candidates.size();
+        }
+        
+        private int readConcurrently()
+            throws InterruptedException
+        {
+            if (readers.isEmpty())
+            {
+                return 0;
+            }
+            List<ConcurrentFileReader> currentReaders = new ArrayList<>(readers.values());
+            List<Future<Integer>> results = tailingExecutor.invokeAll(currentReaders);
+            int processed = 0;
+            for (int i = 0; i < results.size(); ++i)
+            {
+                ConcurrentFileReader reader = currentReaders.get(i);
+                try
+                {
+                    processed += results.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    LOGGER.error("{}: Error when processing input file [{}], closing it.",
+                        serviceName(),
+                        reader.file,
+                        e.getCause());
+                    readers.remove(reader.file.getId().getId());
+                    closeReader(reader);
+                }
+            }
+            return processed;
+        }
+        
+        private void closeReader(ConcurrentFileReader reader)
+        {
+            synchronized (closedParserMetrics)
+            {
+                for (Map.Entry<String, Object> metric : reader.parser.getMetrics().entrySet())
+                {
+                    if (metric.getValue() instanceof AtomicLong)
+                    {
+                        AtomicLong total = closedParserMetrics.get(metric.getKey());
+                        if (total == null)
+                        {
+                            closedParserMetrics.put(metric.getKey(), total = new AtomicLong());
+                        }
+                        total.addAndGet(((AtomicLong)metric.getValue()).get());
+                    }
+                }
+            }
+            reader.parser.stopParsing("Stopped tailing file.");
+            if (reader.file.isOpen())
+            {
+                reader.file.close();
+            }
+        }
+        
+        /**
+         * @return The parser metrics summed over all the files of the flow.
+         */
+        Map<String, Object> getParserMetrics()
+        {
+            Map<String, Object> metrics = parser.getMetrics();
+            List<Map<String, Object>> fileMetrics = new ArrayList<>();
+            for (ConcurrentFileReader reader : readers.values())
+            {
+                fileMetrics.add(reader.parser.getMetrics());
+            }
+            synchronized (closedParserMetrics)
+            {
+                fileMetrics.add(new HashMap<String, Object>(closedParserMetrics));
+            }
+            for (Map<String, Object> m : fileMetrics)
+            {
+                for (Map.Entry<String, Object> metric : m.entrySet())
+                {
+                    Object current = metrics.get(metric.getKey());
+                    if (metric.getValue() instanceof AtomicLong && (current == null || current instanceof AtomicLong))
+                    {
+                        long sum = (current == null ? 0 : ((AtomicLong)current).get())
+                            + ((AtomicLong)metric.getValue()).get();
+                        metrics.put(metric.getKey(), new AtomicLong(sum));
+                    }
+                }
+            }
+            return metrics;
+        }
+        
+        /**
+         * @return The number of bytes not published yet for each file of the flow, by file name.
+         */
+        Map<String, Long> bytesBehindPerFile()
+        {
+            Map<String, Long> result = new LinkedHashMap<>();
+            Collection<ConcurrentFileReader> currentReaders = readers.values();
+            for (ConcurrentFileReader reader : currentReaders)
+            {
+                result.put(reader.file.getPath().getFileName().toString(), reader.bytesBehind());
+            }
+            TrackedFileList snapshot = fileTracker.getCurrentSnapshot();
+            if (snapshot != null)
+            {
+                for (TrackedFile file : snapshot)
+                {
+                    String name = file.getPath().getFileName().toString();
+                    if (!file.getIsDeleting() && !readers.containsKey(file.getId().getId())
+                        && !result.containsKey(name))
+                    {
+                        result.put(name, Math.max(0, file.getSize() - file.getLastOffset()));
+                    }
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public void close()
+        {
+            tailingExecutor.shutdownNow();
+            for (ConcurrentFileReader reader : readers.values())
+            {
+                closeReader(reader);
+            }
+            readers.clear();
+        }
+    }
+    
+    /**
+     * Reads the records of a single file for {@link ConcurrentDISFileTailerExecutor}.
+     */
+    private class ConcurrentFileReader implements Callable<Integer>
+    {
+        private volatile TrackedFile file;
+        
+        private final IParser<R> parser;
+        
+        private R pendingRecord = null;
+        
+        private boolean drained = false;
+        
+        ConcurrentFileReader(TrackedFile file, IParser<R> parser)
+        {
+            this.file = file;
+            this.parser = parser;
+        }
+        
+        @Override
+        public synchronized Integer call()
+        {
+            int processed = 0;
+            R record = pendingRecord == null ? parser.readRecord() : pendingRecord;
+            pendingRecord = null;
+            while (record != null)
+            {
+                truncateIfTooLarge(record, parser);
+                if (!isNotExit() || !publisher.publishRecord(record))
+                {
+                    // Publisher is exerting back-pressure, try again in the next round
+                    pendingRecord = record;
+                    break;
+                }
+                if (++processed >= ConcurrentDISFileTailerExecutor.MAX_RECORDS_PER_ROUND)
+                {
+                    break;
+                }
+                record = parser.readRecord();
+            }
+            drained = record == null;
+            return processed;
+        }
+        
+        /**
+         * @return {@code true} if the last round read all the records of the file.
+         */
+        synchronized boolean isDrained()
+        {
+            return drained && pendingRecord == null && parser.isAtEndOfCurrentFile();
+        }
+        
+        long bytesBehind()
+        {
+            try
+            {
+                long result = parser.bufferedBytesRemaining();
+                TrackedFile currentFile = file;
+                if (currentFile.getChannel() != null && currentFile.getChannel().isOpen())
+                {
+                    result += currentFile.getChannel().size() - currentFile.getChannel().position();
+                }
+                return result;
+            }
+            catch (IOException e)
+            {
+                return 0;
+            }
+        }
+    }
 }
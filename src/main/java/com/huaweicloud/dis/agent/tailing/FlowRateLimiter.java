@@ -0,0 +1,192 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.huaweicloud.dis.agent.tailing.FileFlow.RateLimitPolicy;
+
+/**
+ * Limits the records and bytes per second a flow publishes, so that a burst of a flow doesn't starve the other flows
+ * sharing the sending threads and the connections to DIS.
+ * <p>
+ * Each limit is a token bucket refilled continuously at the configured rate, holding at most one second worth of
+ * tokens. A record is admitted if both buckets have tokens for it, and then consumes them. A record larger than a
+ * bucket is admitted when the bucket is full, so that it can't block the flow forever. Otherwise the policy of a limit
+ * that is exceeded applies:
+ * <ul>
+ * <li>{@link RateLimitPolicy#BACKPRESSURE}: the record is rejected, so {@link PublishingQueue} refuses it and the
+ * {@link FileTailer} retries it later.</li>
+ * <li>{@link RateLimitPolicy#SAMPLE}: one record out of {@link FileFlow#getRateLimitSampleEvery()} is admitted, without
+ * consuming tokens, and the others are dropped.</li>
+ * </ul>
+ * Backpressure takes precedence when both limits are exceeded with different policies.
+ */
+public class FlowRateLimiter
+{
+    public static enum Decision
+    {
+        ADMIT, DROP, REJECT
+    }
+    
+    private final TokenBucket recordsBucket;
+    
+    private final TokenBucket bytesBucket;
+    
+    private final int sampleEvery;
+    
+    private long recordsOverLimit;
+    
+    private final AtomicLong totalRecordsDropped = new AtomicLong();
+    
+    private final AtomicLong totalBytesDropped = new AtomicLong();
+    
+    private final AtomicLong totalRecordsSampled = new AtomicLong();
+    
+    private final AtomicLong totalRecordsRejected = new AtomicLong();
+    
+    /**
+     * @return A limiter for the rates configured for the flow, or {@code null} if the flow isn't rate limited
+     */
+    public static FlowRateLimiter forFlow(FileFlow<?> flow)
+    {
+        if (flow.getMaxRecordsPerSecond() <= 0 && flow.getMaxBytesPerSecond() <= 0)
+        {
+            return null;
+        }
+        return new FlowRateLimiter(flow.getMaxRecordsPerSecond(), flow.getRecordsRateLimitPolicy(),
+            flow.getMaxBytesPerSecond(), flow.getBytesRateLimitPolicy(), flow.getRateLimitSampleEvery());
+    }
+    
+    /**
+     * @param maxRecordsPerSecond 0 for no limit
+     * @param maxBytesPerSecond 0 for no limit
+     */
+    public FlowRateLimiter(long maxRecordsPerSecond, RateLimitPolicy recordsPolicy, long maxBytesPerSecond,
+        RateLimitPolicy bytesPolicy, int sampleEvery)
+    {
+        long now = System.nanoTime();
+        this.recordsBucket = maxRecordsPerSecond > 0 ? new TokenBucket(maxRecordsPerSecond, recordsPolicy, now) : null;
+        this.bytesBucket = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond, bytesPolicy, now) : null;
+        this.sampleEvery = sampleEvery;
+    }
+    
+    /**
+     * Decides what to do with a record about to be published, consuming tokens if it's admitted.
+     *
+     * @param bytes The size of the record
+     */
+    public synchronized Decision admit(long bytes)
+    {
+        long now = System.nanoTime();
+        RateLimitPolicy exceeded = null;
+        if (recordsBucket != null && !recordsBucket.hasTokens(1, now))
+        {
+            exceeded = recordsBucket.policy;
+        }
+        if (bytesBucket != null && !bytesBucket.hasTokens(bytes, now) && exceeded != RateLimitPolicy.BACKPRESSURE)
+        {
+            exceeded = bytesBucket.policy;
+        }
+        if (exceeded == null)
+        {
+            if (recordsBucket != null)
+            {
+                recordsBucket.consume(1);
+            }
+            if (bytesBucket != null)
+            {
+                bytesBucket.consume(bytes);
+            }
+            return Decision.ADMIT;
+        }
+        if (exceeded == RateLimitPolicy.BACKPRESSURE)
+        {
+            totalRecordsRejected.incrementAndGet();
+            return Decision.REJECT;
+        }
+        if (recordsOverLimit++ % sampleEvery == 0)
+        {
+            totalRecordsSampled.incrementAndGet();
+            return Decision.ADMIT;
+        }
+        totalRecordsDropped.incrementAndGet();
+        totalBytesDropped.addAndGet(bytes);
+        return Decision.DROP;
+    }
+    
+    @SuppressWarnings("serial")
+    public synchronized Map<String, Object> getMetrics()
+    {
+        final long now = System.nanoTime();
+        return new HashMap<String, Object>()
+        {
+            {
+                if (recordsBucket != null)
+                {
+                    put("FlowRateLimiter.RecordTokens", recordsBucket.level(now));
+                }
+                if (bytesBucket != null)
+                {
+                    put("FlowRateLimiter.ByteTokens", bytesBucket.level(now));
+                }
+                put("FlowRateLimiter.TotalRecordsDropped", totalRecordsDropped);
+                put("FlowRateLimiter.TotalBytesDropped", totalBytesDropped);
+                put("FlowRateLimiter.TotalRecordsSampled", totalRecordsSampled);
+                put("FlowRateLimiter.TotalRecordsRejected", totalRecordsRejected);
+            }
+        };
+    }
+    
+    private static class TokenBucket
+    {
+        private final double tokensPerNano;
+        
+        private final double capacity;
+        
+        private final RateLimitPolicy policy;
+        
+        private double tokens;
+        
+        private long lastRefillNanos;
+        
+        TokenBucket(long tokensPerSecond, RateLimitPolicy policy, long now)
+        {
+            this.tokensPerNano = (double)tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = tokensPerSecond;
+            this.policy = policy;
+            this.tokens = capacity;
+            this.lastRefillNanos = now;
+        }
+        
+        boolean hasTokens(long count, long now)
+        {
+            refill(now);
+            return tokens >= Math.min(count, capacity);
+        }
+        
+        /**
+         * May leave the bucket in debt, for a record larger than the bucket.
+         */
+        void consume(long count)
+        {
+            tokens -= count;
+        }
+        
+        long level(long now)
+        {
+            refill(now);
+            return (long)tokens;
+        }
+        
+        private void refill(long now)
+        {
+            if (now > lastRefillNanos)
+            {
+                tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+                lastRefillNanos = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A {@link CompressedFileChannel} over a gzip file, whose sync points are the starts of its members.
+ */
+public class GzipFileChannel extends CompressedFileChannel
+{
+    private static final int GZIP_MAGIC = 0x8b1f;
+    
+    private static final int DEFLATE_METHOD = 8;
+    
+    private static final int FHCRC = 2;
+    
+    private static final int FEXTRA = 4;
+    
+    private static final int FNAME = 8;
+    
+    private static final int FCOMMENT = 16;
+    
+    private final Inflater inflater = new Inflater(true);
+    
+    private final CRC32 crc = new CRC32();
+    
+    private final byte[] input = new byte[INPUT_BUFFER_SIZE];
+    
+    private int inputPosition;
+    
+    private int inputLimit;
+    
+    private long memberBytes;
+    
+    private boolean atMemberStart = true;
+    
+    GzipFileChannel(Path path, Index index)
+        throws IOException
+    {
+        super(path, index);
+    }
+    
+    /**
+     * @return The offset in the compressed file of the next byte to be decoded.
+     */
+    public long compressedPosition()
+        throws IOException
+    {
+        return source.position() - (inputLimit - inputPosition);
+    }
+    
+    @Override
+    protected int decode(ByteBuffer dst)
+        throws IOException
+    {
+        while (true)
+        {
+            if (atMemberStart && !readMemberHeader())
+            {
+                return -1;
+            }
+            int bytes = inflate(dst);
+            if (bytes > 0)
+            {
+                return bytes;
+            }
+            if (inflater.finished())
+            {
+                readMemberTrailer();
+            }
+            else if (inflater.needsDictionary())
+            {
+                throw new ZipException("Unsupported preset dictionary in " + path);
+            }
+            else if (inflater.needsInput())
+            {
+                if (!fillInput())
+                {
+                    throw new EOFException("Unexpected end of gzip file " + path);
+                }
+                inflater.setInput(input, inputPosition, inputLimit - inputPosition);
+            }
+        }
+    }
+    
+    @Override
+    protected void restart(long compressedOffset)
+        throws IOException
+    {
+        source.position(compressedOffset);
+        inputPosition = inputLimit = 0;
+        inflater.reset();
+        atMemberStart = true;
+    }
+    
+    @Override
+    protected void releaseDecoder()
+    {
+        inflater.end();
+    }
+    
+    /**
+     * Decodes as many bytes as possible into the given buffer with the input currently available.
+     */
+    private int inflate(ByteBuffer dst)
+        throws IOException
+    {
+        int bytes;
+        try
+        {
+            if (dst.hasArray())
+            {
+                int offset = dst.arrayOffset() + dst.position();
+                bytes = inflater.inflate(dst.array(), offset, dst.remaining());
+                crc.update(dst.array(), offset, bytes);
+                dst.position(dst.position() + bytes);
+            }
+            else
+            {
+                byte[] scratch = scratch();
+                bytes = inflater.inflate(scratch, 0, Math.min(scratch.length, dst.remaining()));
+                crc.update(scratch, 0, bytes);
+                dst.put(scratch, 0, bytes);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new ZipException("Corrupt gzip data in " + path + ": " + e.getMessage());
+        }
+        inputPosition = inputLimit - inflater.getRemaining();
+        memberBytes += bytes;
+        return bytes;
+    }
+    
+    /**
+     * Reads the header of the next member.
+     *
+     * @return {@code false} if there is no other member in the file.
+     */
+    private boolean readMemberHeader()
+        throws IOException
+    {
+        long memberOffset = compressedPosition();
+        if (inputPosition == inputLimit && !fillInput())
+        {
+            if (memberOffset == 0)
+            {
+                throw new EOFException("Empty gzip file " + path);
+            }
+            return false;
+        }
+        if (readUnsignedShort() != GZIP_MAGIC || readUnsignedByte() != DEFLATE_METHOD)
+        {
+            if (memberOffset == 0)
+            {
+                throw new ZipException("Not in gzip format: " + path);
+            }
+            // Trailing garbage (e.g. padding) after the last member is ignored, like GZIPInputStream does
+            return false;
+        }
+        int flags = readUnsignedByte();
+        // MTIME, XFL and OS
+        skipBytes(6);
+        if ((flags & FEXTRA) != 0)
+        {
+            skipBytes(readUnsignedShort());
+        }
+        if ((flags & FNAME) != 0)
+        {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0)
+        {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0)
+        {
+            skipBytes(2);
+        }
+        onSyncPoint(memberOffset);
+        inflater.reset();
+        inflater.setInput(input, inputPosition, inputLimit - inputPosition);
+        crc.reset();
+        memberBytes = 0;
+        atMemberStart = false;
+        return true;
+    }
+    
+    private void readMemberTrailer()
+        throws IOException
+    {
+        long expectedCrc = readInt() & 0xffffffffL;
+        long expectedSize = readInt() & 0xffffffffL;
+        if (expectedCrc != crc.getValue() || expectedSize != (memberBytes & 0xffffffffL))
+        {
+            throw new ZipException("Corrupt gzip trailer in " + path);
+        }
+        atMemberStart = true;
+    }
+    
+    private boolean fillInput()
+        throws IOException
+    {
+        if (inputPosition < inputLimit)
+        {
+            return true;
+        }
+        inputPosition = inputLimit = 0;
+        int bytes;
+        do
+        {
+            bytes = source.read(ByteBuffer.wrap(input));
+        } while (bytes == 0);
+        if (bytes < 0)
+        {
+            return false;
+        }
+        inputLimit = bytes;
+        return true;
+    }
+    
+    private int readUnsignedByte()
+        throws IOException
+    {
+        if (!fillInput())
+        {
+            throw new EOFException("Unexpected end of gzip file " + path);
+        }
+        return input[inputPosition++] & 0xff;
+    }
+    
+    private int readUnsignedShort()
+        throws IOException
+    {
+        return readUnsignedByte() | (readUnsignedByte() << 8);
+    }
+    
+    private int readInt()
+        throws IOException
+    {
+        return readUnsignedShort() | (readUnsignedShort() << 16);
+    }
+    
+    private void skipBytes(int count)
+        throws IOException
+    {
+        for (int i = 0; i < count; i++)
+        {
+            readUnsignedByte();
+        }
+    }
+    
+    private void skipZeroTerminated()
+        throws IOException
+    {
+        while (readUnsignedByte() != 0)
+        {
+            // Skip to the end of the string
+        }
+    }
+}
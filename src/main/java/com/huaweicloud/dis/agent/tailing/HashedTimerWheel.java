@@ -0,0 +1,274 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A hashed timer wheel shared by the flows of an agent, that flushes the temporary buffer of a publishing queue once
+ * it's {@link FileFlow#getMaxBufferAgeMillis() maxBufferAgeMillis} old, instead of the queue checking the age of its
+ * buffer every time its consumer wakes up.
+ * <p>
+ * The wheel has {@link #WHEEL_SIZE} buckets of one tick each; a timeout is put in the bucket of the tick it expires in,
+ * with the number of turns of the wheel left before it does. A single thread advances the wheel one tick at a time and
+ * runs the tasks of the timeouts that expired, so the tasks must be short. A timeout expires about one tick after its
+ * deadline. When there are no pending timeouts the thread parks until one is scheduled, so idle flows cause no wakeups
+ * at all.
+ */
+public final class HashedTimerWheel
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedTimerWheel.class);
+    
+    static final int WHEEL_SIZE = 512;
+    
+    private static final int PENDING = 0;
+    
+    private static final int CANCELLED = 1;
+    
+    private static final int EXPIRED = 2;
+    
+    private final long tickNanos;
+    
+    /**
+     * The timeouts of each bucket as a singly linked list, only accessed by the timer thread
+     */
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+    
+    /**
+     * The timeouts scheduled since the last tick, moved to their bucket by the timer thread
+     */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    
+    private final AtomicLong pendingTimeouts = new AtomicLong();
+    
+    private final Thread worker;
+    
+    private volatile boolean idle;
+    
+    private volatile boolean closed;
+    
+    private final AtomicLong totalScheduled = new AtomicLong();
+    
+    private final AtomicLong totalExpired = new AtomicLong();
+    
+    private final AtomicLong totalCancelled = new AtomicLong();
+    
+    private final AtomicLong totalTicks = new AtomicLong();
+    
+    private final AtomicLong maxLatenessMillis = new AtomicLong();
+    
+    /**
+     * @param tickMillis The duration of a tick, i.e. the precision of the timeouts
+     */
+    public HashedTimerWheel(long tickMillis)
+    {
+        Preconditions.checkArgument(tickMillis > 0, "The tick duration must be positive.");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                advance();
+            }
+        }, "buffer-age-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+    
+    /**
+     * @return The timeout, to {@link Timeout#cancel() cancel} once the task is not needed anymore
+     */
+    public Timeout schedule(Runnable task, long delayMillis)
+    {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        if (closed)
+        {
+            // Never runs, like the timeouts still pending when the timer was closed
+            return timeout;
+        }
+        // Counted before it's visible to the timer thread, which parks only while there are no pending timeouts
+        pendingTimeouts.incrementAndGet();
+        totalScheduled.incrementAndGet();
+        newTimeouts.add(timeout);
+        if (idle)
+        {
+            LockSupport.unpark(worker);
+        }
+        return timeout;
+    }
+    
+    private void advance()
+    {
+        long startNanos = System.nanoTime();
+        long tick = 0;
+        while (!closed)
+        {
+            if (pendingTimeouts.get() == 0)
+            {
+                // The buckets only hold cancelled timeouts
+                Arrays.fill(wheel, null);
+                idle = true;
+                while (pendingTimeouts.get() == 0 && !closed)
+                {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                tick = (System.nanoTime() - startNanos) / tickNanos;
+                continue;
+            }
+            long tickEnd = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = tickEnd - System.nanoTime()) > 0 && !closed)
+            {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            transferNewTimeouts(startNanos, tick);
+            expireTimeouts((int)(tick & (WHEEL_SIZE - 1)));
+            totalTicks.incrementAndGet();
+            tick++;
+        }
+    }
+    
+    private void transferNewTimeouts(long startNanos, long tick)
+    {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null)
+        {
+            if (timeout.state.get() != PENDING)
+            {
+                continue;
+            }
+            // The tick at the end of which the deadline is reached, or the current one if it already passed
+            long expiryTick = Math.max(tick, (timeout.deadlineNanos - startNanos - 1) / tickNanos);
+            timeout.remainingRounds = (expiryTick - tick) / WHEEL_SIZE;
+            int bucket = (int)(expiryTick & (WHEEL_SIZE - 1));
+            timeout.next = wheel[bucket];
+            wheel[bucket] = timeout;
+        }
+    }
+    
+    private void expireTimeouts(int bucket)
+    {
+        Timeout kept = null;
+        Timeout timeout = wheel[bucket];
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.state.get() == PENDING)
+            {
+                if (timeout.remainingRounds > 0)
+                {
+                    timeout.remainingRounds--;
+                    timeout.next = kept;
+                    kept = timeout;
+                }
+                else
+                {
+                    timeout.expire();
+                }
+            }
+            timeout = next;
+        }
+        wheel[bucket] = kept;
+    }
+    
+    /**
+     * Stops the timer, the pending timeouts never expiring.
+     */
+    public void close()
+    {
+        closed = true;
+        LockSupport.unpark(worker);
+    }
+    
+    @SuppressWarnings("serial")
+    public Map<String, Object> getMetrics()
+    {
+        return new HashMap<String, Object>()
+        {
+            {
+                put("BufferAgeTimer.PendingTimeouts", pendingTimeouts.get());
+                put("BufferAgeTimer.TotalScheduledTimeouts", totalScheduled);
+                put("BufferAgeTimer.TotalExpiredTimeouts", totalExpired);
+                put("BufferAgeTimer.TotalCancelledTimeouts", totalCancelled);
+                put("BufferAgeTimer.TotalTicks", totalTicks);
+                put("BufferAgeTimer.MaxLatenessMillis", maxLatenessMillis);
+            }
+        };
+    }
+    
+    /**
+     * A task scheduled to run once its deadline is reached.
+     */
+    public final class Timeout
+    {
+        private final Runnable task;
+        
+        private final long deadlineNanos;
+        
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        
+        /**
+         * The turns of the wheel left before it expires, only accessed by the timer thread
+         */
+        private long remainingRounds;
+        
+        private Timeout next;
+        
+        private Timeout(Runnable task, long deadlineNanos)
+        {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+        
+        /**
+         * @return {@code false} if the task already ran or was cancelled
+         */
+        public boolean cancel()
+        {
+            if (state.compareAndSet(PENDING, CANCELLED))
+            {
+                pendingTimeouts.decrementAndGet();
+                totalCancelled.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        
+        private void expire()
+        {
+            if (!state.compareAndSet(PENDING, EXPIRED))
+            {
+                return;
+            }
+            pendingTimeouts.decrementAndGet();
+            totalExpired.incrementAndGet();
+            long latenessMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deadlineNanos);
+            if (latenessMillis > maxLatenessMillis.get())
+            {
+                maxLatenessMillis.set(latenessMillis);
+            }
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException e)
+            {
+                LOGGER.error("Unhandled exception in a buffer age timeout.", e);
+            }
+        }
+    }
+}
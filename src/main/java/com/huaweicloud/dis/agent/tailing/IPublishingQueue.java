@@ -0,0 +1,111 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.huaweicloud.dis.agent.IHeartbeatProvider;
+
+/**
+ * A queue of record buffers ready for publishing, fed record by record by a {@link FileTailer} and drained by the
+ * sending threads. Records are kept in a temporary buffer until it matures, then the buffer is queued as a
+ * "never-published" buffer. Buffers that failed to be sent are queued for a retry, and are taken before the
+ * never-published ones.
+ *
+ * @param <R> The record type.
+ * @see PublishingQueue
+ * @see LockFreePublishingQueue
+ */
+public interface IPublishingQueue<R extends IRecord> extends IHeartbeatProvider
+{
+    /**
+     * @param block Whether to wait for room in the queue if the temporary buffer must be queued before the record
+     * @return {@code false} if the record could not be added, in which case it should be offered again later
+     */
+    public boolean offerRecord(R record, boolean block);
+    
+    /**
+     * Queues a buffer that failed to be sent, to be taken before any never-published buffer.
+     */
+    public boolean queueBufferForRetry(RecordBuffer<R> buffer);
+    
+    /**
+     * Waits for a buffer to be queued, as long as configured by {@link FileFlow#getWaitOnEmptyPublishQueueMillis()}.
+     *
+     * @return {@code true} if the queue is not empty
+     */
+    public boolean waitNotEmpty();
+    
+    /**
+     * @param block Whether to wait for a buffer to be queued, see {@link #waitNotEmpty()}
+     * @return The next buffer to send, or {@code null} if there is none
+     */
+    public RecordBuffer<R> take(boolean block);
+    
+    /**
+     * Queues the temporary buffer if it matured.
+     *
+     * @return {@code true} either if the temp buffer does not need to be queued or if was queued successfully, and
+     *         {@code false} if it needed to be queued, but could not for any reason.
+     */
+    public boolean checkPendingRecords();
+    
+    /**
+     * Queues the temporary buffer whether it matured or not.
+     *
+     * @return The queued buffer, or {@code null} if it could not be queued
+     */
+    public RecordBuffer<R> flushPendingRecords();
+    
+    /**
+     * Adds the given record to the temporary buffer and queues it, waiting for room in the queue if needed.
+     *
+     * @param currentFile The file the buffer is checkpointed against
+     */
+    public boolean queueCurrentBuffer(R record, TrackedFile currentFile);
+    
+    /**
+     * @return The number of records discarded from the temporary buffer
+     */
+    public int discardPendingRecords();
+    
+    /**
+     * @return The number of records discarded from the temporary buffer and the queued buffers
+     */
+    public int discardAllRecords();
+    
+    /**
+     * @return The number of queued buffers
+     */
+    public int size();
+    
+    public int retrySize();
+    
+    public int capacity();
+    
+    public int pendingRecords();
+    
+    public long pendingBytes();
+    
+    /**
+     * @return The number of records in the temporary buffer and the queued buffers
+     */
+    public int totalRecords();
+    
+    public long totalBytes();
+    
+    /**
+     * Closes the queue: the temporary buffer is queued, and the pending calls return.
+     */
+    public void close();
+    
+    public Map<String, Object> getMetrics();
+    
+    /**
+     * @return The end offset of the last record of each file in the buffers left by the previous run and queued again,
+     *         empty unless the queue spills to disk
+     */
+    default Map<FileId, Long> getRecoveredOffsets()
+    {
+        return Collections.emptyMap();
+    }
+}
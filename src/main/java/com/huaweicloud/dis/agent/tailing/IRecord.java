@@ -25,6 +25,12 @@ public interface IRecord
      */
     public void truncate();
     
+    /**
+     * Releases the resources held by this record (e.g. the pooled chunk its data is a view of). Must be called once the
+     * record has been sent or dropped; the data of the record must not be accessed afterwards.
+     */
+    public void release();
+    
     /**
      * @return A string representation of the data in this record, encoded with UTF-8; use for debugging only please.
      */
@@ -17,4 +17,18 @@ public interface ISplitter
      *         before the end of the buffer.
      */
     public int locateNextRecord(ByteBuffer buffer);
+    
+    /**
+     * Same as {@link #locateNextRecord(ByteBuffer)}, for buffers whose capacity does not tell whether more data could
+     * still be read into them (e.g. windows mapped over a file, whose capacity is always their size).
+     *
+     * @param buffer
+     * @param bufferFull {@code true} if the buffer holds as many bytes as the parser will ever put in it.
+     * @return The position of the next record in the buffer, or {@code -1} if the beginning of the record was not found
+     *         before the end of the buffer.
+     */
+    public default int locateNextRecord(ByteBuffer buffer, boolean bufferFull)
+    {
+        return locateNextRecord(buffer);
+    }
 }
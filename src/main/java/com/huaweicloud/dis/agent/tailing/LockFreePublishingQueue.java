@@ -0,0 +1,823 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.huaweicloud.dis.agent.AgentContext;
+
+/**
+ * A {@link IPublishingQueue} where the sending threads never wait for the {@link FileTailer}.
+ * <p>
+ * Never-published buffers are queued in a bounded array ring ({@link BoundedRingQueue}), and buffers to retry in a
+ * separate unbounded lane, both lock-free, so taking a buffer doesn't contend with offering records. Threads waiting
+ * for a buffer to take, or for room to queue one, are parked and unparked one at a time as buffers are queued and
+ * taken.
+ * <p>
+ * The temporary buffer isn't lock-free though: it has a single owner at a time, ownership being taken with a CAS, and
+ * only its owner modifies it. The tailer takes it for every record and parks while it's busy. The other threads, which
+ * only queue an aged buffer (see {@link #checkPendingRecords()}), merely try to take it and leave the buffer to the
+ * next check if it's busy. So the tailer only waits for a sending thread for the few instructions it takes one to
+ * queue an aged buffer, and a sending thread never waits for the tailer. The {@link FlowRateLimiter} of the flow, if
+ * any, is called by the owner of the temporary buffer, so its monitor is only contended by the metrics reporting.
+ * <p>
+ * Buffers mature and are taken as described in {@link PublishingQueue}.
+ *
+ * @param <R> The record type.
+ */
+public final class LockFreePublishingQueue<R extends IRecord> implements IPublishingQueue<R>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockFreePublishingQueue.class);
+    
+    private final FileFlow<R> flow;
+    
+    private final String name;
+    
+    private final BoundedRingQueue<RecordBuffer<R>> neverPubQueue;
+    
+    private final Queue<RecordBuffer<R>> retryQueue = new ConcurrentLinkedQueue<>();
+    
+    private final AtomicInteger retryQueueSize = new AtomicInteger();
+    
+    /**
+     * Threads parked until a buffer is queued
+     */
+    private final Set<Thread> takeWaiters = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Threads parked until there is room in {@link #neverPubQueue}
+     */
+    private final Set<Thread> queueWaiters = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Threads parked until {@link #currentBuffer} is released
+     */
+    private final Set<Thread> ownerWaiters = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Whether a thread owns {@link #currentBuffer}
+     */
+    private final AtomicBoolean currentBufferOwned = new AtomicBoolean();
+    
+    /**
+     * Where records are held before being queued, a.k.a. temporary buffer.
+     */
+    private volatile RecordBuffer<R> currentBuffer;
+    
+    /**
+     * Limits the rate records are offered at, {@code null} if the flow isn't rate limited.
+     */
+    private final FlowRateLimiter rateLimiter;
+    
+    /**
+     * Where buffers go once the queue is full, {@code null} if the flow doesn't spill.
+     */
+    private final SpillLog<R> spillLog;
+    
+    /**
+     * Flushes the temporary buffer once it's maxBufferAgeMillis old, {@code null} if its age is only checked when the
+     * queue is used.
+     */
+    private final HashedTimerWheel bufferAgeTimer;
+    
+    /**
+     * The pending flush of the temporary buffer, {@code null} if the timer isn't used or the buffer is empty. Only
+     * accessed when owning the temporary buffer.
+     */
+    private HashedTimerWheel.Timeout bufferAgeTimeout;
+    
+    private volatile boolean isOpen = true;
+    
+    private final AtomicInteger queuedRecords = new AtomicInteger();
+    
+    private final AtomicLong queuedBytes = new AtomicLong();
+    
+    private final AtomicLong totalQueuedRecords = new AtomicLong(0);
+    
+    private final AtomicLong totalQueuedBuffers = new AtomicLong(0);
+    
+    private final AtomicLong totalQueueWaitTimeMillis = new AtomicLong(0);
+    
+    private final AtomicLong totalTakenBuffers = new AtomicLong(0);
+    
+    private final AtomicLong totalTakeTimeouts = new AtomicLong(0);
+    
+    private final AtomicLong totalBuffersQueuedForRetry = new AtomicLong(0);
+    
+    private final AtomicLong totalQueueTimeouts = new AtomicLong(0);
+    
+    private final AtomicLong totalCurrentBufferContentions = new AtomicLong(0);
+    
+    private final AtomicLong totalBufferAgeFlushes = new AtomicLong(0);
+    
+    public LockFreePublishingQueue(FileFlow<R> flow, int capacity)
+    {
+        Preconditions.checkNotNull(flow);
+        this.flow = flow;
+        this.name = getClass().getSimpleName() + "[" + flow.getId() + "]";
+        this.neverPubQueue = new BoundedRingQueue<>(capacity);
+        this.currentBuffer = flow.newRecordBuffer();
+        this.rateLimiter = FlowRateLimiter.forFlow(flow);
+        this.spillLog = SpillLog.forFlow(flow);
+        this.bufferAgeTimer = flow.getAgentContext().getBufferAgeTimer();
+    }
+    
+    @Override
+    public boolean offerRecord(R record, boolean block)
+    {
+        if (!isOpen)
+            return false;
+        acquireCurrentBuffer();
+        try
+        {
+            // Check if we need to publish before this record, and then proceed
+            if (!checkPendingRecordsBeforeNewRecord(record, block))
+                return false;
+            return record.shouldSkip() || admitToCurrentBuffer(record);
+        }
+        finally
+        {
+            releaseCurrentBuffer();
+        }
+    }
+    
+    @Override
+    public boolean queueBufferForRetry(RecordBuffer<R> buffer)
+    {
+        if (!isOpen)
+            return false;
+        retryQueue.add(buffer);
+        retryQueueSize.incrementAndGet();
+        totalBuffersQueuedForRetry.incrementAndGet();
+        onQueueBufferSuccess(buffer, 0);
+        return true;
+    }
+    
+    @Override
+    public boolean waitNotEmpty()
+    {
+        // It's a good time to check if temp buffer needs to be queued, in case the queue is empty
+        checkPendingRecords();
+        replaySpilledBuffers();
+        long waitMillis = flow.getWaitOnEmptyPublishQueueMillis();
+        if (bufferAgeTimer != null && waitMillis > 0)
+        {
+            // Woken up by the timer once the temporary buffer is old enough, so the buffer only needs to be checked
+            // again after its maximum age in case a timeout was lost (e.g. the timer was closed)
+            waitMillis = Math.max(waitMillis, flow.getMaxBufferAgeMillis());
+        }
+        if (isOpen && waitMillis != 0)
+        {
+            parkWhile(takeWaiters, new BooleanSupplier()
+            {
+                @Override
+                public boolean getAsBoolean()
+                {
+                    return size() == 0;
+                }
+            }, waitMillis);
+        }
+        return size() > 0;
+    }
+    
+    @Override
+    public RecordBuffer<R> take(boolean block)
+    {
+        if (block)
+        {
+            Stopwatch timer = Stopwatch.createStarted();
+            waitNotEmpty();
+            return tryTake(timer.elapsed(TimeUnit.MILLISECONDS));
+        }
+        else
+        {
+            return tryTake(0);
+        }
+    }
+    
+    @Override
+    public boolean checkPendingRecords()
+    {
+        if (!isMature(currentBuffer))
+            return true;
+        if (!currentBufferOwned.compareAndSet(false, true))
+        {
+            // Busy: checked again on the next take or heartbeat
+            return true;
+        }
+        try
+        {
+            return !isMature(currentBuffer) || queueCurrentBuffer(false);
+        }
+        finally
+        {
+            releaseCurrentBuffer();
+        }
+    }
+    
+    @Override
+    public RecordBuffer<R> flushPendingRecords()
+    {
+        acquireCurrentBuffer();
+        try
+        {
+            RecordBuffer<R> buffer = currentBuffer;
+            if (queueCurrentBuffer(false))
+                return buffer;
+            else
+                return null;
+        }
+        finally
+        {
+            releaseCurrentBuffer();
+        }
+    }
+    
+    @Override
+    public boolean queueCurrentBuffer(R record, TrackedFile currentFile)
+    {
+        acquireCurrentBuffer();
+        try
+        {
+            boolean success = false;
+            // Add record
+            if (record != null && !record.shouldSkip())
+            {
+                while (isOpen && !(success = checkPendingRecordsBeforeNewRecord(record, true)))
+                {
+                    LOGGER.warn("Failed to checkPendingRecordsBeforeNewRecord... retry.");
+                    sleepBeforeRetry();
+                }
+                if (!success || !admitToCurrentBuffer(record))
+                {
+                    return false;
+                }
+            }
+            if (!currentBuffer.isEmpty())
+            {
+                // 设置最新的文件信息
+                currentBuffer.setTrackedFile(currentFile);
+            }
+            while (isOpen && !(success = queueCurrentBuffer(true)))
+            {
+                sleepBeforeRetry();
+            }
+            return success;
+        }
+        finally
+        {
+            releaseCurrentBuffer();
+        }
+    }
+    
+    @Override
+    public int discardPendingRecords()
+    {
+        acquireCurrentBuffer();
+        try
+        {
+            RecordBuffer<R> buffer = currentBuffer;
+            int discarded = buffer.sizeRecords();
+            if (!buffer.isEmpty())
+            {
+                LOGGER.trace("{}: Discarding {} records in the temporary buffer...", name, discarded);
+            }
+            buffer.release();
+            resetCurrentBuffer();
+            return discarded;
+        }
+        finally
+        {
+            releaseCurrentBuffer();
+        }
+    }
+    
+    @Override
+    public int discardAllRecords()
+    {
+        int discarded = discardPendingRecords();
+        RecordBuffer<R> buffer;
+        while ((buffer = tryTake(0)) != null)
+        {
+            discarded += buffer.sizeRecords();
+            buffer.release();
+        }
+        LOGGER.trace("{}: Discarded {} records.", name, discarded);
+        return discarded;
+    }
+    
+    @Override
+    public int size()
+    {
+        return neverPubQueue.size() + retryQueueSize.get();
+    }
+    
+    @Override
+    public int retrySize()
+    {
+        return retryQueueSize.get();
+    }
+    
+    @Override
+    public int capacity()
+    {
+        return neverPubQueue.capacity();
+    }
+    
+    @Override
+    public int pendingRecords()
+    {
+        return currentBuffer.sizeRecords();
+    }
+    
+    @Override
+    public long pendingBytes()
+    {
+        return currentBuffer.sizeBytesWithOverhead();
+    }
+    
+    @Override
+    public int totalRecords()
+    {
+        return queuedRecords.get() + currentBuffer.sizeRecords();
+    }
+    
+    @Override
+    public long totalBytes()
+    {
+        return queuedBytes.get() + currentBuffer.sizeBytesWithOverhead();
+    }
+    
+    @Override
+    public void close()
+    {
+        isOpen = false;
+        // Any pending offer() and take() calls should return immediately
+        for (Thread waiter : queueWaiters)
+        {
+            LockSupport.unpark(waiter);
+        }
+        for (Thread waiter : takeWaiters)
+        {
+            LockSupport.unpark(waiter);
+        }
+        if (spillLog != null)
+        {
+            spillLog.close();
+        }
+    }
+    
+    @Override
+    public Object heartbeat(AgentContext agent)
+    {
+        checkPendingRecords();
+        return null;
+    }
+    
+    // Use for debugging only please.
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getSimpleName())
+            .append("(neverPubQueueSize=")
+            .append(neverPubQueue.size())
+            .append(",retryQueueSize=")
+            .append(retryQueueSize.get())
+            .append(",totalRecords=")
+            .append(totalRecords())
+            .append(",pendingRecords=")
+            .append(pendingRecords())
+            .append(")");
+        return sb.toString();
+    }
+    
+    @Override
+    public Map<FileId, Long> getRecoveredOffsets()
+    {
+        return spillLog == null ? Collections.<FileId, Long>emptyMap() : spillLog.getRecoveredOffsets();
+    }
+    
+    @SuppressWarnings("serial")
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        return new HashMap<String, Object>()
+        {
+            {
+                put("PublishingQueue.PendingRecords", pendingRecords());
+                put("PublishingQueue.TotalRecords", totalRecords());
+                put("PublishingQueue.RetryQueueSize", retryQueueSize.get());
+                put("PublishingQueue.NeverPublishedQueueSize", neverPubQueue.size());
+                put("PublishingQueue.TotalQueuedRecords", totalQueuedRecords);
+                put("PublishingQueue.TotalQueuedBuffers", totalQueuedBuffers);
+                put("PublishingQueue.TotalTakenBuffers", totalTakenBuffers);
+                put("PublishingQueue.TotalTakeTimeouts", totalTakeTimeouts);
+                put("PublishingQueue.TotalBuffersQueuedForRetry", totalBuffersQueuedForRetry);
+                put("PublishingQueue.TotalQueueTimeouts", totalQueueTimeouts);
+                put("PublishingQueue.TotalQueuedWaitTimeMillis", totalQueueWaitTimeMillis);
+                put("PublishingQueue.AverageQueueWaitTimeMillis",
+                    totalQueuedBuffers.get() == 0 ? 0.0
+                        : (totalQueueWaitTimeMillis.doubleValue() / totalQueuedBuffers.doubleValue()));
+                put("PublishingQueue.TotalTimeInQueueMillis", "NA");
+                put("PublishingQueue.AverageTimeInQueueMillis", "NA");
+                put("PublishingQueue.TotalCurrentBufferContentions", totalCurrentBufferContentions);
+                put("PublishingQueue.TotalBufferAgeFlushes", totalBufferAgeFlushes);
+                if (rateLimiter != null)
+                {
+                    putAll(rateLimiter.getMetrics());
+                }
+                if (spillLog != null)
+                {
+                    putAll(spillLog.getMetrics());
+                }
+            }
+        };
+    }
+    
+    /**
+     * Takes the ownership of {@link #currentBuffer}, which other threads only hold to queue it.
+     */
+    private void acquireCurrentBuffer()
+    {
+        if (currentBufferOwned.compareAndSet(false, true))
+            return;
+        totalCurrentBufferContentions.incrementAndGet();
+        // The owner may be parked on a full queue for up to waitOnFullPublishQueueMillis, park rather than spin
+        Thread current = Thread.currentThread();
+        try
+        {
+            while (true)
+            {
+                // Register before trying, so that a release after the try unparks this thread
+                ownerWaiters.add(current);
+                if (currentBufferOwned.compareAndSet(false, true))
+                {
+                    return;
+                }
+                if (current.isInterrupted())
+                {
+                    // Parking would return right away, the ownership is still needed
+                    Thread.yield();
+                }
+                else
+                {
+                    LockSupport.park(this);
+                }
+            }
+        }
+        finally
+        {
+            ownerWaiters.remove(current);
+        }
+    }
+    
+    private void releaseCurrentBuffer()
+    {
+        currentBufferOwned.set(false);
+        unparkOne(ownerWaiters);
+    }
+    
+    /**
+     * Adds the record to the temporary buffer if the rate limiter admits it. Call only when owning the temporary
+     * buffer.
+     *
+     * @return false if the record is over the rate limit and must be offered again later
+     */
+    private boolean admitToCurrentBuffer(R record)
+    {
+        FlowRateLimiter.Decision decision =
+            rateLimiter == null ? FlowRateLimiter.Decision.ADMIT : rateLimiter.admit(record.length());
+        if (decision == FlowRateLimiter.Decision.REJECT)
+        {
+            // Over the rate limit: the tailer keeps the record and offers it again later
+            return false;
+        }
+        if (decision == FlowRateLimiter.Decision.DROP)
+        {
+            // Dropped records are handled like skipped ones, the checkpoint moves past them
+            record.release();
+            return true;
+        }
+        addToCurrentBuffer(record);
+        return true;
+    }
+    
+    /**
+     * Call only when owning the temporary buffer.
+     */
+    private void addToCurrentBuffer(R record)
+    {
+        currentBuffer.add(record);
+        if (bufferAgeTimer != null && currentBuffer.sizeRecords() == 1)
+        {
+            final long bufferId = currentBuffer.id();
+            bufferAgeTimeout = bufferAgeTimer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushAgedBuffer(bufferId);
+                }
+            }, flow.getMaxBufferAgeMillis());
+        }
+    }
+    
+    /**
+     * Call only when owning the temporary buffer.
+     */
+    private void resetCurrentBuffer()
+    {
+        if (bufferAgeTimeout != null)
+        {
+            bufferAgeTimeout.cancel();
+            bufferAgeTimeout = null;
+        }
+        currentBuffer = flow.newRecordBuffer();
+    }
+    
+    /**
+     * Called by the timer once the given buffer is maxBufferAgeMillis old. If the queue is full, the buffer is queued
+     * by the next take instead.
+     */
+    private void flushAgedBuffer(final long bufferId)
+    {
+        if (currentBuffer.id() != bufferId)
+        {
+            return;
+        }
+        if (!currentBufferOwned.compareAndSet(false, true))
+        {
+            // Busy: tried again on the next tick, without blocking the timer
+            bufferAgeTimer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushAgedBuffer(bufferId);
+                }
+            }, 0);
+            return;
+        }
+        try
+        {
+            if (currentBuffer.id() == bufferId && !currentBuffer.isEmpty())
+            {
+                totalBufferAgeFlushes.incrementAndGet();
+                queueCurrentBuffer(false);
+            }
+        }
+        finally
+        {
+            releaseCurrentBuffer();
+        }
+    }
+    
+    /**
+     * Call only when owning the temporary buffer.
+     *
+     * @return {@code true} either if the temp buffer does not need to be queued or if was queued successfully, and
+     *         {@code false} if it needed to be queued, but could not for any reason.
+     */
+    private boolean checkPendingRecordsBeforeNewRecord(R record, boolean block)
+    {
+        RecordBuffer<R> buffer = currentBuffer;
+        if (!buffer.isEmpty() && (buffer.sizeBytesWithOverhead() + flow.getPerBufferOverheadBytes()
+            + record.lengthWithOverhead() > flow.getMaxBufferSizeBytes()
+            || buffer.sizeRecords() >= flow.getMaxBufferSizeRecords()))
+        {
+            return queueCurrentBuffer(block);
+        }
+        else
+            return true;
+    }
+    
+    /**
+     * Read without owning the buffer: a stale answer only delays the buffer to the next check.
+     */
+    private boolean isMature(RecordBuffer<R> buffer)
+    {
+        return !buffer.isEmpty() && (buffer.sizeBytesWithOverhead() >= flow.getMaxBufferSizeBytes()
+            || buffer.sizeRecords() >= flow.getMaxBufferSizeRecords()
+            || buffer.age() >= flow.getMaxBufferAgeMillis());
+    }
+    
+    /**
+     * Call only when owning the temporary buffer.
+     */
+    private boolean queueCurrentBuffer(boolean block)
+    {
+        if (!isOpen)
+            return false;
+        else if (currentBuffer.isEmpty())
+            return true; // practically a no-op
+        long waitMillis = flow.getWaitOnFullPublishQueueMillis();
+        if (block && waitMillis != 0)
+        {
+            Stopwatch timer = Stopwatch.createStarted();
+            parkWhile(queueWaiters, new BooleanSupplier()
+            {
+                @Override
+                public boolean getAsBoolean()
+                {
+                    return neverPubQueue.size() >= neverPubQueue.capacity();
+                }
+            }, waitMillis);
+            return tryQueueCurrentBuffer(timer.elapsed(TimeUnit.MILLISECONDS));
+        }
+        else
+        {
+            return tryQueueCurrentBuffer(0);
+        }
+    }
+    
+    /**
+     * Call only when owning the temporary buffer.
+     */
+    private boolean tryQueueCurrentBuffer(long elapsedWaiting)
+    {
+        RecordBuffer<R> buffer = currentBuffer;
+        if (buffer.isEmpty())
+            return true; // no-op
+        int records = buffer.sizeRecords();
+        // Spilled if the never-published queue is full, or if older buffers were spilled
+        boolean queued;
+        if (!isOpen)
+            queued = false;
+        else if (spillLog != null)
+            queued = spillLog.offer(buffer, this::queueInMemory) != SpillLog.Outcome.FULL;
+        else
+            queued = queueInMemory(buffer);
+        if (queued)
+        {
+            resetCurrentBuffer();
+            totalQueuedRecords.addAndGet(records);
+            totalQueuedBuffers.incrementAndGet();
+            totalQueueWaitTimeMillis.addAndGet(elapsedWaiting);
+            return true;
+        }
+        if (elapsedWaiting > 0)
+        {
+            LOGGER.debug("{}:{} Timed-out while waiting to queue buffer (waited for {} milliseconds).",
+                name,
+                buffer,
+                elapsedWaiting);
+            totalQueueTimeouts.incrementAndGet();
+        }
+        return false;
+    }
+    
+    /**
+     * @return {@code false} if the never-published queue is full
+     */
+    private boolean queueInMemory(RecordBuffer<R> buffer)
+    {
+        // Accounted for before it's queued, as it may be taken right away
+        int records = buffer.sizeRecords();
+        long bytes = buffer.sizeBytesWithOverhead();
+        queuedRecords.addAndGet(records);
+        queuedBytes.addAndGet(bytes);
+        if (neverPubQueue.offer(buffer))
+        {
+            unparkOne(takeWaiters);
+            return true;
+        }
+        queuedRecords.addAndGet(-records);
+        queuedBytes.addAndGet(-bytes);
+        return false;
+    }
+    
+    private void replaySpilledBuffers()
+    {
+        if (spillLog != null && spillLog.hasPending())
+        {
+            spillLog.replay(this::queueInMemory);
+        }
+    }
+    
+    private void onQueueBufferSuccess(RecordBuffer<R> buffer, long elapsed)
+    {
+        queuedRecords.addAndGet(buffer.sizeRecords());
+        queuedBytes.addAndGet(buffer.sizeBytesWithOverhead());
+        totalQueueWaitTimeMillis.addAndGet(elapsed);
+        unparkOne(takeWaiters);
+    }
+    
+    private RecordBuffer<R> tryTake(long elapsedWaiting)
+    {
+        replaySpilledBuffers();
+        RecordBuffer<R> result = retryQueue.poll();
+        if (result != null)
+        {
+            retryQueueSize.decrementAndGet();
+        }
+        else
+        {
+            result = neverPubQueue.poll();
+        }
+        if (result != null)
+        {
+            queuedRecords.addAndGet(-result.sizeRecords());
+            queuedBytes.addAndGet(-result.sizeBytesWithOverhead());
+            unparkOne(queueWaiters);
+            // It's a good time to check if temp buffer needs to be queued, in case the queue was full
+            checkPendingRecords();
+            totalTakenBuffers.incrementAndGet();
+            return result;
+        }
+        else if (elapsedWaiting > 0)
+        {
+            totalTakeTimeouts.incrementAndGet();
+        }
+        return null;
+    }
+    
+    /**
+     * Parks the current thread while the condition holds, until the queue is closed or the wait times out.
+     *
+     * @param waiters Where the thread registers to be unparked
+     * @param waitMillis The maximum time to wait, or a negative value to wait indefinitely
+     */
+    private void parkWhile(Set<Thread> waiters, BooleanSupplier condition, long waitMillis)
+    {
+        Thread current = Thread.currentThread();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        try
+        {
+            while (true)
+            {
+                // Register before checking, so that a change after the check unparks this thread
+                waiters.add(current);
+                if (!isOpen || !condition.getAsBoolean())
+                {
+                    return;
+                }
+                if (waitMillis > 0)
+                {
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0)
+                    {
+                        return;
+                    }
+                    LockSupport.parkNanos(this, nanos);
+                }
+                else
+                {
+                    LockSupport.park(this);
+                }
+                if (current.isInterrupted())
+                {
+                    // No need to make the wait interruptable, just return with the interrupt flag set
+                    LOGGER.trace("{}: Thread interrupted.", name);
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            waiters.remove(current);
+        }
+    }
+    
+    private static void unparkOne(Set<Thread> waiters)
+    {
+        if (waiters.isEmpty())
+            return;
+        for (Thread waiter : waiters)
+        {
+            // Only unpark a thread that no other thread unparked yet
+            if (waiters.remove(waiter))
+            {
+                LockSupport.unpark(waiter);
+                return;
+            }
+        }
+    }
+    
+    private void sleepBeforeRetry()
+    {
+        try
+        {
+            Thread.sleep(1);
+        }
+        catch (InterruptedException e)
+        {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+}
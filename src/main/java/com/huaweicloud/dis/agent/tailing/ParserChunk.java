@@ -0,0 +1,60 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A reference-counted buffer acquired from a {@link ParserChunkPool}. The buffer returns to the pool when the last
+ * reference is released, after which it must not be accessed anymore through this chunk or any view of it. Chunks
+ * that don't belong to a pool are only reference-counted, so the parser knows when it can reuse them in place.
+ */
+public final class ParserChunk
+{
+    private final ParserChunkPool pool;
+    
+    private final ByteBuffer buffer;
+    
+    private final AtomicInteger references = new AtomicInteger(1);
+    
+    ParserChunk(ParserChunkPool pool, ByteBuffer buffer)
+    {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+    
+    static ParserChunk unpooled(ByteBuffer buffer)
+    {
+        return new ParserChunk(null, buffer);
+    }
+    
+    public ByteBuffer buffer()
+    {
+        return buffer;
+    }
+    
+    public void retain()
+    {
+        int previous = references.getAndIncrement();
+        Preconditions.checkState(previous > 0, "Chunk was already returned to the pool.");
+    }
+    
+    /**
+     * @return {@code true} if references other than the caller's are held on this chunk.
+     */
+    public boolean isShared()
+    {
+        return references.get() > 1;
+    }
+    
+    public void release()
+    {
+        int remaining = references.decrementAndGet();
+        Preconditions.checkState(remaining >= 0, "Chunk was released more times than it was retained.");
+        if (remaining == 0 && pool != null)
+        {
+            pool.recycle(buffer);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A pool of the chunks {@link AbstractParser} reads file contents into, shared by all the flows of an agent.
+ * <p>
+ * Chunks are reference-counted (see {@link ParserChunk}): the parser holds a reference while it reads into a chunk,
+ * and every record whose data is a view of the chunk holds another one until the record is released (see
+ * {@link IRecord#release()}), i.e. once the buffer it belongs to was sent or dropped. When the last reference is
+ * released the chunk goes back to the pool, unless the pool already holds {@link #maxPooledChunks} idle chunks in which
+ * case it's left to the garbage collector. Chunks that are never released (e.g. records discarded on shutdown) are
+ * garbage-collected as well.
+ */
+public class ParserChunkPool
+{
+    private final int maxPooledChunks;
+    
+    private final boolean direct;
+    
+    private final BlockingQueue<ByteBuffer> idleChunks;
+    
+    private final AtomicInteger outstandingChunks = new AtomicInteger();
+    
+    private final AtomicLong totalChunksAcquired = new AtomicLong();
+    
+    private final AtomicLong totalPoolHits = new AtomicLong();
+    
+    private final AtomicLong totalChunksAllocated = new AtomicLong();
+    
+    private final AtomicLong totalChunksRecycled = new AtomicLong();
+    
+    /**
+     * @param maxPooledChunks The maximum number of idle chunks kept by the pool; {@code 0} disables pooling.
+     * @param direct {@code true} to allocate direct buffers, {@code false} for heap buffers.
+     */
+    public ParserChunkPool(int maxPooledChunks, boolean direct)
+    {
+        Preconditions.checkArgument(maxPooledChunks >= 0, "The chunk pool size must be non-negative.");
+        this.maxPooledChunks = maxPooledChunks;
+        this.direct = direct;
+        this.idleChunks = maxPooledChunks > 0 ? new ArrayBlockingQueue<ByteBuffer>(maxPooledChunks) : null;
+    }
+    
+    /**
+     * @param size The capacity of the chunk.
+     * @return A cleared chunk of the given capacity, with a single reference held by the caller.
+     */
+    public ParserChunk acquire(int size)
+    {
+        totalChunksAcquired.incrementAndGet();
+        ByteBuffer buffer = idleChunks != null ? idleChunks.poll() : null;
+        if (buffer != null && buffer.capacity() == size)
+        {
+            totalPoolHits.incrementAndGet();
+            buffer.clear();
+        }
+        else
+        {
+            // Flows may use different chunk sizes; a chunk of the wrong size is simply dropped
+            totalChunksAllocated.incrementAndGet();
+            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+        outstandingChunks.incrementAndGet();
+        return new ParserChunk(this, buffer);
+    }
+    
+    void recycle(ByteBuffer buffer)
+    {
+        outstandingChunks.decrementAndGet();
+        if (idleChunks != null && idleChunks.offer(buffer))
+        {
+            totalChunksRecycled.incrementAndGet();
+        }
+    }
+    
+    public boolean isDirect()
+    {
+        return direct;
+    }
+    
+    public int capacity()
+    {
+        return maxPooledChunks;
+    }
+    
+    /**
+     * @return The number of idle chunks currently held by the pool.
+     */
+    public int size()
+    {
+        return idleChunks != null ? idleChunks.size() : 0;
+    }
+    
+    @SuppressWarnings("serial")
+    public Map<String, Object> getMetrics()
+    {
+        return new HashMap<String, Object>()
+        {
+            {
+                put("ParserChunkPool.PooledChunks", size());
+                put("ParserChunkPool.OutstandingChunks", outstandingChunks.get());
+                put("ParserChunkPool.TotalChunksAcquired", totalChunksAcquired);
+                put("ParserChunkPool.TotalChunksAllocated", totalChunksAllocated);
+                put("ParserChunkPool.TotalChunksRecycled", totalChunksRecycled);
+                put("ParserChunkPool.HitRate",
+                    totalChunksAcquired.get() == 0 ? 0.0
+                        : (totalPoolHits.doubleValue() / totalChunksAcquired.doubleValue()));
+            }
+        };
+    }
+}
@@ -1,5 +1,6 @@
 package com.huaweicloud.dis.agent.tailing;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
@@ -15,7 +16,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.huaweicloud.dis.agent.AgentContext;
-import com.huaweicloud.dis.agent.IHeartbeatProvider;
 
 /**
  * A queue that keeps track of record buffers (aka batches) ready for publishing. It tracks buffers that were never
@@ -45,7 +45,7 @@ import com.huaweicloud.dis.agent.IHeartbeatProvider;
  *
  * @param <R> The record type.
  */
-public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvider
+public final class PublishingQueue<R extends IRecord> implements IPublishingQueue<R>
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(PublishingQueue.class);
     
@@ -92,6 +92,29 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
      */
     private RecordBuffer<R> currentBuffer;
     
+    /**
+     * Limits the rate records are offered at, {@code null} if the flow isn't rate limited.
+     */
+    private final FlowRateLimiter rateLimiter;
+    
+    /**
+     * Where buffers go once the queue is full, {@code null} if the flow doesn't spill.
+     */
+    private final SpillLog<R> spillLog;
+    
+    /**
+     * Flushes the temporary buffer once it's maxBufferAgeMillis old, {@code null} if its age is only checked when the
+     * queue is used.
+     */
+    private final HashedTimerWheel bufferAgeTimer;
+    
+    /**
+     * The pending flush of the temporary buffer, {@code null} if the timer isn't used or the buffer is empty.
+     */
+    private HashedTimerWheel.Timeout bufferAgeTimeout;
+    
+    private final AtomicLong totalBufferAgeFlushes = new AtomicLong(0);
+    
     public PublishingQueue(FileFlow<R> flow, int capacity)
     {
         Preconditions.checkNotNull(flow);
@@ -103,7 +126,10 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         this.lock = new ReentrantLock();
         this.notEmpty = lock.newCondition();
         this.notFull = lock.newCondition();
-        this.currentBuffer = new RecordBuffer<>(flow);
+        this.currentBuffer = flow.newRecordBuffer();
+        this.rateLimiter = FlowRateLimiter.forFlow(flow);
+        this.spillLog = SpillLog.forFlow(flow);
+        this.bufferAgeTimer = flow.getAgentContext().getBufferAgeTimer();
     }
     
     public boolean offerRecord(R record)
@@ -111,6 +137,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         return offerRecord(record, true);
     }
     
+    @Override
     public boolean waitNotEmpty()
     {
         lock.lock();
@@ -118,7 +145,14 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         {
             // It's a good time to check if temp buffer needs to be queued, in case the queue is empty
             checkPendingRecords();
+            replaySpilledBuffers();
             long waitMillis = flow.getWaitOnEmptyPublishQueueMillis();
+            if (bufferAgeTimer != null && waitMillis > 0)
+            {
+                // Woken up by the timer once the temporary buffer is old enough, so the buffer only needs to be checked
+                // again after its maximum age in case a timeout was lost (e.g. the timer was closed)
+                waitMillis = Math.max(waitMillis, flow.getMaxBufferAgeMillis());
+            }
             if (isOpen && waitMillis != 0)
             {
                 try
@@ -157,6 +191,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public boolean offerRecord(R record, boolean block)
     {
         lock.lock();
@@ -175,11 +210,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
                         .getMaxBufferSizeBytes());
                 }
                 // Add record
-                if (!record.shouldSkip())
-                {
-                    currentBuffer.add(record);
-                }
-                return true;
+                return record.shouldSkip() || admitToCurrentBuffer(record);
             }
             else
                 return false;
@@ -190,6 +221,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public boolean queueBufferForRetry(RecordBuffer<R> buffer)
     {
         lock.lock();
@@ -239,17 +271,30 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
     {
         if (currentBuffer.isEmpty())
             return true; // no-op
-        if (isOpen && neverPubQueue.size() < neverPubCapacity)
+        if (isOpen && spillLog != null)
+        {
+            // Spilled if the never-published queue is full, or if older buffers were spilled
+            int records = currentBuffer.sizeRecords();
+            if (spillLog.offer(currentBuffer, this::queueInMemory) != SpillLog.Outcome.FULL)
+            {
+                totalQueuedRecords.addAndGet(records);
+                totalQueuedBuffers.incrementAndGet();
+                totalQueueWaitTimeMillis.addAndGet(elapsedWaiting);
+                resetCurrentBuffer();
+                return true;
+            }
+        }
+        else if (isOpen && neverPubQueue.size() < neverPubCapacity)
         {
             neverPubQueue.add(currentBuffer);
             // LOGGER.trace("{}:{} Buffer added to never-published queue.", name, currentBuffer);
             totalQueuedRecords.addAndGet(currentBuffer.sizeRecords());
             totalQueuedBuffers.incrementAndGet();
             onQueueBufferSuccess(currentBuffer, elapsedWaiting);
-            currentBuffer = new RecordBuffer<>(flow);
+            resetCurrentBuffer();
             return true;
         }
-        else if (elapsedWaiting > 0)
+        if (elapsedWaiting > 0)
         {
             onQueueBufferTimeout(currentBuffer, elapsedWaiting);
             return false;
@@ -258,6 +303,109 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
             return false;
     }
     
+    /**
+     * Keep private. Call only when holding lock.
+     *
+     * @return {@code false} if the never-published queue is full
+     */
+    private boolean queueInMemory(RecordBuffer<R> buffer)
+    {
+        if (neverPubQueue.size() >= neverPubCapacity)
+            return false;
+        neverPubQueue.add(buffer);
+        onQueueBufferSuccess(buffer, 0);
+        return true;
+    }
+    
+    /**
+     * Keep private. Call only when holding lock.
+     */
+    private void replaySpilledBuffers()
+    {
+        if (spillLog != null && spillLog.hasPending())
+        {
+            spillLog.replay(this::queueInMemory);
+        }
+    }
+    
+    /**
+     * Adds the record to the current buffer if the rate limiter admits it. Keep private. Call only when holding lock.
+     *
+     * @return false if the record is over the rate limit and must be offered again later
+     */
+    private boolean admitToCurrentBuffer(R record)
+    {
+        FlowRateLimiter.Decision decision =
+            rateLimiter == null ? FlowRateLimiter.Decision.ADMIT : rateLimiter.admit(record.length());
+        if (decision == FlowRateLimiter.Decision.REJECT)
+        {
+            // Over the rate limit: the tailer keeps the record and offers it again later
+            return false;
+        }
+        if (decision == FlowRateLimiter.Decision.DROP)
+        {
+            // Dropped records are handled like skipped ones, the checkpoint moves past them
+            record.release();
+            return true;
+        }
+        addToCurrentBuffer(record);
+        return true;
+    }
+    
+    /**
+     * Keep private. Call only when holding lock.
+     */
+    private void addToCurrentBuffer(R record)
+    {
+        currentBuffer.add(record);
+        if (bufferAgeTimer != null && currentBuffer.sizeRecords() == 1)
+        {
+            final long bufferId = currentBuffer.id();
+            bufferAgeTimeout = bufferAgeTimer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushAgedBuffer(bufferId);
+                }
+            }, flow.getMaxBufferAgeMillis());
+        }
+    }
+    
+    /**
+     * Keep private. Call only when holding lock.
+     */
+    private void resetCurrentBuffer()
+    {
+        if (bufferAgeTimeout != null)
+        {
+            bufferAgeTimeout.cancel();
+            bufferAgeTimeout = null;
+        }
+        currentBuffer = flow.newRecordBuffer();
+    }
+    
+    /**
+     * Called by the timer once the given buffer is maxBufferAgeMillis old. If the queue is full, the buffer is queued
+     * by the next take instead.
+     */
+    private void flushAgedBuffer(long bufferId)
+    {
+        lock.lock();
+        try
+        {
+            if (currentBuffer.id() == bufferId && !currentBuffer.isEmpty())
+            {
+                totalBufferAgeFlushes.incrementAndGet();
+                queueCurrentBuffer(false);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
     private boolean queueCurrentBuffer(boolean block)
     {
         lock.lock();
@@ -318,6 +466,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
      */
     private RecordBuffer<R> tryTake(long elapsedWaiting)
     {
+        replaySpilledBuffers();
         RecordBuffer<R> result = null;
         if (!retryQueue.isEmpty())
         {
@@ -346,6 +495,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         return take(true);
     }
     
+    @Override
     public RecordBuffer<R> take(boolean block)
     {
         lock.lock();
@@ -428,6 +578,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         return null;
     }
     
+    @Override
     public int pendingRecords()
     {
         lock.lock();
@@ -441,6 +592,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public long pendingBytes()
     {
         lock.lock();
@@ -458,6 +610,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
      * @return {@code true} either if the temp buffer does not need to be queued or if was queued successfully, and
      *         {@code false} if it needed to be queued, but could not for any reason.
      */
+    @Override
     public boolean checkPendingRecords()
     {
         lock.lock();
@@ -478,6 +631,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public RecordBuffer<R> flushPendingRecords()
     {
         RecordBuffer<R> buffer = currentBuffer;
@@ -487,6 +641,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
             return null;
     }
     
+    @Override
     public int discardPendingRecords()
     {
         lock.lock();
@@ -497,7 +652,8 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
             {
                 LOGGER.trace("{}: Discarding {} records in the temporary buffer...", name, currentBuffer.sizeRecords());
             }
-            currentBuffer = new RecordBuffer<>(flow);
+            currentBuffer.release();
+            resetCurrentBuffer();
             return discarded;
         }
         finally
@@ -506,6 +662,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public int discardAllRecords()
     {
         lock.lock();
@@ -516,6 +673,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
             {
                 RecordBuffer<R> buffer = tryTake(0);
                 discarded += buffer.sizeRecords();
+                buffer.release();
             }
             LOGGER.trace("{}: Discarded {} records.", name, discarded);
             return discarded;
@@ -526,21 +684,25 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public synchronized int size()
     {
         return neverPubQueue.size() + retryQueue.size();
     }
     
+    @Override
     public synchronized int retrySize()
     {
         return retryQueue.size();
     }
     
+    @Override
     public int capacity()
     {
         return neverPubCapacity;
     }
     
+    @Override
     public int totalRecords()
     {
         lock.lock();
@@ -554,6 +716,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public long totalBytes()
     {
         lock.lock();
@@ -567,6 +730,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         }
     }
     
+    @Override
     public void close()
     {
         lock.lock();
@@ -580,6 +744,11 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
             
             // Any take() calls waiting on queue to fill should return null immediately
             notEmpty.signalAll();
+            
+            if (spillLog != null)
+            {
+                spillLog.close();
+            }
         }
         finally
         {
@@ -642,7 +811,14 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
         return sb.toString();
     }
     
+    @Override
+    public Map<FileId, Long> getRecoveredOffsets()
+    {
+        return spillLog == null ? Collections.<FileId, Long>emptyMap() : spillLog.getRecoveredOffsets();
+    }
+    
     @SuppressWarnings("serial")
+    @Override
     public Map<String, Object> getMetrics()
     {
         return new HashMap<String, Object>()
@@ -664,10 +840,20 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
                         : (totalQueueWaitTimeMillis.doubleValue() / totalQueuedBuffers.doubleValue()));
                 put("PublishingQueue.TotalTimeInQueueMillis", "NA");
                 put("PublishingQueue.AverageTimeInQueueMillis", "NA");
+                put("PublishingQueue.TotalBufferAgeFlushes", totalBufferAgeFlushes);
+                if (rateLimiter != null)
+                {
+                    putAll(rateLimiter.getMetrics());
+                }
+                if (spillLog != null)
+                {
+                    putAll(spillLog.getMetrics());
+                }
             }
         };
     }
     
+    @Override
     public boolean queueCurrentBuffer(R record, TrackedFile currentFile)
     {
         lock.lock();
@@ -689,11 +875,7 @@ public final class PublishingQueue<R extends IRecord> implements IHeartbeatProvi
                         LOGGER.error(e.getMessage(), e);
                     }
                 }
-                if (success)
-                {
-                    currentBuffer.add(record);
-                }
-                else
+                if (!success || !admitToCurrentBuffer(record))
                 {
                     return false;
                 }
@@ -2,7 +2,9 @@ package com.huaweicloud.dis.agent.tailing;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -42,10 +44,25 @@ public class RecordBuffer<R extends IRecord> implements Iterable<R>
     @Setter
     protected TrackedFile trackedFile = null;
     
+    /**
+     * Called once when the buffer is released, e.g. to free the spill segment it was restored from.
+     */
+    @Setter
+    protected Runnable releaseListener = null;
+    
     public RecordBuffer(FileFlow<R> flow)
+    {
+        this(flow, DEFAULT_INITIAL_CAPACITY);
+    }
+    
+    /**
+     * @param initialCapacity The initial capacity of {@link #records}, {@code 0} for subclasses keeping the records in
+     *            another way
+     */
+    protected RecordBuffer(FileFlow<R> flow, int initialCapacity)
     {
         this.flow = flow;
-        this.records = new ArrayList<R>(DEFAULT_INITIAL_CAPACITY);
+        this.records = new ArrayList<R>(initialCapacity);
         this.id = NEXT_BUFFER_ID.incrementAndGet();
     }
     
@@ -124,6 +141,35 @@ public class RecordBuffer<R extends IRecord> implements Iterable<R>
         return lastRecord.endOffset();
     }
     
+    /**
+     * @return The last record of each file in the buffer, keeping the highest end offset when the records of a file are
+     *         interleaved with others, in the order the files appear in the buffer.
+     */
+    public List<R> lastRecordsPerFile()
+    {
+        Map<String, R> lastRecordMap = new LinkedHashMap<>();
+        Iterator<R> iterator = iterator();
+        R lastRecord = iterator.next();
+        String lastId = lastRecord.file().getId().getId();
+        while (iterator.hasNext())
+        {
+            R thisRecord = iterator.next();
+            String thisId = thisRecord.file().getId().getId();
+            if (!thisId.equals(lastId) && (lastRecordMap.get(lastId) == null
+                || lastRecordMap.get(lastId).endOffset() < lastRecord.endOffset()))
+            {
+                lastRecordMap.put(lastId, lastRecord);
+            }
+            lastRecord = thisRecord;
+            lastId = lastRecord.file().getId().getId();
+        }
+        if (lastRecordMap.get(lastId) == null || lastRecordMap.get(lastId).endOffset() < lastRecord.endOffset())
+        {
+            lastRecordMap.put(lastId, lastRecord);
+        }
+        return new ArrayList<>(lastRecordMap.values());
+    }
+    
     /**
      * Removes the records at the specified indices.
      *
@@ -153,6 +199,7 @@ public class RecordBuffer<R extends IRecord> implements Iterable<R>
                 if (originalIndex == toRemoveIndex)
                 {
                     currentSizeBytes -= records.get(toRemoveIndex).length();
+                    records.get(toRemoveIndex).release();
                     toRemoveIndex = toRemoveIt.hasNext() ? toRemoveIt.next() : -1;
                 }
                 else
@@ -166,6 +213,23 @@ public class RecordBuffer<R extends IRecord> implements Iterable<R>
         return this;
     }
     
+    /**
+     * Releases all the records in the buffer, once they were sent or dropped.
+     */
+    public void release()
+    {
+        for (R record : records)
+        {
+            record.release();
+        }
+        if (releaseListener != null)
+        {
+            Runnable listener = releaseListener;
+            releaseListener = null;
+            listener.run();
+        }
+    }
+    
     @Override
     public Iterator<R> iterator()
     {
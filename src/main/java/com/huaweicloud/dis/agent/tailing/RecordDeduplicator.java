@@ -0,0 +1,184 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.huaweicloud.dis.agent.ByteBuffers;
+
+/**
+ * Collapses runs of identical consecutive records of a file, for {@link AbstractParser}.
+ * <p>
+ * The first record of a run is sent as usual, the records repeating it are suppressed and counted. When the run ends,
+ * i.e. when a different record is read or {@link FileFlow#getDedupWindowMillis()} elapsed since the first repeat, a
+ * single summary record is sent for all the repeats: the repeated data with the number of repeats and the times the
+ * first and last repeats were read. The summary record spans the file range of the repeats, so the checkpoint of the
+ * file only moves past them once it's sent.
+ * <p>
+ * Records are compared by a 128-bit hash of their data, so only the hash of the last record is kept, and the data of
+ * the current run once it has a repeat: memory is bounded by the size of a record.
+ */
+class RecordDeduplicator
+{
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private final long windowMillis;
+    
+    private final char recordDelimiter;
+    
+    private TrackedFile lastFile;
+    
+    private HashCode lastHash;
+    
+    private TrackedFile repeatsFile;
+    
+    private byte[] repeatedData;
+    
+    private long repeatCount;
+    
+    private long firstRepeatMillis;
+    
+    private long lastRepeatMillis;
+    
+    private long repeatsStartOffset;
+    
+    private long repeatsEndOffset;
+    
+    RecordDeduplicator(long windowMillis, char recordDelimiter)
+    {
+        this.windowMillis = windowMillis;
+        this.recordDelimiter = recordDelimiter;
+    }
+    
+    /**
+     * Checks whether the given record repeats the previous one. A repeat is accounted for in the current run, and must
+     * not be sent. Any other record ends the run, and is the one the following records are compared to: the summary
+     * of the run must then be sent before it.
+     *
+     * @return {@code true} if the record is a repeat
+     */
+    boolean suppress(IRecord record, long now)
+    {
+        if (record.shouldSkip() || record.data() == null)
+        {
+            lastHash = null;
+            return false;
+        }
+        HashCode hash = HASH_FUNCTION.newHasher().putBytes(record.data().duplicate()).hash();
+        if (hash.equals(lastHash) && isSameFile(record.file())
+            && (repeatCount == 0 || record.endOffset() - repeatsStartOffset <= Integer.MAX_VALUE))
+        {
+            if (repeatCount == 0)
+            {
+                repeatsFile = record.file();
+                repeatedData = ByteBuffers.toArray(record.data());
+                firstRepeatMillis = now;
+                repeatsStartOffset = record.startOffset();
+            }
+            repeatCount++;
+            lastRepeatMillis = now;
+            repeatsEndOffset = record.endOffset();
+            return true;
+        }
+        lastFile = record.file();
+        lastHash = hash;
+        return false;
+    }
+    
+    boolean hasRepeats()
+    {
+        return repeatCount > 0;
+    }
+    
+    /**
+     * @return {@code true} if the current run has repeats and its window elapsed, so its summary must be sent even if
+     *         no other record is read.
+     */
+    boolean isWindowElapsed(long now)
+    {
+        return repeatCount > 0 && now - firstRepeatMillis >= windowMillis;
+    }
+    
+    TrackedFile getRepeatsFile()
+    {
+        return repeatsFile;
+    }
+    
+    long getRepeatsStartOffset()
+    {
+        return repeatsStartOffset;
+    }
+    
+    int getRepeatsLength()
+    {
+        return (int)(repeatsEndOffset - repeatsStartOffset);
+    }
+    
+    long getRepeatCount()
+    {
+        return repeatCount;
+    }
+    
+    /**
+     * Builds the summary of the repeats of the current run, and starts a new run: records repeating the same data
+     * again are counted in the new run.
+     * <p>
+     * A JSON object gets {@code repeatCount}, {@code firstRepeatTime} and {@code lastRepeatTime} fields (in
+     * milliseconds since the epoch), any other record gets a {@code [repeated N times from ... to ...]} suffix.
+     */
+    ByteBuffer takeSummary()
+    {
+        byte[] data = repeatedData;
+        int length = data.length;
+        boolean delimited = length > 0 && data[length - 1] == recordDelimiter;
+        if (delimited)
+        {
+            length--;
+        }
+        
+        byte[] annotation;
+        int insertAt;
+        if (length >= 2 && data[0] == '{' && data[length - 1] == '}')
+        {
+            String fields = "\"repeatCount\":" + repeatCount + ",\"firstRepeatTime\":" + firstRepeatMillis
+                + ",\"lastRepeatTime\":" + lastRepeatMillis;
+            annotation = (isEmptyObject(data, length) ? fields : "," + fields).getBytes(StandardCharsets.US_ASCII);
+            insertAt = length - 1;
+        }
+        else
+        {
+            annotation = (" [repeated " + repeatCount + " times from " + Instant.ofEpochMilli(firstRepeatMillis)
+                + " to " + Instant.ofEpochMilli(lastRepeatMillis) + "]").getBytes(StandardCharsets.US_ASCII);
+            insertAt = length;
+        }
+        byte[] summary = Arrays.copyOf(data, data.length + annotation.length);
+        System.arraycopy(annotation, 0, summary, insertAt, annotation.length);
+        System.arraycopy(data, insertAt, summary, insertAt + annotation.length, data.length - insertAt);
+        
+        repeatsFile = null;
+        repeatedData = null;
+        repeatCount = 0;
+        return ByteBuffer.wrap(summary);
+    }
+    
+    private boolean isSameFile(TrackedFile file)
+    {
+        return lastFile != null && file.getId().equals(lastFile.getId()) && file.getPath().equals(lastFile.getPath());
+    }
+    
+    private static boolean isEmptyObject(byte[] data, int length)
+    {
+        for (int i = 1; i < length - 1; i++)
+        {
+            if (!Character.isWhitespace(data[i]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,22 +3,48 @@ package com.huaweicloud.dis.agent.tailing;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.huaweicloud.dis.agent.ByteBuffers;
 import com.huaweicloud.dis.agent.Constants;
 
 /**
  * Returns one record that splits records based on a regex that matches the beginning of a record
+ * <p>
+ * Lines are matched against the pattern directly on the bytes of the buffer: lines that don't start with the literal
+ * prefix of the pattern (if any) are skipped without running the regex, and the others are matched through an ASCII
+ * {@link CharSequence} view of the buffer. The line is only decoded with {@link #charset} when the pattern needs to
+ * look past its first non-ASCII byte, or when the charset isn't ASCII-compatible.
  */
 public class RegexSplitter implements ISplitter
 {
+    private static final byte NEW_LINE = (byte)Constants.NEW_LINE;
+    
     public final Pattern startingPattern;
     
     public final Charset charset;
     
+    /**
+     * ASCII bytes the beginning of a record must start with, or an empty array if the pattern has no literal prefix.
+     */
+    private final byte[] literalPrefix;
+    
+    private final boolean asciiCompatible;
+    
+    private final ThreadLocal<LineMatcher> lineMatchers = new ThreadLocal<LineMatcher>()
+    {
+        @Override
+        protected LineMatcher initialValue()
+        {
+            return new LineMatcher();
+        }
+    };
+    
     public RegexSplitter(String startingPattern)
     {
         this(startingPattern, StandardCharsets.UTF_8);
@@ -29,6 +55,8 @@ public class RegexSplitter implements ISplitter
         Preconditions.checkArgument(!Strings.isNullOrEmpty(startingPattern));
         this.startingPattern = Pattern.compile(startingPattern);
         this.charset = fileEncoding;
+        this.asciiCompatible = isAsciiCompatible(fileEncoding);
+        this.literalPrefix = asciiCompatible ? extractLiteralPrefix(startingPattern) : new byte[0];
     }
     
     public String getPattern()
@@ -39,7 +67,13 @@ public class RegexSplitter implements ISplitter
     @Override
     public int locateNextRecord(ByteBuffer buffer)
     {
-        return advanceBufferToNextPattern(buffer);
+        return advanceBufferToNextPattern(buffer, buffer.limit() == buffer.capacity());
+    }
+    
+    @Override
+    public int locateNextRecord(ByteBuffer buffer, boolean bufferFull)
+    {
+        return advanceBufferToNextPattern(buffer, bufferFull);
     }
     
     /**
@@ -49,41 +83,205 @@ public class RegexSplitter implements ISplitter
      * @return {@code position} of the buffer at the starting index of the next new pattern; {@code -1} if the end of
      *         the buffer was reached.
      */
-    private int advanceBufferToNextPattern(ByteBuffer buffer)
+    private int advanceBufferToNextPattern(ByteBuffer buffer, boolean bufferFull)
     {
-        Matcher matcher;
-        // this marks the position before which we already attempted to match the pattern
-        int currentLookedPosition = buffer.position();
-        boolean firstLine = true;
-        while (buffer.hasRemaining())
+        int limit = buffer.limit();
+        // Skip the first line as it must be part of the current record
+        int lineStart = ByteBuffers.indexOf(buffer, buffer.position(), limit, NEW_LINE);
+        if (lineStart == -1)
+        {
+            buffer.position(limit);
+            return -1;
+        }
+        ++lineStart;
+        int lineEnd;
+        // match the following complete lines, each including its newline
+        while ((lineEnd = ByteBuffers.indexOf(buffer, lineStart, limit, NEW_LINE)) != -1)
         {
-            // start matching from the current position on a line by line basis
-            if (buffer.get() == Constants.NEW_LINE)
+            ++lineEnd;
+            if (startsWithLiteralPrefix(buffer, lineStart, lineEnd)
+                && lineMatchers.get().lookingAt(buffer, lineStart, lineEnd))
             {
-                // Skip the first line as it must be part of the current record
-                if (!firstLine)
-                {
-                    String line = new String(buffer.array(), currentLookedPosition,
-                        buffer.position() - currentLookedPosition, StandardCharsets.UTF_8);
-                    matcher = startingPattern.matcher(line);
-                    if (matcher.lookingAt())
-                    {
-                        buffer.position(currentLookedPosition);
-                        return currentLookedPosition;
-                    }
-                }
-                firstLine = false;
-                // update the position that we already looked at
-                currentLookedPosition = buffer.position();
+                buffer.position(lineStart);
+                return lineStart;
             }
+            lineStart = lineEnd;
         }
         
+        buffer.position(limit);
         // We've scanned to the end and there is only one complete record in the buffer, set the position to the end
-        if (!firstLine && buffer.limit() < buffer.capacity())
+        if (!bufferFull)
         {
-            return buffer.position();
+            return limit;
         }
         
         return -1;
     }
+    
+    private boolean startsWithLiteralPrefix(ByteBuffer buffer, int lineStart, int lineEnd)
+    {
+        if (lineEnd - lineStart < literalPrefix.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < literalPrefix.length; ++i)
+        {
+            if (buffer.get(lineStart + i) != literalPrefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return {@code true} if the charset encodes all ASCII characters as the same single bytes, so that ASCII bytes
+     *         can be read as characters without decoding them.
+     */
+    private static boolean isAsciiCompatible(Charset charset)
+    {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; ++i)
+        {
+            ascii[i] = (byte)i;
+        }
+        String decoded = new String(ascii, StandardCharsets.US_ASCII);
+        return charset.canEncode() && Arrays.equals(ascii, decoded.getBytes(charset))
+            && decoded.equals(new String(ascii, charset));
+    }
+    
+    /**
+     * Extracts the ASCII characters any match of the pattern must start with. The extraction is conservative: it stops
+     * at the first construct that isn't a plain (or escaped punctuation) literal, drops the last literal if it's
+     * followed by a quantifier that makes it optional, and gives up on patterns with alternations.
+     */
+    @VisibleForTesting
+    static byte[] extractLiteralPrefix(String pattern)
+    {
+        if (pattern.indexOf('|') >= 0)
+        {
+            return new byte[0];
+        }
+        StringBuilder prefix = new StringBuilder();
+        int i = pattern.startsWith("^") ? 1 : 0;
+        while (i < pattern.length())
+        {
+            char c = pattern.charAt(i);
+            int next = i + 1;
+            if (c == '\\')
+            {
+                if (next >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(next))
+                    || pattern.charAt(next) > Byte.MAX_VALUE)
+                {
+                    break;
+                }
+                c = pattern.charAt(next++);
+            }
+            else if (c > Byte.MAX_VALUE || "[](){}.*+?^$".indexOf(c) >= 0)
+            {
+                break;
+            }
+            if (next < pattern.length() && "*?{".indexOf(pattern.charAt(next)) >= 0)
+            {
+                // The literal is optional or repeated a variable number of times
+                break;
+            }
+            prefix.append(c);
+            if (next < pattern.length() && pattern.charAt(next) == '+')
+            {
+                break;
+            }
+            i = next;
+        }
+        return prefix.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Matches lines against {@link #startingPattern}, reusing the same matcher and view for all the lines read by a
+     * thread.
+     */
+    private final class LineMatcher implements CharSequence
+    {
+        private final Matcher matcher = startingPattern.matcher("");
+        
+        private ByteBuffer buffer;
+        
+        private int start;
+        
+        private int length;
+        
+        boolean lookingAt(ByteBuffer lineBuffer, int lineStart, int lineEnd)
+        {
+            if (!asciiCompatible)
+            {
+                return lookingAtDecoded(lineBuffer, lineStart, lineEnd);
+            }
+            int asciiEnd = lineStart;
+            while (asciiEnd < lineEnd && lineBuffer.get(asciiEnd) >= 0)
+            {
+                ++asciiEnd;
+            }
+            buffer = lineBuffer;
+            start = lineStart;
+            length = asciiEnd - lineStart;
+            try
+            {
+                boolean matched = matcher.reset(this).lookingAt();
+                // The outcome can't depend on the non-ASCII rest of the line if the matcher didn't reach the view end
+                if (asciiEnd == lineEnd || !matcher.hitEnd())
+                {
+                    return matched;
+                }
+            }
+            finally
+            {
+                buffer = null;
+                matcher.reset("");
+            }
+            return lookingAtDecoded(lineBuffer, lineStart, lineEnd);
+        }
+        
+        private boolean lookingAtDecoded(ByteBuffer lineBuffer, int lineStart, int lineEnd)
+        {
+            String line =
+                ByteBuffers.toString(ByteBuffers.getPartialView(lineBuffer, lineStart, lineEnd - lineStart), charset);
+            try
+            {
+                return matcher.reset(line).lookingAt();
+            }
+            finally
+            {
+                matcher.reset("");
+            }
+        }
+        
+        @Override
+        public int length()
+        {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index)
+        {
+            return (char)buffer.get(start + index);
+        }
+        
+        @Override
+        public CharSequence subSequence(int from, int to)
+        {
+            StringBuilder sb = new StringBuilder(to - from);
+            for (int i = from; i < to; ++i)
+            {
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+        
+        @Override
+        public String toString()
+        {
+            return subSequence(0, length).toString();
+        }
+    }
 }
@@ -0,0 +1,409 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs the send requests of all the flows of an agent on one shared pool of sending threads, so that a busy flow
+ * can't take all the connections of the DIS client from the other flows.
+ * <p>
+ * Each flow queues its send requests into its own {@link FlowQueue}, and a dispatcher thread hands them to the sending
+ * threads with deficit round robin: every time its turn comes, a flow is credited {@code quantumBytes * sendWeight}
+ * bytes and may start requests as long as their buffers fit in its credit. A flow that runs out of requests loses its
+ * credit, so idle flows don't build up a burst. Requests only leave their queue once a sending thread is free, so
+ * while the pool is saturated the flows share it in the ratio of their weights.
+ * <p>
+ * How long requests waited in their queue is reported per flow, to spot a flow starved by a too low weight.
+ */
+public final class SendScheduler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SendScheduler.class);
+    
+    private final ThreadPoolExecutor workers;
+    
+    private final long quantumBytes;
+    
+    private final int maxQueuedTasksPerFlow;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    private final Condition changed = lock.newCondition();
+    
+    /**
+     * The flows with queued requests, the first one being the one served
+     */
+    private final ArrayDeque<FlowQueue> activeFlows = new ArrayDeque<>();
+    
+    private final Thread dispatcher;
+    
+    private int idleWorkers;
+    
+    private boolean shutdown;
+    
+    private final AtomicLong totalRounds = new AtomicLong();
+    
+    private final AtomicLong totalDispatchedTasks = new AtomicLong();
+    
+    private final AtomicLong totalRejectedTasks = new AtomicLong();
+    
+    /**
+     * @param workers The sending threads, which the scheduler owns from now on
+     * @param quantumBytes The bytes a flow of weight 1 is credited every round
+     * @param maxQueuedTasksPerFlow The maximum number of requests a flow can queue before new ones are rejected
+     */
+    public SendScheduler(ThreadPoolExecutor workers, int quantumBytes, int maxQueuedTasksPerFlow)
+    {
+        Preconditions.checkArgument(quantumBytes > 0, "The scheduling quantum must be positive.");
+        Preconditions.checkArgument(maxQueuedTasksPerFlow > 0, "The flow queue size must be positive.");
+        this.workers = workers;
+        this.quantumBytes = quantumBytes;
+        this.maxQueuedTasksPerFlow = maxQueuedTasksPerFlow;
+        this.idleWorkers = workers.getMaximumPoolSize();
+        this.dispatcher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                dispatch();
+            }
+        }, "send-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+    
+    /**
+     * @return The queue the given flow submits its send requests to
+     */
+    public FlowQueue register(FileFlow<?> flow)
+    {
+        return new FlowQueue(flow.getId(), flow.getSendWeight());
+    }
+    
+    private void dispatch()
+    {
+        lock.lock();
+        try
+        {
+            while (true)
+            {
+                if (activeFlows.isEmpty() && shutdown)
+                {
+                    break;
+                }
+                if (activeFlows.isEmpty() || idleWorkers == 0)
+                {
+                    changed.await();
+                    continue;
+                }
+                FlowQueue flow = activeFlows.peekFirst();
+                if (!flow.credited)
+                {
+                    flow.deficitBytes += quantumBytes * flow.weight;
+                    flow.credited = true;
+                    totalRounds.incrementAndGet();
+                }
+                Task task = flow.tasks.peekFirst();
+                if (task.costBytes > flow.deficitBytes)
+                {
+                    // Its turn is over, the request waits for the credit of the next rounds
+                    flow.totalDeferredRounds.incrementAndGet();
+                    flow.credited = false;
+                    activeFlows.addLast(activeFlows.pollFirst());
+                    continue;
+                }
+                flow.tasks.pollFirst();
+                flow.deficitBytes -= task.costBytes;
+                if (flow.tasks.isEmpty())
+                {
+                    flow.deficitBytes = 0;
+                    flow.credited = false;
+                    activeFlows.pollFirst();
+                }
+                start(flow, task);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            LOGGER.debug("Send scheduler interrupted.");
+        }
+        finally
+        {
+            lock.unlock();
+            workers.shutdown();
+        }
+    }
+    
+    /**
+     * Must hold the lock.
+     */
+    private void start(FlowQueue flow, final Task task)
+    {
+        long waitNanos = System.nanoTime() - task.queuedNanos;
+        flow.totalQueueWaitNanos.addAndGet(waitNanos);
+        if (waitNanos > flow.maxQueueWaitNanos.get())
+        {
+            flow.maxQueueWaitNanos.set(waitNanos);
+        }
+        flow.totalDispatchedTasks.incrementAndGet();
+        flow.totalDispatchedBytes.addAndGet(task.costBytes);
+        totalDispatchedTasks.incrementAndGet();
+        idleWorkers--;
+        try
+        {
+            workers.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        task.task.run();
+                    }
+                    finally
+                    {
+                        onTaskCompleted();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Only after shutdownNow(), the request is dropped like the ones still queued
+            idleWorkers++;
+            LOGGER.debug("Send task of flow {} dropped on shutdown.", flow.flowId);
+        }
+    }
+    
+    private void onTaskCompleted()
+    {
+        lock.lock();
+        try
+        {
+            idleWorkers++;
+            changed.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Stops accepting requests. The ones already queued are still sent.
+     */
+    public void shutdown()
+    {
+        lock.lock();
+        try
+        {
+            shutdown = true;
+            changed.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Stops accepting requests and drops the ones still queued, without waiting for the ones being sent.
+     *
+     * @return The requests that were never started
+     */
+    public List<Runnable> shutdownNow()
+    {
+        List<Runnable> dropped = new ArrayList<>();
+        lock.lock();
+        try
+        {
+            shutdown = true;
+            for (FlowQueue flow : activeFlows)
+            {
+                for (Task task : flow.tasks)
+                {
+                    dropped.add(task.task);
+                }
+                flow.tasks.clear();
+            }
+            activeFlows.clear();
+            changed.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        dropped.addAll(workers.shutdownNow());
+        return dropped;
+    }
+    
+    /**
+     * @return {@code true} if all the started requests completed before the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        dispatcher.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        return !dispatcher.isAlive()
+            && workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+    
+    @SuppressWarnings("serial")
+    public Map<String, Object> getMetrics()
+    {
+        final int queuedTasks;
+        final int busyWorkers;
+        lock.lock();
+        try
+        {
+            int queued = 0;
+            for (FlowQueue flow : activeFlows)
+            {
+                queued += flow.tasks.size();
+            }
+            queuedTasks = queued;
+            busyWorkers = workers.getMaximumPoolSize() - idleWorkers;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return new HashMap<String, Object>()
+        {
+            {
+                put("SendScheduler.SendingThreads", workers.getMaximumPoolSize());
+                put("SendScheduler.BusySendingThreads", busyWorkers);
+                put("SendScheduler.QueuedSendTasks", queuedTasks);
+                put("SendScheduler.TotalRounds", totalRounds);
+                put("SendScheduler.TotalDispatchedSendTasks", totalDispatchedTasks);
+                put("SendScheduler.TotalRejectedSendTasks", totalRejectedTasks);
+            }
+        };
+    }
+    
+    private static final class Task
+    {
+        private final Runnable task;
+        
+        private final long costBytes;
+        
+        private final long queuedNanos = System.nanoTime();
+        
+        private Task(Runnable task, long costBytes)
+        {
+            this.task = task;
+            this.costBytes = costBytes;
+        }
+    }
+    
+    /**
+     * The send requests of one flow, waiting for their turn.
+     */
+    public final class FlowQueue
+    {
+        private final String flowId;
+        
+        private final int weight;
+        
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        
+        /**
+         * The bytes the flow can still send in the current round; guarded by the scheduler lock like the tasks
+         */
+        private long deficitBytes;
+        
+        private boolean credited;
+        
+        private final AtomicLong totalDispatchedTasks = new AtomicLong();
+        
+        private final AtomicLong totalDispatchedBytes = new AtomicLong();
+        
+        private final AtomicLong totalDeferredRounds = new AtomicLong();
+        
+        private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+        
+        private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+        
+        private FlowQueue(String flowId, int weight)
+        {
+            this.flowId = flowId;
+            this.weight = weight;
+        }
+        
+        /**
+         * @param task The send request
+         * @param sizeBytes The size of the buffer it sends
+         * @throws RejectedExecutionException if the flow already queued too many requests, or on shutdown
+         */
+        public void execute(Runnable task, long sizeBytes)
+        {
+            lock.lock();
+            try
+            {
+                if (shutdown || tasks.size() >= maxQueuedTasksPerFlow)
+                {
+                    totalRejectedTasks.incrementAndGet();
+                    throw new RejectedExecutionException(
+                        shutdown ? "Send scheduler shut down" : "Too many queued send tasks for flow " + flowId);
+                }
+                tasks.addLast(new Task(task, Math.max(1, sizeBytes)));
+                if (tasks.size() == 1)
+                {
+                    activeFlows.addLast(this);
+                    changed.signal();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        @SuppressWarnings("serial")
+        public Map<String, Object> getMetrics()
+        {
+            final int queuedTasks;
+            final long oldestQueuedNanos;
+            lock.lock();
+            try
+            {
+                queuedTasks = tasks.size();
+                oldestQueuedNanos = tasks.isEmpty() ? 0 : System.nanoTime() - tasks.peekFirst().queuedNanos;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            final long dispatched = totalDispatchedTasks.get();
+            return new HashMap<String, Object>()
+            {
+                {
+                    put("SendScheduler.Weight", weight);
+                    put("SendScheduler.QueuedSendTasks", queuedTasks);
+                    put("SendScheduler.OldestQueuedSendTaskAgeMillis",
+                        TimeUnit.NANOSECONDS.toMillis(oldestQueuedNanos));
+                    put("SendScheduler.TotalDispatchedSendTasks", totalDispatchedTasks);
+                    put("SendScheduler.TotalDispatchedBytes", totalDispatchedBytes);
+                    put("SendScheduler.TotalDeferredRounds", totalDeferredRounds);
+                    put("SendScheduler.MaxQueueWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos.get()));
+                    put("SendScheduler.AverageQueueWaitMillis",
+                        dispatched == 0 ? 0.0 : totalQueueWaitNanos.get() / 1e6 / dispatched);
+                }
+            };
+        }
+    }
+}
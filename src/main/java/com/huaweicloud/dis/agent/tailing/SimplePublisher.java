@@ -27,7 +27,7 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Core functionality of a publisher that buffers records into an {@link PublishingQueue} and sends them via an
+ * Core functionality of a publisher that buffers records into an {@link IPublishingQueue} and sends them via an
  * {@link ISender} instance synchronously.
  *
  * @param <R> The record type.
@@ -54,7 +54,7 @@ class SimplePublisher<R extends IRecord> implements IHeartbeatProvider
     final FileFlow<R> flow;
     
     @Getter
-    final PublishingQueue<R> queue;
+    final IPublishingQueue<R> queue;
     
     private final AtomicLong sendSuccess = new AtomicLong();
     
@@ -78,7 +78,9 @@ class SimplePublisher<R extends IRecord> implements IHeartbeatProvider
         this.logger = LoggerFactory.getLogger(getClass());
         this.agentContext = agentContext;
         this.flow = flow;
-        this.queue = new PublishingQueue<>(flow, flow.getPublishQueueCapacity());
+        this.queue = flow.getPublishQueueType() == FileFlow.PublishQueueType.LOCK_FREE
+            ? new LockFreePublishingQueue<>(flow, flow.getPublishQueueCapacity())
+            : new PublishingQueue<>(flow, flow.getPublishQueueCapacity());
         this.sender = sender;
         this.checkpointer = new Checkpointer<>(this.flow, checkpoints);
         this.name = getClass().getSimpleName() + "[" + flow.getId() + "]";
@@ -191,6 +193,7 @@ class SimplePublisher<R extends IRecord> implements IHeartbeatProvider
     {
         buffersDropped.incrementAndGet();
         logger.trace("{}:{} Buffer Dropped: {}", name(), reason, buffer);
+        buffer.release();
     }
     
     /**
@@ -205,28 +208,7 @@ class SimplePublisher<R extends IRecord> implements IHeartbeatProvider
         try
         {
             // 成功结果批量入库
-            Map<String, R> lastRecordMap = new LinkedHashMap<>();
-            Iterator<R> iterator = buffer.iterator();
-            R lastRecord = iterator.next();
-            String lastId = lastRecord.file().getId().getId();
-            while (iterator.hasNext())
-            {
-                R thisRecord = iterator.next();
-                String thisId = thisRecord.file().getId().getId();
-                if (!thisId.equals(lastId) && (lastRecordMap.get(lastId) == null
-                    || lastRecordMap.get(lastId).endOffset() < lastRecord.endOffset()))
-                {
-                    lastRecordMap.put(lastId, lastRecord);
-                }
-                lastRecord = thisRecord;
-                lastId = lastRecord.file().getId().getId();
-            }
-            if (lastRecordMap.get(lastId) == null || lastRecordMap.get(lastId).endOffset() < lastRecord.endOffset())
-            {
-                lastRecordMap.put(lastId, lastRecord);
-            }
-            
-            List<IRecord> iRecords = new ArrayList<>(lastRecordMap.values());
+            List<IRecord> iRecords = new ArrayList<IRecord>(buffer.lastRecordsPerFile());
             fileCleanPolicy(iRecords);
             checkpointer.saveCheckpoint(iRecords);
         }
@@ -234,6 +216,10 @@ class SimplePublisher<R extends IRecord> implements IHeartbeatProvider
         {
             logger.error("{}:{} Error in onSendSuccess", name(), buffer, e);
         }
+        finally
+        {
+            buffer.release();
+        }
     }
     
     /**
@@ -395,6 +381,14 @@ class SimplePublisher<R extends IRecord> implements IHeartbeatProvider
         return metrics;
     }
     
+    /**
+     * @see IPublishingQueue#getRecoveredOffsets()
+     */
+    public Map<FileId, Long> getRecoveredOffsets()
+    {
+        return queue.getRecoveredOffsets();
+    }
+    
     public boolean queueCurrentBuffer(R record, TrackedFile currentFile)
     {
         return queue.queueCurrentBuffer(record, currentFile);
@@ -52,9 +52,13 @@ public class SourceFile
             filePattern += "*";
         }
         
-        if (flow instanceof DISFileFlow)
+        if (flow instanceof DISFileFlow && flow.isCompressedInputEnabled())
         {
-            ignoredExtensions = ImmutableList.of(".gz", ".bz2", ".zip", ".tar");
+            ignoredExtensions = ImmutableList.of(".bz2", ".zip", ".tar");
+        }
+        else if (flow instanceof DISFileFlow)
+        {
+            ignoredExtensions = ImmutableList.of(".gz", ".zst", ".bz2", ".zip", ".tar");
         }
         else
         {
@@ -211,6 +215,12 @@ public class SourceFile
                     return false;
                 }
             }
+            // 压缩前的文件还存在时，说明压缩尚未完成，暂不采集压缩文件
+            if (TrackedFile.isCompressedFile(flow, file) && Files.exists(
+                file.resolveSibling(CompressedFileChannel.uncompressedFileName(file))))
+            {
+                return false;
+            }
             return true;
         }
         return false;
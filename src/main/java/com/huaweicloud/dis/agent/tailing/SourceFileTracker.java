@@ -17,6 +17,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Component responsible for tracking a collection source files specified by a {@link FileFlow}. It maintains an
@@ -205,12 +206,24 @@ public class SourceFileTracker
         currentOpenFileIndex = -1;
     }
     
-    public boolean initFormHistory()
+    /**
+     * @param recoveredOffsets The offsets to resume the files from if they're past their checkpoints, because the
+     *            records before them are queued already
+     */
+    public boolean initFormHistory(Map<FileId, Long> recoveredOffsets)
         throws IOException
     {
         TrackedFileList oldSnapshot = new TrackedFileList(checkpoints.getAllCheckpointForFlow(this.flow));
         if (!oldSnapshot.isEmpty())
         {
+            for (TrackedFile trackedFile : oldSnapshot)
+            {
+                Long recoveredOffset = recoveredOffsets.get(trackedFile.getId());
+                if (recoveredOffset != null && recoveredOffset > trackedFile.getLastOffset())
+                {
+                    trackedFile.setLastOffset(recoveredOffset);
+                }
+            }
             for (TrackedFile trackedFile : oldSnapshot)
             {
                 if (Files.exists(trackedFile.getPath()))
@@ -346,9 +359,22 @@ public class SourceFileTracker
                     }
                 }
                 
+                TrackedFile uncompressedFile = newTrackFile.isCompressed()
+                    ? findUncompressedCounterpart(newTrackFile, analyzer.getCurrentNoCounterparts()) : null;
+                if (uncompressedFile != null)
+                {
+                    // 压缩前的文件已被删除，从其采集位置继续采集压缩文件(位置为解压后的偏移量)
+                    long currentOffset =
+                        checkpoints.getOffsetForFileID(uncompressedFile.getFlow(), uncompressedFile.getId().toString());
+                    checkpoints.saveCheckpoint(newTrackFile, Math.min(currentOffset, newTrackFile.getSize()));
+                    newTrackFile.setLastOffset(Math.min(uncompressedFile.getCurrentOffset(), newTrackFile.getSize()));
+                    LOGGER.info("Find [Compressed] file. \n\tThe Current  file [{}]\n\tThe Previous file [{}]",
+                        newTrackFile,
+                        uncompressedFile);
+                }
                 // 找到唯一一个精确匹配 或者
                 // 只有一个新增文件+只有一个truncate文件+新文件不为空+旧文件当时的字节为0，则认为是CopyAndTruncate文件
-                if (copyAndTruncateTrackedFileList.size() == 1 || (truncateTrackedFileList.size() == 1
+                else if (copyAndTruncateTrackedFileList.size() == 1 || (truncateTrackedFileList.size() == 1
                     && noCounterpartsCount == 1 && newTrackFile.getHeaderBytesLength() != 0
                     && truncateTrackedFileList.get(0).getHeaderBytesLength() == 0))
                 {
@@ -494,6 +520,31 @@ public class SourceFileTracker
         return pendingFiles;
     }
     
+    /**
+     * Finds the file a newly appeared compressed file was compressed from (e.g. by logrotate), among the files that
+     * disappeared: an uncompressed file whose content is the beginning of the compressed file's content.
+     *
+     * @return The unique matching file, or {@code null} if there's none or several.
+     */
+    private TrackedFile findUncompressedCounterpart(TrackedFile compressedFile, List<TrackedFile> disappearedFiles)
+    {
+        TrackedFile counterpart = null;
+        for (TrackedFile disappearedFile : disappearedFiles)
+        {
+            if (!disappearedFile.isCompressed() && disappearedFile.getHeaderBytesLength() > 0
+                && compressedFile.isStartingSameAs(disappearedFile)
+                && disappearedFile.getSize() <= compressedFile.getSize())
+            {
+                if (counterpart != null)
+                {
+                    return null;
+                }
+                counterpart = disappearedFile;
+            }
+        }
+        return counterpart;
+    }
+    
     public boolean mustRefreshSnapshot()
     {
         try
@@ -523,7 +574,7 @@ public class SourceFileTracker
                     return true;
                 }
                 
-                long size = Files.size(trackedFile.getPath());
+                long size = TrackedFile.contentSize(flow, trackedFile.getPath());
                 if (size < trackedFile.getSize() || (size > trackedFile.getSize() && trackedFile != currentOpenFile))
                 {
                     LOGGER.debug("TrackedFile ({}) size change from {} to {}. Must refresh.",
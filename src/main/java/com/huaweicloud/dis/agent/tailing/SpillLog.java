@@ -0,0 +1,792 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * A local log where the record buffers of a flow are spilled once its publishing queue is full, so that the tailer
+ * keeps reading the files (which may be rotated away) while the destination is slow or unreachable.
+ * <p>
+ * Buffers are appended to segment files of spillSegmentSizeBytes, each memory-mapped for as long as it's used. An entry
+ * holds its length, the CRC32 of its content, the time it was spilled, the files its records come from (path, id and
+ * the attributes checkpoints keep) and the records of one buffer. Once buffers are spilled, all the following ones are
+ * spilled too, and they're replayed in order into the queue as it gets room; the replayed records are copied to the
+ * heap, as senders expect heap data. A segment is deleted once all its buffers were replayed and released, i.e. sent
+ * and checkpointed (or dropped while the log is open). Spilling fails, so the queue is full again, when the segments
+ * would take more than maxSpillBytes.
+ * <p>
+ * Segments outlive the agent: closing the log keeps them, and the next run replays the buffers of the segments left by
+ * the previous one before any new buffer, rebuilding the files of their records from the entries. As the checkpoints
+ * never moved past the spilled records, the tailer resumes each file after its last spilled record (see
+ * {@link #getRecoveredOffsets()}). The buffers of a kept segment that were sent already are sent again.
+ *
+ * @param <R> The record type.
+ */
+final class SpillLog<R extends IRecord>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillLog.class);
+    
+    private static final String SEGMENT_SUFFIX = ".spill";
+    
+    /**
+     * The length and CRC32 of an entry
+     */
+    private static final int ENTRY_HEADER_BYTES = 4 + 4;
+    
+    /**
+     * The spill time, number of files, checkpoint file and number of records of an entry
+     */
+    private static final int BUFFER_HEADER_BYTES = 8 + 4 + 4 + 4;
+    
+    /**
+     * The lengths of the path, id and header checksum, the last modified time, size and header length of a file
+     */
+    private static final int FILE_HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 4;
+    
+    /**
+     * The file, offset, length in the file and data length of a record
+     */
+    private static final int RECORD_HEADER_BYTES = 4 + 8 + 8 + 4;
+    
+    /**
+     * Whether the buffer could be queued in memory, or was spilled, or neither.
+     */
+    static enum Outcome
+    {
+        QUEUED, SPILLED, FULL
+    }
+    
+    private final FileFlow<R> flow;
+    
+    private final Path directory;
+    
+    private final long maxSpillBytes;
+    
+    private final int segmentSizeBytes;
+    
+    /**
+     * The segments not deleted yet, oldest first
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    
+    /**
+     * The files the spilled records come from, by id and path, so that records restored from different entries share
+     * them
+     */
+    private final Map<String, TrackedFile> files = new HashMap<>();
+    
+    /**
+     * The end offset of the last record of each file in the segments left by the previous run
+     */
+    private final Map<FileId, Long> recoveredOffsets = new HashMap<>();
+    
+    private final CRC32 crc = new CRC32();
+    
+    private Segment writeSegment;
+    
+    private long nextSequence;
+    
+    private long segmentBytes;
+    
+    /**
+     * The next buffer to replay, restored but not accepted by the queue yet
+     */
+    private RecordBuffer<R> nextBuffer;
+    
+    /**
+     * The number of buffers spilled and not replayed yet
+     */
+    private volatile int pendingBuffers;
+    
+    private volatile boolean isOpen = true;
+    
+    private final AtomicLong totalBuffersSpilled = new AtomicLong();
+    
+    private final AtomicLong totalRecordsSpilled = new AtomicLong();
+    
+    private final AtomicLong totalBytesSpilled = new AtomicLong();
+    
+    private final AtomicLong totalBuffersReplayed = new AtomicLong();
+    
+    private final AtomicLong totalSpillRejections = new AtomicLong();
+    
+    private final AtomicLong totalCorruptedEntries = new AtomicLong();
+    
+    private final AtomicLong totalBuffersRecovered = new AtomicLong();
+    
+    /**
+     * @return The spill log of the flow, or {@code null} if it has no spillDirectory
+     */
+    static <R extends IRecord> SpillLog<R> forFlow(FileFlow<R> flow)
+    {
+        if (Strings.isNullOrEmpty(flow.getSpillDirectory()))
+        {
+            return null;
+        }
+        return new SpillLog<>(flow);
+    }
+    
+    private SpillLog(FileFlow<R> flow)
+    {
+        this.flow = flow;
+        this.maxSpillBytes = flow.getMaxSpillBytes();
+        this.segmentSizeBytes = flow.getSpillSegmentSizeBytes();
+        String id = flow.getId();
+        String name = id.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.length() > 100)
+        {
+            name = name.substring(0, 100);
+        }
+        this.directory = Paths.get(flow.getSpillDirectory(), name + "-" + Integer.toHexString(id.hashCode()));
+        try
+        {
+            Files.createDirectories(directory);
+            recover();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to use the spill directory " + directory, e);
+        }
+    }
+    
+    /**
+     * Takes over the segments left by the previous run, in order, their valid entries being replayed first.
+     */
+    private void recover()
+        throws IOException
+    {
+        List<Path> leftovers = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX))
+        {
+            for (Path leftover : stream)
+            {
+                leftovers.add(leftover);
+            }
+        }
+        // The names are zero-padded sequences
+        Collections.sort(leftovers);
+        for (Path leftover : leftovers)
+        {
+            String name = leftover.getFileName().toString();
+            long sequence;
+            try
+            {
+                sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                LOGGER.warn("{}: Ignoring unexpected file {} in the spill directory.", flow.getId(), leftover);
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            Segment segment = new Segment(leftover);
+            segments.addLast(segment);
+            segmentBytes += segment.capacity;
+            int position = 0;
+            while (position <= segment.capacity - ENTRY_HEADER_BYTES && segment.map.getInt(position) != 0)
+            {
+                ByteBuffer content = readEntry(segment, position);
+                if (content == null)
+                {
+                    LOGGER.error("{}: Corrupted entry at {} in spill segment {} of a previous run, the entries after "
+                        + "it are lost.", flow.getId(), position, leftover);
+                    totalCorruptedEntries.incrementAndGet();
+                    break;
+                }
+                recordOffsets(content);
+                position += ENTRY_HEADER_BYTES + content.remaining();
+                segment.entries++;
+            }
+            segment.writePosition = position;
+            segment.outstanding = segment.entries;
+            pendingBuffers += segment.entries;
+            totalBuffersRecovered.addAndGet(segment.entries);
+            if (segment.entries > 0)
+            {
+                LOGGER.info("{}: Replaying {} buffers of spill segment {} of a previous run.",
+                    flow.getId(),
+                    segment.entries,
+                    leftover);
+            }
+            deleteIfDone(segment);
+        }
+    }
+    
+    /**
+     * Keeps the end offset of the last record of each file of the entry.
+     */
+    private void recordOffsets(ByteBuffer content)
+    {
+        content = content.duplicate();
+        content.getLong();
+        int fileCount = content.getInt();
+        List<FileId> ids = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++)
+        {
+            getString(content);
+            ids.add(new FileId(getString(content)));
+            getString(content);
+            content.position(content.position() + 8 + 8 + 4);
+        }
+        content.getInt();
+        int records = content.getInt();
+        for (int i = 0; i < records; i++)
+        {
+            FileId id = ids.get(content.getInt());
+            long endOffset = content.getLong() + content.getLong();
+            int dataLength = content.getInt();
+            content.position(content.position() + dataLength);
+            Long recovered = recoveredOffsets.get(id);
+            if (recovered == null || recovered < endOffset)
+            {
+                recoveredOffsets.put(id, endOffset);
+            }
+        }
+    }
+    
+    /**
+     * @return The end offset of the last record of each file in the buffers spilled by the previous run, which are
+     *         replayed by this log: the tailer resumes the files after them rather than at their checkpoints
+     */
+    Map<FileId, Long> getRecoveredOffsets()
+    {
+        return Collections.unmodifiableMap(recoveredOffsets);
+    }
+    
+    /**
+     * @return {@code true} if spilled buffers are waiting to be replayed, so that new buffers must be spilled too
+     */
+    boolean hasPending()
+    {
+        return pendingBuffers > 0;
+    }
+    
+    /**
+     * Queues the buffer in memory, or spills it if memory is full or older buffers are spilled. A spilled buffer is
+     * released, and must not be used any more.
+     *
+     * @param memory Queues a buffer in memory, returning {@code false} if it's full
+     */
+    synchronized Outcome offer(RecordBuffer<R> buffer, Predicate<RecordBuffer<R>> memory)
+    {
+        if (pendingBuffers == 0 && memory.test(buffer))
+        {
+            return Outcome.QUEUED;
+        }
+        if (!isOpen || !append(buffer))
+        {
+            totalSpillRejections.incrementAndGet();
+            return Outcome.FULL;
+        }
+        buffer.release();
+        return Outcome.SPILLED;
+    }
+    
+    /**
+     * Moves the spilled buffers into memory, in order, as long as there's room.
+     *
+     * @param memory Queues a buffer in memory, returning {@code false} if it's full
+     * @return The number of buffers replayed
+     */
+    synchronized int replay(Predicate<RecordBuffer<R>> memory)
+    {
+        int replayed = 0;
+        while (isOpen && pendingBuffers > 0)
+        {
+            if (nextBuffer == null)
+            {
+                nextBuffer = restoreNext();
+                if (nextBuffer == null)
+                {
+                    continue;
+                }
+            }
+            if (!memory.test(nextBuffer))
+            {
+                break;
+            }
+            nextBuffer = null;
+            pendingBuffers--;
+            replayed++;
+        }
+        totalBuffersReplayed.addAndGet(replayed);
+        return replayed;
+    }
+    
+    /**
+     * Closes the segments, and keeps those with buffers not sent yet for the next run to replay them.
+     */
+    synchronized void close()
+    {
+        isOpen = false;
+        pendingBuffers = 0;
+        nextBuffer = null;
+        for (Segment segment : segments)
+        {
+            try
+            {
+                segment.channel.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.error("{}: Unable to close spill segment {}.", flow.getId(), segment.path, e);
+            }
+        }
+        segments.clear();
+        writeSegment = null;
+    }
+    
+    @SuppressWarnings("serial")
+    synchronized Map<String, Object> getMetrics()
+    {
+        long lagBytes = 0;
+        for (Segment segment : segments)
+        {
+            lagBytes += segment.writePosition - segment.readPosition;
+        }
+        Segment head = firstUnread();
+        final long replayLagBytes = lagBytes;
+        final long replayLagMillis = head == null ? 0
+            : Math.max(0, System.currentTimeMillis() - head.map.getLong(head.readPosition + ENTRY_HEADER_BYTES));
+        final long spilledBytes = segmentBytes;
+        final int spillSegments = segments.size();
+        return new HashMap<String, Object>()
+        {
+            {
+                put("SpillLog.SpilledBytes", spilledBytes);
+                put("SpillLog.SpillSegments", spillSegments);
+                put("SpillLog.PendingBuffers", pendingBuffers);
+                put("SpillLog.ReplayLagBytes", replayLagBytes);
+                put("SpillLog.ReplayLagMillis", replayLagMillis);
+                put("SpillLog.TotalBuffersSpilled", totalBuffersSpilled);
+                put("SpillLog.TotalRecordsSpilled", totalRecordsSpilled);
+                put("SpillLog.TotalBytesSpilled", totalBytesSpilled);
+                put("SpillLog.TotalBuffersReplayed", totalBuffersReplayed);
+                put("SpillLog.TotalSpillRejections", totalSpillRejections);
+                put("SpillLog.TotalCorruptedEntries", totalCorruptedEntries);
+                put("SpillLog.TotalBuffersRecovered", totalBuffersRecovered);
+            }
+        };
+    }
+    
+    /**
+     * @return {@code false} if the buffer would exceed the quota, or the segment could not be written
+     */
+    private boolean append(RecordBuffer<R> buffer)
+    {
+        // The files of the entry, by their index in it
+        Map<TrackedFile, Integer> fileIndices = new IdentityHashMap<>();
+        List<byte[][]> fileStrings = new ArrayList<>();
+        long length = BUFFER_HEADER_BYTES;
+        for (R record : buffer)
+        {
+            length += fileBytes(record.file(), fileIndices, fileStrings) + RECORD_HEADER_BYTES + record.dataLength();
+        }
+        length += fileBytes(buffer.checkpointFile(), fileIndices, fileStrings);
+        if (ENTRY_HEADER_BYTES + length > Integer.MAX_VALUE)
+        {
+            return false;
+        }
+        int entryBytes = ENTRY_HEADER_BYTES + (int)length;
+        if (writeSegment == null || writeSegment.capacity - writeSegment.writePosition < entryBytes)
+        {
+            int capacity = Math.max(segmentSizeBytes, entryBytes);
+            if (segmentBytes + capacity > maxSpillBytes)
+            {
+                return false;
+            }
+            Segment previous = writeSegment;
+            try
+            {
+                writeSegment = new Segment(nextSequence++, capacity);
+            }
+            catch (IOException e)
+            {
+                LOGGER.error("{}: Unable to create a spill segment in {}.", flow.getId(), directory, e);
+                return false;
+            }
+            segments.addLast(writeSegment);
+            segmentBytes += capacity;
+            if (previous != null)
+            {
+                deleteIfDone(previous);
+            }
+        }
+        Segment segment = writeSegment;
+        ByteBuffer entry = segment.map.duplicate();
+        entry.position(segment.writePosition + ENTRY_HEADER_BYTES);
+        entry.putLong(System.currentTimeMillis());
+        entry.putInt(fileIndices.size());
+        for (Map.Entry<TrackedFile, Integer> file : sortedByIndex(fileIndices))
+        {
+            byte[][] strings = fileStrings.get(file.getValue());
+            putBytes(entry, strings[0]);
+            putBytes(entry, strings[1]);
+            putBytes(entry, strings[2]);
+            entry.putLong(file.getKey().getLastModifiedTime());
+            entry.putLong(file.getKey().getSize());
+            entry.putInt(file.getKey().getHeaderBytesLength());
+            this.files.put(fileKey(file.getKey().getId(), file.getKey().getPath()), file.getKey());
+        }
+        entry.putInt(fileIndices.get(buffer.checkpointFile()));
+        entry.putInt(buffer.sizeRecords());
+        for (R record : buffer)
+        {
+            ByteBuffer data = record.data();
+            entry.putInt(fileIndices.get(record.file()));
+            entry.putLong(record.startOffset());
+            entry.putLong(record.endOffset() - record.startOffset());
+            entry.putInt(data.remaining());
+            entry.put(data.duplicate());
+        }
+        ByteBuffer content = segment.map.duplicate();
+        content.limit(entry.position()).position(segment.writePosition + ENTRY_HEADER_BYTES);
+        crc.reset();
+        crc.update(content);
+        // The length last, so that an entry interrupted by a crash ends the segment
+        segment.map.putInt(segment.writePosition + 4, (int)crc.getValue());
+        segment.map.putInt(segment.writePosition, (int)length);
+        segment.writePosition += entryBytes;
+        segment.entries++;
+        segment.outstanding++;
+        pendingBuffers++;
+        totalBuffersSpilled.incrementAndGet();
+        totalRecordsSpilled.addAndGet(buffer.sizeRecords());
+        totalBytesSpilled.addAndGet(entryBytes);
+        return true;
+    }
+    
+    /**
+     * Adds the file to the files of the entry if it's not part of them yet.
+     *
+     * @return The bytes the file takes in the entry, 0 if it's already part of it
+     */
+    private static int fileBytes(TrackedFile file, Map<TrackedFile, Integer> fileIndices, List<byte[][]> fileStrings)
+    {
+        if (fileIndices.containsKey(file))
+        {
+            return 0;
+        }
+        fileIndices.put(file, fileIndices.size());
+        String headerChecksum = file.getHeaderBytes() == null ? file.getSha256HeaderStr()
+            : DigestUtils.sha256Hex(file.getHeaderBytes());
+        byte[][] strings = {file.getPath().toString().getBytes(StandardCharsets.UTF_8),
+            file.getId().toString().getBytes(StandardCharsets.UTF_8),
+            headerChecksum == null ? null : headerChecksum.getBytes(StandardCharsets.UTF_8)};
+        fileStrings.add(strings);
+        return FILE_HEADER_BYTES + strings[0].length + strings[1].length
+            + (strings[2] == null ? 0 : strings[2].length);
+    }
+    
+    private static List<Map.Entry<TrackedFile, Integer>> sortedByIndex(Map<TrackedFile, Integer> fileIndices)
+    {
+        List<Map.Entry<TrackedFile, Integer>> files = new ArrayList<>(fileIndices.entrySet());
+        Collections.sort(files, (a, b) -> Integer.compare(a.getValue(), b.getValue()));
+        return files;
+    }
+    
+    private static void putBytes(ByteBuffer entry, byte[] bytes)
+    {
+        if (bytes == null)
+        {
+            entry.putInt(-1);
+            return;
+        }
+        entry.putInt(bytes.length);
+        entry.put(bytes);
+    }
+    
+    private static String getString(ByteBuffer content)
+    {
+        int length = content.getInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        String string = new String(content.array(), content.arrayOffset() + content.position(), length,
+            StandardCharsets.UTF_8);
+        content.position(content.position() + length);
+        return string;
+    }
+    
+    private static String fileKey(FileId id, Path path)
+    {
+        return id + "\n" + path;
+    }
+    
+    /**
+     * @return A heap copy of the content of the entry at the given position, or {@code null} if it's corrupted
+     */
+    private ByteBuffer readEntry(Segment segment, int position)
+    {
+        int length = segment.map.getInt(position);
+        int checksum = segment.map.getInt(position + 4);
+        if (length < BUFFER_HEADER_BYTES || length > segment.capacity - position - ENTRY_HEADER_BYTES)
+        {
+            return null;
+        }
+        ByteBuffer entry = segment.map.duplicate();
+        entry.limit(position + ENTRY_HEADER_BYTES + length).position(position + ENTRY_HEADER_BYTES);
+        // Copied before it's checked, so that the checked bytes are the ones restored
+        byte[] content = new byte[length];
+        entry.get(content);
+        crc.reset();
+        crc.update(content, 0, length);
+        return (int)crc.getValue() == checksum ? ByteBuffer.wrap(content) : null;
+    }
+    
+    /**
+     * @return The next spilled buffer, or {@code null} if the entry was corrupted
+     */
+    private RecordBuffer<R> restoreNext()
+    {
+        final Segment segment = firstUnread();
+        Preconditions.checkState(segment != null, "No spilled buffer left to replay");
+        int position = segment.readPosition;
+        if (segment.map.getInt(position) > segment.writePosition - position - ENTRY_HEADER_BYTES)
+        {
+            onCorrupted(segment, "invalid length " + segment.map.getInt(position));
+            return null;
+        }
+        ByteBuffer entry = readEntry(segment, position);
+        if (entry == null)
+        {
+            onCorrupted(segment, "checksum mismatch");
+            return null;
+        }
+        int length = entry.remaining();
+        RecordBuffer<R> buffer = flow.newRecordBuffer();
+        try
+        {
+            entry.getLong();
+            int fileCount = entry.getInt();
+            List<TrackedFile> entryFiles = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++)
+            {
+                Path path = Paths.get(getString(entry));
+                FileId id = new FileId(getString(entry));
+                String headerChecksum = getString(entry);
+                long lastModifiedTime = entry.getLong();
+                long size = entry.getLong();
+                int headerLength = entry.getInt();
+                TrackedFile file = files.get(fileKey(id, path));
+                if (file == null)
+                {
+                    // A file of the previous run
+                    file = new TrackedFile(flow, path, id, lastModifiedTime, size, 0, headerLength, null,
+                        headerChecksum);
+                    files.put(fileKey(id, path), file);
+                }
+                entryFiles.add(file);
+            }
+            TrackedFile checkpointFile = entryFiles.get(entry.getInt());
+            int records = entry.getInt();
+            for (int i = 0; i < records; i++)
+            {
+                TrackedFile file = entryFiles.get(entry.getInt());
+                long offset = entry.getLong();
+                long totalLength = entry.getLong();
+                int dataLength = entry.getInt();
+                // A view of the heap copy of the entry
+                ByteBuffer data = entry.slice();
+                data.limit(dataLength);
+                entry.position(entry.position() + dataLength);
+                buffer.add(flow.restoreRecord(file, offset, totalLength, data));
+            }
+            buffer.setTrackedFile(checkpointFile);
+        }
+        catch (RuntimeException e)
+        {
+            LOGGER.error("{}: Unable to restore a spilled buffer.", flow.getId(), e);
+            onCorrupted(segment, e.getMessage());
+            return null;
+        }
+        segment.readPosition += ENTRY_HEADER_BYTES + length;
+        segment.entries--;
+        buffer.setReleaseListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                onReleased(segment);
+            }
+        });
+        return buffer;
+    }
+    
+    private synchronized void onReleased(Segment segment)
+    {
+        if (!isOpen)
+        {
+            // Dropped or sent while stopping: the segment is kept and replayed by the next run
+            return;
+        }
+        segment.outstanding--;
+        deleteIfDone(segment);
+    }
+    
+    /**
+     * Skips the rest of the segment, as its entries can't be trusted any more.
+     */
+    private void onCorrupted(Segment segment, String reason)
+    {
+        LOGGER.error("{}: Corrupted spill segment {} ({}), {} spilled buffers are lost.",
+            flow.getId(),
+            segment.path,
+            reason,
+            segment.entries);
+        totalCorruptedEntries.addAndGet(segment.entries);
+        pendingBuffers -= segment.entries;
+        segment.outstanding -= segment.entries;
+        segment.entries = 0;
+        segment.readPosition = segment.writePosition;
+        // Nothing is appended after a corrupted entry
+        writeSegment = segment == writeSegment ? null : writeSegment;
+        deleteIfDone(segment);
+    }
+    
+    private Segment firstUnread()
+    {
+        for (Segment segment : segments)
+        {
+            if (segment.entries > 0)
+            {
+                return segment;
+            }
+        }
+        return null;
+    }
+    
+    private void deleteIfDone(Segment segment)
+    {
+        if (segment.entries == 0 && segment.outstanding <= 0)
+        {
+            delete(segment);
+        }
+        if (segments.isEmpty())
+        {
+            // No spilled record refers to the files any more
+            files.clear();
+        }
+    }
+    
+    private void delete(Segment segment)
+    {
+        if (!segments.remove(segment))
+        {
+            return;
+        }
+        segmentBytes -= segment.capacity;
+        if (segment == writeSegment)
+        {
+            writeSegment = null;
+        }
+        try
+        {
+            // The restored records are heap copies, none refers to the mapping
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("{}: Unable to delete spill segment {}.", flow.getId(), segment.path, e);
+        }
+    }
+    
+    /**
+     * A memory-mapped segment file
+     */
+    private final class Segment
+    {
+        private final Path path;
+        
+        private final FileChannel channel;
+        
+        private final MappedByteBuffer map;
+        
+        private final int capacity;
+        
+        private int writePosition;
+        
+        private int readPosition;
+        
+        /**
+         * The number of entries not replayed yet
+         */
+        private int entries;
+        
+        /**
+         * The number of buffers spilled in the segment and not released yet
+         */
+        private int outstanding;
+        
+        Segment(long sequence, int capacity)
+            throws IOException
+        {
+            this.path = directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+            this.capacity = capacity;
+            this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            try
+            {
+                this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                Files.deleteIfExists(path);
+                throw e;
+            }
+        }
+        
+        /**
+         * Opens a segment left by a previous run, which nothing is appended to any more.
+         */
+        Segment(Path path)
+            throws IOException
+        {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try
+            {
+                long size = channel.size();
+                Preconditions.checkState(size <= Integer.MAX_VALUE, "Spill segment %s is too large", path);
+                this.capacity = (int)size;
+                this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.huaweicloud.dis.agent.tailing;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -44,6 +45,12 @@ public class TrackedFile
     @Getter
     protected final long size;
     
+    /**
+     * 是否为压缩文件（gzip或zstd），压缩文件的大小与偏移量均为解压后的值
+     */
+    @Getter
+    protected final boolean compressed;
+    
     @Getter
     protected FileChannel channel;
     
@@ -91,13 +98,26 @@ public class TrackedFile
         this.channel = null;
         this.lastModifiedTime = lastModifiedTime;
         this.size = size;
+        this.compressed = isCompressedFile(flow, path);
         if (Files.exists(path))
         {
             this.headerBytes = new byte[flow.getHeaderBytesLength()];
             
-            try (InputStream fi = Files.newInputStream(path))
+            if (compressed)
+            {
+                // 压缩文件使用解压后的文件头，以便与压缩前的文件比较
+                try (InputStream fi = CompressedFileChannel.newInputStream(path))
+                {
+                    int length = ByteStreams.read(fi, headerBytes, 0, headerBytes.length);
+                    this.headerBytesLength = length == 0 && headerBytes.length > 0 ? -1 : length;
+                }
+            }
+            else
             {
-                this.headerBytesLength = fi.read(headerBytes);
+                try (InputStream fi = Files.newInputStream(path))
+                {
+                    this.headerBytesLength = fi.read(headerBytes);
+                }
             }
             
             if (headerBytesLength > 0)
@@ -128,6 +148,7 @@ public class TrackedFile
         this.channel = null;
         this.lastModifiedTime = lastModifiedTime;
         this.size = size;
+        this.compressed = isCompressedFile(flow, path);
         this.lastOffset = offset;
         this.headerBytesLength = headerBytesLength;
         this.headerBytes = headerBytes;
@@ -137,7 +158,25 @@ public class TrackedFile
     public TrackedFile(FileFlow<?> flow, Path path)
         throws IOException
     {
-        this(flow, path, FileId.get(path), Files.getLastModifiedTime(path).toMillis(), Files.size(path));
+        this(flow, path, FileId.get(path), Files.getLastModifiedTime(path).toMillis(), contentSize(flow, path));
+    }
+    
+    /**
+     * @return {@code true} if the file is read through {@link CompressedFileChannel}, i.e. it's a gzip or zstd file
+     *         and the flow has compressed input enabled.
+     */
+    public static boolean isCompressedFile(FileFlow<?> flow, Path path)
+    {
+        return flow != null && flow.isCompressedInputEnabled() && CompressedFileChannel.isCompressedFile(path);
+    }
+    
+    /**
+     * @return The size of the content of the file, which is the uncompressed size for compressed files.
+     */
+    public static long contentSize(FileFlow<?> flow, Path path)
+        throws IOException
+    {
+        return isCompressedFile(flow, path) ? flow.getCompressedFileIndexes().uncompressedSize(path) : Files.size(path);
     }
     
     protected TrackedFile(TrackedFile original)
@@ -181,7 +220,7 @@ public class TrackedFile
     public long getCurrentSize()
         throws IOException
     {
-        return channel == null ? (Files.exists(path) ? Files.size(path) : 0) : channel.size();
+        return channel == null ? (Files.exists(path) ? contentSize(flow, path) : 0) : channel.size();
     }
     
     public long getRemainingBytes()
@@ -195,13 +234,35 @@ public class TrackedFile
     {
         Preconditions.checkState(channel == null, "File already open.");
         Preconditions.checkArgument(offset >= 0, "Offset must be a non-negative number.");
-        channel = FileChannel.open(path, StandardOpenOption.READ);
+        // 压缩文件从检查点之前的同步点开始解压，而不是从头开始
+        channel = compressed ? CompressedFileChannel.open(path, flow.getCompressedFileIndexes())
+            : FileChannel.open(path, StandardOpenOption.READ);
         if (offset > 0)
         {
             channel.position(offset);
         }
     }
     
+    /**
+     * @return The sync points of the compressed file if they're known already, {@code null} if the file is not
+     *         compressed or hasn't been indexed.
+     */
+    public CompressedFileChannel.Index getCompressedIndex()
+    {
+        if (channel instanceof CompressedFileChannel && ((CompressedFileChannel)channel).getIndex() != null)
+        {
+            return ((CompressedFileChannel)channel).getIndex();
+        }
+        try
+        {
+            return compressed && Files.exists(path) ? flow.getCompressedFileIndexes().cachedIndex(path) : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+    
     /**
      * Closes the channel that's open to this file.
      */
@@ -0,0 +1,257 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.zip.ZipException;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * A {@link CompressedFileChannel} over a zstd file, whose sync points are the starts of its frames. The frame
+ * boundaries are found by walking the frame and block headers, and each frame is decoded on its own by zstd-jni.
+ */
+public class ZstdFileChannel extends CompressedFileChannel
+{
+    private static final int FRAME_MAGIC = 0xfd2fb528;
+    
+    private static final int SKIPPABLE_FRAME_MAGIC = 0x184d2a50;
+    
+    private static final int SKIPPABLE_FRAME_MAGIC_MASK = 0xfffffff0;
+    
+    private static final int[] DICTIONARY_ID_SIZES = {0, 1, 2, 4};
+    
+    private static final int[] CONTENT_SIZE_SIZES = {0, 2, 4, 8};
+    
+    private static final int RLE_BLOCK = 1;
+    
+    private static final int RESERVED_BLOCK = 3;
+    
+    private final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    
+    /**
+     * The compressed offset of the next frame
+     */
+    private long nextFrameOffset;
+    
+    private ZstdInputStream frame;
+    
+    ZstdFileChannel(Path path, Index index)
+        throws IOException
+    {
+        super(path, index);
+    }
+    
+    @Override
+    protected int decode(ByteBuffer dst)
+        throws IOException
+    {
+        while (true)
+        {
+            if (frame == null && !openNextFrame())
+            {
+                return -1;
+            }
+            int bytes;
+            if (dst.hasArray())
+            {
+                bytes = frame.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (bytes > 0)
+                {
+                    dst.position(dst.position() + bytes);
+                }
+            }
+            else
+            {
+                byte[] scratch = scratch();
+                bytes = frame.read(scratch, 0, Math.min(scratch.length, dst.remaining()));
+                if (bytes > 0)
+                {
+                    dst.put(scratch, 0, bytes);
+                }
+            }
+            if (bytes > 0)
+            {
+                return bytes;
+            }
+            if (bytes < 0)
+            {
+                releaseDecoder();
+            }
+        }
+    }
+    
+    @Override
+    protected void restart(long compressedOffset)
+        throws IOException
+    {
+        releaseDecoder();
+        nextFrameOffset = compressedOffset;
+    }
+    
+    @Override
+    protected void releaseDecoder()
+        throws IOException
+    {
+        if (frame != null)
+        {
+            try
+            {
+                frame.close();
+            }
+            finally
+            {
+                frame = null;
+            }
+        }
+    }
+    
+    /**
+     * Skips the skippable frames up to the next frame and starts decoding it.
+     *
+     * @return {@code false} if there is no other frame in the file.
+     */
+    private boolean openNextFrame()
+        throws IOException
+    {
+        long size = source.size();
+        while (nextFrameOffset < size)
+        {
+            long frameOffset = nextFrameOffset;
+            int magic = readInt(frameOffset);
+            if ((magic & SKIPPABLE_FRAME_MAGIC_MASK) == SKIPPABLE_FRAME_MAGIC)
+            {
+                nextFrameOffset = checkWithinFile(frameOffset + 8 + (readInt(frameOffset + 4) & 0xffffffffL));
+                continue;
+            }
+            if (magic != FRAME_MAGIC)
+            {
+                throw new ZipException((frameOffset == 0 ? "Not in zstd format: " : "Corrupt zstd frame in ") + path);
+            }
+            nextFrameOffset = frameEnd(frameOffset);
+            onSyncPoint(frameOffset);
+            frame = new ZstdInputStream(new FrameInputStream(frameOffset, nextFrameOffset));
+            return true;
+        }
+        if (size == 0)
+        {
+            throw new EOFException("Empty zstd file " + path);
+        }
+        return false;
+    }
+    
+    /**
+     * @return The compressed offset following the frame starting at the given offset.
+     */
+    private long frameEnd(long frameOffset)
+        throws IOException
+    {
+        int descriptor = readBytes(frameOffset + 4, 1) & 0xff;
+        int contentSizeFlag = descriptor >>> 6;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        boolean checksum = (descriptor & 0x04) != 0;
+        int contentSizeSize = contentSizeFlag == 0 && singleSegment ? 1 : CONTENT_SIZE_SIZES[contentSizeFlag];
+        long offset = frameOffset + 5 + (singleSegment ? 0 : 1) + DICTIONARY_ID_SIZES[descriptor & 0x03]
+            + contentSizeSize;
+        boolean lastBlock;
+        do
+        {
+            int blockHeader = readBytes(offset, 3);
+            lastBlock = (blockHeader & 1) != 0;
+            int blockType = (blockHeader >>> 1) & 0x03;
+            int blockSize = blockHeader >>> 3;
+            if (blockType == RESERVED_BLOCK)
+            {
+                throw new ZipException("Corrupt zstd block in " + path);
+            }
+            offset = checkWithinFile(offset + 3 + (blockType == RLE_BLOCK ? 1 : blockSize));
+        } while (!lastBlock);
+        return checkWithinFile(offset + (checksum ? 4 : 0));
+    }
+    
+    private long checkWithinFile(long offset)
+        throws IOException
+    {
+        if (offset > source.size())
+        {
+            throw new EOFException("Unexpected end of zstd file " + path);
+        }
+        return offset;
+    }
+    
+    private int readInt(long offset)
+        throws IOException
+    {
+        return readBytes(offset, 4);
+    }
+    
+    /**
+     * @return The given number of bytes (at most 4) at the given offset, as a little-endian number.
+     */
+    private int readBytes(long offset, int count)
+        throws IOException
+    {
+        header.clear();
+        header.putLong(0, 0);
+        header.limit(count);
+        while (header.hasRemaining())
+        {
+            if (source.read(header, offset + header.position()) < 0)
+            {
+                throw new EOFException("Unexpected end of zstd file " + path);
+            }
+        }
+        header.clear();
+        return header.getInt(0);
+    }
+    
+    /**
+     * The compressed bytes of one frame, read with positional reads so the channel position is left untouched.
+     */
+    private class FrameInputStream extends InputStream
+    {
+        private long offset;
+        
+        private final long end;
+        
+        private FrameInputStream(long offset, long end)
+        {
+            this.offset = offset;
+            this.end = end;
+        }
+        
+        @Override
+        public int read()
+            throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            if (offset >= end)
+            {
+                return -1;
+            }
+            int bytes = source.read(ByteBuffer.wrap(b, off, (int)Math.min(len, end - offset)), offset);
+            if (bytes < 0)
+            {
+                throw new EOFException("Unexpected end of zstd file " + path);
+            }
+            offset += bytes;
+            return bytes;
+        }
+        
+        @Override
+        public int available()
+        {
+            return (int)Math.min(Integer.MAX_VALUE, end - offset);
+        }
+    }
+}
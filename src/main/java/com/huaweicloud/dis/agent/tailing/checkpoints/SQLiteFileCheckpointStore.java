@@ -3,6 +3,7 @@ package com.huaweicloud.dis.agent.tailing.checkpoints;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.huaweicloud.dis.agent.AgentContext;
+import com.huaweicloud.dis.agent.tailing.CompressedFileChannel;
 import com.huaweicloud.dis.agent.tailing.FileFlow;
 import com.huaweicloud.dis.agent.tailing.FileId;
 import com.huaweicloud.dis.agent.tailing.TrackedFile;
@@ -23,9 +24,12 @@ import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Checkpoint store backed by a SQLite database file. This class is thread-safe.
+ * <p>
+ * Along with the checkpoint of a compressed file, it keeps the sync point before the checkpoint, so that the file is
+ * not decoded from the start again after a restart (see {@link CompressedFileChannel.SyncPointStore}).
  */
 @ToString(exclude = {"agentContext", "connection"})
-public class SQLiteFileCheckpointStore implements FileCheckpointStore
+public class SQLiteFileCheckpointStore implements FileCheckpointStore, CompressedFileChannel.SyncPointStore
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(SQLiteFileCheckpointStore.class);
 
@@ -149,6 +153,11 @@ public class SQLiteFileCheckpointStore implements FileCheckpointStore
                         + "       fileId text," + "       lastModifiedTime bigint," + "       size bigint,"
                         + "       offset bigint," + "       headerLength int," + "       headerString text,"
                         + "       lastUpdated datetime," + "       primary key (flow, fileId))");
+                statement.executeUpdate("create table if not exists FILE_SYNC_POINTS(" + "       flow text,"
+                    + "       fileId text," + "       lastModifiedTime bigint," + "       compressedSize bigint,"
+                    + "       uncompressedSize bigint," + "       compressedOffset bigint,"
+                    + "       uncompressedOffset bigint," + "       lastUpdated datetime,"
+                    + "       primary key (flow, fileId))");
             }
             catch (SQLException e)
             {
@@ -249,6 +258,7 @@ public class SQLiteFileCheckpointStore implements FileCheckpointStore
             {
                 LOGGER.trace("Updated database checkpoint: {}@{}", cp.getFile(), cp.getOffset());
             }
+            saveSyncPoints(Collections.singletonList(cp));
             connection.commit();
             return cp;
         }
@@ -365,6 +375,7 @@ public class SQLiteFileCheckpointStore implements FileCheckpointStore
                 }
             }
             
+            saveSyncPoints(fileCheckpoints);
             connection.commit();
             return true;
         }
@@ -389,6 +400,82 @@ public class SQLiteFileCheckpointStore implements FileCheckpointStore
         }
     }
     
+    /**
+     * Saves the sync point before each checkpoint of a compressed file, in the transaction of the checkpoints.
+     */
+    private void saveSyncPoints(List<FileCheckpoint> fileCheckpoints)
+        throws SQLException
+    {
+        @Cleanup
+        PreparedStatement insert = null;
+        for (FileCheckpoint cp : fileCheckpoints)
+        {
+            CompressedFileChannel.Index index = cp.getFile().getCompressedIndex();
+            if (index == null)
+            {
+                continue;
+            }
+            if (insert == null)
+            {
+                insert = connection.prepareStatement("insert or replace into FILE_SYNC_POINTS "
+                    + "values(?, ?, ?, ?, ?, ?, ?, strftime('%Y-%m-%d %H:%M:%f', 'now'))");
+            }
+            long[] syncPoint = index.syncPointBefore(cp.getOffset());
+            insert.setString(1, cp.getFile().getFlow().getId());
+            insert.setString(2, cp.getFile().getId().toString());
+            insert.setLong(3, cp.getFile().getLastModifiedTime());
+            insert.setLong(4, index.getCompressedSize());
+            insert.setLong(5, index.getUncompressedSize());
+            insert.setLong(6, syncPoint[0]);
+            insert.setLong(7, syncPoint[1]);
+            insert.addBatch();
+        }
+        if (insert != null)
+        {
+            insert.executeBatch();
+        }
+    }
+    
+    @Override
+    public synchronized CompressedFileChannel.Index loadIndex(FileId fileId, long lastModifiedTime,
+        long compressedSize)
+    {
+        if (!ensureConnected())
+            return null;
+        try
+        {
+            // 同一文件可能被多个flow采集，合并各自的同步点
+            @Cleanup
+            PreparedStatement statement = connection.prepareStatement(
+                "select uncompressedSize, compressedOffset, uncompressedOffset from FILE_SYNC_POINTS "
+                    + "where fileId=? and lastModifiedTime=? and compressedSize=? order by uncompressedOffset");
+            statement.setString(1, fileId.toString());
+            statement.setLong(2, lastModifiedTime);
+            statement.setLong(3, compressedSize);
+            @Cleanup
+            ResultSet result = statement.executeQuery();
+            long uncompressedSize = -1;
+            List<long[]> syncPoints = new ArrayList<>();
+            syncPoints.add(new long[] {0, 0});
+            while (result.next())
+            {
+                uncompressedSize = result.getLong("uncompressedSize");
+                long[] syncPoint = {result.getLong("compressedOffset"), result.getLong("uncompressedOffset")};
+                if (syncPoint[1] > syncPoints.get(syncPoints.size() - 1)[1])
+                {
+                    syncPoints.add(syncPoint);
+                }
+            }
+            return uncompressedSize < 0 ? null
+                : new CompressedFileChannel.Index(compressedSize, uncompressedSize, syncPoints);
+        }
+        catch (SQLException e)
+        {
+            LOGGER.error("Failed when getting sync points for fileId {}", fileId, e);
+            return null;
+        }
+    }
+    
     @Override
     public long getOffsetForFileID(FileFlow<?> flow, String fileID)
     {
@@ -501,6 +588,13 @@ public class SQLiteFileCheckpointStore implements FileCheckpointStore
             PreparedStatement statement = connection.prepareStatement(query);
             statement.setQueryTimeout(dbQueryTimeoutSeconds);
             int affectedCount = statement.executeUpdate();
+            @Cleanup
+            PreparedStatement syncPoints = connection.prepareStatement(
+                "delete from FILE_SYNC_POINTS where not exists (select 1 from FILE_CHECKPOINTS "
+                    + "where FILE_CHECKPOINTS.flow=FILE_SYNC_POINTS.flow "
+                    + "and FILE_CHECKPOINTS.fileId=FILE_SYNC_POINTS.fileId)");
+            syncPoints.setQueryTimeout(dbQueryTimeoutSeconds);
+            syncPoints.executeUpdate();
             connection.commit();
             LOGGER.info("Deleted {} old checkpoints.", affectedCount);
         }
@@ -627,6 +721,18 @@ public class SQLiteFileCheckpointStore implements FileCheckpointStore
                 LOGGER.debug("delete checkpoint info {}.", trackedFile);
             }
             statement.executeBatch();
+            @Cleanup
+            PreparedStatement syncPoints = connection.prepareStatement(
+                "delete from FILE_SYNC_POINTS where flow=? and fileId=? and not exists (select 1 "
+                    + "from FILE_CHECKPOINTS where FILE_CHECKPOINTS.flow=FILE_SYNC_POINTS.flow "
+                    + "and FILE_CHECKPOINTS.fileId=FILE_SYNC_POINTS.fileId)");
+            for (TrackedFile trackedFile : trackedFileList)
+            {
+                syncPoints.setString(1, trackedFile.getFlow().getId());
+                syncPoints.setString(2, trackedFile.getId().toString());
+                syncPoints.addBatch();
+            }
+            syncPoints.executeBatch();
             connection.commit();
             LOGGER.info("Delete {} checkpoints", trackedFileList.size());
         }
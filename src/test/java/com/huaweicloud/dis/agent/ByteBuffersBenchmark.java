@@ -0,0 +1,101 @@
+package com.huaweicloud.dis.agent;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splits a chunk into lines with the word at a time scan of {@link ByteBuffers#advanceBufferToNextLine(ByteBuffer,
+ * char)} and with the byte at a time scan it replaced, for several distributions of line lengths. The score is the
+ * time to split the whole {@link #CHUNK_SIZE_BYTES} chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteBuffersBenchmark
+{
+    static final int CHUNK_SIZE_BYTES = 4 * 1024 * 1024;
+    
+    /**
+     * SHORT: 1-32 bytes, MIXED: 1-400 bytes, LONG: 1-4000 bytes, FIXED: 120 bytes
+     */
+    @Param({"SHORT", "MIXED", "LONG", "FIXED"})
+    public String lineLengths;
+    
+    @Param({"HEAP", "DIRECT"})
+    public String bufferType;
+    
+    private ByteBuffer chunk;
+    
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        chunk = "DIRECT".equals(bufferType) ? ByteBuffer.allocateDirect(CHUNK_SIZE_BYTES)
+            : ByteBuffer.allocate(CHUNK_SIZE_BYTES);
+        while (chunk.hasRemaining())
+        {
+            int length = Math.min(chunk.remaining(), nextLineLength(random));
+            for (int i = 0; i < length - 1; i++)
+            {
+                chunk.put((byte)(' ' + random.nextInt(95)));
+            }
+            chunk.put((byte)'\n');
+        }
+        chunk.flip();
+    }
+    
+    private int nextLineLength(Random random)
+    {
+        switch (lineLengths)
+        {
+            case "SHORT":
+                return 1 + random.nextInt(32);
+            case "MIXED":
+                return 1 + random.nextInt(400);
+            case "LONG":
+                return 1 + random.nextInt(4000);
+            default:
+                return 120;
+        }
+    }
+    
+    @Benchmark
+    public int wordAtATime()
+    {
+        chunk.rewind();
+        int lines = 0;
+        while (ByteBuffers.advanceBufferToNextLine(chunk, '\n') != -1)
+        {
+            lines++;
+        }
+        return lines;
+    }
+    
+    @Benchmark
+    public int byteAtATime()
+    {
+        chunk.rewind();
+        int lines = 0;
+        while (ByteBuffersTest.byteScanAdvanceToNextLine(chunk, '\n') != -1)
+        {
+            lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,142 @@
+package com.huaweicloud.dis.agent;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteBuffersTest
+{
+    private static final byte[] DELIMITERS = {'\n', '\r', '|', 0, 0x7F};
+    
+    @Test
+    public void testIndexOfSameAsByteScan()
+    {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++)
+        {
+            byte[] bytes = randomBytes(random, random.nextInt(100));
+            for (ByteBuffer buffer : views(bytes))
+            {
+                for (byte value : DELIMITERS)
+                {
+                    for (int from = 0; from <= bytes.length; from++)
+                    {
+                        for (int to = from; to <= bytes.length; to += 1 + random.nextInt(3))
+                        {
+                            assertEquals(byteScanIndexOf(bytes, from, to, value),
+                                ByteBuffers.indexOf(buffer, from, to, value));
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testIndexOfHighBitBytes()
+    {
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte)(0x80 + i);
+        }
+        for (ByteBuffer buffer : views(bytes))
+        {
+            for (int i = 0; i < bytes.length; i++)
+            {
+                assertEquals(i, ByteBuffers.indexOf(buffer, 0, bytes.length, bytes[i]));
+                // A set high bit must not be mistaken for a match of the byte without it
+                assertEquals(-1, ByteBuffers.indexOf(buffer, 0, bytes.length, (byte)(bytes[i] & 0x7F)));
+            }
+        }
+    }
+    
+    @Test
+    public void testAdvanceBufferToNextLineSameAsByteScan()
+    {
+        Random random = new Random(4);
+        for (int round = 0; round < 500; round++)
+        {
+            byte[] bytes = randomBytes(random, random.nextInt(300));
+            for (ByteBuffer buffer : views(bytes))
+            {
+                int start = random.nextInt(bytes.length + 1);
+                int limit = start + random.nextInt(bytes.length - start + 1);
+                for (char delimiter : new char[] {'\n', '|', 'é'})
+                {
+                    ByteBuffer expected = ByteBuffer.wrap(bytes);
+                    expected.limit(limit).position(start);
+                    buffer.limit(limit).position(start);
+                    while (true)
+                    {
+                        int expectedOffset = byteScanAdvanceToNextLine(expected, delimiter);
+                        assertEquals(expectedOffset, ByteBuffers.advanceBufferToNextLine(buffer, delimiter));
+                        assertEquals(expected.position(), buffer.position());
+                        if (expectedOffset == -1)
+                        {
+                            break;
+                        }
+                    }
+                }
+                buffer.clear();
+            }
+        }
+    }
+    
+    private static byte[] randomBytes(Random random, int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            // Mostly text, with the delimiters and some high bytes from time to time
+            int kind = random.nextInt(20);
+            bytes[i] = kind == 0 ? DELIMITERS[random.nextInt(DELIMITERS.length)]
+                : kind == 1 ? (byte)(0x80 | random.nextInt(0x80)) : (byte)('a' + random.nextInt(26));
+        }
+        return bytes;
+    }
+    
+    private static ByteBuffer[] views(byte[] bytes)
+    {
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).clear();
+        ByteBuffer littleEndian = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        // A view whose absolute indexes don't start at the beginning of the backing array
+        ByteBuffer padded = ByteBuffer.allocate(bytes.length + 3);
+        padded.position(3);
+        padded.put(bytes);
+        padded.position(3);
+        return new ByteBuffer[] {ByteBuffer.wrap(bytes), littleEndian, direct, padded.slice()};
+    }
+    
+    private static int byteScanIndexOf(byte[] bytes, int from, int to, byte value)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (bytes[i] == value)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * The byte at a time scan that {@link ByteBuffers#advanceBufferToNextLine(ByteBuffer, char)} replaced.
+     */
+    static int byteScanAdvanceToNextLine(ByteBuffer buffer, char delimiterChar)
+    {
+        while (buffer.hasRemaining())
+        {
+            if (buffer.get() == delimiterChar)
+            {
+                return buffer.position();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,125 @@
+package com.huaweicloud.dis.agent.processing.parsers;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory.LogFormat;
+
+/**
+ * Parses log entries of the pre-defined formats with their {@link FieldExtractor} and with the regex of the format,
+ * which is what {@link BaseLogParser} does when given the same pattern as matchPattern. The score is in lines per
+ * second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class LogParsersBenchmark
+{
+    private static final int LINES = 1000;
+    
+    private static final String[] METHODS = {"GET", "POST", "PUT"};
+    
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun"};
+    
+    @Param({"COMMONAPACHELOG", "COMBINEDAPACHELOG", "SYSLOG", "RFC3339SYSLOG"})
+    public LogFormat logFormat;
+    
+    private String[] lines;
+    
+    private BaseLogParser extractorParser;
+    
+    private BaseLogParser regexParser;
+    
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        boolean apache = logFormat == LogFormat.COMMONAPACHELOG || logFormat == LogFormat.COMBINEDAPACHELOG;
+        extractorParser = apache ? new ApacheLogParser(logFormat, null, null) : new SysLogParser(logFormat, null, null);
+        regexParser = apache
+            ? new ApacheLogParser(logFormat, extractorParser.getPattern(), extractorParser.getFields())
+            : new SysLogParser(logFormat, extractorParser.getPattern(), extractorParser.getFields());
+        
+        Random random = new Random(11);
+        lines = new String[LINES];
+        for (int i = 0; i < LINES; i++)
+        {
+            lines[i] = randomLine(random);
+            // The lines must take the extractor path, and give the same fields as the regex
+            if (extractorParser.extractFields(lines[i], extractorParser.getFields()) == null
+                || !extractorParser.parseLogRecord(lines[i], null).equals(regexParser.parseLogRecord(lines[i], null)))
+            {
+                throw new IllegalStateException("Line not extracted as the regex does: " + lines[i]);
+            }
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void extractor(Blackhole blackhole)
+        throws Exception
+    {
+        for (String line : lines)
+        {
+            blackhole.consume(extractorParser.parseLogRecord(line, null));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void regex(Blackhole blackhole)
+        throws Exception
+    {
+        for (String line : lines)
+        {
+            blackhole.consume(regexParser.parseLogRecord(line, null));
+        }
+    }
+    
+    private String randomLine(Random random)
+    {
+        switch (logFormat)
+        {
+            case COMMONAPACHELOG:
+                return apacheLine(random);
+            case COMBINEDAPACHELOG:
+                return apacheLine(random) + " \"http://www.example.com/start.html?id=" + random.nextInt(1000)
+                    + "\" \"Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)\"";
+            case SYSLOG:
+                return MONTHS[random.nextInt(MONTHS.length)] + " " + (10 + random.nextInt(18)) + " 12:"
+                    + (10 + random.nextInt(50)) + ":0" + random.nextInt(10) + " host" + random.nextInt(10) + " sshd["
+                    + random.nextInt(65536) + "]: Accepted publickey for user" + random.nextInt(100) + " from 10.0.0."
+                    + random.nextInt(256) + " port " + random.nextInt(65536) + " ssh2";
+            default:
+                return "2024-01-" + (10 + random.nextInt(18)) + "T12:" + (10 + random.nextInt(50)) + ":0"
+                    + random.nextInt(10) + ".123456+08:00 host" + random.nextInt(10) + " sshd[" + random.nextInt(65536)
+                    + "]: Accepted publickey for user" + random.nextInt(100) + " from 10.0.0." + random.nextInt(256)
+                    + " port " + random.nextInt(65536) + " ssh2";
+        }
+    }
+    
+    private static String apacheLine(Random random)
+    {
+        return "10.0." + random.nextInt(256) + "." + random.nextInt(256) + " - user" + random.nextInt(100) + " ["
+            + (10 + random.nextInt(18)) + "/Oct/2024:13:" + (10 + random.nextInt(50)) + ":36 -0700] \""
+            + METHODS[random.nextInt(METHODS.length)] + " /api/orders/" + random.nextInt(1000000)
+            + "?expand=items HTTP/1.1\" " + (random.nextBoolean() ? 200 : 404) + " " + random.nextInt(100000);
+    }
+}
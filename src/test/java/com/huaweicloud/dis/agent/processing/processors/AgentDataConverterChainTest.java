@@ -0,0 +1,266 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.processing.exceptions.BatchConversionException;
+import com.huaweicloud.dis.agent.processing.exceptions.DataConversionException;
+import com.huaweicloud.dis.agent.processing.interfaces.IDataConverter;
+import com.huaweicloud.dis.agent.processing.interfaces.IStreamingDataConverter;
+import com.huaweicloud.dis.agent.processing.utils.RecordOutput;
+
+public class AgentDataConverterChainTest
+{
+    @Test
+    public void testFailingRecordReportsConvertedRecords()
+        throws Exception
+    {
+        CountingConverter first = new CountingConverter("");
+        CountingConverter second = new CountingConverter("bad");
+        AgentDataConverterChain chain = new AgentDataConverterChain(first, second);
+        
+        try
+        {
+            chain.convertBatch(records("a", "skip", "bad", "b", "c"));
+            fail("The batch has a failing record");
+        }
+        catch (BatchConversionException e)
+        {
+            assertEquals(Arrays.asList("a!!", null), strings(e.getConverted()));
+            // The records after the failing one are converted too, so that the caller doesn't convert them again
+            assertEquals(Arrays.asList("a!!", null, null, "b!!", "c!!"), strings(e.getResults()));
+            assertEquals(Collections.singleton(2), e.getFailures().keySet());
+        }
+        // Each record goes through each converter once, the filtered one only through the first converter
+        assertEquals(5, first.calls);
+        assertEquals(4, second.calls);
+    }
+    
+    @Test
+    public void testChainCallsConvertBatchOfConverters()
+        throws Exception
+    {
+        BatchingConverter first = new BatchingConverter("");
+        BatchingConverter second = new BatchingConverter("bad");
+        AgentDataConverterChain chain = new AgentDataConverterChain(first, new CountingConverter(""), second);
+        
+        assertEquals(Arrays.asList("a?!?", "b?!?"), strings(chain.convertBatch(records("a", "b"))));
+        try
+        {
+            chain.convertBatch(records("a", "bad", "skip", "b"));
+            fail("The batch has a failing record");
+        }
+        catch (BatchConversionException e)
+        {
+            assertEquals(Arrays.asList("a?!?", null, null, "b?!?"), strings(e.getResults()));
+            assertEquals(Collections.singleton(1), e.getFailures().keySet());
+        }
+        // The whole batch is handed to each converter at once, less the record filtered out by the previous one, and
+        // the converter goes on after the failing record
+        assertEquals(Arrays.asList(2, 4), first.batchSizes);
+        assertEquals(Arrays.asList(2, 3, 1), second.batchSizes);
+    }
+    
+    @Test
+    public void testStreamingConvertersHandRecordsAlongInBatches()
+        throws Exception
+    {
+        StreamingConverter first = new StreamingConverter();
+        StreamingConverter second = new StreamingConverter();
+        BatchingConverter batching = new BatchingConverter("");
+        StreamingConverter third = new StreamingConverter();
+        AgentDataConverterChain chain = new AgentDataConverterChain(first, second, batching, third);
+        
+        // The results outlive the outputs the streaming converters wrote them into
+        assertEquals(Arrays.asList("a~~?~", "bc~~?~", "~~?~"), strings(chain.convertBatch(records("a", "bc", ""))));
+        assertEquals(3, first.records);
+        assertEquals(3, third.records);
+        assertEquals(Collections.singletonList(3), batching.batchSizes);
+    }
+    
+    @Test
+    public void testFailingBatchIsConvertedRecordByRecord()
+        throws Exception
+    {
+        BatchingConverter converter = new BatchingConverter("bad");
+        converter.failBatches = true;
+        AgentDataConverterChain chain = new AgentDataConverterChain(converter);
+        
+        try
+        {
+            chain.convertBatch(records("a", "bad", "b"));
+            fail("The batch has a failing record");
+        }
+        catch (BatchConversionException e)
+        {
+            assertEquals(Arrays.asList("a?", null, "b?"), strings(e.getResults()));
+            assertEquals(Collections.singleton(1), e.getFailures().keySet());
+        }
+        assertEquals(Collections.singletonList(3), converter.batchSizes);
+    }
+    
+    @Test
+    public void testDefaultBatchReportsConvertedRecords()
+        throws Exception
+    {
+        CountingConverter converter = new CountingConverter("bad");
+        try
+        {
+            converter.convertBatch(records("a", "b", "bad", "c"));
+            fail("The batch has a failing record");
+        }
+        catch (BatchConversionException e)
+        {
+            assertEquals(Arrays.asList("a!", "b!"), strings(e.getConverted()));
+        }
+        assertEquals(3, converter.calls);
+    }
+    
+    private static List<ByteBuffer> records(String... records)
+    {
+        List<ByteBuffer> data = new ArrayList<>();
+        for (String record : records)
+        {
+            data.add(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)));
+        }
+        return data;
+    }
+    
+    private static List<String> strings(List<ByteBuffer> data)
+    {
+        List<String> strings = new ArrayList<>();
+        for (ByteBuffer record : data)
+        {
+            strings.add(record == null ? null : StandardCharsets.UTF_8.decode(record.duplicate()).toString());
+        }
+        return strings;
+    }
+    
+    /**
+     * Appends "?" to the records and fails on the given record, in batches: it fails if it's called record by record
+     * with its batches converted successfully.
+     */
+    private static class BatchingConverter implements IDataConverter
+    {
+        private final String failing;
+        
+        private final List<Integer> batchSizes = new ArrayList<>();
+        
+        private boolean failBatches;
+        
+        BatchingConverter(String failing)
+        {
+            this.failing = failing;
+        }
+        
+        @Override
+        public List<ByteBuffer> convertBatch(List<ByteBuffer> data)
+            throws DataConversionException
+        {
+            batchSizes.add(data.size());
+            if (failBatches)
+            {
+                throw new DataConversionException("Cannot convert batches");
+            }
+            List<ByteBuffer> results = new ArrayList<>(data.size());
+            for (ByteBuffer record : data)
+            {
+                try
+                {
+                    results.add(append(record));
+                }
+                catch (DataConversionException e)
+                {
+                    throw new BatchConversionException(results, e);
+                }
+            }
+            return results;
+        }
+        
+        @Override
+        public ByteBuffer convert(ByteBuffer data)
+            throws DataConversionException
+        {
+            if (!failBatches)
+            {
+                throw new AssertionError("Records must be converted in batches");
+            }
+            return append(data);
+        }
+        
+        private ByteBuffer append(ByteBuffer data)
+            throws DataConversionException
+        {
+            String record = StandardCharsets.UTF_8.decode(data.duplicate()).toString();
+            if (!failing.isEmpty() && record.startsWith(failing))
+            {
+                throw new DataConversionException("Cannot convert " + record);
+            }
+            return ByteBuffer.wrap((record + "?").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    /**
+     * Appends "~" to the records in an output of the current thread: it fails if it's not called through
+     * {@link IStreamingDataConverter#convertTo(ByteBuffer)}.
+     */
+    private static class StreamingConverter implements IStreamingDataConverter
+    {
+        private int records;
+        
+        @Override
+        public RecordOutput convertTo(ByteBuffer data)
+        {
+            records++;
+            RecordOutput output = RecordOutput.acquire(data);
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            output.write(bytes, 0, bytes.length);
+            output.write('~');
+            return output;
+        }
+        
+        @Override
+        public ByteBuffer convert(ByteBuffer data)
+        {
+            throw new AssertionError("Records must be handed along in the outputs");
+        }
+    }
+    
+    /**
+     * Appends "!" to the records, filters out "skip" and fails on the given record.
+     */
+    private static class CountingConverter implements IDataConverter
+    {
+        private final String failing;
+        
+        private int calls;
+        
+        CountingConverter(String failing)
+        {
+            this.failing = failing;
+        }
+        
+        @Override
+        public ByteBuffer convert(ByteBuffer data)
+            throws DataConversionException
+        {
+            calls++;
+            String record = StandardCharsets.UTF_8.decode(data.duplicate()).toString();
+            if (!failing.isEmpty() && record.startsWith(failing))
+            {
+                throw new DataConversionException("Cannot convert " + record);
+            }
+            return record.startsWith("skip") ? null : ByteBuffer.wrap((record + "!").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
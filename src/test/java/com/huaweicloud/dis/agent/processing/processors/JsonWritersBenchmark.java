@@ -0,0 +1,207 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.huaweicloud.dis.agent.ByteBuffers;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.processing.interfaces.IDataConverter;
+import com.huaweicloud.dis.agent.processing.interfaces.IJSONPrinter;
+import com.huaweicloud.dis.agent.processing.interfaces.ILogParser;
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
+
+/**
+ * Converts records to JSON with the streaming converters ({@link BaseJSONDataConverter}) and with the way the
+ * converters used to do it: build a map, print it to a String with an {@link IJSONPrinter}, append the line break and
+ * encode the String. The score is the time per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class JsonWritersBenchmark
+{
+    private static final int RECORDS = 1000;
+    
+    private static final List<String> CSV_FIELDS =
+        Arrays.asList("time", "host", "level", "thread", "logger", "message", "user", "latency");
+    
+    @Param({"CSVTOJSON", "LOGTOJSON", "ADDMETADATA"})
+    public String optionName;
+    
+    private ByteBuffer[] records;
+    
+    private BaseJSONDataConverter converter;
+    
+    private IJSONPrinter printer;
+    
+    private ILogParser logParser;
+    
+    private Object metadata;
+    
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put("optionName", optionName);
+        Map<String, Object> metadataConfig = new LinkedHashMap<>();
+        metadataConfig.put("stream", "test-stream");
+        metadataConfig.put("host", "host-1");
+        switch (optionName)
+        {
+            case "CSVTOJSON":
+                config.put("customFieldNames", CSV_FIELDS);
+                config.put("delimiter", "\t");
+                converter = new CSVToJSONDataConverter(new Configuration(config));
+                break;
+            case "LOGTOJSON":
+                config.put(ProcessingUtilsFactory.LOGFORMAT_KEY, "COMMONAPACHELOG");
+                converter = new LogToJSONDataConverter(new Configuration(config));
+                logParser = ProcessingUtilsFactory.getLogParser(new Configuration(config));
+                break;
+            default:
+                config.put("metadata", metadataConfig);
+                converter = new AddMetadataConverter(new Configuration(config));
+                metadata = metadataConfig;
+                break;
+        }
+        printer = ProcessingUtilsFactory.getPrinter(new Configuration(config));
+        
+        Random random = new Random(9);
+        records = new ByteBuffer[RECORDS];
+        for (int i = 0; i < RECORDS; i++)
+        {
+            String record = "LOGTOJSON".equals(optionName) ? apacheLine(random) : csvLine(random);
+            records[i] = ByteBuffer.wrap((record + IDataConverter.NEW_LINE).getBytes(StandardCharsets.UTF_8));
+            // Both ways must produce the same bytes for the comparison to hold
+            if (!printedConvert(records[i].duplicate()).equals(converter.convert(records[i].duplicate())))
+            {
+                throw new IllegalStateException("Different JSON for record " + record);
+            }
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void streaming(Blackhole blackhole)
+        throws Exception
+    {
+        for (ByteBuffer record : records)
+        {
+            blackhole.consume(converter.convert(record.duplicate()));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void streamingWithoutCopy(Blackhole blackhole)
+        throws Exception
+    {
+        for (ByteBuffer record : records)
+        {
+            blackhole.consume(converter.convertTo(record.duplicate()));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void printedString(Blackhole blackhole)
+        throws Exception
+    {
+        for (ByteBuffer record : records)
+        {
+            blackhole.consume(printedConvert(record.duplicate()));
+        }
+    }
+    
+    /**
+     * The conversion of the converters before they wrote to a {@link com.fasterxml.jackson.core.JsonGenerator}.
+     */
+    private ByteBuffer printedConvert(ByteBuffer data)
+        throws Exception
+    {
+        String dataStr = ByteBuffers.toString(data, StandardCharsets.UTF_8);
+        boolean hasLineBreak = false;
+        if (dataStr.endsWith(IDataConverter.NEW_LINE))
+        {
+            hasLineBreak = true;
+            dataStr = dataStr.substring(0, (dataStr.length() - IDataConverter.NEW_LINE.length()));
+        }
+        
+        Map<String, Object> recordMap;
+        switch (optionName)
+        {
+            case "CSVTOJSON":
+                recordMap = new LinkedHashMap<String, Object>();
+                String[] columns = StringUtils.splitPreserveAllTokens(dataStr, "\t");
+                for (int i = 0; i < CSV_FIELDS.size(); i++)
+                {
+                    recordMap.put(CSV_FIELDS.get(i), i < columns.length ? columns[i] : null);
+                }
+                break;
+            case "LOGTOJSON":
+                recordMap = logParser.parseLogRecord(dataStr, null);
+                break;
+            default:
+                recordMap = new LinkedHashMap<String, Object>();
+                recordMap.put("metadata", metadata);
+                recordMap.put("data", dataStr);
+                break;
+        }
+        
+        String dataJson = printer.writeAsString(recordMap);
+        if (hasLineBreak)
+        {
+            dataJson += IDataConverter.NEW_LINE;
+        }
+        return ByteBuffer.wrap(dataJson.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String csvLine(Random random)
+    {
+        List<String> columns = new ArrayList<>();
+        columns.add("2024-01-15T12:00:" + (10 + random.nextInt(50)) + ".123Z");
+        columns.add("host-" + random.nextInt(100));
+        columns.add(random.nextBoolean() ? "INFO" : "WARN");
+        columns.add("pool-1-thread-" + random.nextInt(16));
+        columns.add("com.example.service.OrderService");
+        columns.add("order " + random.nextInt(1000000) + " accepted for \"customer\" " + random.nextInt(1000));
+        columns.add("user" + random.nextInt(10000));
+        columns.add(String.valueOf(random.nextInt(5000)));
+        return String.join("\t", columns);
+    }
+    
+    private static String apacheLine(Random random)
+    {
+        return "10.0." + random.nextInt(256) + "." + random.nextInt(256) + " - user" + random.nextInt(100)
+            + " [15/Jan/2024:12:00:" + (10 + random.nextInt(50)) + " +0800] \"GET /api/orders/"
+            + random.nextInt(1000000) + " HTTP/1.1\" " + (random.nextBoolean() ? 200 : 404) + " "
+            + random.nextInt(100000);
+    }
+}
@@ -0,0 +1,109 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
+import com.huaweicloud.dis.agent.processing.parsers.ApacheLogParser;
+import com.huaweicloud.dis.agent.processing.parsers.SysLogParser;
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory.LogFormat;
+
+public class LogToJSONDataConverterTest
+{
+    private static final String COMBINED_LOG_ENTRY = "192.168.1.10 - frank [10/Oct/2000:13:55:36 -0700] "
+        + "\"GET /apache_pb.gif HTTP/1.0\" 200 2326 \"http://example.com/start.html\" \"Mozilla/4.08\"";
+    
+    private static final String SYSLOG_ENTRY = "Mar  7 04:02:16 ip-10-0-0-1 sshd[5137]: Accepted publickey for root";
+    
+    @Test
+    public void testExtractedRecordSameAsParsedRecord()
+        throws Exception
+    {
+        ApacheLogParser apacheParser = new ApacheLogParser(LogFormat.COMBINEDAPACHELOG, null, null);
+        assertEquals(json(apacheParser.parseLogRecord(COMBINED_LOG_ENTRY, null)),
+            convert(newConverter("COMBINEDAPACHELOG", null, null), COMBINED_LOG_ENTRY));
+        
+        SysLogParser sysLogParser = new SysLogParser(LogFormat.SYSLOG, null, null);
+        assertEquals(json(sysLogParser.parseLogRecord(SYSLOG_ENTRY, null)),
+            convert(newConverter("SYSLOG", null, null), SYSLOG_ENTRY));
+    }
+    
+    @Test
+    public void testSelectedFields()
+        throws Exception
+    {
+        LogToJSONDataConverter converter =
+            newConverter("COMBINEDAPACHELOG", null, Arrays.asList("agent", "host", "ident", "response"));
+        assertEquals("{\"host\":\"192.168.1.10\",\"ident\":null,\"response\":\"200\",\"agent\":\"Mozilla/4.08\"}",
+            convert(converter, COMBINED_LOG_ENTRY));
+        // An absent field is written as null
+        assertEquals("{\"host\":\"192.168.1.10\",\"ident\":null,\"response\":\"200\",\"agent\":null}",
+            convert(converter, COMBINED_LOG_ENTRY.substring(0, COMBINED_LOG_ENTRY.lastIndexOf(' ')) + " \"-\""));
+    }
+    
+    @Test
+    public void testEmptyAndRepeatedFieldNames()
+        throws Exception
+    {
+        List<String> fields = Arrays.asList("time", "", "name", "", "name");
+        String extracted = convert(newConverter("SYSLOG", fields, null), SYSLOG_ENTRY);
+        
+        assertEquals("{\"time\":\"Mar  7 04:02:16\",\"\":\"5137\",\"name\":\"Accepted publickey for root\"}", extracted);
+        assertEquals(json(new SysLogParser(LogFormat.SYSLOG, null, fields).parseLogRecord(SYSLOG_ENTRY, fields)),
+            extracted);
+    }
+    
+    @Test
+    public void testLineBreakPreserved()
+        throws Exception
+    {
+        LogToJSONDataConverter converter = newConverter("SYSLOG", null, null);
+        assertEquals(convert(converter, SYSLOG_ENTRY) + "\n", convert(converter, SYSLOG_ENTRY + "\n"));
+    }
+    
+    @Test(expected = ConfigurationException.class)
+    public void testUnknownSelectedField()
+    {
+        newConverter("SYSLOG", null, Arrays.asList("timestamp", "facility"));
+    }
+    
+    private static LogToJSONDataConverter newConverter(String logFormat, List<String> customFields,
+        List<String> selectedFields)
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put("optionName", "LOGTOJSON");
+        config.put("logFormat", logFormat);
+        if (customFields != null)
+        {
+            config.put("customFieldNames", customFields);
+        }
+        if (selectedFields != null)
+        {
+            config.put("selectedFieldNames", selectedFields);
+        }
+        return new LogToJSONDataConverter(new Configuration(config));
+    }
+    
+    private static String convert(LogToJSONDataConverter converter, String entry)
+        throws Exception
+    {
+        ByteBuffer result = converter.convert(ByteBuffer.wrap(entry.getBytes(StandardCharsets.UTF_8)));
+        return StandardCharsets.UTF_8.decode(result).toString();
+    }
+    
+    private static String json(Map<String, Object> record)
+        throws Exception
+    {
+        return new ObjectMapper().writeValueAsString(record);
+    }
+}
@@ -0,0 +1,82 @@
+package com.huaweicloud.dis.agent.processing.processors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.config.Configuration;
+
+public class TimestampDataConverterTest
+{
+    @Test
+    public void testCachedTimestampWithVariableWidthLastField()
+        throws Exception
+    {
+        TimestampDataConverter converter = newConverter("yyyy/MM/dd HH:mm:s");
+        
+        assertEquals(millis(2024, 1, 1, 12, 0, 1, 0), eventTime(converter, "2024/01/01 12:00:1 started"));
+        // The cached "2024/01/01 12:00:1" is a prefix of the timestamp, which ends one digit later
+        assertEquals(millis(2024, 1, 1, 12, 0, 15, 0), eventTime(converter, "2024/01/01 12:00:15 running"));
+        assertEquals(millis(2024, 1, 1, 12, 0, 1, 0), eventTime(converter, "2024/01/01 12:00:1 stopped"));
+        assertEquals(millis(2024, 1, 1, 12, 0, 1, 0), eventTime(converter, "2024/01/01 12:00:1 stopped"));
+        assertEquals(1, metric(converter, "TotalTimestampCacheHits"));
+        assertEquals(4, metric(converter, "TotalRecordsTimestamped"));
+    }
+    
+    @Test
+    public void testCachedSecondWithFraction()
+        throws Exception
+    {
+        TimestampDataConverter converter = newConverter("yyyy-MM-dd HH:mm:ss.SSS");
+        
+        assertEquals(millis(2024, 1, 15, 12, 0, 1, 5), eventTime(converter, "2024-01-15 12:00:01.005 a"));
+        assertEquals(millis(2024, 1, 15, 12, 0, 1, 980), eventTime(converter, "2024-01-15 12:00:01.980 b"));
+        assertEquals(millis(2024, 1, 15, 12, 0, 2, 0), eventTime(converter, "2024-01-15 12:00:02.000 c"));
+        // A digit after a fixed width fraction is not parsed, with or without the cache
+        assertEquals(millis(2024, 1, 15, 12, 0, 2, 123), eventTime(converter, "2024-01-15 12:00:02.1234"));
+        assertEquals(1, metric(converter, "TotalTimestampCacheHits"));
+        
+        assertEquals(Long.MIN_VALUE, eventTime(converter, "not a timestamp"));
+        assertEquals(1, metric(converter, "TotalRecordsWithoutTimestamp"));
+    }
+    
+    private static TimestampDataConverter newConverter(String format)
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put("optionName", "TIMESTAMP");
+        config.put("timestampFormat", format);
+        config.put("timeZone", "UTC");
+        return new TimestampDataConverter(new Configuration(config));
+    }
+    
+    /**
+     * @return The event time the record was annotated with, or {@link Long#MIN_VALUE} if it was passed through
+     */
+    private static long eventTime(TimestampDataConverter converter, String record)
+        throws Exception
+    {
+        ByteBuffer data = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer converted = converter.convert(data);
+        return converted == data ? Long.MIN_VALUE : metric(converter, "LastEventTimeMillis");
+    }
+    
+    private static long metric(TimestampDataConverter converter, String name)
+    {
+        return ((AtomicLong)converter.getMetrics().get("TimestampDataConverter." + name)).get();
+    }
+    
+    private static long millis(int year, int month, int day, int hour, int minute, int second, int millis)
+    {
+        return LocalDateTime.of(year, month, day, hour, minute, second, millis * 1000000)
+            .toInstant(ZoneOffset.UTC)
+            .toEpochMilli();
+    }
+}
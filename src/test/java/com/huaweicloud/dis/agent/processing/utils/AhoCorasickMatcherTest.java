@@ -0,0 +1,134 @@
+package com.huaweicloud.dis.agent.processing.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AhoCorasickMatcherTest
+{
+    @Test
+    public void testOverlappingPatterns()
+    {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(patterns("he", "she", "his", "hers"));
+        
+        // "she" and "he" end at the same byte, before "hers"
+        assertEquals(0, find(matcher, "ushers"));
+        assertEquals(1, find(new AhoCorasickMatcher(patterns("hers", "she")), "ushers"));
+        assertEquals(0, find(matcher, "uhers"));
+        assertEquals(2, find(matcher, "this"));
+        assertEquals(-1, find(matcher, "hit list"));
+    }
+    
+    @Test
+    public void testLowestIndexWhenPatternsEndTogether()
+    {
+        // "ab" and "b" both end at the second byte, "b" through the failure link of "ab"
+        assertEquals(0, find(new AhoCorasickMatcher(patterns("ab", "b")), "xab"));
+        assertEquals(0, find(new AhoCorasickMatcher(patterns("b", "ab")), "xab"));
+        assertEquals(0, find(new AhoCorasickMatcher(patterns("b", "b")), "b"));
+        // The empty pattern matches before any byte
+        assertEquals(1, find(new AhoCorasickMatcher(patterns("a", "")), "a"));
+        assertEquals(-1, find(new AhoCorasickMatcher(new ArrayList<byte[]>()), "a"));
+    }
+    
+    @Test
+    public void testNonAsciiBytes()
+    {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(patterns("错误", "é"));
+        
+        assertEquals(0, find(matcher, "日志 错误 é"));
+        assertEquals(1, find(matcher, "é 错误"));
+        // A pattern must match whole characters, not bytes shared with other characters
+        assertEquals(-1, find(matcher, "错 误 e"));
+    }
+    
+    @Test
+    public void testSameAsNaiveSearch()
+    {
+        Random random = new Random(12);
+        for (int round = 0; round < 2000; round++)
+        {
+            List<byte[]> patterns = new ArrayList<>();
+            int count = 1 + random.nextInt(8);
+            for (int i = 0; i < count; i++)
+            {
+                patterns.add(randomBytes(random, 1 + random.nextInt(4)));
+            }
+            AhoCorasickMatcher matcher = new AhoCorasickMatcher(patterns);
+            byte[] input = randomBytes(random, random.nextInt(50));
+            int expected = naiveFind(patterns, input);
+            
+            assertEquals(expected, matcher.find(ByteBuffer.wrap(input)));
+            ByteBuffer direct = ByteBuffer.allocateDirect(input.length + 2);
+            direct.put((byte)0).put(input).put((byte)0).flip();
+            direct.position(1).limit(1 + input.length);
+            assertEquals(expected, matcher.find(direct));
+            byte[] padded = new byte[input.length + 2];
+            System.arraycopy(input, 0, padded, 1, input.length);
+            assertEquals(expected, matcher.find(ByteBuffer.wrap(padded, 1, input.length).slice()));
+            
+            int state = 0;
+            int stepped = matcher.matchAt(state);
+            for (int i = 0; i < input.length && stepped == -1; i++)
+            {
+                state = matcher.next(state, input[i]);
+                stepped = matcher.matchAt(state);
+            }
+            assertEquals(expected, stepped);
+        }
+    }
+    
+    /**
+     * @return The lowest index of the patterns ending at the first position where any pattern ends, or -1.
+     */
+    private static int naiveFind(List<byte[]> patterns, byte[] input)
+    {
+        for (int end = 0; end <= input.length; end++)
+        {
+            for (int i = 0; i < patterns.size(); i++)
+            {
+                byte[] pattern = patterns.get(i);
+                if (pattern.length <= end
+                    && Arrays.equals(pattern, Arrays.copyOfRange(input, end - pattern.length, end)))
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    private static byte[] randomBytes(Random random, int length)
+    {
+        // A small alphabet with a high-bit byte gives many overlaps
+        byte[] alphabet = {'a', 'b', 'c', (byte)0xE9};
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return bytes;
+    }
+    
+    private static int find(AhoCorasickMatcher matcher, String input)
+    {
+        return matcher.find(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    private static List<byte[]> patterns(String... patterns)
+    {
+        List<byte[]> bytes = new ArrayList<>();
+        for (String pattern : patterns)
+        {
+            bytes.add(pattern.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,164 @@
+package com.huaweicloud.dis.agent.processing.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.processing.processors.CSVToJSONDataConverter;
+
+public class CSVTokenizerTest
+{
+    private static final String[] FIELD_PARTS = {"a", "bc", ",", "\"", "\"\"", " ", "\t", "中文", "é"};
+    
+    @Test
+    public void testQuotedFields()
+    {
+        assertFields(Collections.<String>emptyList(), "");
+        assertFields(Arrays.asList(""), "\"\"");
+        assertFields(Arrays.asList("", ""), ",");
+        assertFields(Arrays.asList("a", "b", ""), "a,b,");
+        assertFields(Arrays.asList("a,b", "c"), "\"a,b\",c");
+        assertFields(Arrays.asList("say \"hi\"", ""), "\"say \"\"hi\"\"\",");
+        assertFields(Arrays.asList("中文,é", "x"), "\"中文,é\",x");
+    }
+    
+    @Test
+    public void testMalformedQuotingIsLenient()
+    {
+        // A quote inside an unquoted field is literal
+        assertFields(Arrays.asList("a\"b", "c"), "a\"b,c");
+        // Characters after the closing quote are kept
+        assertFields(Arrays.asList("abx", "c"), "\"ab\"x,c");
+        // An unterminated quoted field runs to the end of the record
+        assertFields(Arrays.asList("a", "b,c"), "a,\"b,c");
+    }
+    
+    @Test
+    public void testMaxFieldsAndOffset()
+    {
+        byte[] bytes = "xx1,2,3,4yy".getBytes(StandardCharsets.UTF_8);
+        CSVTokenizer tokenizer = new CSVTokenizer(',');
+        
+        assertEquals(2, tokenizer.tokenize(bytes, 2, 7, 2));
+        assertEquals(Arrays.asList("1", "2"), fields(tokenizer, bytes));
+        assertEquals(4, tokenizer.tokenize(bytes, 2, 7, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("1", "2", "3", "4"), fields(tokenizer, bytes));
+    }
+    
+    @Test
+    public void testRoundTrip()
+    {
+        Random random = new Random(10);
+        for (char delimiter : new char[] {',', '\t', '|'})
+        {
+            CSVTokenizer tokenizer = new CSVTokenizer(delimiter);
+            for (int round = 0; round < 2000; round++)
+            {
+                // Many fields and long fields grow the tokenizer arrays
+                List<String> expected = new ArrayList<>();
+                int fields = 1 + random.nextInt(round % 10 == 0 ? 100 : 8);
+                for (int i = 0; i < fields; i++)
+                {
+                    expected.add(randomField(random, round % 7 == 0 ? 200 : 5));
+                }
+                byte[] bytes = encode(expected, delimiter).getBytes(StandardCharsets.UTF_8);
+                
+                // A record made of one empty field has no field
+                int count = tokenizer.tokenize(bytes, 0, bytes.length, Integer.MAX_VALUE);
+                assertEquals(bytes.length == 0 ? Collections.emptyList() : expected, fields(tokenizer, bytes));
+                assertEquals(count, tokenizer.getFieldCount());
+            }
+        }
+    }
+    
+    @Test
+    public void testCSVToJSONWithRFC4180Format()
+        throws Exception
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put("customFieldNames", Arrays.asList("name", "quote", "missing"));
+        config.put("csvFormat", "RFC4180");
+        CSVToJSONDataConverter converter = new CSVToJSONDataConverter(new Configuration(config));
+        
+        ByteBuffer json = converter.convert(
+            ByteBuffer.wrap("\"Doe, 中文\",\"say \"\"hi\"\"\"\r\n".getBytes(StandardCharsets.UTF_8)));
+        
+        // The CR of a CRLF line break is dropped
+        assertEquals("{\"name\":\"Doe, 中文\",\"quote\":\"say \\\"hi\\\"\",\"missing\":null}\n",
+            StandardCharsets.UTF_8.decode(json).toString());
+    }
+    
+    private static void assertFields(List<String> expected, String record)
+    {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        CSVTokenizer tokenizer = new CSVTokenizer(',');
+        assertEquals(record, expected.size(), tokenizer.tokenize(bytes, 0, bytes.length, Integer.MAX_VALUE));
+        assertEquals(record, expected, fields(tokenizer, bytes));
+    }
+    
+    private static List<String> fields(CSVTokenizer tokenizer, byte[] bytes)
+    {
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < tokenizer.getFieldCount(); i++)
+        {
+            if (tokenizer.isEscaped(i))
+            {
+                int length = tokenizer.unescape(i);
+                fields.add(new String(tokenizer.getUnescaped(), 0, length, StandardCharsets.UTF_8));
+            }
+            else
+            {
+                fields.add(new String(bytes, tokenizer.getStart(i), tokenizer.getEnd(i) - tokenizer.getStart(i),
+                    StandardCharsets.UTF_8));
+            }
+        }
+        return fields;
+    }
+    
+    private static String randomField(Random random, int maxParts)
+    {
+        StringBuilder field = new StringBuilder();
+        int parts = random.nextInt(maxParts + 1);
+        for (int i = 0; i < parts; i++)
+        {
+            field.append(FIELD_PARTS[random.nextInt(FIELD_PARTS.length)]);
+        }
+        return field.toString();
+    }
+    
+    /**
+     * Writes the fields as RFC 4180 does, quoting the fields that contain the delimiter or a quote.
+     */
+    private static String encode(List<String> fields, char delimiter)
+    {
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            if (i > 0)
+            {
+                record.append(delimiter);
+            }
+            String field = fields.get(i);
+            if (field.indexOf(delimiter) >= 0 || field.indexOf('"') >= 0)
+            {
+                record.append('"').append(field.replace("\"", "\"\"")).append('"');
+            }
+            else
+            {
+                record.append(field);
+            }
+        }
+        return record.toString();
+    }
+}
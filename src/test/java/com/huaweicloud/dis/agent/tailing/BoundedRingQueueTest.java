@@ -0,0 +1,96 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BoundedRingQueueTest
+{
+    @Test
+    public void testBoundedAtEveryLap()
+    {
+        for (int capacity : new int[] {1, 2, 3, 8})
+        {
+            BoundedRingQueue<Integer> queue = new BoundedRingQueue<>(capacity);
+            int next = 0;
+            int expected = 0;
+            for (int lap = 0; lap < 5; lap++)
+            {
+                for (int i = 0; i < capacity; i++)
+                {
+                    assertTrue(queue.offer(next++));
+                }
+                // A full slot is not ready to be written at the next lap, even with a capacity of 1
+                assertFalse("capacity " + capacity, queue.offer(-1));
+                assertEquals(capacity, queue.size());
+                for (int i = 0; i < capacity; i++)
+                {
+                    assertEquals(Integer.valueOf(expected++), queue.poll());
+                }
+                assertNull(queue.poll());
+                assertTrue(queue.isEmpty());
+            }
+        }
+    }
+    
+    @Test
+    public void testConcurrentProducersAndConsumers()
+        throws InterruptedException
+    {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final BoundedRingQueue<Integer> queue = new BoundedRingQueue<>(1);
+        final ConcurrentHashMap<Integer, Boolean> taken = new ConcurrentHashMap<>();
+        final AtomicInteger remaining = new AtomicInteger(producers * perProducer);
+        final CountDownLatch done = new CountDownLatch(producers * 2);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++)
+        {
+            final int first = p * perProducer;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < first + perProducer; i++)
+                {
+                    while (!queue.offer(i))
+                    {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }));
+            threads.add(new Thread(() -> {
+                while (remaining.get() > 0)
+                {
+                    Integer element = queue.poll();
+                    if (element == null)
+                    {
+                        Thread.yield();
+                        continue;
+                    }
+                    // Each element is taken exactly once
+                    assertNull(taken.put(element, Boolean.TRUE));
+                    remaining.decrementAndGet();
+                }
+                done.countDown();
+            }));
+        }
+        for (Thread thread : threads)
+        {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        // A lost element leaves the consumers waiting for it
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(producers * perProducer, taken.size());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,76 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactRecordBufferTest
+{
+    private Path file;
+    
+    private DISFileFlow flow;
+    
+    private TrackedFile trackedFile;
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("compact-buffer", ".log");
+        flow = TestFlows.newFlow(TestFlows.config(FileFlow.COMPACT_RECORD_BUFFER, true));
+        trackedFile = new TrackedFile(flow, file);
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testReleasedStorageIsReused()
+    {
+        CompactRecordBuffer.StoragePool pool = new CompactRecordBuffer.StoragePool(1, 4, 16);
+        CompactRecordBuffer first = new CompactRecordBuffer(flow, pool);
+        // Grows the arrays past their initial size
+        for (int i = 0; i < 10; i++)
+        {
+            first.add(record(i * 10, "record-" + i));
+        }
+        assertEquals("record-9", StandardCharsets.UTF_8.decode(first.data(9)).toString());
+        first.release();
+        first.release();
+        assertEquals(1, pool.size());
+        
+        CompactRecordBuffer second = new CompactRecordBuffer(flow, pool);
+        assertEquals(0, pool.size());
+        // Another buffer in use at the same time gets new arrays
+        CompactRecordBuffer third = new CompactRecordBuffer(flow, pool);
+        second.add(record(100, "second"));
+        third.add(record(200, "third"));
+        assertEquals(1, second.sizeRecords());
+        assertEquals("second", StandardCharsets.UTF_8.decode(second.data(0)).toString());
+        assertEquals("second", StandardCharsets.UTF_8.decode(second.record(0).data()).toString());
+        assertEquals(106, second.checkpointOffset());
+        assertEquals("third", StandardCharsets.UTF_8.decode(third.data(0)).toString());
+        
+        second.release();
+        third.release();
+        // The pool keeps a single idle storage
+        assertEquals(1, pool.size());
+    }
+    
+    private DISRecord record(long offset, String data)
+    {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return new DISRecord(trackedFile, offset, bytes.length, bytes);
+    }
+}
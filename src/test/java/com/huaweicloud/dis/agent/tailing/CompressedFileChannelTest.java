@@ -0,0 +1,261 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.luben.zstd.Zstd;
+import com.huaweicloud.dis.agent.AgentContext;
+import com.huaweicloud.dis.agent.tailing.checkpoints.SQLiteFileCheckpointStore;
+
+public class CompressedFileChannelTest
+{
+    private static final int MEMBER_SIZE = 100000;
+    
+    private Path dir;
+    
+    private byte[] content;
+    
+    private CompressedFileIndexes indexes;
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        dir = Files.createTempDirectory("compressed-file-channel");
+        Random random = new Random(3);
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        while (lines.size() < 3 * MEMBER_SIZE)
+        {
+            byte[] line = ParserReadModeBenchmark.randomLine(random, 2 + random.nextInt(200));
+            lines.write(line, 0, line.length);
+        }
+        content = Arrays.copyOf(lines.toByteArray(), 3 * MEMBER_SIZE);
+        indexes = new CompressedFileIndexes();
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        try (Stream<Path> files = Files.list(dir))
+        {
+            for (Path file : (Iterable<Path>)files::iterator)
+            {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+    
+    @Test
+    public void testGzipMembersRoundTrip()
+        throws IOException
+    {
+        Path file = writeGzip("members.log.gz");
+        
+        try (CompressedFileChannel channel = CompressedFileChannel.open(file, indexes))
+        {
+            assertTrue(channel instanceof GzipFileChannel);
+            assertEquals(3, channel.getIndex().getSyncPointCount());
+            assertEquals(content.length, channel.size());
+            assertArrayEquals(content, readFrom(channel, 0));
+        }
+    }
+    
+    @Test
+    public void testZstdFramesRoundTrip()
+        throws IOException
+    {
+        Path file = writeZstd("frames.log.zst");
+        
+        try (CompressedFileChannel channel = CompressedFileChannel.open(file, indexes))
+        {
+            assertTrue(channel instanceof ZstdFileChannel);
+            assertEquals(3, channel.getIndex().getSyncPointCount());
+            assertEquals(content.length, channel.size());
+            assertArrayEquals(content, readFrom(channel, 0));
+        }
+    }
+    
+    @Test
+    public void testSeekBackwardAndForward()
+        throws IOException
+    {
+        for (Path file : Arrays.asList(writeGzip("seek.log.gz"), writeZstd("seek.log.zst")))
+        {
+            try (CompressedFileChannel channel = CompressedFileChannel.open(file, indexes))
+            {
+                for (long offset : new long[] {250000, 10, MEMBER_SIZE, 2 * MEMBER_SIZE + 1, MEMBER_SIZE - 1})
+                {
+                    assertArrayEquals(file + "@" + offset, Arrays.copyOfRange(content, (int)offset, content.length),
+                        readFrom(channel, offset));
+                }
+            }
+        }
+    }
+    
+    @Test(expected = EOFException.class)
+    public void testTruncatedZstdFile()
+        throws IOException
+    {
+        Path file = writeZstd("truncated.log.zst");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+        
+        CompressedFileChannel.open(file, indexes);
+    }
+    
+    @Test
+    public void testResumeFromPersistedSyncPoint()
+        throws IOException
+    {
+        Path file = writeZstd("persisted.log.zst");
+        byte[] bytes = Files.readAllBytes(file);
+        long secondFrame = Zstd.compress(Arrays.copyOfRange(content, 0, MEMBER_SIZE)).length + 12;
+        // Corrupt the first frame, which must not be decoded when resuming from the second one
+        Arrays.fill(bytes, 20, 40, (byte)0);
+        Files.write(file, bytes);
+        indexes.setSyncPointStore(
+            (fileId, lastModifiedTime, compressedSize) -> new CompressedFileChannel.Index(compressedSize,
+                content.length, Arrays.asList(new long[] {0, 0}, new long[] {secondFrame, MEMBER_SIZE})));
+        
+        try (CompressedFileChannel channel = CompressedFileChannel.open(file, indexes))
+        {
+            assertEquals(content.length, channel.size());
+            assertArrayEquals(Arrays.copyOfRange(content, MEMBER_SIZE + 5, content.length),
+                readFrom(channel, MEMBER_SIZE + 5));
+        }
+    }
+    
+    @Test
+    public void testSyncPointStoreNotSharedBetweenAgents()
+        throws IOException
+    {
+        Path file = writeGzip("agents.log.gz");
+        indexes.setSyncPointStore((fileId, lastModifiedTime, compressedSize) -> new CompressedFileChannel.Index(
+            compressedSize, 42, Arrays.asList(new long[] {0, 0})));
+        CompressedFileIndexes otherAgentIndexes = new CompressedFileIndexes();
+        
+        assertEquals(42, indexes.uncompressedSize(file));
+        assertEquals(content.length, otherAgentIndexes.uncompressedSize(file));
+        assertEquals(3, otherAgentIndexes.cachedIndex(file).getSyncPointCount());
+    }
+    
+    @Test
+    public void testSyncPointPersistedWithCheckpoint()
+        throws IOException
+    {
+        Path file = writeGzip("checkpointed.log.gz");
+        AgentContext context = TestFlows.newAgentContext(
+            TestFlows.config("checkpointFile", dir.resolve("checkpoints.db").toString()));
+        DISFileFlow flow = TestFlows.newFlow(context, TestFlows.config(FileFlow.COMPRESSED_INPUT_ENABLED, true));
+        SQLiteFileCheckpointStore store = new SQLiteFileCheckpointStore(context);
+        try
+        {
+            TrackedFile trackedFile = new TrackedFile(flow, file);
+            trackedFile.open(2 * MEMBER_SIZE + 7);
+            long[] expected = trackedFile.getCompressedIndex().syncPointBefore(2 * MEMBER_SIZE + 7);
+            store.saveCheckpoint(trackedFile, 2 * MEMBER_SIZE + 7);
+            trackedFile.close();
+            
+            CompressedFileChannel.Index index = store.loadIndex(FileId.get(file),
+                Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+            assertEquals(content.length, index.getUncompressedSize());
+            assertEquals(2 * MEMBER_SIZE, expected[1]);
+            assertArrayEquals(expected, index.syncPointBefore(2 * MEMBER_SIZE + 7));
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+    
+    private static byte[] readFrom(CompressedFileChannel channel, long offset)
+        throws IOException
+    {
+        channel.position(offset);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        while (channel.read(buffer) >= 0)
+        {
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes, 0, bytes.length);
+            buffer.clear();
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Writes the content as three gzip members, like logs compressed in several runs and concatenated.
+     */
+    private Path writeGzip(String name)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++)
+        {
+            try (GZIPOutputStream member = new GZIPOutputStream(new NonClosingOutputStream(out)))
+            {
+                member.write(content, i * MEMBER_SIZE, MEMBER_SIZE);
+            }
+        }
+        return Files.write(dir.resolve(name), out.toByteArray());
+    }
+    
+    /**
+     * Writes the content as three zstd frames, with a skippable frame after the first one.
+     */
+    private Path writeZstd(String name)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++)
+        {
+            byte[] frame = Zstd.compress(Arrays.copyOfRange(content, i * MEMBER_SIZE, (i + 1) * MEMBER_SIZE));
+            out.write(frame, 0, frame.length);
+            if (i == 0)
+            {
+                byte[] skippable = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putInt(0x184d2a50).putInt(4)
+                    .putInt(42).array();
+                out.write(skippable, 0, skippable.length);
+            }
+        }
+        return Files.write(dir.resolve(name), out.toByteArray());
+    }
+    
+    private static final class NonClosingOutputStream extends FilterOutputStream
+    {
+        private NonClosingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+        
+        @Override
+        public void close()
+            throws IOException
+        {
+            flush();
+        }
+    }
+}
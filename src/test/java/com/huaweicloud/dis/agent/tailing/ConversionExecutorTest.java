@@ -0,0 +1,93 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
+
+public class ConversionExecutorTest
+{
+    private static final int BUFFER_SIZE = 2 * 1024 * 1024;
+    
+    private final List<Path> files = new ArrayList<>();
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        for (int i = 0; i < 2; i++)
+        {
+            Path file = Files.createTempFile("conversion-executor", ".log");
+            StringBuilder content = new StringBuilder();
+            for (int line = 0; line < 1000; line++)
+            {
+                content.append("file ").append(i).append(" line ").append(line).append('\n');
+            }
+            Files.write(file, content.toString().getBytes(StandardCharsets.US_ASCII));
+            files.add(file);
+        }
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        for (Path file : files)
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testParsersOfFlowShareExecutor()
+        throws IOException
+    {
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.CONVERSION_THREADS,
+            2,
+            FileFlow.CONVERSION_OPTION_KEY,
+            Collections.singletonList(Collections.singletonMap(ProcessingUtilsFactory.CONVERSION_OPTION_NAME_KEY,
+                "ADDBRACKETS"))));
+        ExecutorService executor = flow.getConversionExecutor();
+        assertNotNull(executor);
+        
+        // Files tailed concurrently, and a parser rebuilt for the first file
+        for (Path file : Arrays.asList(files.get(0), files.get(1), files.get(0)))
+        {
+            DISParser parser = new DISParser(flow, BUFFER_SIZE);
+            TrackedFile trackedFile = new TrackedFile(flow, file);
+            trackedFile.open(0);
+            parser.startParsingFile(trackedFile);
+            int records = 0;
+            DISRecord record;
+            while ((record = parser.readRecord()) != null)
+            {
+                records++;
+                record.release();
+            }
+            assertEquals(1000, records);
+            parser.stopParsing("Done.");
+        }
+        assertSame(executor, flow.getConversionExecutor());
+        
+        flow.shutdownConversionExecutor();
+        assertTrue(executor.isShutdown());
+        // No new threads are started once the flow stopped
+        assertSame(executor, flow.getConversionExecutor());
+    }
+}
@@ -0,0 +1,201 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DISPayloadCodecTest
+{
+    private static final String[] WORDS = {"GET", "/api/orders", "200", "INFO", "user", "日志", "\"", "{", "}", " "};
+    
+    @Test
+    public void testRoundTrip()
+    {
+        Random random = new Random(21);
+        for (DISPayloadCodec.Codec codec : compressingCodecs())
+        {
+            DISPayloadCodec payloadCodec = new DISPayloadCodec(codec, 6);
+            for (int round = 0; round < 300; round++)
+            {
+                byte[] data = randomText(random, random.nextInt(round % 10 == 0 ? 100000 : 2000));
+                for (boolean direct : new boolean[] {false, true})
+                {
+                    ByteBuffer input = direct ? toDirect(data) : ByteBuffer.wrap(data);
+                    ByteBuffer compressed = payloadCodec.compress(input);
+                    assertEquals(data.length, input.remaining());
+                    if (compressed == input)
+                    {
+                        assertFalse(codec + " of " + data.length + " bytes", DISPayloadCodec.isCompressed(input));
+                        continue;
+                    }
+                    assertTrue(DISPayloadCodec.isCompressed(compressed));
+                    assertEquals(codec.id(), compressed.get(compressed.position() + DISPayloadCodec.MAGIC.length));
+                    assertTrue(compressed.remaining() <= data.length);
+                    assertEquals(ByteBuffer.wrap(data), DISPayloadCodec.decompress(compressed));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testIncompressibleAndShortDataSentAsIs()
+    {
+        Random random = new Random(22);
+        byte[] noise = new byte[4096];
+        random.nextBytes(noise);
+        for (DISPayloadCodec.Codec codec : compressingCodecs())
+        {
+            DISPayloadCodec payloadCodec = new DISPayloadCodec(codec, 6);
+            ByteBuffer data = ByteBuffer.wrap(noise);
+            assertSame(codec.name(), data, payloadCodec.compress(data));
+            ByteBuffer shortData = ByteBuffer.wrap("aaaa".getBytes(StandardCharsets.UTF_8));
+            assertSame(codec.name(), shortData, payloadCodec.compress(shortData));
+        }
+    }
+    
+    @Test
+    public void testCorruptedRecordRejected()
+    {
+        Random random = new Random(23);
+        byte[] data = randomText(random, 5000);
+        for (DISPayloadCodec.Codec codec : compressingCodecs())
+        {
+            ByteBuffer compressed = new DISPayloadCodec(codec, 6).compress(ByteBuffer.wrap(data));
+            assertTrue(DISPayloadCodec.isCompressed(compressed));
+            
+            // A wrong uncompressed length
+            ByteBuffer wrongLength = copy(compressed);
+            wrongLength.putInt(DISPayloadCodec.MAGIC.length + 1, data.length + 1);
+            assertRejected(codec + " with a wrong length", wrongLength);
+            // A truncated body
+            ByteBuffer truncated = copy(compressed);
+            truncated.limit(truncated.limit() - 10);
+            assertRejected(codec + " truncated", truncated);
+            // Corrupted bytes either fail or give other data, which the aggregate checksum catches
+            for (int i = DISPayloadCodec.HEADER_BYTES; i < compressed.remaining(); i += 7)
+            {
+                ByteBuffer corrupted = copy(compressed);
+                corrupted.put(i, (byte)(corrupted.get(i) ^ 0x5a));
+                try
+                {
+                    ByteBuffer decompressed = DISPayloadCodec.decompress(corrupted);
+                    assertEquals(data.length, decompressed.remaining());
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // Expected
+                }
+            }
+        }
+        ByteBuffer unknownCodec =
+            copy(new DISPayloadCodec(DISPayloadCodec.Codec.LZ4, 6).compress(ByteBuffer.wrap(data)));
+        unknownCodec.put(DISPayloadCodec.MAGIC.length, (byte)99);
+        assertRejected("Unknown codec", unknownCodec);
+    }
+    
+    @Test
+    public void testCompressedAggregateRoundTrip()
+        throws Exception
+    {
+        Random random = new Random(24);
+        Path file = Files.createTempFile("codec", ".log");
+        try
+        {
+            TrackedFile trackedFile = new TrackedFile(TestFlows.newFlow(TestFlows.config()), file);
+            for (DISPayloadCodec.Codec codec : compressingCodecs())
+            {
+                RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+                List<byte[]> records = new ArrayList<>();
+                for (int i = 0; i < 200; i++)
+                {
+                    byte[] record = randomText(random, 1 + random.nextInt(300));
+                    records.add(record);
+                    buffer.add(new DISRecord(trackedFile, i * 300L, record.length, record));
+                }
+                List<DISRecordAggregator.Aggregate> aggregates =
+                    new DISRecordAggregator(Integer.MAX_VALUE, 1, true).aggregate(buffer);
+                ByteBuffer compressed = new DISPayloadCodec(codec, 6).compress(aggregates.get(0).data());
+                assertTrue(DISPayloadCodec.isCompressed(compressed));
+                
+                List<ByteBuffer> unpacked = DISRecordDeaggregator.deaggregate(compressed);
+                assertEquals(records.size(), unpacked.size());
+                for (int i = 0; i < records.size(); i++)
+                {
+                    assertEquals(ByteBuffer.wrap(records.get(i)), unpacked.get(i));
+                }
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    private static void assertRejected(String message, ByteBuffer data)
+    {
+        try
+        {
+            DISPayloadCodec.decompress(data);
+            fail(message + " not rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+    
+    private static List<DISPayloadCodec.Codec> compressingCodecs()
+    {
+        List<DISPayloadCodec.Codec> codecs = new ArrayList<>();
+        for (DISPayloadCodec.Codec codec : DISPayloadCodec.Codec.values())
+        {
+            if (codec != DISPayloadCodec.Codec.NONE)
+            {
+                codecs.add(codec);
+            }
+        }
+        return codecs;
+    }
+    
+    /**
+     * @return Text of the given length in bytes at most, repetitive enough to compress
+     */
+    private static byte[] randomText(Random random, int length)
+    {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length)
+        {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(100));
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] truncated = new byte[length];
+        System.arraycopy(bytes, 0, truncated, 0, length);
+        return truncated;
+    }
+    
+    private static ByteBuffer toDirect(byte[] data)
+    {
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        return direct;
+    }
+    
+    private static ByteBuffer copy(ByteBuffer data)
+    {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate()).flip();
+        return copy;
+    }
+}
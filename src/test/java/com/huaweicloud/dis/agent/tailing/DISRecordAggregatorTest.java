@@ -0,0 +1,236 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.Constants;
+
+public class DISRecordAggregatorTest
+{
+    private static final int MAX_AGGREGATE_SIZE_BYTES = 1024;
+    
+    private Path file;
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("aggregator", ".log");
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        Random random = new Random(20);
+        for (boolean compact : new boolean[] {false, true})
+        {
+            TrackedFile trackedFile = newTrackedFile(compact, "RANDOM_INT");
+            for (int round = 0; round < 200; round++)
+            {
+                RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+                List<byte[]> records = addRandomRecords(random, trackedFile, buffer);
+                List<DISRecordAggregator.Aggregate> aggregates =
+                    new DISRecordAggregator(MAX_AGGREGATE_SIZE_BYTES, Integer.MAX_VALUE, true).aggregate(buffer);
+                
+                int next = 0;
+                for (DISRecordAggregator.Aggregate aggregate : aggregates)
+                {
+                    ByteBuffer data = aggregate.data();
+                    List<ByteBuffer> unpacked = DISRecordDeaggregator.deaggregate(data.duplicate());
+                    assertEquals(aggregate.indices().size(), unpacked.size());
+                    assertTrue(aggregate.indices().size() == 1 || data.remaining() <= MAX_AGGREGATE_SIZE_BYTES);
+                    for (int i = 0; i < unpacked.size(); i++)
+                    {
+                        // Records keep their order in the buffer
+                        int index = aggregate.indices().get(i);
+                        assertEquals(next++, index);
+                        assertEquals(ByteBuffer.wrap(records.get(index)), unpacked.get(i));
+                    }
+                }
+                assertEquals(records.size(), next);
+            }
+        }
+    }
+    
+    @Test
+    public void testSinglePartitionKeyPerAggregate()
+        throws IOException
+    {
+        Random random = new Random(21);
+        TrackedFile trackedFile = newTrackedFile(false, "DETERMINISTIC");
+        RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+        List<DISRecord> records = new ArrayList<>();
+        for (int i = 0; i < 500; i++)
+        {
+            // A few distinct records, so that records share their deterministic partition key
+            byte[] data = ("line " + random.nextInt(5)).getBytes();
+            DISRecord record = new DISRecord(trackedFile, i * 10L, data.length, data);
+            records.add(record);
+            buffer.add(record);
+        }
+        List<DISRecordAggregator.Aggregate> aggregates =
+            new DISRecordAggregator(MAX_AGGREGATE_SIZE_BYTES, Integer.MAX_VALUE, false).aggregate(buffer);
+        
+        int total = 0;
+        for (DISRecordAggregator.Aggregate aggregate : aggregates)
+        {
+            List<ByteBuffer> unpacked = DISRecordDeaggregator.deaggregate(aggregate.data());
+            for (int i = 0; i < unpacked.size(); i++)
+            {
+                DISRecord record = records.get(aggregate.indices().get(i));
+                assertEquals(aggregate.partitionKey(), record.partitionKey());
+                assertEquals(record.data(), unpacked.get(i));
+            }
+            total += unpacked.size();
+        }
+        assertEquals(records.size(), total);
+        assertTrue(aggregates.size() < records.size() / 10);
+    }
+    
+    @Test
+    public void testRecordsBeyondMaxAggregatesLeftOut()
+        throws IOException
+    {
+        TrackedFile trackedFile = newTrackedFile(false, "RANDOM_INT");
+        RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+        for (int i = 0; i < 100; i++)
+        {
+            byte[] data = new byte[100];
+            Arrays.fill(data, (byte)'x');
+            buffer.add(new DISRecord(trackedFile, i * 100L, data.length, data));
+        }
+        List<DISRecordAggregator.Aggregate> aggregates =
+            new DISRecordAggregator(MAX_AGGREGATE_SIZE_BYTES, 3, true).aggregate(buffer);
+        
+        assertEquals(3, aggregates.size());
+        // 9 records of 104 bytes fit in an aggregate with its 13 bytes of header and checksum
+        assertEquals(9, aggregates.get(0).indices().size());
+        assertEquals(26, (int)aggregates.get(2).indices().get(8));
+    }
+    
+    @Test
+    public void testCorruptedAggregateRejected()
+        throws IOException
+    {
+        TrackedFile trackedFile = newTrackedFile(false, "RANDOM_INT");
+        RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+        addRandomRecords(new Random(22), trackedFile, buffer);
+        buffer.add(new DISRecord(trackedFile, 1L << 20, 5, "first".getBytes()));
+        buffer.add(new DISRecord(trackedFile, (1L << 20) + 5, 6, "second".getBytes()));
+        ByteBuffer data = new DISRecordAggregator(Integer.MAX_VALUE, 1, true).aggregate(buffer).get(0).data();
+        assertTrue(DISRecordDeaggregator.isAggregated(data));
+        
+        for (int i = 0; i < data.remaining(); i++)
+        {
+            ByteBuffer corrupted = copy(data);
+            corrupted.put(i, (byte)(corrupted.get(i) ^ 0x10));
+            if (!DISRecordDeaggregator.isAggregated(corrupted))
+            {
+                // A changed magic byte or version makes it a plain record
+                assertEquals(1, DISRecordDeaggregator.deaggregate(corrupted).size());
+                continue;
+            }
+            try
+            {
+                DISRecordDeaggregator.deaggregate(corrupted);
+                fail("Corrupted byte " + i + " not detected");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Expected
+            }
+        }
+        for (int length = DISRecordDeaggregator.HEADER_BYTES + DISRecordDeaggregator.CHECKSUM_BYTES; length < data
+            .remaining(); length++)
+        {
+            ByteBuffer truncated = copy(data);
+            truncated.limit(length);
+            try
+            {
+                DISRecordDeaggregator.deaggregate(truncated);
+                fail("Truncated aggregate of " + length + " bytes not detected");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Expected
+            }
+        }
+    }
+    
+    @Test
+    public void testPlainRecordPassedThrough()
+    {
+        ByteBuffer record = ByteBuffer.wrap("plain text".getBytes());
+        assertFalse(DISRecordDeaggregator.isAggregated(record));
+        assertEquals(record, DISRecordDeaggregator.deaggregate(record.duplicate()).get(0));
+    }
+    
+    private TrackedFile newTrackedFile(boolean compact, String partitionKeyOption)
+        throws IOException
+    {
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.COMPACT_RECORD_BUFFER,
+            compact,
+            Constants.PARTITION_KEY,
+            partitionKeyOption));
+        return new TrackedFile(flow, file);
+    }
+    
+    /**
+     * Adds records of random sizes, some larger than an aggregate and some looking like one.
+     */
+    private static List<byte[]> addRandomRecords(Random random, TrackedFile trackedFile,
+        RecordBuffer<DISRecord> buffer)
+    {
+        List<byte[]> records = new ArrayList<>();
+        int count = 1 + random.nextInt(100);
+        long offset = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int kind = random.nextInt(20);
+            byte[] data = new byte[kind == 0 ? MAX_AGGREGATE_SIZE_BYTES + random.nextInt(100) : random.nextInt(200)];
+            for (int j = 0; j < data.length; j++)
+            {
+                data[j] = (byte)('a' + random.nextInt(26));
+            }
+            if (kind == 1 && data.length >= DISRecordDeaggregator.HEADER_BYTES + DISRecordDeaggregator.CHECKSUM_BYTES)
+            {
+                System.arraycopy(DISRecordDeaggregator.MAGIC, 0, data, 0, DISRecordDeaggregator.MAGIC.length);
+                data[DISRecordDeaggregator.MAGIC.length] = DISRecordDeaggregator.VERSION;
+            }
+            records.add(data);
+            buffer.add(new DISRecord(trackedFile, offset, data.length, data));
+            offset += data.length;
+        }
+        return records;
+    }
+    
+    private static ByteBuffer copy(ByteBuffer data)
+    {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate()).flip();
+        return copy;
+    }
+}
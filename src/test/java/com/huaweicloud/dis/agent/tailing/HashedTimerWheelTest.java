@@ -0,0 +1,137 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HashedTimerWheelTest
+{
+    private HashedTimerWheel timer;
+    
+    @After
+    public void tearDown()
+    {
+        if (timer != null)
+        {
+            timer.close();
+        }
+    }
+    
+    @Test
+    public void testTimeoutsExpireAfterTheirDeadlineInOrder()
+        throws InterruptedException
+    {
+        timer = new HashedTimerWheel(5);
+        final List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(4);
+        final long start = System.nanoTime();
+        final long[] elapsedMillis = new long[4];
+        int[] delays = {80, 20, 150, 50};
+        for (int i = 0; i < delays.length; i++)
+        {
+            final int index = i;
+            timer.schedule(() -> {
+                elapsedMillis[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                expired.add(index);
+                done.countDown();
+            }, delays[i]);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        
+        assertEquals(Arrays.asList(1, 3, 0, 2), expired);
+        for (int i = 0; i < delays.length; i++)
+        {
+            assertTrue("expired after " + elapsedMillis[i] + "ms", elapsedMillis[i] >= delays[i]);
+        }
+        assertEquals(4L, metric("BufferAgeTimer.TotalExpiredTimeouts"));
+        assertEquals(0L, ((Number)timer.getMetrics().get("BufferAgeTimer.PendingTimeouts")).longValue());
+    }
+    
+    @Test
+    public void testTimeoutBeyondOneTurnOfTheWheel()
+        throws InterruptedException
+    {
+        timer = new HashedTimerWheel(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        long delayMillis = HashedTimerWheel.WHEEL_SIZE + 100;
+        long start = System.nanoTime();
+        timer.schedule(() -> done.countDown(), delayMillis);
+        
+        // The bucket of the deadline comes round once before it expires
+        assertFalse(done.await(delayMillis - 150, TimeUnit.MILLISECONDS));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= delayMillis);
+    }
+    
+    @Test
+    public void testCancelledTimeoutNeverRuns()
+        throws InterruptedException
+    {
+        timer = new HashedTimerWheel(5);
+        final CountDownLatch cancelledRan = new CountDownLatch(1);
+        final CountDownLatch later = new CountDownLatch(1);
+        HashedTimerWheel.Timeout timeout = timer.schedule(() -> cancelledRan.countDown(), 20);
+        timer.schedule(() -> later.countDown(), 60);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        
+        assertTrue(later.await(10, TimeUnit.SECONDS));
+        assertEquals(1, cancelledRan.getCount());
+        assertEquals(1L, metric("BufferAgeTimer.TotalCancelledTimeouts"));
+        assertEquals(1L, metric("BufferAgeTimer.TotalExpiredTimeouts"));
+    }
+    
+    @Test
+    public void testIdleTimerStopsTicking()
+        throws InterruptedException
+    {
+        timer = new HashedTimerWheel(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        HashedTimerWheel.Timeout timeout = timer.schedule(() -> done.countDown(), 10);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        // Let the timer thread see there's nothing left
+        Thread.sleep(20);
+        
+        long ticks = metric("BufferAgeTimer.TotalTicks");
+        Thread.sleep(100);
+        assertEquals(ticks, metric("BufferAgeTimer.TotalTicks"));
+        
+        // And it wakes up for the next timeout
+        final CountDownLatch next = new CountDownLatch(1);
+        timer.schedule(() -> next.countDown(), 10);
+        assertTrue(next.await(10, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testClosedTimerRunsNothing()
+        throws InterruptedException
+    {
+        timer = new HashedTimerWheel(5);
+        final CountDownLatch pending = new CountDownLatch(1);
+        timer.schedule(() -> pending.countDown(), 30);
+        timer.close();
+        final CountDownLatch afterClose = new CountDownLatch(1);
+        timer.schedule(() -> afterClose.countDown(), 0);
+        
+        assertFalse(pending.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, afterClose.getCount());
+        assertEquals(1L, metric("BufferAgeTimer.TotalScheduledTimeouts"));
+    }
+    
+    private long metric(String name)
+    {
+        return ((AtomicLong)timer.getMetrics().get(name)).get();
+    }
+}
@@ -0,0 +1,107 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses a whole file with the heap-copy and the memory-mapped read modes of {@link AbstractParser}. The score is the
+ * time to parse {@link #FILE_SIZE_BYTES}, so the read throughput is {@code FILE_SIZE_BYTES / score}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ParserReadModeBenchmark
+{
+    static final int FILE_SIZE_BYTES = 256 * 1024 * 1024;
+    
+    @Param({"HEAP", "MMAP"})
+    public FileFlow.ParserReadMode readMode;
+    
+    @Param({"120", "1200"})
+    public int averageLineLength;
+    
+    private Path file;
+    
+    private DISFileFlow flow;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("parser-read-mode", ".log");
+        Random random = new Random(42);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1024 * 1024))
+        {
+            long written = 0;
+            while (written < FILE_SIZE_BYTES)
+            {
+                byte[] line = randomLine(random, 1 + random.nextInt(2 * averageLineLength));
+                out.write(line);
+                written += line.length;
+            }
+        }
+        flow = TestFlows.newFlow(TestFlows.config(FileFlow.PARSER_READ_MODE, readMode.name()));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+        throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+    
+    @Benchmark
+    public long parseFile(Blackhole blackhole)
+        throws IOException
+    {
+        DISParser parser = new DISParser(flow);
+        TrackedFile trackedFile = new TrackedFile(flow, file);
+        trackedFile.open(0);
+        parser.startParsingFile(trackedFile);
+        long records = 0;
+        DISRecord record;
+        while ((record = parser.readRecord()) != null)
+        {
+            blackhole.consume(record.data().remaining());
+            record.release();
+            records++;
+        }
+        parser.stopParsing("Benchmark done");
+        trackedFile.close();
+        return records;
+    }
+    
+    static byte[] randomLine(Random random, int length)
+    {
+        byte[] line = new byte[length];
+        for (int i = 0; i < length - 1; i++)
+        {
+            line[i] = (byte)(' ' + random.nextInt(95));
+        }
+        line[length - 1] = '\n';
+        return line;
+    }
+}
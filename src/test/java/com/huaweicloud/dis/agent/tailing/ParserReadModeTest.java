@@ -0,0 +1,155 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.processing.utils.ProcessingUtilsFactory;
+
+public class ParserReadModeTest
+{
+    private static final int BUFFER_SIZE = 2 * 1024 * 1024;
+    
+    private Path file;
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("parser-read-mode", ".log");
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testMappedRecordsSameAsHeapRecords()
+        throws IOException
+    {
+        List<String> lines = appendLines(new Random(1), 20000);
+        
+        assertEquals(lines, parse(FileFlow.ParserReadMode.HEAP));
+        assertEquals(lines, parse(FileFlow.ParserReadMode.MMAP));
+    }
+    
+    @Test
+    public void testMappedRecordsAfterFileGrows()
+        throws IOException
+    {
+        Random random = new Random(2);
+        List<String> lines = appendLines(random, 10000);
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.PARSER_READ_MODE, "MMAP"));
+        DISParser parser = new DISParser(flow, BUFFER_SIZE);
+        TrackedFile trackedFile = new TrackedFile(flow, file);
+        trackedFile.open(0);
+        parser.startParsingFile(trackedFile);
+        
+        List<String> parsed = readAll(parser);
+        List<String> appended = appendLines(random, 10000);
+        parsed.addAll(readAll(parser));
+        
+        lines.addAll(appended);
+        assertEquals(lines, parsed);
+    }
+    
+    @Test
+    public void testTailOfReferencedChunkKeptAfterCopyTruncate()
+        throws IOException
+    {
+        List<String> lines = appendLines(new Random(3), 5000);
+        // Unlike the default SINGLELINE converter, a filter that keeps every record doesn't copy their data
+        Map<String, Object> filter = new HashMap<>();
+        filter.put(ProcessingUtilsFactory.CONVERSION_OPTION_NAME_KEY, "FILTER");
+        filter.put("exclude", Collections.singletonList("\t"));
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.PARSER_READ_MODE,
+            "HEAP",
+            FileFlow.CONVERSION_OPTION_KEY,
+            Collections.singletonList(filter)));
+        DISParser parser = new DISParser(flow, BUFFER_SIZE);
+        TrackedFile trackedFile = new TrackedFile(flow, file);
+        trackedFile.open(0);
+        parser.startParsingFile(trackedFile);
+        // Holding on to the first record keeps the first chunk referenced when the parser rolls over
+        DISRecord first = parser.readRecord();
+        
+        // The file is truncated and rewritten past the end of the first chunk before the parser rolls over
+        byte[] rewritten = new byte[(int)Files.size(file) + 1];
+        Arrays.fill(rewritten, (byte)'x');
+        rewritten[rewritten.length - 1] = '\n';
+        Files.write(file, rewritten, StandardOpenOption.TRUNCATE_EXISTING);
+        List<String> parsed = readAll(parser);
+        first.release();
+        
+        int spanning = 0;
+        int offset = 0;
+        while (offset + lines.get(spanning).length() + 1 <= BUFFER_SIZE)
+        {
+            offset += lines.get(spanning++).length() + 1;
+        }
+        assertEquals(lines.subList(1, spanning), parsed.subList(0, spanning - 1));
+        String tail = lines.get(spanning).substring(0, BUFFER_SIZE - offset);
+        assertEquals(tail, parsed.get(spanning - 1).substring(0, tail.length()));
+    }
+    
+    private List<String> parse(FileFlow.ParserReadMode readMode)
+        throws IOException
+    {
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.PARSER_READ_MODE, readMode.name()));
+        DISParser parser = new DISParser(flow, BUFFER_SIZE);
+        TrackedFile trackedFile = new TrackedFile(flow, file);
+        trackedFile.open(0);
+        parser.startParsingFile(trackedFile);
+        return readAll(parser);
+    }
+    
+    private static List<String> readAll(DISParser parser)
+    {
+        List<String> records = new ArrayList<>();
+        DISRecord record;
+        while ((record = parser.readRecord()) != null)
+        {
+            ByteBuffer data = record.data().duplicate();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            records.add(new String(bytes, StandardCharsets.US_ASCII));
+            record.release();
+        }
+        return records;
+    }
+    
+    private List<String> appendLines(Random random, int count)
+        throws IOException
+    {
+        List<String> lines = new ArrayList<>(count);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            byte[] line = ParserReadModeBenchmark.randomLine(random, 2 + random.nextInt(1000));
+            String text = new String(line, 0, line.length - 1, StandardCharsets.US_ASCII);
+            lines.add(text);
+            content.append(text).append('\n');
+        }
+        Files.write(file, content.toString().getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        return lines;
+    }
+}
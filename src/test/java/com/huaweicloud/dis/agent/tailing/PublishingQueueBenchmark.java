@@ -0,0 +1,104 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One tailer offers records to a publishing queue while 16 sending threads take its buffers, with
+ * {@link PublishingQueue} and {@link LockFreePublishingQueue}. With a capacity of 1 the queue is mostly full, so the
+ * tailer waits for room while owning the temporary buffer. The score of offer is in records per second, the one of
+ * take in buffers per second. The threads only contend if they run in parallel, so run it on at least a few cores.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class PublishingQueueBenchmark
+{
+    private static final int RECORD_SIZE = 200;
+    
+    @Param({"LOCKING", "LOCK_FREE"})
+    public FileFlow.PublishQueueType queueType;
+    
+    @Param({"1", "100"})
+    public int capacity;
+    
+    private Path file;
+    
+    private TrackedFile trackedFile;
+    
+    private IPublishingQueue<DISRecord> queue;
+    
+    private final byte[] data = new byte[RECORD_SIZE];
+    
+    private long offset;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("publishing-queue", ".log");
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.PUBLISH_QUEUE_TYPE,
+            queueType.name(),
+            FileFlow.MAX_BUFFER_SIZE_RECORDS_KEY,
+            100,
+            FileFlow.WAIT_ON_FULL_PUBLISH_QUEUE_MILLIS_KEY,
+            1000L,
+            FileFlow.WAIT_ON_EMPTY_PUBLISH_QUEUE_MILLIS_KEY,
+            1000L));
+        trackedFile = new TrackedFile(flow, file);
+        queue = queueType == FileFlow.PublishQueueType.LOCK_FREE ? new LockFreePublishingQueue<>(flow, capacity)
+            : new PublishingQueue<>(flow, capacity);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+        throws IOException
+    {
+        queue.close();
+        Files.deleteIfExists(file);
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean offer()
+    {
+        offset += RECORD_SIZE;
+        return queue.offerRecord(new DISRecord(trackedFile, offset, RECORD_SIZE, data), true);
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(16)
+    public int take()
+    {
+        RecordBuffer<DISRecord> buffer = queue.take(true);
+        if (buffer == null)
+        {
+            return 0;
+        }
+        buffer.release();
+        return buffer.sizeRecords();
+    }
+}
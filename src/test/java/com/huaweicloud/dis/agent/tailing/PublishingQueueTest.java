@@ -0,0 +1,64 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.AgentContext;
+
+public class PublishingQueueTest
+{
+    private Path file;
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("publishing-queue", ".log");
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test(timeout = 10000)
+    public void testBufferPublishedWhenTimerIsClosed()
+        throws IOException
+    {
+        for (FileFlow.PublishQueueType queueType : FileFlow.PublishQueueType.values())
+        {
+            AgentContext context = TestFlows.newAgentContext(TestFlows.config("bufferAgeTimer.enabled", true));
+            DISFileFlow flow = TestFlows.newFlow(context, TestFlows.config(FileFlow.PUBLISH_QUEUE_TYPE,
+                queueType.name(),
+                FileFlow.MAX_BUFFER_AGE_MILLIS_KEY,
+                500L,
+                FileFlow.WAIT_ON_EMPTY_PUBLISH_QUEUE_MILLIS_KEY,
+                1000L));
+            IPublishingQueue<DISRecord> queue = queueType == FileFlow.PublishQueueType.LOCK_FREE
+                ? new LockFreePublishingQueue<>(flow, 10) : new PublishingQueue<>(flow, 10);
+            // The timeout of the buffer never expires
+            context.getBufferAgeTimer().close();
+            TrackedFile trackedFile = new TrackedFile(flow, file);
+            assertTrue(queue.offerRecord(new DISRecord(trackedFile, 10, 10, new byte[10]), true));
+            
+            RecordBuffer<DISRecord> buffer;
+            do
+            {
+                buffer = queue.take(true);
+            }
+            while (buffer == null);
+            assertEquals(queueType.name(), 1, buffer.sizeRecords());
+            queue.close();
+        }
+    }
+}
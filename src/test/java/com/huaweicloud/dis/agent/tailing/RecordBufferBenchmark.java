@@ -0,0 +1,170 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.huaweicloud.dis.iface.data.request.PutRecordsRequestEntry;
+
+/**
+ * Fills a record buffer from pooled parser chunks and builds its send request the way {@link DISSender} does, with
+ * {@link #QUEUED_BUFFERS} buffers waiting to be sent. The score is the time to fill and send one buffer of
+ * {@link #RECORDS_PER_BUFFER} records; run with the GC profiler for the allocation per buffer and the GC count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g", "-XX:+UseParallelGC"})
+public class RecordBufferBenchmark
+{
+    static final int CHUNK_BYTES = 6 * 1024 * 1024;
+    
+    static final int RECORDS_PER_BUFFER = 500;
+    
+    static final int QUEUED_BUFFERS = 100;
+    
+    @Param({"false", "true"})
+    public boolean compact;
+    
+    @Param({"200"})
+    public int recordBytes;
+    
+    private Path file;
+    
+    private TrackedFile trackedFile;
+    
+    private ParserChunkPool pool;
+    
+    private ParserChunk chunk;
+    
+    private byte[] line;
+    
+    private long offset;
+    
+    /**
+     * The buffers waiting to be sent, the oldest one released when a new one is queued
+     */
+    private RecordBuffer<DISRecord>[] queued;
+    
+    private int next;
+    
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("record-buffer", ".log");
+        DISFileFlow flow = TestFlows.newFlow(TestFlows.config(FileFlow.COMPACT_RECORD_BUFFER, compact));
+        trackedFile = new TrackedFile(flow, file);
+        pool = new ParserChunkPool(4, false);
+        line = new byte[recordBytes];
+        Arrays.fill(line, (byte)'x');
+        line[recordBytes - 1] = '\n';
+        queued = new RecordBuffer[QUEUED_BUFFERS];
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+        throws IOException
+    {
+        for (RecordBuffer<DISRecord> buffer : queued)
+        {
+            if (buffer != null)
+            {
+                buffer.release();
+            }
+        }
+        if (chunk != null)
+        {
+            chunk.release();
+        }
+        Files.deleteIfExists(file);
+    }
+    
+    @Benchmark
+    public List<PutRecordsRequestEntry> fillAndSend()
+    {
+        RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+        for (int i = 0; i < RECORDS_PER_BUFFER; i++)
+        {
+            buffer.add(nextRecord());
+        }
+        
+        List<PutRecordsRequestEntry> requestRecords = new ArrayList<>();
+        if (buffer instanceof CompactRecordBuffer)
+        {
+            CompactRecordBuffer compactBuffer = (CompactRecordBuffer)buffer;
+            for (int i = 0; i < compactBuffer.sizeRecords(); i++)
+            {
+                PutRecordsRequestEntry record = new PutRecordsRequestEntry();
+                record.setData(compactBuffer.data(i));
+                record.setPartitionKey(compactBuffer.partitionKey(i));
+                requestRecords.add(record);
+            }
+        }
+        else
+        {
+            for (DISRecord data : buffer)
+            {
+                PutRecordsRequestEntry record = new PutRecordsRequestEntry();
+                record.setData(data.data());
+                record.setPartitionKey(data.partitionKey());
+                requestRecords.add(record);
+            }
+        }
+        
+        if (queued[next] != null)
+        {
+            queued[next].release();
+        }
+        queued[next] = buffer;
+        next = (next + 1) % QUEUED_BUFFERS;
+        return requestRecords;
+    }
+    
+    /**
+     * Reads the next line into the current chunk as the parser does, the record being a view of the chunk.
+     */
+    private DISRecord nextRecord()
+    {
+        if (chunk == null || chunk.buffer().remaining() < recordBytes)
+        {
+            if (chunk != null)
+            {
+                // The parser moves to a new chunk, the records still hold the old one
+                chunk.release();
+            }
+            chunk = pool.acquire(CHUNK_BYTES);
+        }
+        ByteBuffer buffer = chunk.buffer();
+        int start = buffer.position();
+        buffer.put(line);
+        ByteBuffer data = buffer.duplicate();
+        data.position(start).limit(start + recordBytes);
+        DISRecord record = new DISRecord(trackedFile, offset, recordBytes, data.slice());
+        record.retainChunk(chunk);
+        offset += recordBytes;
+        return record;
+    }
+}
@@ -0,0 +1,175 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class RegexSplitterTest
+{
+    private static final List<String> PATTERNS = Arrays.asList("^\\d{4}-\\d{2}-\\d{2}",
+        "^\\[INFO\\]",
+        "^Exception",
+        "^(ERROR|WARN) ",
+        "^a+b",
+        "^日志",
+        "^.*中",
+        "^[^ ]+ 错误",
+        "^\\S+$");
+    
+    private static final List<String> LINES = Arrays.asList("2024-01-15 12:00:00 started",
+        "[INFO] ready",
+        "Exception in thread main",
+        "ERROR disk full",
+        "WARN slow",
+        "aaab",
+        "ab",
+        "b",
+        "日志 开始",
+        "中文",
+        "数据 错误",
+        "x 错误",
+        "  at com.example.Foo(Foo.java:12)",
+        "单词",
+        "");
+    
+    private static final List<Charset> CHARSETS =
+        Arrays.asList(StandardCharsets.UTF_8, Charset.forName("GBK"), StandardCharsets.ISO_8859_1,
+            StandardCharsets.UTF_16LE);
+    
+    @Test
+    public void testSameRecordsAsDecodingEveryLine()
+    {
+        Random random = new Random(4);
+        for (Charset charset : CHARSETS)
+        {
+            for (String pattern : PATTERNS)
+            {
+                RegexSplitter splitter = new RegexSplitter(pattern, charset);
+                for (int round = 0; round < 50; round++)
+                {
+                    byte[] bytes = randomLines(random, charset);
+                    for (boolean bufferFull : new boolean[] {false, true})
+                    {
+                        ByteBuffer expected = ByteBuffer.wrap(bytes);
+                        ByteBuffer actual = ByteBuffer.wrap(bytes);
+                        int expectedRecord;
+                        do
+                        {
+                            expectedRecord = decodingLocateNextRecord(splitter.startingPattern, charset, expected,
+                                bufferFull);
+                            assertEquals(pattern + " in " + charset, expectedRecord,
+                                splitter.locateNextRecord(actual, bufferFull));
+                            assertEquals(expected.position(), actual.position());
+                        } while (expectedRecord != -1 && expected.hasRemaining());
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testExtractLiteralPrefix()
+    {
+        assertPrefix("2024-", "^2024-\\d{2}");
+        assertPrefix("[INFO]", "^\\[INFO\\]");
+        assertPrefix("Exception", "Exception");
+        assertPrefix("", "^(ERROR|WARN) ");
+        assertPrefix("", "^ERROR|^WARN");
+        assertPrefix("a", "^a+b");
+        assertPrefix("a", "^ab?c");
+        assertPrefix("", "^a*b");
+        assertPrefix("a", "^ab{2}");
+        assertPrefix("", "^\\d+");
+        assertPrefix("", "^日志");
+        assertPrefix("log ", "^log 日志");
+        assertPrefix("", "^[a-z]");
+        assertPrefix("", "^.*");
+    }
+    
+    private static void assertPrefix(String expected, String pattern)
+    {
+        assertArrayEquals(pattern, expected.getBytes(StandardCharsets.US_ASCII),
+            RegexSplitter.extractLiteralPrefix(pattern));
+    }
+    
+    /**
+     * The splitter before lines were matched on bytes, with each line decoded in the flow's charset.
+     */
+    private static int decodingLocateNextRecord(Pattern pattern, Charset charset, ByteBuffer buffer,
+        boolean bufferFull)
+    {
+        int limit = buffer.limit();
+        int lineStart = indexOfNewLine(buffer, buffer.position(), limit);
+        if (lineStart == -1)
+        {
+            buffer.position(limit);
+            return -1;
+        }
+        ++lineStart;
+        int lineEnd;
+        while ((lineEnd = indexOfNewLine(buffer, lineStart, limit)) != -1)
+        {
+            ++lineEnd;
+            String line = new String(buffer.array(), lineStart, lineEnd - lineStart, charset);
+            if (pattern.matcher(line).lookingAt())
+            {
+                buffer.position(lineStart);
+                return lineStart;
+            }
+            lineStart = lineEnd;
+        }
+        buffer.position(limit);
+        return bufferFull ? -1 : limit;
+    }
+    
+    private static int indexOfNewLine(ByteBuffer buffer, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (buffer.get(i) == '\n')
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static byte[] randomLines(Random random, Charset charset)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int lines = random.nextInt(20);
+        for (int i = 0; i < lines; i++)
+        {
+            byte[] line;
+            if (random.nextInt(5) == 0)
+            {
+                // Arbitrary bytes, which may not be valid in the charset
+                line = new byte[random.nextInt(10)];
+                random.nextBytes(line);
+                for (int j = 0; j < line.length; j++)
+                {
+                    line[j] = line[j] == '\n' ? (byte)' ' : line[j];
+                }
+            }
+            else
+            {
+                line = LINES.get(random.nextInt(LINES.size())).getBytes(charset);
+            }
+            out.write(line, 0, line.length);
+            out.write('\n');
+        }
+        byte[] tail = "partial".getBytes(charset);
+        out.write(tail, 0, random.nextInt(tail.length + 1));
+        return out.toByteArray();
+    }
+}
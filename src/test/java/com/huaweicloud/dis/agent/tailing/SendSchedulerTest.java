@@ -0,0 +1,210 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SendSchedulerTest
+{
+    private static final int QUANTUM_BYTES = 100;
+    
+    private SendScheduler scheduler;
+    
+    /**
+     * Holds the only sending thread until it's opened, so that the requests queue up
+     */
+    private final CountDownLatch gate = new CountDownLatch(1);
+    
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    
+    @Before
+    public void setUp()
+        throws InterruptedException
+    {
+        scheduler = new SendScheduler(
+            new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()),
+            QUANTUM_BYTES, 100);
+        final CountDownLatch started = new CountDownLatch(1);
+        register(1).execute(() -> {
+            started.countDown();
+            awaitGate();
+        }, 1);
+        started.await();
+    }
+    
+    @After
+    public void tearDown()
+        throws InterruptedException
+    {
+        gate.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testFlowsShareThePoolByWeight()
+        throws InterruptedException
+    {
+        SendScheduler.FlowQueue light = register(1);
+        SendScheduler.FlowQueue heavy = register(3);
+        CountDownLatch done = new CountDownLatch(16);
+        for (int i = 0; i < 4; i++)
+        {
+            light.execute(record("L", done), QUANTUM_BYTES);
+        }
+        for (int i = 0; i < 12; i++)
+        {
+            heavy.execute(record("H", done), QUANTUM_BYTES);
+        }
+        gate.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        
+        // Every round, the light flow sends one request and the heavy one three
+        assertEquals(Arrays.asList("L", "H", "H", "H", "L", "H", "H", "H", "L", "H", "H", "H", "L", "H", "H", "H"),
+            sent);
+        assertEquals(4L, metric(light, "SendScheduler.TotalDispatchedSendTasks"));
+        assertEquals(1200L, metric(heavy, "SendScheduler.TotalDispatchedBytes"));
+    }
+    
+    @Test
+    public void testLargeRequestWaitsForEnoughCredit()
+        throws InterruptedException
+    {
+        SendScheduler.FlowQueue large = register(1);
+        SendScheduler.FlowQueue small = register(1);
+        CountDownLatch done = new CountDownLatch(3);
+        large.execute(record("large", done), 2 * QUANTUM_BYTES + 50);
+        small.execute(record("small", done), QUANTUM_BYTES);
+        small.execute(record("small", done), QUANTUM_BYTES);
+        gate.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        
+        // The large request needs the credit of three rounds, the small flow is served in between
+        assertEquals(Arrays.asList("small", "small", "large"), sent);
+        assertEquals(2L, metric(large, "SendScheduler.TotalDeferredRounds"));
+    }
+    
+    @Test
+    public void testIdleFlowLosesItsCredit()
+        throws InterruptedException
+    {
+        SendScheduler.FlowQueue bursty = register(1);
+        SendScheduler.FlowQueue steady = register(1);
+        CountDownLatch first = new CountDownLatch(1);
+        // Leaves 90 bytes of credit, dropped when the flow runs out of requests
+        bursty.execute(record("B", first), 10);
+        gate.countDown();
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        
+        final CountDownLatch hold = new CountDownLatch(1);
+        final CountDownLatch held = new CountDownLatch(1);
+        steady.execute(() -> {
+            held.countDown();
+            awaitQuietly(hold);
+        }, 1);
+        held.await();
+        CountDownLatch done = new CountDownLatch(3);
+        bursty.execute(record("B", done), 60);
+        bursty.execute(record("B", done), 60);
+        steady.execute(record("S", done), 60);
+        hold.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        
+        // Without its old credit, the bursty flow sends one 60 byte request per round
+        assertEquals(Arrays.asList("B", "B", "S", "B"), sent);
+    }
+    
+    @Test
+    public void testFullFlowQueueRejects()
+    {
+        SendScheduler small = new SendScheduler(
+            new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()),
+            QUANTUM_BYTES, 2);
+        try
+        {
+            SendScheduler.FlowQueue flow = small.register(TestFlows.newFlow(TestFlows.config()));
+            flow.execute(() -> awaitGate(), 1);
+            // The first request may still be queued, the queue holds at most two
+            flow.execute(() -> {}, 1);
+            flow.execute(() -> {}, 1);
+            flow.execute(() -> {}, 1);
+            fail("The flow queue should be full");
+        }
+        catch (RejectedExecutionException e)
+        {
+            assertEquals(1L, ((AtomicLong)small.getMetrics().get("SendScheduler.TotalRejectedSendTasks")).get());
+        }
+        finally
+        {
+            small.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testShutdownNowReturnsQueuedRequests()
+    {
+        SendScheduler.FlowQueue flow = register(1);
+        Runnable queued = () -> sent.add("never");
+        flow.execute(queued, 1);
+        assertEquals(Collections.singletonList(queued), scheduler.shutdownNow());
+        try
+        {
+            flow.execute(() -> {}, 1);
+            fail("A shut down scheduler should reject requests");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Expected
+        }
+    }
+    
+    private SendScheduler.FlowQueue register(int weight)
+    {
+        return scheduler.register(TestFlows.newFlow(TestFlows.config(FileFlow.SEND_WEIGHT, weight)));
+    }
+    
+    private Runnable record(final String name, final CountDownLatch done)
+    {
+        return () -> {
+            sent.add(name);
+            done.countDown();
+        };
+    }
+    
+    private void awaitGate()
+    {
+        awaitQuietly(gate);
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static long metric(SendScheduler.FlowQueue flow, String name)
+    {
+        return ((AtomicLong)flow.getMetrics().get(name)).get();
+    }
+}
@@ -0,0 +1,279 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.huaweicloud.dis.agent.AgentContext;
+import com.huaweicloud.dis.agent.Constants;
+import com.huaweicloud.dis.agent.config.Configuration;
+import com.huaweicloud.dis.agent.config.ConfigurationException;
+
+public class SpillLogTest
+{
+    private Path file;
+    
+    private Path spillDirectory;
+    
+    private TrackedFile trackedFile;
+    
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("spill", ".log");
+        spillDirectory = Files.createTempDirectory("spill");
+        trackedFile = new TrackedFile(newFlow(), file);
+    }
+    
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        Files.deleteIfExists(file);
+        try (Stream<Path> paths = Files.walk(spillDirectory))
+        {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    @Test
+    public void testReplayedRecordsAreHeapCopies()
+        throws IOException
+    {
+        SpillLog<DISRecord> spillLog = SpillLog.forFlow(newFlow());
+        assertEquals(SpillLog.Outcome.SPILLED, spillLog.offer(newBuffer(0, "a", "bc"), buffer -> false));
+        
+        List<RecordBuffer<DISRecord>> replayed = replay(spillLog);
+        assertEquals(1, replayed.size());
+        assertRecords(replayed.get(0), 0, "a", "bc");
+        for (DISRecord record : replayed.get(0))
+        {
+            assertTrue(record.data().hasArray());
+            assertFalse(record.data().isDirect());
+            // Records of the current run keep their file
+            assertSame(trackedFile, record.file());
+        }
+        assertEquals(1, segments().size());
+        
+        // The segment is deleted once its buffers are released
+        replayed.get(0).release();
+        assertEquals(0, segments().size());
+        spillLog.close();
+    }
+    
+    @Test
+    public void testCorruptedEntrySkipped()
+        throws IOException
+    {
+        SpillLog<DISRecord> spillLog = SpillLog.forFlow(newFlow());
+        spillLog.offer(newBuffer(0, "first"), buffer -> false);
+        spillLog.offer(newBuffer(5, "second"), buffer -> false);
+        spillLog.offer(newBuffer(11, "third"), buffer -> false);
+        corruptLastByteOfEntry(1);
+        
+        // The entries after a corrupted one can't be trusted
+        List<RecordBuffer<DISRecord>> replayed = replay(spillLog);
+        assertEquals(1, replayed.size());
+        assertRecords(replayed.get(0), 0, "first");
+        assertEquals(2L, metric(spillLog, "SpillLog.TotalCorruptedEntries"));
+        assertFalse(spillLog.hasPending());
+        spillLog.close();
+    }
+    
+    @Test
+    public void testReplayAfterRestart()
+        throws IOException
+    {
+        SpillLog<DISRecord> spillLog = SpillLog.forFlow(newFlow());
+        spillLog.offer(newBuffer(0, "a", "bc"), buffer -> false);
+        spillLog.offer(newBuffer(3, "def"), buffer -> false);
+        List<RecordBuffer<DISRecord>> replayed = new ArrayList<>();
+        spillLog.replay(buffer -> replayed.isEmpty() && replayed.add(buffer));
+        assertEquals(1, replayed.size());
+        spillLog.close();
+        // Dropped while stopping, the buffer was not checkpointed and is replayed again
+        replayed.get(0).release();
+        assertEquals(1, segments().size());
+        
+        SpillLog<DISRecord> restarted = SpillLog.forFlow(newFlow());
+        assertTrue(restarted.hasPending());
+        assertEquals(Collections.singletonMap(trackedFile.getId(), 6L), restarted.getRecoveredOffsets());
+        assertEquals(2L, metric(restarted, "SpillLog.TotalBuffersRecovered"));
+        
+        List<RecordBuffer<DISRecord>> recovered = replay(restarted);
+        assertEquals(2, recovered.size());
+        assertRecords(recovered.get(0), 0, "a", "bc");
+        assertRecords(recovered.get(1), 3, "def");
+        TrackedFile rebuilt = recovered.get(0).checkpointFile();
+        assertEquals(trackedFile.getPath(), rebuilt.getPath());
+        assertEquals(trackedFile.getId(), rebuilt.getId());
+        assertEquals(trackedFile.getLastModifiedTime(), rebuilt.getLastModifiedTime());
+        assertEquals(trackedFile.getHeaderBytesLength(), rebuilt.getHeaderBytesLength());
+        assertEquals(DigestUtils.sha256Hex(trackedFile.getHeaderBytes()), rebuilt.getSha256HeaderStr());
+        assertSame(rebuilt, recovered.get(1).iterator().next().file());
+        
+        // New buffers go after the recovered ones, in a new segment
+        restarted.offer(newBuffer(6, "g"), buffer -> false);
+        assertEquals(2, segments().size());
+        recovered.get(0).release();
+        recovered.get(1).release();
+        assertEquals(1, segments().size());
+        restarted.close();
+    }
+    
+    @Test
+    public void testCorruptedEntrySkippedAfterRestart()
+        throws IOException
+    {
+        SpillLog<DISRecord> spillLog = SpillLog.forFlow(newFlow());
+        spillLog.offer(newBuffer(0, "first"), buffer -> false);
+        spillLog.offer(newBuffer(5, "second"), buffer -> false);
+        spillLog.offer(newBuffer(11, "third"), buffer -> false);
+        spillLog.close();
+        corruptLastByteOfEntry(1);
+        
+        SpillLog<DISRecord> restarted = SpillLog.forFlow(newFlow());
+        assertEquals(1L, metric(restarted, "SpillLog.TotalCorruptedEntries"));
+        assertEquals(1L, metric(restarted, "SpillLog.TotalBuffersRecovered"));
+        // The tailer resumes after the last valid record, the records of the lost entries are read again
+        assertEquals(Collections.singletonMap(trackedFile.getId(), 5L), restarted.getRecoveredOffsets());
+        List<RecordBuffer<DISRecord>> recovered = replay(restarted);
+        assertEquals(1, recovered.size());
+        assertRecords(recovered.get(0), 0, "first");
+        restarted.close();
+    }
+    
+    @Test
+    public void testSpillDirectoryRejectedForFlowsWithoutRestorableRecords()
+    {
+        Map<String, Object> config = TestFlows.config(SmallFileConstants.DESTINATION_KEY,
+            "test-destination",
+            "filePattern",
+            "/tmp/dis-agent-test/*.log");
+        AgentContext context = TestFlows.newAgentContext(new HashMap<String, Object>());
+        new SmallFileFlow(context, new Configuration(config));
+        
+        config.put(FileFlow.SPILL_DIRECTORY, spillDirectory.toString());
+        try
+        {
+            new SmallFileFlow(context, new Configuration(config));
+            fail("Spilled buffers of a small file flow could not be replayed");
+        }
+        catch (ConfigurationException e)
+        {
+            assertEquals("SmallFileFlow does not support " + FileFlow.SPILL_DIRECTORY, e.getMessage());
+        }
+    }
+    
+    private DISFileFlow newFlow()
+    {
+        return TestFlows.newFlow(TestFlows.config(FileFlow.SPILL_DIRECTORY,
+            spillDirectory.toString(),
+            FileFlow.SPILL_SEGMENT_SIZE_BYTES,
+            Constants.ONE_MB));
+    }
+    
+    private RecordBuffer<DISRecord> newBuffer(long offset, String... records)
+    {
+        RecordBuffer<DISRecord> buffer = ((DISFileFlow)trackedFile.getFlow()).newRecordBuffer();
+        for (String record : records)
+        {
+            byte[] data = record.getBytes(StandardCharsets.UTF_8);
+            buffer.add(new DISRecord(trackedFile, offset, data.length, data));
+            offset += data.length;
+        }
+        return buffer;
+    }
+    
+    private static List<RecordBuffer<DISRecord>> replay(SpillLog<DISRecord> spillLog)
+    {
+        List<RecordBuffer<DISRecord>> replayed = new ArrayList<>();
+        spillLog.replay(replayed::add);
+        return replayed;
+    }
+    
+    private static void assertRecords(RecordBuffer<DISRecord> buffer, long offset, String... records)
+    {
+        List<String> data = new ArrayList<>();
+        for (DISRecord record : buffer)
+        {
+            assertEquals(offset, record.startOffset());
+            offset = record.endOffset();
+            byte[] bytes = new byte[record.data().remaining()];
+            record.data().duplicate().get(bytes);
+            data.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        assertArrayEquals(records, data.toArray());
+    }
+    
+    /**
+     * Flips the last byte of the given entry of the only segment, which is part of the data of its last record.
+     */
+    private void corruptLastByteOfEntry(int index)
+        throws IOException
+    {
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        try (FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            long position = 0;
+            for (int i = 0; i < index; i++)
+            {
+                header.clear();
+                channel.read(header, position);
+                position += 8 + header.getInt(0);
+            }
+            header.clear();
+            channel.read(header, position);
+            long last = position + 8 + header.getInt(0) - 1;
+            ByteBuffer data = ByteBuffer.allocate(1);
+            channel.read(data, last);
+            data.put(0, (byte)~data.get(0)).rewind();
+            channel.write(data, last);
+        }
+    }
+    
+    private List<Path> segments()
+        throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(spillDirectory))
+        {
+            return paths.filter(path -> path.toString().endsWith(".spill")).collect(Collectors.toList());
+        }
+    }
+    
+    private static long metric(SpillLog<DISRecord> spillLog, String name)
+    {
+        return ((AtomicLong)spillLog.getMetrics().get(name)).get();
+    }
+}
@@ -0,0 +1,56 @@
+package com.huaweicloud.dis.agent.tailing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.huaweicloud.dis.agent.AgentContext;
+import com.huaweicloud.dis.agent.config.Configuration;
+
+/**
+ * Builds agent contexts and DIS flows for tests and benchmarks, without credentials or a reachable DIS endpoint.
+ */
+public final class TestFlows
+{
+    private TestFlows()
+    {
+    }
+    
+    public static AgentContext newAgentContext(Map<String, Object> agentConfig)
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put("ak", "test-ak");
+        config.put("sk", "test-sk");
+        config.put("region", "test-region");
+        config.put("projectId", "test-project");
+        config.putAll(agentConfig);
+        return new AgentContext("test", new Configuration(config));
+    }
+    
+    /**
+     * @param flowConfig The flow settings, on top of a stream id (so the stream is not described) and a file pattern
+     */
+    public static DISFileFlow newFlow(Map<String, Object> flowConfig)
+    {
+        return newFlow(newAgentContext(new HashMap<String, Object>()), flowConfig);
+    }
+    
+    public static DISFileFlow newFlow(AgentContext context, Map<String, Object> flowConfig)
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put("DISStream", "test-stream");
+        config.put("streamId", "test-stream-id");
+        config.put("filePattern", "/tmp/dis-agent-test/*.log");
+        config.putAll(flowConfig);
+        return new DISFileFlow(context, new Configuration(config));
+    }
+    
+    public static Map<String, Object> config(Object... keysAndValues)
+    {
+        Map<String, Object> config = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2)
+        {
+            config.put((String)keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return config;
+    }
+}